@@ -0,0 +1,106 @@
+package com.multibnakgroup.candle.aggregation.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs the suites with the GC profiler and writes JMH's JSON result, which
+ * doubles as the baseline for a later run. Any standard JMH option can be
+ * passed through; in addition:
+ * <pre>
+ * --result=&lt;file&gt;    where to write the JSON result (default jmh-result.json)
+ * --baseline=&lt;file&gt;  a previous result to compare scores and allocation against
+ * </pre>
+ */
+public final class BenchmarkMain {
+
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+
+    private BenchmarkMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path result = Path.of("jmh-result.json");
+        Path baseline = null;
+        List<String> jmhArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--result=")) {
+                result = Path.of(arg.substring("--result=".length()));
+            } else if (arg.startsWith("--baseline=")) {
+                baseline = Path.of(arg.substring("--baseline=".length()));
+            } else {
+                jmhArgs.add(arg);
+            }
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(new CommandLineOptions(jmhArgs.toArray(new String[0])))
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(result.toString());
+        new Runner(options.build()).run();
+
+        if (baseline != null) {
+            compare(read(baseline), read(result));
+        }
+    }
+
+    private static void compare(Map<String, Score> baseline, Map<String, Score> current) {
+        System.out.printf("%n%-60s %14s %14s %8s %14s %14s%n",
+                "Benchmark", "Baseline", "Current", "Change", "B/op before", "B/op now");
+        for (Map.Entry<String, Score> entry : current.entrySet()) {
+            Score now = entry.getValue();
+            Score before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.printf("%-60s %14s %14.3f %8s %14s %14.1f%n",
+                        entry.getKey(), "-", now.score(), "new", "-", now.allocation());
+                continue;
+            }
+            System.out.printf("%-60s %14.3f %14.3f %+7.1f%% %14.1f %14.1f  %s%n",
+                    entry.getKey(), before.score(), now.score(),
+                    (now.score() - before.score()) / before.score() * 100.0,
+                    before.allocation(), now.allocation(), now.unit());
+        }
+    }
+
+    // Keyed by benchmark and parameters, so results are matched regardless of run order
+    private static Map<String, Score> read(Path file) throws Exception {
+        JsonNode root = JsonMapper.builder().build().readTree(Files.readString(file));
+        Map<String, Score> scores = new TreeMap<>();
+        for (JsonNode run : root) {
+            String benchmark = run.path("benchmark").asString();
+            StringBuilder key = new StringBuilder(benchmark.substring(benchmark.lastIndexOf('.',
+                    benchmark.lastIndexOf('.') - 1) + 1));
+            Map<String, String> params = new TreeMap<>();
+            run.path("params").properties().forEach(p -> params.put(p.getKey(), p.getValue().asString()));
+            params.forEach((name, value) -> key.append(' ').append(name).append('=').append(value));
+
+            double allocation = Double.NaN;
+            for (Map.Entry<String, JsonNode> metric : run.path("secondaryMetrics").properties()) {
+                // Older JMH versions prefix profiler metrics with a middle dot
+                if (metric.getKey().endsWith(ALLOCATION)) {
+                    allocation = metric.getValue().path("score").asDouble();
+                }
+            }
+            JsonNode primary = run.path("primaryMetric");
+            scores.put(key.toString(), new Score(primary.path("score").asDouble(),
+                    primary.path("scoreUnit").asString(), allocation));
+        }
+        return scores;
+    }
+
+    private record Score(double score, String unit, double allocation) {}
+}
@@ -0,0 +1,66 @@
+package com.multibnakgroup.candle.aggregation.benchmark;
+
+import com.multibnakgroup.candle.aggregation.aggregator.AggregationProperties;
+import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregatorManager;
+import com.multibnakgroup.candle.aggregation.repository.CandleRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one idle-flush pass over a shard, with a given share of its
+ * symbols holding a window that is due. Each symbol has the usual eight
+ * interval aggregators, so 100k symbols is 800k aggregators. The ticks that
+ * make windows due are fed outside the measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Thread)
+public class CloseSweepBenchmark {
+
+    private static final long IDLE_TIMEOUT = AggregationProperties.defaults().idleTimeout().toMillis();
+
+    @Param({"1000", "10000", "100000"})
+    int symbols;
+
+    @Param({"0", "1", "100"})
+    int duePercent;
+
+    private CandleAggregatorManager manager;
+    private String[] names;
+    private long time = IngestBenchmark.START;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        manager = new CandleAggregatorManager(new CandleRepository(), 1, AggregationProperties.defaults(),
+                Clock.systemUTC());
+        names = IngestBenchmark.symbolNames("SYM-", symbols);
+        for (String name : names) {
+            manager.processTick(name, 100.0, 100.5, time);
+        }
+        manager.closeWindows(0, flushTime());
+    }
+
+    @Setup(Level.Invocation)
+    public void feed() {
+        time = flushTime() + 1000;
+        int due = (int) ((long) symbols * duePercent / 100);
+        for (int i = 0; i < due; i++) {
+            manager.processTick(names[i], 100.0, 100.5, time);
+        }
+    }
+
+    @Benchmark
+    public void closeWindows() {
+        manager.closeWindows(0, flushTime());
+    }
+
+    // The first instant the 1s windows opened at time are due for an idle flush
+    private long flushTime() {
+        return time + 1000 + IDLE_TIMEOUT;
+    }
+}
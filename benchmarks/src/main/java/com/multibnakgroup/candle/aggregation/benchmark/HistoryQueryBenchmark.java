@@ -0,0 +1,110 @@
+package com.multibnakgroup.candle.aggregation.benchmark;
+
+import com.multibnakgroup.candle.aggregation.controller.CandleJsonWriter;
+import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.repository.CandleRepository;
+import com.multibnakgroup.candle.aggregation.repository.CandleSeriesFactory;
+import com.multibnakgroup.candle.aggregation.repository.DirectCandleSeries;
+import com.multibnakgroup.candle.aggregation.repository.MappedCandleSeriesFactory;
+import com.multibnakgroup.candle.aggregation.repository.TreeMapCandleSeries;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.FileSystemUtils;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * findCandles over one deep 1m series for each storage engine: the default
+ * latest-100 request, a 1000-candle range from the middle, and a range
+ * spanning the whole history cut down by a limit. The json benchmarks write
+ * the latest 10k candles as the history endpoint does, streamed from the
+ * series and, for comparison, serialized by Jackson from a materialized list.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class HistoryQueryBenchmark {
+
+    private static final String SYMBOL = "BTC-USD";
+    private static final String INTERVAL = "1m";
+    private static final long MINUTE = 60_000L;
+
+    @Param({"treemap", "heap", "offheap", "mapped"})
+    String engine;
+
+    @Param({"10000", "1000000"})
+    int depth;
+
+    private final JsonMapper jsonMapper = JsonMapper.builder().build();
+    private CandleRepository repository;
+    private Path directory;
+    private long first;
+    private long last;
+    private long middle;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        CandleSeriesFactory factory = switch (engine) {
+            case "treemap" -> (symbol, interval) -> new TreeMapCandleSeries();
+            case "heap" -> (symbol, interval) -> new DirectCandleSeries(false);
+            case "offheap" -> (symbol, interval) -> new DirectCandleSeries();
+            case "mapped" -> {
+                directory = Files.createTempDirectory("candle-bench");
+                yield new MappedCandleSeriesFactory(directory, Duration.ofDays(1), Duration.ZERO);
+            }
+            default -> throw new IllegalArgumentException("Unknown engine: " + engine);
+        };
+        repository = new CandleRepository(factory);
+        first = IngestBenchmark.START - IngestBenchmark.START % MINUTE;
+        for (int i = 0; i < depth; i++) {
+            double price = 100.0 + i % 97;
+            repository.save(SYMBOL, INTERVAL, new Candle(first + i * MINUTE, price, price + 1, price - 1, price, 60));
+        }
+        last = first + (depth - 1) * MINUTE;
+        middle = first + (depth / 2) * MINUTE;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (directory != null) {
+            FileSystemUtils.deleteRecursively(directory);
+        }
+    }
+
+    @Benchmark
+    public List<Candle> latest100() {
+        return repository.findCandles(SYMBOL, INTERVAL, null, null, 100);
+    }
+
+    @Benchmark
+    public List<Candle> range1000() {
+        return repository.findCandles(SYMBOL, INTERVAL, middle, middle + 999 * MINUTE, null);
+    }
+
+    @Benchmark
+    public List<Candle> fullRangeLimit100() {
+        return repository.findCandles(SYMBOL, INTERVAL, first, last, 100);
+    }
+
+    @Benchmark
+    public int streamedJson10000() {
+        CandleJsonWriter writer = new CandleJsonWriter(OutputStream.nullOutputStream());
+        int count = repository.scanCandles(SYMBOL, INTERVAL, null, null, 10_000, writer);
+        writer.finish();
+        return count;
+    }
+
+    @Benchmark
+    public byte[] jacksonJson10000() {
+        return jsonMapper.writeValueAsBytes(repository.findCandles(SYMBOL, INTERVAL, null, null, 10_000));
+    }
+}
@@ -0,0 +1,158 @@
+package com.multibnakgroup.candle.aggregation.benchmark;
+
+import com.multibnakgroup.candle.aggregation.aggregator.AggregationProperties;
+import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregatorManager;
+import com.multibnakgroup.candle.aggregation.repository.CandleRepository;
+import com.multibnakgroup.candle.aggregation.service.EventProcessor;
+import com.multibnakgroup.candle.aggregation.service.JournalProperties;
+import com.multibnakgroup.candle.aggregation.service.OverloadProperties;
+import com.multibnakgroup.candle.aggregation.service.SimulationProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tick ingest throughput. {@code aggregate} drives the aggregators directly
+ * on one thread, by symbol name, and {@code aggregateInterned} does the same
+ * with the symbol IDs interned up front, as the shard threads see them;
+ * {@code pipeline} offers ticks from several producers through the shard
+ * queues and waits whenever a queue is full, so it measures what the shard
+ * threads sustain end to end.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class IngestBenchmark {
+
+    static final long START = 1_700_000_000_000L;
+    private static final int PRICES = 1024;
+
+    @State(Scope.Thread)
+    public static class Aggregation {
+
+        @Param({"1", "100", "10000", "50000"})
+        int symbols;
+
+        CandleAggregatorManager manager;
+        String[] names;
+        int[] ids;
+        double[] prices;
+        int next;
+        int tick;
+        long time = START;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            manager = new CandleAggregatorManager(new CandleRepository(), 1, AggregationProperties.defaults(),
+                    Clock.systemUTC());
+            names = symbolNames("SYM-", symbols);
+            ids = new int[symbols];
+            for (int i = 0; i < symbols; i++) {
+                ids[i] = manager.getSymbolTable().intern(names[i]);
+            }
+            prices = prices();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Pipeline {
+
+        @Param({"1", "100", "10000"})
+        int symbols; // Per producer thread, so producers never share a symbol's watermark
+
+        EventProcessor eventProcessor;
+        final AtomicInteger producers = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            CandleAggregatorManager manager = new CandleAggregatorManager(new CandleRepository(), 0,
+                    AggregationProperties.defaults(), Clock.systemUTC());
+            JournalProperties noJournal = new JournalProperties(false, Path.of("unused"), 1024,
+                    JournalProperties.FsyncPolicy.NONE, Duration.ofMillis(50), DataSize.ofMegabytes(64));
+            eventProcessor = new EventProcessor(manager, 16384, "platform", noJournal,
+                    OverloadProperties.defaults(), SimulationProperties.defaults(), null, new SimpleMeterRegistry());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            eventProcessor.shutdown();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+
+        String[] names;
+        double[] prices;
+        int next;
+        int tick;
+        long time = START;
+
+        @Setup(Level.Trial)
+        public void setUp(Pipeline pipeline) {
+            names = symbolNames("P" + pipeline.producers.getAndIncrement() + "-SYM-", pipeline.symbols);
+            prices = prices();
+        }
+    }
+
+    @Benchmark
+    public void aggregate(Aggregation state) {
+        int symbol = state.next;
+        if (++state.next == state.names.length) {
+            state.next = 0;
+            state.time++; // Every symbol gets one tick per millisecond of event time
+        }
+        double price = state.prices[state.tick++ & (PRICES - 1)];
+        state.manager.processTick(state.names[symbol], price, price + 0.5, state.time);
+    }
+
+    @Benchmark
+    public void aggregateInterned(Aggregation state) {
+        int symbol = state.next;
+        if (++state.next == state.ids.length) {
+            state.next = 0;
+            state.time++;
+        }
+        double price = state.prices[state.tick++ & (PRICES - 1)];
+        state.manager.processTick(state.ids[symbol], price, price + 0.5, state.time);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void pipeline(Pipeline pipeline, Producer state) {
+        int symbol = state.next;
+        if (++state.next == state.names.length) {
+            state.next = 0;
+            state.time++;
+        }
+        double price = state.prices[state.tick++ & (PRICES - 1)];
+        while (!pipeline.eventProcessor.ingestTick(state.names[symbol], price, price + 0.5, state.time)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    static String[] symbolNames(String prefix, int count) {
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = prefix + i;
+        }
+        return names;
+    }
+
+    private static double[] prices() {
+        double[] prices = new double[PRICES];
+        java.util.Random random = new java.util.Random(42);
+        for (int i = 0; i < PRICES; i++) {
+            prices[i] = 100.0 + random.nextInt(10_000) / 100.0;
+        }
+        return prices;
+    }
+}
@@ -0,0 +1,562 @@
+package com.multibnakgroup.candle.aggregation.benchmark;
+
+import com.multibnakgroup.candle.aggregation.model.BidAskEvent;
+import com.multibnakgroup.candle.aggregation.service.MarketFeed;
+import com.multibnakgroup.candle.aggregation.service.SimulationProperties;
+import com.multibnakgroup.candle.aggregation.service.TickBatchCodec;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.SerializationFeature;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Soaks a running service end to end: POSTs a seeded synthetic feed to
+ * {@code /api/ticks} open-loop, queries history alongside, scrapes the
+ * service's Prometheus endpoint every sample interval, and writes a JSON
+ * report whose summary a later run can be compared against. Start the service
+ * with {@code --candle.simulation.enabled=false} so only the harness feeds it.
+ *
+ * <p>Ticks and queries are sent on a fixed schedule whatever the service's
+ * pace, and their latency is measured from when they were due, so a stalled
+ * service shows up as latency rather than as fewer requests. Submit latency
+ * runs from a batch's first tick being due to its ack; ingest latency
+ * (receipt to aggregation) and tick-to-candle latency (end of a window to its
+ * candle being stored) come from the service's histograms over the measured
+ * run. Options, besides the feed's own (--seed, --symbols, --rate,
+ * --profile, --burst-factor, --burst-period, --burst-duration, --skew and
+ * --volatility, as under candle.simulation):
+ * <pre>
+ * --url=&lt;url&gt;             the service (default http://localhost:8080)
+ * --warmup=&lt;duration&gt;     fed but not measured (default 1m)
+ * --duration=&lt;duration&gt;   measured (default 10m)
+ * --sample-interval=&lt;d&gt;   between scrapes (default 10s)
+ * --send-interval=&lt;d&gt;     between tick batches (default 10ms)
+ * --max-batch=&lt;n&gt;         ticks per batch at most (default 5000)
+ * --max-in-flight=&lt;n&gt;     batches awaiting their ack at most (default 32)
+ * --query-rate=&lt;n&gt;        history and latest-candle queries per second (default 20)
+ * --report=&lt;file&gt;         where to write the report (default soak-report.json)
+ * --baseline=&lt;file&gt;       an earlier report to compare the summary against
+ * </pre>
+ */
+public final class SoakHarness {
+
+    private static final Pattern DURATION = Pattern.compile("(\\d+)(ms|s|m|h)");
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private final Options options;
+    private final HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final JsonMapper json = JsonMapper.builder().enable(SerializationFeature.INDENT_OUTPUT).build();
+    private final Semaphore inFlight;
+    private final long warmupNanos;
+    private final long endNanos;
+
+    private final LongAdder offered = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder queryErrors = new LongAdder();
+    private final Timer submitLatency;
+    private final Timer historyLatency;
+    private final Timer latestLatency;
+
+    private long start;
+    private long startMillis;
+
+    private SoakHarness(Options options) {
+        this.options = options;
+        this.inFlight = new Semaphore(options.maxInFlight());
+        this.warmupNanos = options.warmup().toNanos();
+        this.endNanos = warmupNanos + options.duration().toNanos();
+        MeterRegistry registry = new SimpleMeterRegistry();
+        this.submitLatency = timer(registry, "submit");
+        this.historyLatency = timer(registry, "history");
+        this.latestLatency = timer(registry, "latest");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        SoakHarness harness = new SoakHarness(options);
+        Map<String, Object> report = harness.run();
+        harness.json.writeValue(options.report().toFile(), report);
+        System.out.printf("Report written to %s%n", options.report());
+        if (options.baseline() != null) {
+            harness.compare(harness.json.readTree(Files.readString(options.baseline())), report);
+        }
+    }
+
+    private Map<String, Object> run() throws Exception {
+        start = System.nanoTime();
+        startMillis = System.currentTimeMillis();
+        Thread sender = new Thread(this::sendTicks, "soak-ticks");
+        Thread querier = new Thread(this::sendQueries, "soak-queries");
+        sender.start();
+        if (options.queryRate() > 0) {
+            querier.start();
+        }
+
+        sleepUntil(start + warmupNanos);
+        Scrape base = scrape();
+        Scrape previous = base;
+        long previousOffered = 0;
+        List<Map<String, Object>> samples = new ArrayList<>();
+        long interval = options.sampleInterval().toNanos();
+        for (long at = warmupNanos + interval; at < endNanos + interval; at += interval) {
+            long due = Math.min(at, endNanos);
+            sleepUntil(start + due);
+            Scrape now = scrape();
+            samples.add(sample(base, previous, now, previousOffered, (due - warmupNanos) / 1e9,
+                    (due - Math.max(warmupNanos, at - interval)) / 1e9));
+            previous = now;
+            previousOffered = offered.sum();
+            print(samples.get(samples.size() - 1));
+        }
+
+        sender.join();
+        if (options.queryRate() > 0) {
+            querier.join();
+        }
+        // Wait for the outstanding acks, so every offered tick is counted as accepted, dropped or failed
+        if (!inFlight.tryAcquire(options.maxInFlight(), 30, TimeUnit.SECONDS)) {
+            System.out.println("Gave up waiting for outstanding batches after 30s");
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("config", options.describe());
+        report.put("summary", summary(base, previous, samples));
+        report.put("samples", samples);
+        return report;
+    }
+
+    // The schedule of batches is fixed; a sender that can't keep up sends more ticks per batch, later
+    private void sendTicks() {
+        MarketFeed feed = new MarketFeed(options.feed());
+        List<String> symbols = feed.getSymbols();
+        long period = options.sendInterval().toNanos();
+        List<BidAskEvent> batch = new ArrayList<>();
+        long firstDue = 0;
+        for (long slot = period; ; slot += period) {
+            long until = Math.min(slot, endNanos);
+            sleepUntil(start + until);
+            while (feed.nextOffsetNanos() < until) {
+                feed.advance();
+                if (batch.isEmpty()) {
+                    firstDue = feed.offsetNanos();
+                }
+                batch.add(new BidAskEvent(symbols.get(feed.symbol()), feed.bid(), feed.ask(),
+                        startMillis + feed.offsetNanos() / 1_000_000));
+                if (batch.size() == options.maxBatch()) {
+                    post(batch, firstDue);
+                    batch = new ArrayList<>();
+                }
+            }
+            if (!batch.isEmpty()) {
+                post(batch, firstDue);
+                batch = new ArrayList<>();
+            }
+            if (until == endNanos) {
+                return;
+            }
+        }
+    }
+
+    private void post(List<BidAskEvent> batch, long due) {
+        boolean measured = due >= warmupNanos;
+        int size = batch.size();
+        if (measured) {
+            offered.add(size);
+        }
+        HttpRequest request = HttpRequest.newBuilder(options.url().resolve("/api/ticks"))
+                .header("Content-Type", "application/octet-stream")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(TickBatchCodec.encode(batch).array()))
+                .build();
+        inFlight.acquireUninterruptibly();
+        http.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+            inFlight.release();
+            if (!measured) {
+                return;
+            }
+            submitLatency.record(System.nanoTime() - (start + due), TimeUnit.NANOSECONDS);
+            int status = error == null ? response.statusCode() : 0;
+            if (status != 202 && status != 429) {
+                failed.add(size);
+                return;
+            }
+            // 429 acks the ticks queued before the overloaded shard; open-loop, the rest are not resent
+            int taken = json.readTree(response.body()).path("accepted").asInt();
+            accepted.add(taken);
+            dropped.add(size - taken);
+        });
+    }
+
+    // Alternates a random symbol's recent 1m history with every symbol's latest 1m candle
+    private void sendQueries() {
+        List<String> symbols = new MarketFeed(options.feed()).getSymbols();
+        SplittableRandom random = new SplittableRandom(options.feed().seed());
+        long period = (long) (1e9 / options.queryRate());
+        for (long k = 1; k * period < endNanos; k++) {
+            long due = k * period;
+            sleepUntil(start + due);
+            boolean history = k % 2 == 0;
+            String path = history
+                    ? "/api/candles/history?interval=1m&limit=100&symbol="
+                    + URLEncoder.encode(symbols.get(random.nextInt(symbols.size())), StandardCharsets.UTF_8)
+                    : "/api/candles/latest?interval=1m";
+            boolean ok;
+            try {
+                ok = http.send(HttpRequest.newBuilder(options.url().resolve(path)).build(),
+                        HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+            } catch (IOException e) {
+                ok = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (due < warmupNanos) {
+                continue;
+            }
+            (history ? historyLatency : latestLatency).record(System.nanoTime() - (start + due), TimeUnit.NANOSECONDS);
+            if (!ok) {
+                queryErrors.increment();
+            }
+        }
+    }
+
+    private Map<String, Object> sample(Scrape base, Scrape previous, Scrape now, long previousOffered,
+                                       double seconds, double elapsed) {
+        Map<String, Object> sample = new LinkedHashMap<>();
+        sample.put("seconds", seconds);
+        sample.put("offeredPerSecond", (offered.sum() - previousOffered) / elapsed);
+        sample.put("aggregatedPerSecond", now.delta(previous, "candle_ingest_ticks_total") / elapsed);
+        sample.put("dropped", dropped.sum() + failed.sum());
+        sample.put("rejected", now.delta(base, "candle_ingest_rejected_total"));
+        sample.put("shed", now.delta(base, "candle_ingest_shed_total"));
+        sample.put("conflated", now.delta(base, "candle_ingest_conflated_total"));
+        sample.put("pressure", now.max("candle_ingest_pressure"));
+        sample.put("heapUsedMb", now.sum("jvm_memory_used_bytes") / 1e6);
+        sample.put("ingestP99Ms", now.percentile(previous, "candle_ingest_latency_seconds", 0.99));
+        sample.put("tickToCandleP99Ms", now.percentile(previous, "candle_emit_delay_seconds", 0.99));
+        return sample;
+    }
+
+    private Map<String, Double> summary(Scrape base, Scrape end, List<Map<String, Object>> samples) {
+        double seconds = options.duration().toNanos() / 1e9;
+        Map<String, Double> summary = new LinkedHashMap<>();
+        summary.put("throughput.offered", offered.sum() / seconds);
+        summary.put("throughput.aggregated", end.delta(base, "candle_ingest_ticks_total") / seconds);
+        summary.put("ticks.offered", (double) offered.sum());
+        summary.put("ticks.accepted", (double) accepted.sum());
+        summary.put("ticks.dropped", (double) dropped.sum());
+        summary.put("ticks.failed", (double) failed.sum());
+        summary.put("server.rejected", end.delta(base, "candle_ingest_rejected_total"));
+        summary.put("server.shed", end.delta(base, "candle_ingest_shed_total"));
+        summary.put("server.conflated", end.delta(base, "candle_ingest_conflated_total"));
+        summary.put("server.lateDropped", end.delta(base, "candle_ticks_late_dropped_total"));
+        for (double q : QUANTILES) {
+            summary.put("ingestLatencyMs." + label(q), end.percentile(base, "candle_ingest_latency_seconds", q));
+        }
+        for (double q : QUANTILES) {
+            summary.put("tickToCandleMs." + label(q), end.percentile(base, "candle_emit_delay_seconds", q));
+        }
+        latencies(summary, "submitLatencyMs", submitLatency);
+        latencies(summary, "historyQueryMs", historyLatency);
+        latencies(summary, "latestQueryMs", latestLatency);
+        summary.put("queries.errors", (double) queryErrors.sum());
+
+        double[] times = samples.stream().mapToDouble(s -> (Double) s.get("seconds")).toArray();
+        double[] heap = samples.stream().mapToDouble(s -> (Double) s.get("heapUsedMb")).toArray();
+        summary.put("heapUsedMb.start", base.sum("jvm_memory_used_bytes") / 1e6);
+        summary.put("heapUsedMb.end", end.sum("jvm_memory_used_bytes") / 1e6);
+        summary.put("heapUsedMb.max", heap.length == 0 ? null : Arrays.stream(heap).max().getAsDouble());
+        summary.put("heapLiveAfterGcMb.start", base.sum("jvm_gc_live_data_size_bytes") / 1e6);
+        summary.put("heapLiveAfterGcMb.end", end.sum("jvm_gc_live_data_size_bytes") / 1e6);
+        summary.put("heapGrowthMbPerHour", slope(times, heap) * 3600);
+        return summary;
+    }
+
+    private static void print(Map<String, Object> sample) {
+        System.out.printf("%6.0fs  offered %,9.0f/s  aggregated %,9.0f/s  dropped %,d  heap %,6.0f MB"
+                        + "  ingest p99 %s ms  tick-to-candle p99 %s ms%n",
+                sample.get("seconds"), sample.get("offeredPerSecond"), sample.get("aggregatedPerSecond"),
+                sample.get("dropped"), sample.get("heapUsedMb"), format(sample.get("ingestP99Ms")),
+                format(sample.get("tickToCandleP99Ms")));
+    }
+
+    private static String format(Object millis) {
+        return millis == null ? "-" : String.format("%.1f", (Double) millis);
+    }
+
+    private static void latencies(Map<String, Double> summary, String name, Timer timer) {
+        HistogramSnapshot snapshot = timer.takeSnapshot();
+        for (ValueAtPercentile value : snapshot.percentileValues()) {
+            summary.put(name + "." + label(value.percentile()),
+                    snapshot.count() == 0 ? null : value.value(TimeUnit.MILLISECONDS));
+        }
+        summary.put(name + ".max", snapshot.count() == 0 ? null : snapshot.max(TimeUnit.MILLISECONDS));
+    }
+
+    private void compare(JsonNode baseline, Map<String, Object> report) {
+        @SuppressWarnings("unchecked")
+        Map<String, String> config = (Map<String, String>) report.get("config");
+        baseline.path("config").properties().forEach(entry -> {
+            String now = config.get(entry.getKey());
+            if (!entry.getKey().equals("report") && !entry.getKey().equals("baseline")
+                    && !entry.getValue().asString().equals(now)) {
+                System.out.printf("Note: %s differs from the baseline (%s, now %s)%n",
+                        entry.getKey(), entry.getValue().asString(), now);
+            }
+        });
+        @SuppressWarnings("unchecked")
+        Map<String, Double> summary = (Map<String, Double>) report.get("summary");
+        System.out.printf("%n%-32s %14s %14s %8s%n", "Metric", "Baseline", "Current", "Change");
+        summary.forEach((metric, now) -> {
+            JsonNode before = baseline.path("summary").path(metric);
+            if (now == null || !before.isNumber()) {
+                System.out.printf("%-32s %14s %14s %8s%n", metric, before.isNumber() ? before.asDouble() : "-",
+                        now == null ? "-" : String.format("%.3f", now), "");
+                return;
+            }
+            double then = before.asDouble();
+            System.out.printf("%-32s %14.3f %14.3f %8s%n", metric, then, now,
+                    then == 0 ? "" : String.format("%+7.1f%%", (now - then) / then * 100.0));
+        });
+    }
+
+    private Scrape scrape() throws IOException, InterruptedException {
+        HttpResponse<String> response = http.send(HttpRequest.newBuilder(
+                options.url().resolve("/actuator/prometheus")).build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException("Scraping " + options.url() + " answered " + response.statusCode());
+        }
+        return Scrape.parse(response.body());
+    }
+
+    private Timer timer(MeterRegistry registry, String name) {
+        // Percentiles over the whole run rather than a sliding window
+        return Timer.builder("soak." + name)
+                .publishPercentiles(QUANTILES)
+                .percentilePrecision(2)
+                .distributionStatisticExpiry(Duration.ofNanos(endNanos).plusHours(1))
+                .distributionStatisticBufferLength(1)
+                .register(registry);
+    }
+
+    private static String label(double quantile) {
+        return "p" + BigDecimal.valueOf(quantile).movePointRight(2).stripTrailingZeros().toPlainString()
+                .replace(".", "");
+    }
+
+    // Least-squares slope of y over x, per unit of x
+    private static Double slope(double[] x, double[] y) {
+        int n = x.length;
+        if (n < 2) {
+            return null;
+        }
+        double meanX = 0;
+        double meanY = 0;
+        for (int i = 0; i < n; i++) {
+            meanX += x[i] / n;
+            meanY += y[i] / n;
+        }
+        double covariance = 0;
+        double variance = 0;
+        for (int i = 0; i < n; i++) {
+            covariance += (x[i] - meanX) * (y[i] - meanY);
+            variance += (x[i] - meanX) * (x[i] - meanX);
+        }
+        return covariance / variance;
+    }
+
+    private static void sleepUntil(long deadline) {
+        long wait;
+        while ((wait = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    // One scrape of the Prometheus endpoint: each series summed and maxed over its labels, histograms by bucket
+    private record Scrape(Map<String, Double> sums, Map<String, Double> maxes,
+                         Map<String, TreeMap<Double, Double>> buckets) {
+
+        private static Scrape parse(String text) {
+            Map<String, Double> sums = new HashMap<>();
+            Map<String, Double> maxes = new HashMap<>();
+            Map<String, TreeMap<Double, Double>> buckets = new HashMap<>();
+            for (String line : text.split("\n")) {
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                int space = line.lastIndexOf(' ');
+                String series = line.substring(0, space);
+                double value = number(line.substring(space + 1));
+                int brace = series.indexOf('{');
+                String name = brace < 0 ? series : series.substring(0, brace);
+                String labels = brace < 0 ? "" : series.substring(brace);
+                if (name.equals("jvm_memory_used_bytes") && !labels.contains("area=\"heap\"")) {
+                    continue;
+                }
+                if (name.endsWith("_bucket")) {
+                    int le = labels.indexOf("le=\"") + 4;
+                    double bound = number(labels.substring(le, labels.indexOf('"', le)));
+                    buckets.computeIfAbsent(name.substring(0, name.length() - "_bucket".length()),
+                            n -> new TreeMap<>()).merge(bound, value, Double::sum);
+                } else {
+                    sums.merge(name, value, Double::sum);
+                    maxes.merge(name, value, Math::max);
+                }
+            }
+            return new Scrape(sums, maxes, buckets);
+        }
+
+        private double sum(String name) {
+            return sums.getOrDefault(name, 0.0);
+        }
+
+        private double max(String name) {
+            return maxes.getOrDefault(name, 0.0);
+        }
+
+        private double delta(Scrape earlier, String name) {
+            return sum(name) - earlier.sum(name);
+        }
+
+        // The quantile, in ms, of what the histogram recorded since the earlier scrape; within-bucket linear
+        private Double percentile(Scrape earlier, String name, double quantile) {
+            TreeMap<Double, Double> now = buckets.getOrDefault(name, new TreeMap<>());
+            TreeMap<Double, Double> then = earlier.buckets.getOrDefault(name, new TreeMap<>());
+            double total = now.isEmpty() ? 0 : now.lastEntry().getValue() - then.getOrDefault(now.lastKey(), 0.0);
+            if (total <= 0) {
+                return null;
+            }
+            double target = quantile * total;
+            double lower = 0;
+            double below = 0;
+            for (Map.Entry<Double, Double> bucket : now.entrySet()) {
+                double count = bucket.getValue() - then.getOrDefault(bucket.getKey(), 0.0);
+                if (count >= target) {
+                    if (bucket.getKey().isInfinite()) {
+                        return lower * 1000;
+                    }
+                    double fraction = count == below ? 1 : (target - below) / (count - below);
+                    return (lower + (bucket.getKey() - lower) * fraction) * 1000;
+                }
+                lower = bucket.getKey();
+                below = count;
+            }
+            return lower * 1000;
+        }
+
+        private static double number(String text) {
+            return switch (text) {
+                case "+Inf" -> Double.POSITIVE_INFINITY;
+                case "-Inf" -> Double.NEGATIVE_INFINITY;
+                default -> Double.parseDouble(text);
+            };
+        }
+    }
+
+    private record Options(URI url, Duration warmup, Duration duration, Duration sampleInterval,
+                           Duration sendInterval, int maxBatch, int maxInFlight, double queryRate,
+                           Path report, Path baseline, SimulationProperties feed) {
+
+        private static Options parse(String[] args) {
+            Map<String, String> values = new LinkedHashMap<>();
+            for (String arg : args) {
+                int equals = arg.indexOf('=');
+                if (!arg.startsWith("--") || equals < 0) {
+                    throw new IllegalArgumentException("Expected --name=value, got " + arg);
+                }
+                values.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+            SimulationProperties defaults = SimulationProperties.defaults();
+            SimulationProperties feed = new SimulationProperties(true,
+                    Long.parseLong(values.getOrDefault("seed", String.valueOf(defaults.seed()))),
+                    Integer.parseInt(values.getOrDefault("symbols", "1000")),
+                    Double.parseDouble(values.getOrDefault("rate", "50000")),
+                    SimulationProperties.Profile.valueOf(values.getOrDefault("profile", "steady").toUpperCase()),
+                    Double.parseDouble(values.getOrDefault("burst-factor", String.valueOf(defaults.burstFactor()))),
+                    duration(values.getOrDefault("burst-period", "10s")),
+                    duration(values.getOrDefault("burst-duration", "1s")),
+                    Double.parseDouble(values.getOrDefault("skew", "1")),
+                    Double.parseDouble(values.getOrDefault("volatility", String.valueOf(defaults.volatility()))));
+            String baseline = values.get("baseline");
+            return new Options(URI.create(values.getOrDefault("url", "http://localhost:8080")),
+                    duration(values.getOrDefault("warmup", "1m")),
+                    duration(values.getOrDefault("duration", "10m")),
+                    duration(values.getOrDefault("sample-interval", "10s")),
+                    duration(values.getOrDefault("send-interval", "10ms")),
+                    Integer.parseInt(values.getOrDefault("max-batch", "5000")),
+                    Integer.parseInt(values.getOrDefault("max-in-flight", "32")),
+                    Double.parseDouble(values.getOrDefault("query-rate", "20")),
+                    Path.of(values.getOrDefault("report", "soak-report.json")),
+                    baseline == null ? null : Path.of(baseline),
+                    feed);
+        }
+
+        // Everything that makes two runs comparable, as text
+        private Map<String, String> describe() {
+            Map<String, String> config = new LinkedHashMap<>();
+            config.put("url", url.toString());
+            config.put("warmup", warmup.toString());
+            config.put("duration", duration.toString());
+            config.put("sampleInterval", sampleInterval.toString());
+            config.put("sendInterval", sendInterval.toString());
+            config.put("maxBatch", String.valueOf(maxBatch));
+            config.put("maxInFlight", String.valueOf(maxInFlight));
+            config.put("queryRate", String.valueOf(queryRate));
+            config.put("seed", String.valueOf(feed.seed()));
+            config.put("symbols", String.valueOf(feed.symbols()));
+            config.put("rate", String.valueOf(feed.rate()));
+            config.put("profile", feed.profile().name().toLowerCase());
+            config.put("burstFactor", String.valueOf(feed.burstFactor()));
+            config.put("burstPeriod", feed.burstPeriod().toString());
+            config.put("burstDuration", feed.burstDuration().toString());
+            config.put("skew", String.valueOf(feed.skew()));
+            config.put("volatility", String.valueOf(feed.volatility()));
+            return config;
+        }
+
+        private static Duration duration(String text) {
+            Matcher matcher = DURATION.matcher(text);
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException("Expected a duration like 500ms, 30s, 10m or 2h: " + text);
+            }
+            long amount = Long.parseLong(matcher.group(1));
+            return switch (matcher.group(2)) {
+                case "ms" -> Duration.ofMillis(amount);
+                case "s" -> Duration.ofSeconds(amount);
+                case "m" -> Duration.ofMinutes(amount);
+                default -> Duration.ofHours(amount);
+            };
+        }
+    }
+}
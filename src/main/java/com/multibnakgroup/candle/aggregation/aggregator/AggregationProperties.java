@@ -0,0 +1,44 @@
+package com.multibnakgroup.candle.aggregation.aggregator;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+
+@ConfigurationProperties("candle.aggregation")
+public record AggregationProperties(
+        @DefaultValue("true") boolean cascade,
+        @DefaultValue("false") boolean details,       // Keep bid/ask, spread, VWAP and tick imbalance per candle
+        @DefaultValue("2s") Duration allowedLateness, // How far behind a symbol's watermark a tick may still amend
+        @DefaultValue("2s") Duration idleTimeout,     // Wall-clock grace before windows of a quiet symbol are closed
+        @DefaultValue("UTC") ZoneId timeZone,         // Calendar of 1d, 1w and 1M windows
+        @DefaultValue({"1s", "5s", "1m", "5m", "15m", "1h", "4h", "1d"}) List<String> intervals,
+        Map<String, Group> groups                     // Symbols with their own interval set, by group name
+) {
+
+    // Group used by every symbol not listed in another group
+    public static final String DEFAULT_GROUP = "default";
+
+    public AggregationProperties {
+        groups = groups == null ? Map.of() : groups;
+    }
+
+    public static AggregationProperties defaults() {
+        return new AggregationProperties(true, false, Duration.ofSeconds(2), Duration.ofSeconds(2), ZoneOffset.UTC,
+                List.of("1s", "5s", "1m", "5m", "15m", "1h", "4h", "1d"), Map.of());
+    }
+
+    /**
+     * @param timeZone Null to use the top-level time zone
+     */
+    public record Group(List<String> symbols, List<String> intervals, ZoneId timeZone) {
+
+        public Group {
+            symbols = symbols == null ? List.of() : symbols;
+        }
+    }
+}
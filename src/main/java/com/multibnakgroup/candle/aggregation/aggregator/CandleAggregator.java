@@ -2,74 +2,362 @@ package com.multibnakgroup.candle.aggregation.aggregator;
 
 import com.multibnakgroup.candle.aggregation.model.BidAskEvent;
 import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.model.CandleDetails;
+import com.multibnakgroup.candle.aggregation.model.CandleInterval;
 
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 
+/**
+ * Single-writer OHLC accumulator over event time. Only the owning shard thread
+ * may call the mutating methods; any other thread can take a consistent view
+ * of the open window through {@link #snapshot()}, which is guarded by a
+ * sequence lock instead of a mutex.
+ *
+ * <p>Open and close follow tick timestamps rather than arrival order, and the
+ * last few emitted windows are kept so late ticks can amend them. Windows
+ * follow the {@link CandleInterval}, so calendar intervals can vary in length.
+ *
+ * <p>With details on, the same pass over a tick also keeps the
+ * {@link CandleDetails} of the window: bid and ask OHLC, spread and turnover
+ * sums and up/down tick counts, all O(1) per tick under the same sequence
+ * lock. Closed and amended details are handed out beside the candle.
+ */
 public class CandleAggregator {
+
+    private static final VarHandle SEQUENCE;
+    private static final int MAX_RETAINED_WINDOWS = 64;
+
+    static {
+        try {
+            SEQUENCE = MethodHandles.lookup().findVarHandle(CandleAggregator.class, "sequence", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private final String symbol;
-    private final String interval;
-    private final long intervalMillis;
+    private final CandleInterval interval;
+    private final boolean details;
+
+    // Odd while the writer is mid-update
+    private volatile long sequence;
 
-    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
     private long windowStart;
-    private Double open;
-    private double high = Double.MIN_VALUE;
-    private double low = Double.MAX_VALUE;
+    private long windowEnd;
+    private double open;
+    private double high = Double.NEGATIVE_INFINITY;
+    private double low = Double.POSITIVE_INFINITY;
     private double close;
-    private AtomicLong volume = new AtomicLong(0);
+    private long volume;
+    private long openTime;
+    private long closeTime;
+
+    // Details of the open window, only kept when details are on
+    private double bidOpen;
+    private double bidHigh = Double.NEGATIVE_INFINITY;
+    private double bidLow = Double.POSITIVE_INFINITY;
+    private double bidClose;
+    private double askOpen;
+    private double askHigh = Double.NEGATIVE_INFINITY;
+    private double askLow = Double.POSITIVE_INFINITY;
+    private double askClose;
+    private double turnover;
+    private double spreadSum;
+    private double spreadMax = Double.NEGATIVE_INFINITY;
+    private long upticks;
+    private long downticks;
+
+    // Event-time span of the window closed last, handed to the next coarser interval
+    private long closedOpenTime;
+    private long closedCloseTime;
+    private CandleDetails closedDetails;
+    private CandleDetails amendedDetails;
+
+    // Ring of recently emitted windows, amended in place by late ticks
+    private final long[] emittedStart;
+    private final double[] emittedOpen;
+    private final double[] emittedHigh;
+    private final double[] emittedLow;
+    private final double[] emittedClose;
+    private final long[] emittedVolume;
+    private final long[] emittedOpenTime;
+    private final long[] emittedCloseTime;
+    private final CandleDetails[] emittedDetails;
+    private int emittedCount;
 
     public CandleAggregator(String symbol, String interval, long intervalMillis) {
+        this(symbol, interval, intervalMillis, System.currentTimeMillis());
+    }
+
+    public CandleAggregator(String symbol, String interval, long intervalMillis, long now) {
+        this(symbol, interval, intervalMillis, now, 0L);
+    }
+
+    public CandleAggregator(String symbol, String interval, long intervalMillis, long now, long allowedLateness) {
+        this(symbol, CandleInterval.fixed(interval, intervalMillis), now, allowedLateness);
+    }
+
+    public CandleAggregator(String symbol, CandleInterval interval, long now, long allowedLateness) {
+        this(symbol, interval, now, allowedLateness, false);
+    }
+
+    public CandleAggregator(String symbol, CandleInterval interval, long now, long allowedLateness, boolean details) {
         this.symbol = symbol;
         this.interval = interval;
-        this.intervalMillis = intervalMillis;
-        this.windowStart = System.currentTimeMillis() / intervalMillis * intervalMillis;
+        this.details = details;
+        this.windowStart = interval.start(now);
+        this.windowEnd = interval.next(windowStart);
+
+        // A tick at most allowedLateness behind can only reach this many closed windows
+        int retained = allowedLateness <= 0 ? 0
+                : (int) Math.min(MAX_RETAINED_WINDOWS, allowedLateness / interval.minMillis() + 1);
+        this.emittedStart = new long[retained];
+        this.emittedOpen = new double[retained];
+        this.emittedHigh = new double[retained];
+        this.emittedLow = new double[retained];
+        this.emittedClose = new double[retained];
+        this.emittedVolume = new long[retained];
+        this.emittedOpenTime = new long[retained];
+        this.emittedCloseTime = new long[retained];
+        this.emittedDetails = new CandleDetails[details ? retained : 0];
     }
 
     public void processEvent(BidAskEvent event) {
-        double midPrice = (event.bid() + event.ask()) / 2.0;
+        process(event.timestamp(), event.bid(), event.ask(), 0);
+    }
 
-        lock.writeLock().lock();
-        try {
-            if (open == null) {
-                open = midPrice;
-            }
-            high = Math.max(high, midPrice);
-            low = Math.min(low, midPrice);
+    public void process(long timestamp, double midPrice) {
+        process(timestamp, midPrice, midPrice, 0);
+    }
+
+    /**
+     * Adds a tick to the open window; the caller routes ticks of other windows
+     * elsewhere. direction is the sign of the mid's move from the symbol's
+     * previous tick, counted as an uptick or downtick when details are on.
+     */
+    public void process(long timestamp, double bid, double ask, int direction) {
+        double midPrice = (bid + ask) / 2.0;
+        beginWrite();
+        boolean opens = volume == 0 || timestamp < openTime;
+        boolean closes = volume == 0 || timestamp >= closeTime;
+        if (opens) {
+            open = midPrice;
+            openTime = timestamp;
+        }
+        if (closes) {
             close = midPrice;
-            volume.incrementAndGet();
-        } finally {
-            lock.writeLock().unlock();
+            closeTime = timestamp;
+        }
+        if (midPrice > high) {
+            high = midPrice;
         }
+        if (midPrice < low) {
+            low = midPrice;
+        }
+        if (details) {
+            if (opens) {
+                bidOpen = bid;
+                askOpen = ask;
+            }
+            if (closes) {
+                bidClose = bid;
+                askClose = ask;
+            }
+            bidHigh = Math.max(bidHigh, bid);
+            bidLow = Math.min(bidLow, bid);
+            askHigh = Math.max(askHigh, ask);
+            askLow = Math.min(askLow, ask);
+            turnover += midPrice;
+            spreadSum += ask - bid;
+            spreadMax = Math.max(spreadMax, ask - bid);
+            if (direction > 0) {
+                upticks++;
+            } else if (direction < 0) {
+                downticks++;
+            }
+        }
+        volume++;
+        endWrite();
     }
 
-    public Candle closeWindow() {
-        lock.writeLock().lock();
-        try {
-            if (open == null) {
-                return null; // No data in this window
+    public void merge(Candle finer, long firstTick, long lastTick) {
+        merge(finer, firstTick, lastTick, null);
+    }
+
+    /**
+     * Folds a closed finer-interval candle, spanning firstTick..lastTick, into
+     * this window, along with its details when both sides keep them.
+     */
+    public void merge(Candle finer, long firstTick, long lastTick, CandleDetails finerDetails) {
+        beginWrite();
+        boolean opens = volume == 0 || firstTick < openTime;
+        boolean closes = volume == 0 || lastTick >= closeTime;
+        if (opens) {
+            open = finer.open();
+            openTime = firstTick;
+        }
+        if (closes) {
+            close = finer.close();
+            closeTime = lastTick;
+        }
+        if (finer.high() > high) {
+            high = finer.high();
+        }
+        if (finer.low() < low) {
+            low = finer.low();
+        }
+        if (details && finerDetails != null) {
+            if (opens) {
+                bidOpen = finerDetails.bidOpen();
+                askOpen = finerDetails.askOpen();
             }
+            if (closes) {
+                bidClose = finerDetails.bidClose();
+                askClose = finerDetails.askClose();
+            }
+            bidHigh = Math.max(bidHigh, finerDetails.bidHigh());
+            bidLow = Math.min(bidLow, finerDetails.bidLow());
+            askHigh = Math.max(askHigh, finerDetails.askHigh());
+            askLow = Math.min(askLow, finerDetails.askLow());
+            turnover += finerDetails.turnover();
+            spreadSum += finerDetails.spreadSum();
+            spreadMax = Math.max(spreadMax, finerDetails.spreadMax());
+            upticks += finerDetails.upticks();
+            downticks += finerDetails.downticks();
+        }
+        volume += finer.volume();
+        endWrite();
+    }
+
+    public Candle amend(long timestamp, double midPrice) {
+        return amend(timestamp, midPrice, midPrice, 0);
+    }
+
+    /**
+     * Applies a tick that belongs to an already emitted window and returns the
+     * corrected candle, or null if that window is no longer retained. With
+     * details on, the corrected details are then available from
+     * {@link #getAmendedDetails()}.
+     */
+    public Candle amend(long timestamp, double bid, double ask, int direction) {
+        double midPrice = (bid + ask) / 2.0;
+        long start = interval.start(timestamp);
+        if (start >= windowStart || start < windowStart - emittedStart.length * interval.maxMillis()) {
+            return null; // Still open, or older than the retained windows
+        }
+        int slot = findEmitted(start);
+        if (slot < 0) {
+            if (emittedCount == emittedStart.length && start < oldestEmittedStart()) {
+                return null;
+            }
+            // The window was empty when it closed; it now gets its first tick
+            slot = claimEmittedSlot();
+            emittedStart[slot] = start;
+            emittedOpen[slot] = midPrice;
+            emittedHigh[slot] = midPrice;
+            emittedLow[slot] = midPrice;
+            emittedClose[slot] = midPrice;
+            emittedVolume[slot] = 1;
+            emittedOpenTime[slot] = timestamp;
+            emittedCloseTime[slot] = timestamp;
+            if (details) {
+                emittedDetails[slot] = new CandleDetails(start, bid, bid, bid, bid, ask, ask, ask, ask,
+                        midPrice, ask - bid, ask - bid, direction > 0 ? 1 : 0, direction < 0 ? 1 : 0);
+            }
+        } else {
+            boolean opens = timestamp < emittedOpenTime[slot];
+            boolean closes = !opens && timestamp >= emittedCloseTime[slot];
+            if (opens) {
+                emittedOpen[slot] = midPrice;
+                emittedOpenTime[slot] = timestamp;
+            } else if (closes) {
+                emittedClose[slot] = midPrice;
+                emittedCloseTime[slot] = timestamp;
+            }
+            emittedHigh[slot] = Math.max(emittedHigh[slot], midPrice);
+            emittedLow[slot] = Math.min(emittedLow[slot], midPrice);
+            emittedVolume[slot]++;
+            if (details) {
+                CandleDetails d = emittedDetails[slot];
+                emittedDetails[slot] = new CandleDetails(start,
+                        opens ? bid : d.bidOpen(), Math.max(d.bidHigh(), bid), Math.min(d.bidLow(), bid),
+                        closes ? bid : d.bidClose(),
+                        opens ? ask : d.askOpen(), Math.max(d.askHigh(), ask), Math.min(d.askLow(), ask),
+                        closes ? ask : d.askClose(),
+                        d.turnover() + midPrice, d.spreadSum() + (ask - bid), Math.max(d.spreadMax(), ask - bid),
+                        d.upticks() + (direction > 0 ? 1 : 0), d.downticks() + (direction < 0 ? 1 : 0));
+            }
+        }
+        amendedDetails = details ? emittedDetails[slot] : null;
+        return new Candle(start, emittedOpen[slot], emittedHigh[slot], emittedLow[slot],
+                emittedClose[slot], emittedVolume[slot]);
+    }
+
+    public Candle closeWindow() {
+        if (volume == 0) {
+            return null; // No data in this window
+        }
+        return roll(windowEnd);
+    }
+
+    // Closes the current window and realigns to the window containing time, even if it was empty
+    public Candle closeWindow(long time) {
+        return roll(interval.start(time));
+    }
+
+    public boolean hasData() {
+        return volume > 0;
+    }
+
+    public long getWindowStart() {
+        return windowStart;
+    }
+
+    public long getWindowEnd() {
+        return windowEnd;
+    }
 
-            Candle candle = new Candle(
-                    windowStart,
-                    open,
-                    high,
-                    low,
-                    close,
-                    volume.get()
-            );
+    public long getClosedOpenTime() {
+        return closedOpenTime;
+    }
+
+    public long getClosedCloseTime() {
+        return closedCloseTime;
+    }
 
-            // Reset for next window
-            windowStart += intervalMillis;
-            open = null;
-            high = Double.MIN_VALUE;
-            low = Double.MAX_VALUE;
-            close = 0;
-            volume.set(0);
+    // Details of the window closed last, or null when details are off
+    public CandleDetails getClosedDetails() {
+        return closedDetails;
+    }
 
-            return candle;
-        } finally {
-            lock.writeLock().unlock();
+    // Details of the window corrected by the last successful amend, or null when details are off
+    public CandleDetails getAmendedDetails() {
+        return amendedDetails;
+    }
+
+    public boolean hasDetails() {
+        return details;
+    }
+
+    // Safe from any thread; returns the in-progress candle or null if the window is empty
+    public Candle snapshot() {
+        while (true) {
+            long before = (long) SEQUENCE.getAcquire(this);
+            if ((before & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            long time = windowStart;
+            double o = open;
+            double h = high;
+            double l = low;
+            double c = close;
+            long v = volume;
+            VarHandle.loadLoadFence();
+            if ((long) SEQUENCE.getOpaque(this) == before) {
+                return v == 0 ? null : new Candle(time, o, h, l, c, v);
+            }
         }
     }
 
@@ -78,6 +366,96 @@ public class CandleAggregator {
     }
 
     public String getInterval() {
+        return interval.name();
+    }
+
+    public CandleInterval getCandleInterval() {
         return interval;
     }
+
+    private Candle roll(long nextWindowStart) {
+        Candle candle = null;
+        if (volume > 0) {
+            candle = new Candle(windowStart, open, high, low, close, volume);
+            closedOpenTime = openTime;
+            closedCloseTime = closeTime;
+            closedDetails = details ? new CandleDetails(windowStart, bidOpen, bidHigh, bidLow, bidClose,
+                    askOpen, askHigh, askLow, askClose, turnover, spreadSum, spreadMax, upticks, downticks) : null;
+            retain();
+        }
+
+        // Reset for next window
+        beginWrite();
+        windowStart = nextWindowStart;
+        windowEnd = interval.next(nextWindowStart);
+        open = 0;
+        high = Double.NEGATIVE_INFINITY;
+        low = Double.POSITIVE_INFINITY;
+        close = 0;
+        volume = 0;
+        endWrite();
+        if (details) {
+            bidHigh = askHigh = spreadMax = Double.NEGATIVE_INFINITY;
+            bidLow = askLow = Double.POSITIVE_INFINITY;
+            turnover = spreadSum = 0;
+            upticks = downticks = 0;
+        }
+
+        return candle;
+    }
+
+    private void retain() {
+        if (emittedStart.length == 0) {
+            return;
+        }
+        int slot = claimEmittedSlot();
+        emittedStart[slot] = windowStart;
+        emittedOpen[slot] = open;
+        emittedHigh[slot] = high;
+        emittedLow[slot] = low;
+        emittedClose[slot] = close;
+        emittedVolume[slot] = volume;
+        emittedOpenTime[slot] = openTime;
+        emittedCloseTime[slot] = closeTime;
+        if (details) {
+            emittedDetails[slot] = closedDetails;
+        }
+    }
+
+    private int findEmitted(long start) {
+        for (int i = 0; i < emittedCount; i++) {
+            if (emittedStart[i] == start) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private long oldestEmittedStart() {
+        return emittedStart[oldestEmittedSlot()];
+    }
+
+    // A free slot while the ring fills up, then the one holding the oldest window
+    private int claimEmittedSlot() {
+        return emittedCount < emittedStart.length ? emittedCount++ : oldestEmittedSlot();
+    }
+
+    private int oldestEmittedSlot() {
+        int oldest = 0;
+        for (int i = 1; i < emittedCount; i++) {
+            if (emittedStart[i] < emittedStart[oldest]) {
+                oldest = i;
+            }
+        }
+        return oldest;
+    }
+
+    private void beginWrite() {
+        SEQUENCE.setOpaque(this, sequence + 1);
+        VarHandle.storeStoreFence();
+    }
+
+    private void endWrite() {
+        SEQUENCE.setRelease(this, sequence + 1);
+    }
 }
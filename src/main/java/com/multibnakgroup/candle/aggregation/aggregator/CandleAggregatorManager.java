@@ -3,62 +3,753 @@ package com.multibnakgroup.candle.aggregation.aggregator;
 import com.multibnakgroup.candle.aggregation.repository.CandleRepository;
 import com.multibnakgroup.candle.aggregation.model.BidAskEvent;
 import com.multibnakgroup.candle.aggregation.model.Candle;
-import org.springframework.scheduling.annotation.Scheduled;
+import com.multibnakgroup.candle.aggregation.model.CandleDetails;
+import com.multibnakgroup.candle.aggregation.model.CandleInterval;
+import com.multibnakgroup.candle.aggregation.model.SymbolMap;
+import com.multibnakgroup.candle.aggregation.model.SymbolTable;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.lang.invoke.VarHandle;
+import java.time.Clock;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Buckets ticks by their own timestamp. Each symbol has a watermark, the
+ * newest tick time seen, and a window closes as soon as the watermark passes
+ * its end. Ticks behind the watermark by at most the allowed lateness amend
+ * candles that were already emitted; older ones are dropped and counted.
+ *
+ * <p>Symbols whose feed goes quiet are flushed by a per-shard timer wheel,
+ * keyed on when their finest non-empty window plus the idle timeout ends, so
+ * a flush pass only visits symbols that actually have a window due. Shards
+ * run their passes concurrently on their own threads.
+ *
+ * <p>Intervals come from configuration, per group of symbols, and can be
+ * replaced at runtime. Each group's set is an immutable array, finest first,
+ * that records which finer level every interval is rolled up from; a symbol
+ * switches to a new set on its own shard thread the next time it is touched.
+ *
+ * <p>Symbols are interned into dense IDs on the way in, so a tick finds its
+ * state and aggregators, and saves its candles, through array indexes alone.
+ *
+ * <p>With details on, every aggregator also keeps {@link CandleDetails},
+ * stored beside each candle it emits. A tick counts as an uptick or downtick
+ * by its mid against the symbol's previous accepted tick, in arrival order.
+ */
 @Component
-public class CandleAggregatorManager {
+public class CandleAggregatorManager implements MeterBinder {
 
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(CandleAggregatorManager.class);
 
+    private static final int WHEEL_SLOTS = 1024;
+    private static final long WHEEL_TICK_MILLIS = 1000L;
+
     private final CandleRepository candleRepository;
-    private final Map<String, Map<String, CandleAggregator>> aggregators = new ConcurrentHashMap<>();
-
-    // Supported intervals in milliseconds
-    private static final Map<String, Long> INTERVALS = Map.of(
-            "1s", 1000L,
-            "5s", 5000L,
-            "1m", 60000L,
-            "5m", 300000L,
-            "15m", 900000L,
-            "1h", 3600000L
-    );
+    private final SymbolTable symbolTable;
+    private final boolean cascade;
+    private final boolean details;
+    private final long allowedLateness;
+    private final long idleTimeout;
+    private final Clock clock;
+    private final LongAdder lateTicksDropped = new LongAdder();
+
+    // State by symbol ID; a slot is only written by the thread of the symbol's shard, and read from any thread
+    private final SymbolMap<SymbolState> states = new SymbolMap<>();
+    // Each shard's symbols and idle-flush wheel, only touched by its shard's thread
+    private final List<SymbolState>[] symbols;
+    private final TimerWheel<SymbolState>[] flushWheels;
+    private volatile CandleListener[] listeners = new CandleListener[0];
+    private volatile Timer emitDelay; // Null until bound to a registry
+    private volatile boolean live = true;
+
+    // Fixed after construction; only the interval set of each group changes
+    private final Map<String, IntervalGroup> groups = new LinkedHashMap<>();
+    private final Map<String, IntervalGroup> groupBySymbol = new HashMap<>();
+    private final IntervalGroup defaultGroup;
 
     public CandleAggregatorManager(CandleRepository candleRepository) {
+        this(candleRepository, 1, AggregationProperties.defaults(), Clock.systemUTC());
+    }
+
+    @Autowired
+    public CandleAggregatorManager(CandleRepository candleRepository,
+                                   @Value("${candle.ingest.shards:0}") int shardCount,
+                                   AggregationProperties properties) {
+        this(candleRepository, shardCount, properties, Clock.systemUTC());
+    }
+
+    @SuppressWarnings("unchecked")
+    public CandleAggregatorManager(CandleRepository candleRepository, int shardCount,
+                                   AggregationProperties properties, Clock clock) {
         this.candleRepository = candleRepository;
+        this.symbolTable = candleRepository.getSymbolTable();
+        this.cascade = properties.cascade();
+        this.details = properties.details();
+        this.allowedLateness = properties.allowedLateness().toMillis();
+        this.idleTimeout = properties.idleTimeout().toMillis();
+        this.clock = clock;
+        this.defaultGroup = new IntervalGroup(AggregationProperties.DEFAULT_GROUP, List.of(), properties.timeZone());
+        defaultGroup.intervals = intervalSet(properties.intervals(), defaultGroup.zone);
+        groups.put(defaultGroup.name, defaultGroup);
+        for (Map.Entry<String, AggregationProperties.Group> entry : properties.groups().entrySet()) {
+            AggregationProperties.Group config = entry.getValue();
+            if (groups.containsKey(entry.getKey())) {
+                throw new IllegalArgumentException("Duplicate interval group: " + entry.getKey());
+            }
+            IntervalGroup group = new IntervalGroup(entry.getKey(), List.copyOf(config.symbols()),
+                    config.timeZone() != null ? config.timeZone() : properties.timeZone());
+            group.intervals = intervalSet(config.intervals(), group.zone);
+            for (String symbol : group.symbols) {
+                if (groupBySymbol.put(symbol, group) != null) {
+                    throw new IllegalArgumentException("Symbol " + symbol + " is in more than one interval group");
+                }
+            }
+            groups.put(group.name, group);
+        }
+        int shards = shardCount > 0 ? shardCount : Runtime.getRuntime().availableProcessors();
+        this.symbols = new List[shards];
+        this.flushWheels = new TimerWheel[shards];
+        for (int i = 0; i < shards; i++) {
+            symbols[i] = new ArrayList<>();
+            flushWheels[i] = new TimerWheel<>(WHEEL_SLOTS, WHEEL_TICK_MILLIS, clock.millis());
+        }
+    }
+
+    public int getShardCount() {
+        return symbols.length;
     }
 
+    public SymbolTable getSymbolTable() {
+        return symbolTable;
+    }
+
+    // Hashes the name rather than the ID, so a symbol lands on the same shard (and journal) across restarts
+    public int shardFor(String symbol) {
+        int h = symbol.hashCode();
+        h ^= (h >>> 16);
+        return (h & 0x7fffffff) % symbols.length;
+    }
+
+    public int shardFor(int symbolId) {
+        return shardFor(symbolTable.name(symbolId));
+    }
+
+    // Must be called from the thread owning the symbol's shard
     public void processEvent(BidAskEvent event) {
-        Map<String, CandleAggregator> symbolAggregators =
-                aggregators.computeIfAbsent(event.symbol(), k -> new ConcurrentHashMap<>());
+        processTick(event.symbol(), event.bid(), event.ask(), event.timestamp());
+    }
 
-        // Process event for all intervals
-        for (Map.Entry<String, Long> entry : INTERVALS.entrySet()) {
-            String interval = entry.getKey();
-            long intervalMillis = entry.getValue();
+    // Same as processEvent, for callers holding ticks in primitive columns
+    public void processTick(String symbol, double bid, double ask, long timestamp) {
+        processTick(symbolTable.intern(symbol), bid, ask, timestamp);
+    }
 
-            CandleAggregator aggregator = symbolAggregators.computeIfAbsent(
-                    interval,
-                    k -> new CandleAggregator(event.symbol(), interval, intervalMillis)
-            );
+    // Hot path for ticks interned at ingest
+    public void processTick(int symbolId, double bid, double ask, long timestamp) {
+        SymbolState state = states.get(symbolId);
+        if (state == null) {
+            state = createState(symbolId, timestamp);
+        }
+        Levels levels = state.levels;
+        if (levels.set != state.group.intervals) {
+            levels = rebuild(state);
+        }
+
+        if (timestamp > state.watermark) {
+            state.watermark = timestamp;
+            advance(state, timestamp);
+        } else if (state.watermark - timestamp > allowedLateness) {
+            lateTicksDropped.increment();
+            return;
+        }
 
-            aggregator.processEvent(event);
+        double midPrice = (bid + ask) / 2.0;
+        int direction = 0;
+        if (details) {
+            direction = midPrice > state.lastMid ? 1 : midPrice < state.lastMid ? -1 : 0;
+            state.lastMid = midPrice;
+        }
+
+        // Closed windows are amended; open ones take the tick unless their source's open window will roll it up
+        CandleAggregator[] aggregators = levels.aggregators;
+        int[] sources = levels.set.sources;
+        boolean open = false;
+        for (int i = 0; i < aggregators.length; i++) {
+            CandleAggregator aggregator = aggregators[i];
+            if (timestamp < aggregator.getWindowStart()) {
+                Candle amended = aggregator.amend(timestamp, bid, ask, direction);
+                if (amended != null) {
+                    emit(state.symbolId, levels.set.seriesIds[i], aggregator, amended, aggregator.getAmendedDetails());
+                }
+            } else {
+                int source = sources[i];
+                if (source < 0 || timestamp < aggregators[source].getWindowStart()) {
+                    aggregator.process(timestamp, bid, ask, direction);
+                }
+                open = true;
+            }
+        }
+        if (open) {
+            scheduleFlush(flushWheels[state.shard], state);
         }
     }
 
-    @Scheduled(fixedRate = 1000) // Check every second
+    // Closes every shard on the calling thread; only safe when no shard threads are running
     public void closeWindows() {
-        log.info("");
-        for (Map<String, CandleAggregator> symbolAggregators : aggregators.values()) {
-            for (CandleAggregator aggregator : symbolAggregators.values()) {
-                Candle candle = aggregator.closeWindow();
-                if (candle != null) {
-                    candleRepository.save(aggregator.getSymbol(), aggregator.getInterval(), candle);
+        for (int shard = 0; shard < symbols.length; shard++) {
+            closeWindows(shard);
+        }
+    }
+
+    public void closeWindows(int shard) {
+        closeWindows(shard, clock.millis());
+    }
+
+    // Flushes symbols that went quiet: their windows close once wall time passes the end plus the idle timeout
+    public void closeWindows(int shard, long now) {
+        long idleWatermark = now - idleTimeout;
+        TimerWheel<SymbolState> wheel = flushWheels[shard];
+        int flushed = wheel.expire(now, state -> {
+            if (state.levels.set != state.group.intervals) {
+                rebuild(state);
+            }
+            if (idleWatermark > state.watermark) {
+                advance(state, idleWatermark);
+            }
+            scheduleFlush(wheel, state);
+        });
+        log.debug("Flushed {} idle symbols in shard {}", flushed, shard);
+    }
+
+    /**
+     * Closes every window of the shard's symbols that holds data, as if their
+     * watermarks had passed the end of the coarsest one. For bounded inputs
+     * such as a backfill, where no later tick will close them; must be called
+     * from the shard's thread.
+     */
+    public void closeAllWindows(int shard) {
+        for (SymbolState state : symbols[shard]) {
+            if (state.levels.set != state.group.intervals) {
+                rebuild(state);
+            }
+            long end = Long.MIN_VALUE;
+            for (CandleAggregator aggregator : state.levels.aggregators) {
+                end = Math.max(end, aggregator.getWindowEnd());
+            }
+            advance(state, end);
+            flushWheels[shard].cancel(state);
+        }
+    }
+
+    /**
+     * Stops aggregating a symbol this node no longer owns and returns the
+     * open window of each interval, without closing them, so the new owner
+     * can absorb them. Must be called from the symbol's shard thread.
+     */
+    public Map<String, Candle> detach(int symbolId) {
+        SymbolState state = states.get(symbolId);
+        if (state == null) {
+            return Map.of();
+        }
+        Map<String, Candle> open = new LinkedHashMap<>();
+        for (CandleAggregator aggregator : state.levels.aggregators) {
+            Candle candle = aggregator.snapshot();
+            if (candle != null) {
+                open.put(aggregator.getInterval(), candle);
+            }
+        }
+        states.put(symbolId, null);
+        symbols[state.shard].remove(state);
+        flushWheels[state.shard].cancel(state);
+        return open;
+    }
+
+    /**
+     * Folds open windows detached by a symbol's previous owner into this
+     * node's aggregation. Their ticks all came before any seen here, so each
+     * one opens the window it joins. A window that has closed here meanwhile
+     * gets its stored candle corrected instead, and with cascading the part
+     * is also carried into the coarser windows that candle was rolled into.
+     * Must be called from the symbol's shard thread.
+     */
+    public void absorb(int symbolId, Map<String, Candle> open) {
+        if (open.isEmpty()) {
+            return;
+        }
+        long newest = open.values().stream().mapToLong(Candle::time).max().getAsLong();
+        SymbolState state = states.get(symbolId);
+        if (state == null) {
+            state = createState(symbolId, newest);
+        }
+        Levels levels = state.levels;
+        if (levels.set != state.group.intervals) {
+            levels = rebuild(state);
+        }
+        // The previous owner got that far, so no window of this node starts after the parts
+        if (newest > state.watermark) {
+            state.watermark = newest;
+            advance(state, newest);
+        }
+        state.rollSequence++;
+        VarHandle.storeStoreFence();
+        for (Map.Entry<String, Candle> entry : open.entrySet()) {
+            int level = levels.set.levelOf(entry.getKey());
+            if (level < 0) {
+                // Not aggregated here, so the part is stored as it is, but listeners still hear of it
+                candleRepository.save(symbolId, candleRepository.intervalId(entry.getKey()), entry.getValue());
+                notifyListeners(symbolTable.name(symbolId), entry.getKey(), entry.getValue());
+            } else {
+                absorb(state, levels, level, entry.getValue());
+            }
+        }
+        state.rollSequence++;
+        scheduleFlush(flushWheels[state.shard], state);
+    }
+
+    /**
+     * Earliest tick time a journal replay has to start from for the symbol:
+     * older ticks only went into windows whose candles are already stored,
+     * for every interval the symbol aggregates. It falls on a window boundary
+     * of each interval, so no stored candle is rebuilt from part of its ticks.
+     * Long.MIN_VALUE while any interval has nothing stored yet. Meant for
+     * recovery, before the shards start.
+     */
+    public long replayFrom(String symbol) {
+        int symbolId = symbolTable.find(symbol);
+        if (symbolId < 0) {
+            return Long.MIN_VALUE;
+        }
+        IntervalSet set = groupBySymbol.getOrDefault(symbol, defaultGroup).intervals;
+        long from = Long.MAX_VALUE;
+        for (int i = 0; i < set.intervals.length; i++) {
+            Candle stored = candleRepository.getLatestCandle(symbolId, set.seriesIds[i]);
+            if (stored == null) {
+                return Long.MIN_VALUE;
+            }
+            from = Math.min(from, set.intervals[i].next(stored.time()));
+        }
+        // Aligned intervals settle at once; others step back until every interval starts a window there
+        for (boolean moved = true; moved; ) {
+            moved = false;
+            for (CandleInterval interval : set.intervals) {
+                long start = interval.start(from);
+                if (start < from) {
+                    from = start;
+                    moved = true;
+                }
+            }
+        }
+        return from;
+    }
+
+    // Earliest tick time that can still change a candle in this shard; older journal entries are redundant
+    public long oldestMutableTime(int shard) {
+        long oldest = clock.millis();
+        for (SymbolState state : symbols[shard]) {
+            for (CandleAggregator aggregator : state.levels.aggregators) {
+                oldest = Math.min(oldest, aggregator.getWindowStart());
+            }
+        }
+        return oldest - allowedLateness;
+    }
+
+    public long getLateTicksDropped() {
+        return lateTicksDropped.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("candle.ticks.late.dropped", lateTicksDropped, LongAdder::sum)
+                .description("Ticks further behind their symbol's watermark than the allowed lateness")
+                .register(registry);
+        emitDelay = Timer.builder("candle.emit.delay")
+                .description("Wall-clock time from the end of a window to its candle being stored")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * Whether closes happen as ticks arrive. Journal replay and backfill
+     * staging close windows that ended long before, so they turn this off to
+     * keep those closes out of candle.emit.delay.
+     */
+    public void setLive(boolean live) {
+        this.live = live;
+    }
+
+    public synchronized void addListener(CandleListener listener) {
+        CandleListener[] updated = Arrays.copyOf(listeners, listeners.length + 1);
+        updated[listeners.length] = listener;
+        listeners = updated;
+    }
+
+    // Whether any group aggregates the interval
+    public boolean isSupportedInterval(String interval) {
+        for (IntervalGroup group : groups.values()) {
+            if (group.intervals.levelOf(interval) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isDetailsEnabled() {
+        return details;
+    }
+
+    // Whether the symbol's own group aggregates the interval
+    public boolean isSupportedInterval(String symbol, String interval) {
+        return groupBySymbol.getOrDefault(symbol, defaultGroup).intervals.levelOf(interval) >= 0;
+    }
+
+    // Current interval set of every group, by group name; the default group lists no symbols
+    public Map<String, AggregationProperties.Group> getIntervalGroups() {
+        Map<String, AggregationProperties.Group> view = new LinkedHashMap<>();
+        for (IntervalGroup group : groups.values()) {
+            view.put(group.name, new AggregationProperties.Group(group.symbols, group.intervals.names(), group.zone));
+        }
+        return view;
+    }
+
+    /**
+     * Replaces the intervals of a group. Each symbol picks up the new set on
+     * its next tick or idle flush: kept intervals carry on with their open
+     * window, added ones start at the window holding the symbol's watermark,
+     * and the open window of a removed one is rolled into whatever it fed.
+     */
+    public synchronized void setIntervals(String groupName, List<String> intervals) {
+        IntervalGroup group = groups.get(groupName);
+        if (group == null) {
+            throw new IllegalArgumentException("Unknown interval group: " + groupName);
+        }
+        group.intervals = intervalSet(intervals, group.zone);
+        log.info("Interval group {} now aggregates {}", groupName, group.intervals.names());
+    }
+
+    /**
+     * The in-progress candle of a symbol's open window, or null if nothing has
+     * been seen for it yet. Safe from any thread. With cascading the open
+     * coarse window only holds closed finer candles, so the still open finer
+     * windows are folded in; the read retries if a roll-up ran meanwhile.
+     */
+    public Candle currentCandle(String symbol, String interval) {
+        int symbolId = symbolTable.find(symbol);
+        SymbolState state = symbolId < 0 ? null : states.get(symbolId);
+        if (state == null) {
+            return null;
+        }
+        while (true) {
+            long before = state.rollSequence;
+            if ((before & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            Levels levels = state.levels;
+            int level = levels.set.levelOf(interval);
+            if (level < 0) {
+                return null;
+            }
+            CandleAggregator[] aggregators = levels.aggregators;
+            int[] sources = levels.set.sources;
+            if (sources[level] < 0) {
+                return aggregators[level].snapshot();
+            }
+            long windowStart = aggregators[level].getWindowStart();
+            Candle current = null;
+            // Coarsest first: its merged candles precede every finer open window
+            for (int i = level; i >= 0; i = sources[i]) {
+                Candle part = aggregators[i].snapshot();
+                if (part != null) {
+                    current = current == null ? new Candle(windowStart, part.open(), part.high(), part.low(),
+                            part.close(), part.volume()) : append(current, part);
                 }
             }
+            VarHandle.loadLoadFence();
+            if (state.rollSequence == before) {
+                return current;
+            }
+        }
+    }
+
+    private void absorb(SymbolState state, Levels levels, int level, Candle part) {
+        CandleAggregator aggregator = levels.aggregators[level];
+        long time = aggregator.getCandleInterval().start(part.time());
+        if (time >= aggregator.getWindowStart()) {
+            // Stamped just before the part's own window: after the coarser parts' ticks, before any seen here
+            aggregator.merge(part, part.time() - 1, part.time() - 1);
+            return;
+        }
+        List<Candle> stored = candleRepository.findCandles(aggregator.getSymbol(), aggregator.getInterval(),
+                time, time, 1);
+        Candle earlier = new Candle(time, part.open(), part.high(), part.low(), part.close(), part.volume());
+        emit(state.symbolId, levels.set.seriesIds[level], aggregator,
+                stored.isEmpty() ? earlier : append(earlier, stored.get(0)), null);
+        for (int j = level + 1; j < levels.aggregators.length; j++) {
+            if (levels.set.sources[j] == level) {
+                absorb(state, levels, j, part);
+            }
+        }
+    }
+
+    // Due when the first window holding data would be closed by the idle flush; nothing to do if all are empty
+    private void scheduleFlush(TimerWheel<SymbolState> wheel, SymbolState state) {
+        long due = Long.MAX_VALUE;
+        for (CandleAggregator aggregator : state.levels.aggregators) {
+            if (aggregator.hasData()) {
+                due = Math.min(due, aggregator.getWindowEnd());
+            }
+        }
+        if (due == Long.MAX_VALUE) {
+            wheel.cancel(state);
+        } else {
+            wheel.schedule(state, due + idleTimeout);
+        }
+    }
+
+    private void advance(SymbolState state, long time) {
+        if (time < state.nextBoundary) {
+            return;
+        }
+        Levels levels = state.levels;
+        CandleAggregator[] aggregators = levels.aggregators;
+        int[] sources = levels.set.sources;
+        Candle[] closed = levels.closed;
+        long nextBoundary = Long.MAX_VALUE;
+        state.rollSequence++;
+        VarHandle.storeStoreFence();
+        for (int i = 0; i < aggregators.length; i++) {
+            CandleAggregator aggregator = aggregators[i];
+            int source = sources[i];
+            // Sources are finer levels, so they have already closed in this pass
+            if (source >= 0 && closed[source] != null) {
+                CandleAggregator finer = aggregators[source];
+                aggregator.merge(closed[source], finer.getClosedOpenTime(), finer.getClosedCloseTime(),
+                        finer.getClosedDetails());
+            }
+            closed[i] = null;
+            if (time >= aggregator.getWindowEnd()) {
+                long windowEnd = aggregator.getWindowEnd();
+                closed[i] = aggregator.closeWindow(time);
+                if (closed[i] != null) {
+                    emit(state.symbolId, levels.set.seriesIds[i], aggregator, closed[i],
+                            aggregator.getClosedDetails());
+                    Timer delay = emitDelay;
+                    if (delay != null && live) {
+                        delay.record(clock.millis() - windowEnd, TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+            nextBoundary = Math.min(nextBoundary, aggregator.getWindowEnd());
+        }
+        state.nextBoundary = nextBoundary;
+        state.rollSequence++;
+    }
+
+    // Moves a symbol onto its group's current interval set
+    private Levels rebuild(SymbolState state) {
+        Levels old = state.levels;
+        IntervalSet set = state.group.intervals;
+        CandleAggregator[] aggregators = new CandleAggregator[set.intervals.length];
+        for (int i = 0; i < aggregators.length; i++) {
+            int reused = old.set.levelOf(set.intervals[i].name());
+            aggregators[i] = reused >= 0 && old.set.intervals[reused].equals(set.intervals[i])
+                    ? old.aggregators[reused]
+                    : new CandleAggregator(old.aggregators[0].getSymbol(), set.intervals[i],
+                            state.watermark, allowedLateness, details);
+        }
+        Levels levels = new Levels(set, aggregators);
+
+        state.rollSequence++;
+        VarHandle.storeStoreFence();
+        // A dropped level's open window still holds finer candles its coarser levels have not seen yet
+        List<CandleAggregator> kept = Arrays.asList(aggregators);
+        for (int i = 0; i < old.aggregators.length; i++) {
+            CandleAggregator dropped = old.aggregators[i];
+            if (kept.contains(dropped)) {
+                continue;
+            }
+            Candle partial = dropped.closeWindow();
+            if (partial == null) {
+                continue;
+            }
+            for (int j = i + 1; j < old.aggregators.length; j++) {
+                if (old.set.sources[j] == i) {
+                    old.aggregators[j].merge(partial, dropped.getClosedOpenTime(), dropped.getClosedCloseTime(),
+                            dropped.getClosedDetails());
+                }
+            }
+        }
+        state.levels = levels;
+        state.nextBoundary = levels.nextBoundary();
+        state.rollSequence++;
+        return levels;
+    }
+
+    private void emit(int symbolId, int seriesId, CandleAggregator aggregator, Candle candle,
+                      CandleDetails candleDetails) {
+        candleRepository.save(symbolId, seriesId, candle, candleDetails);
+        notifyListeners(aggregator.getSymbol(), aggregator.getInterval(), candle);
+    }
+
+    private void notifyListeners(String symbol, String interval, Candle candle) {
+        for (CandleListener listener : listeners) {
+            listener.onCandle(symbol, interval, candle);
+        }
+    }
+
+    private static Candle append(Candle earlier, Candle later) {
+        return new Candle(earlier.time(), earlier.open(), Math.max(earlier.high(), later.high()),
+                Math.min(earlier.low(), later.low()), later.close(), earlier.volume() + later.volume());
+    }
+
+    // Parses and orders a group's intervals and picks the coarsest finer level each one can be rolled up from
+    private IntervalSet intervalSet(List<String> names, ZoneId zone) {
+        if (names == null || names.isEmpty()) {
+            throw new IllegalArgumentException("An interval group needs at least one interval");
+        }
+        List<CandleInterval> parsed = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (String name : names) {
+            if (!seen.add(name)) {
+                throw new IllegalArgumentException("Duplicate interval: " + name);
+            }
+            parsed.add(CandleInterval.parse(name, zone));
+        }
+        parsed.sort(Comparator.comparingLong(CandleInterval::nominalMillis));
+
+        CandleInterval[] intervals = parsed.toArray(new CandleInterval[0]);
+        int[] sources = new int[intervals.length];
+        for (int i = 0; i < intervals.length; i++) {
+            sources[i] = -1;
+            for (int j = i - 1; cascade && j >= 0; j--) {
+                if (intervals[i].alignsWith(intervals[j])) {
+                    sources[i] = j;
+                    break;
+                }
+            }
+        }
+        int[] seriesIds = new int[intervals.length];
+        for (int i = 0; i < intervals.length; i++) {
+            seriesIds[i] = candleRepository.intervalId(intervals[i].name());
+        }
+        return new IntervalSet(intervals, sources, seriesIds);
+    }
+
+    private SymbolState createState(int symbolId, long timestamp) {
+        String symbol = symbolTable.name(symbolId);
+        int shard = shardFor(symbol);
+        IntervalGroup group = groupBySymbol.getOrDefault(symbol, defaultGroup);
+        SymbolState state = new SymbolState(symbolId, shard, group,
+                createLevels(symbol, group.intervals, timestamp), timestamp);
+        symbols[shard].add(state);
+        states.put(symbolId, state);
+        return state;
+    }
+
+    private Levels createLevels(String symbol, IntervalSet set, long now) {
+        CandleAggregator[] aggregators = new CandleAggregator[set.intervals.length];
+        for (int i = 0; i < aggregators.length; i++) {
+            aggregators[i] = new CandleAggregator(symbol, set.intervals[i], now, allowedLateness, details);
+        }
+        return new Levels(set, aggregators);
+    }
+
+    // Immutable; replaced as a whole when a group's intervals change
+    private static final class IntervalSet {
+        private final CandleInterval[] intervals; // Finest first
+        private final int[] sources;              // Level each interval is rolled up from, -1 if it takes ticks
+        private final int[] seriesIds;            // Repository interval ID of each level
+        private final Map<String, Integer> levels = new HashMap<>();
+
+        private IntervalSet(CandleInterval[] intervals, int[] sources, int[] seriesIds) {
+            this.intervals = intervals;
+            this.sources = sources;
+            this.seriesIds = seriesIds;
+            for (int i = 0; i < intervals.length; i++) {
+                levels.put(intervals[i].name(), i);
+            }
+        }
+
+        private int levelOf(String name) {
+            Integer level = levels.get(name);
+            return level == null ? -1 : level;
+        }
+
+        private List<String> names() {
+            return Arrays.stream(intervals).map(CandleInterval::name).toList();
+        }
+    }
+
+    private static final class IntervalGroup {
+        private final String name;
+        private final List<String> symbols;
+        private final ZoneId zone;
+        private volatile IntervalSet intervals;
+
+        private IntervalGroup(String name, List<String> symbols, ZoneId zone) {
+            this.name = name;
+            this.symbols = symbols;
+            this.zone = zone;
+        }
+    }
+
+    // A symbol's aggregators, parallel to the interval set they were built from
+    private static final class Levels {
+        private final IntervalSet set;
+        private final CandleAggregator[] aggregators;
+        private final Candle[] closed; // Candles closed by the current advance pass, by level
+
+        private Levels(IntervalSet set, CandleAggregator[] aggregators) {
+            this.set = set;
+            this.aggregators = aggregators;
+            this.closed = new Candle[aggregators.length];
+        }
+
+        private long nextBoundary() {
+            long next = Long.MAX_VALUE;
+            for (CandleAggregator aggregator : aggregators) {
+                next = Math.min(next, aggregator.getWindowEnd());
+            }
+            return next;
+        }
+    }
+
+    private static final class SymbolState extends TimerWheel.Timer {
+        private final int symbolId;
+        private final int shard;
+        private final IntervalGroup group;
+        private volatile Levels levels;
+        private long watermark;
+        private long nextBoundary; // Earliest window end over all levels
+        private double lastMid = Double.NaN; // Mid of the last accepted tick, for tick direction
+        // Odd while closed candles are being rolled up into coarser windows, or the levels are replaced
+        private volatile long rollSequence;
+
+        private SymbolState(int symbolId, int shard, IntervalGroup group, Levels levels, long watermark) {
+            this.symbolId = symbolId;
+            this.shard = shard;
+            this.group = group;
+            this.levels = levels;
+            this.watermark = watermark;
+            this.nextBoundary = levels.nextBoundary();
         }
     }
 }
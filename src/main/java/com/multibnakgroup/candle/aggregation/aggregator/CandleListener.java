@@ -0,0 +1,14 @@
+package com.multibnakgroup.candle.aggregation.aggregator;
+
+import com.multibnakgroup.candle.aggregation.model.Candle;
+
+/**
+ * Notified of every candle the manager writes to the repository, whether a
+ * window just closed or a late tick amended one. Runs on the shard thread
+ * that owns the symbol, so implementations must hand off rather than block.
+ */
+@FunctionalInterface
+public interface CandleListener {
+
+    void onCandle(String symbol, String interval, Candle candle);
+}
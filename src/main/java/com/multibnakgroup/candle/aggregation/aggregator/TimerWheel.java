@@ -0,0 +1,115 @@
+package com.multibnakgroup.candle.aggregation.aggregator;
+
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel for deadlines owned by a single thread. Timers are
+ * intrusive list nodes, so scheduling, rescheduling and cancelling are O(1),
+ * and {@link #expire} only visits the slots the clock has moved past.
+ * Deadlines further out than one revolution wait out the extra rounds in
+ * their slot.
+ */
+public class TimerWheel<T extends TimerWheel.Timer> {
+
+    public abstract static class Timer {
+        private long deadline = Long.MIN_VALUE;
+        private long rounds;
+        private int slot = -1;
+        private Timer previous;
+        private Timer next;
+
+        public boolean isScheduled() {
+            return slot >= 0;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+
+    private final long tickMillis;
+    private final Timer[] slots;
+    private final int mask;
+    private long currentTick; // Next tick to be expired
+    private int size;
+
+    public TimerWheel(int slotCount, long tickMillis, long now) {
+        int wheelSize = Integer.highestOneBit(Math.max(2, slotCount) - 1) << 1;
+        this.tickMillis = tickMillis;
+        this.slots = new Timer[wheelSize];
+        this.mask = wheelSize - 1;
+        this.currentTick = Math.floorDiv(now, tickMillis);
+    }
+
+    public void schedule(T task, long deadline) {
+        Timer timer = task;
+        if (timer.isScheduled()) {
+            if (timer.deadline == deadline) {
+                return;
+            }
+            unlink(timer);
+        }
+        // Deadlines already due go into the next slot to expire
+        long tick = Math.max(-Math.floorDiv(-deadline, tickMillis), currentTick);
+        timer.deadline = deadline;
+        timer.rounds = (tick - currentTick) / slots.length;
+        timer.slot = (int) (tick & mask);
+        timer.previous = null;
+        timer.next = slots[timer.slot];
+        if (timer.next != null) {
+            timer.next.previous = timer;
+        }
+        slots[timer.slot] = timer;
+        size++;
+    }
+
+    public void cancel(T task) {
+        if (task.isScheduled()) {
+            unlink(task);
+        }
+    }
+
+    /**
+     * Hands every timer whose deadline is at or before now to the callback,
+     * which may reschedule it. Returns the number of expired timers.
+     */
+    @SuppressWarnings("unchecked")
+    public int expire(long now, Consumer<T> callback) {
+        long targetTick = Math.floorDiv(now, tickMillis);
+        int expired = 0;
+        for (; currentTick <= targetTick; currentTick++) {
+            Timer timer = slots[(int) (currentTick & mask)];
+            while (timer != null) {
+                Timer next = timer.next;
+                if (timer.rounds > 0) {
+                    timer.rounds--;
+                } else if (timer.deadline <= now) {
+                    unlink(timer);
+                    expired++;
+                    callback.accept((T) timer);
+                }
+                timer = next;
+            }
+        }
+        return expired;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void unlink(Timer timer) {
+        if (timer.previous != null) {
+            timer.previous.next = timer.next;
+        } else {
+            slots[timer.slot] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.previous = timer.previous;
+        }
+        timer.previous = null;
+        timer.next = null;
+        timer.slot = -1;
+        size--;
+    }
+}
@@ -0,0 +1,13 @@
+package com.multibnakgroup.candle.aggregation.cluster;
+
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * The nodes sharing the symbols, by ID. Each change bumps the epoch, so a node
+ * applies a membership once and ignores stale ones arriving late.
+ */
+public record ClusterMembership(
+        long epoch,
+        Map<String, URI> nodes
+) {}
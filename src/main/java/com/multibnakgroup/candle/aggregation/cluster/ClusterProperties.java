@@ -0,0 +1,27 @@
+package com.multibnakgroup.candle.aggregation.cluster;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+
+@ConfigurationProperties("candle.cluster")
+public record ClusterProperties(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("") String nodeId,           // This node's key in nodes
+        Map<String, URI> nodes,                     // Node ID -> base URL, the same on every node at startup
+        @DefaultValue("128") int virtualNodes,      // Ring points per node; more spread symbols more evenly
+        @DefaultValue("2s") Duration requestTimeout, // Forwarded ticks and queries
+        @DefaultValue("30s") Duration handoffTimeout // Moving a batch of symbols to their new owner
+) {
+
+    public ClusterProperties {
+        nodes = nodes == null ? Map.of() : Map.copyOf(nodes);
+    }
+
+    public static ClusterProperties defaults() {
+        return new ClusterProperties(false, "", Map.of(), 128, Duration.ofSeconds(2), Duration.ofSeconds(30));
+    }
+}
@@ -0,0 +1,546 @@
+package com.multibnakgroup.candle.aggregation.cluster;
+
+import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregatorManager;
+import com.multibnakgroup.candle.aggregation.cluster.HandoffCodec.SymbolHandoff;
+import com.multibnakgroup.candle.aggregation.indicator.IndicatorService;
+import com.multibnakgroup.candle.aggregation.model.BidAskEvent;
+import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.model.SymbolTable;
+import com.multibnakgroup.candle.aggregation.repository.CandleRepository;
+import com.multibnakgroup.candle.aggregation.service.EventProcessor;
+import com.multibnakgroup.candle.aggregation.service.HistoryCache;
+import com.multibnakgroup.candle.aggregation.service.IngestAck;
+import com.multibnakgroup.candle.aggregation.service.TickBatchCodec;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Service;
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Splits the symbols across the nodes of a cluster by consistent hashing,
+ * each node aggregating and storing only the symbols it owns. Ticks sent to
+ * any node are forwarded to their owners; single-symbol queries are routed to
+ * the owner and multi-symbol ones gathered from every node.
+ *
+ * <p>A membership change is applied by every node. Each one then hands the
+ * symbols it no longer owns to their new owner: once the ticks it had queued
+ * for them are aggregated, it detaches their open windows and sends them with
+ * the stored history, which the new owner folds into whatever it aggregated
+ * meanwhile. Ticks go to the new owner from the moment it changes; queries
+ * keep going to the previous owner until it reports its handoff complete, so
+ * neither stops during a rebalance.
+ */
+@Service
+public class ClusterService {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ClusterService.class);
+
+    // Marks requests sent by another node, which are served locally instead of routed again
+    public static final String FORWARDED_HEADER = "X-Candle-Forwarded";
+
+    private static final TypeReference<Map<String, Candle>> LATEST = new TypeReference<>() {};
+
+    private final boolean enabled;
+    private final String nodeId;
+    private final int virtualNodes;
+    private final Duration requestTimeout;
+    private final Duration handoffTimeout;
+    private final CandleAggregatorManager aggregatorManager;
+    private final CandleRepository candleRepository;
+    private final EventProcessor eventProcessor;
+    private final HistoryCache historyCache;
+    private final IndicatorService indicatorService;
+    private final JsonMapper jsonMapper = JsonMapper.builder().build();
+    private final HttpClient httpClient; // Null when clustering is disabled
+    private final ExecutorService handoffs; // Null when clustering is disabled
+
+    // Replaced as a whole under the lock; readers take it once per request
+    private volatile View view;
+    // Epoch -> nodes that reported their handoff for it before this node applied it; guarded by this
+    private final Map<Long, Set<String>> earlyCompletions = new HashMap<>();
+
+    /**
+     * @param previous ring before the last membership change, null once every
+     *                 node in it has handed its symbols off
+     * @param pending  nodes of the previous ring still handing symbols off
+     * @param addresses base URLs of the nodes of both rings
+     */
+    private record View(ClusterMembership membership, HashRing ring, HashRing previous, Set<String> pending,
+                        Map<String, URI> addresses) {}
+
+    public ClusterService(ClusterProperties properties, CandleAggregatorManager aggregatorManager,
+                          CandleRepository candleRepository, EventProcessor eventProcessor,
+                          HistoryCache historyCache, IndicatorService indicatorService) {
+        this.enabled = properties.enabled();
+        this.nodeId = properties.nodeId();
+        this.virtualNodes = properties.virtualNodes();
+        this.requestTimeout = properties.requestTimeout();
+        this.handoffTimeout = properties.handoffTimeout();
+        this.aggregatorManager = aggregatorManager;
+        this.candleRepository = candleRepository;
+        this.eventProcessor = eventProcessor;
+        this.historyCache = historyCache;
+        this.indicatorService = indicatorService;
+        this.view = new View(new ClusterMembership(0, properties.nodes()),
+                new HashRing(properties.nodes().keySet(), virtualNodes), null, Set.of(), properties.nodes());
+        if (!enabled) {
+            this.httpClient = null;
+            this.handoffs = null;
+            return;
+        }
+        if (nodeId.isBlank()) {
+            throw new IllegalStateException("candle.cluster.node-id is required when clustering is enabled");
+        }
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(requestTimeout)
+                .build();
+        this.handoffs = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cluster-handoff");
+            thread.setDaemon(true);
+            return thread;
+        });
+        eventProcessor.setSimulatedSymbols(this::isLocal);
+        log.info("Node {} joined a cluster of {}", nodeId, properties.nodes().keySet());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public ClusterStatus getStatus() {
+        View current = view;
+        return new ClusterStatus(nodeId, current.membership().epoch(), current.membership().nodes(),
+                current.pending());
+    }
+
+    // Node aggregating the symbol's ticks; null when the cluster has no nodes
+    public String owner(String symbol) {
+        return view.ring().owner(symbol);
+    }
+
+    // Node answering queries for the symbol: the previous owner while it is still handing the symbol off
+    public String queryOwner(String symbol) {
+        View current = view;
+        String owner = current.ring().owner(symbol);
+        if (current.previous() != null) {
+            String previous = current.previous().owner(symbol);
+            if (previous != null && !previous.equals(owner) && current.pending().contains(previous)) {
+                return previous;
+            }
+        }
+        return owner;
+    }
+
+    public boolean isLocal(String symbol) {
+        String owner = owner(symbol);
+        return !enabled || owner == null || owner.equals(nodeId);
+    }
+
+    // Base URL of a node, including one that left but is still handing its symbols off
+    public URI nodeUri(String node) {
+        URI uri = view.addresses().get(node);
+        if (uri == null) {
+            throw new IllegalArgumentException("Unknown node: " + node);
+        }
+        return uri;
+    }
+
+    // Query owner -> its symbols, in first-seen order
+    public Map<String, List<String>> partitionByQueryOwner(List<String> symbols) {
+        Map<String, List<String>> byOwner = new LinkedHashMap<>();
+        for (String symbol : symbols) {
+            String owner = queryOwner(symbol);
+            byOwner.computeIfAbsent(owner == null ? nodeId : owner, k -> new ArrayList<>()).add(symbol);
+        }
+        return byOwner;
+    }
+
+    /**
+     * Takes a batch sent to this node: its own ticks go to the local shards,
+     * the rest to their owners, one batch each. The ack covers the ticks up to
+     * the first one any owner refused, so a resend from there may repeat
+     * ticks that a different owner already took.
+     */
+    public IngestAck ingest(ByteBuffer batch) {
+        HashRing ring = view.ring();
+        Map<String, String> owners = new HashMap<>();
+        boolean[] remote = {false};
+        TickBatchCodec.decode(batch, (symbol, bid, ask, timestamp) -> {
+            String owner = owners.computeIfAbsent(symbol, ring::owner);
+            remote[0] |= owner != null && !owner.equals(nodeId);
+            return true;
+        });
+        if (!remote[0]) {
+            return eventProcessor.ingestBatch(batch);
+        }
+
+        Map<String, List<BidAskEvent>> forwarded = new LinkedHashMap<>();
+        Map<String, List<Integer>> positions = new HashMap<>();
+        int[] index = {0};
+        int[] localStop = {-1};
+        IngestAck ack = TickBatchCodec.decode(batch, (symbol, bid, ask, timestamp) -> {
+            int i = index[0]++;
+            String owner = owners.get(symbol);
+            if (owner == null || owner.equals(nodeId)) {
+                if (localStop[0] < 0 && !eventProcessor.ingestTick(symbol, bid, ask, timestamp)) {
+                    localStop[0] = i;
+                }
+            } else {
+                forwarded.computeIfAbsent(owner, k -> new ArrayList<>()).add(new BidAskEvent(symbol, bid, ask,
+                        timestamp));
+                positions.computeIfAbsent(owner, k -> new ArrayList<>()).add(i);
+            }
+            return true;
+        });
+
+        Map<String, CompletableFuture<Integer>> sent = new LinkedHashMap<>();
+        forwarded.forEach((owner, events) -> sent.put(owner, forwardTicks(owner, events)));
+        int accepted = localStop[0] < 0 ? ack.received() : localStop[0];
+        for (Map.Entry<String, CompletableFuture<Integer>> entry : sent.entrySet()) {
+            List<Integer> at = positions.get(entry.getKey());
+            int taken = entry.getValue().join();
+            if (taken < at.size()) {
+                accepted = Math.min(accepted, at.get(taken));
+            }
+        }
+        return new IngestAck(ack.received(), accepted);
+    }
+
+    /**
+     * Makes the nodes the new membership and sends it to every node of the old
+     * and new one, each of which then hands off the symbols it lost.
+     */
+    public ClusterMembership updateNodes(Map<String, URI> nodes) {
+        ClusterMembership next;
+        Map<String, URI> targets;
+        synchronized (this) {
+            ClusterMembership current = view.membership();
+            next = new ClusterMembership(current.epoch() + 1, Map.copyOf(nodes));
+            targets = new HashMap<>(current.nodes());
+            targets.putAll(nodes);
+            targets.remove(nodeId);
+            apply(next);
+        }
+        for (Map.Entry<String, URI> target : targets.entrySet()) {
+            try {
+                send(target.getValue(), "PUT", "/api/cluster/membership", "application/json",
+                        jsonMapper.writeValueAsBytes(next), requestTimeout);
+            } catch (IOException e) {
+                log.warn("Could not send membership {} to node {}: {}", next.epoch(), target.getKey(),
+                        e.toString());
+            }
+        }
+        return next;
+    }
+
+    // Applies a membership sent by another node; stale or repeated ones are ignored
+    public synchronized boolean apply(ClusterMembership membership) {
+        View current = view;
+        if (membership.epoch() <= current.membership().epoch()) {
+            return false;
+        }
+        HashRing ring = new HashRing(membership.nodes().keySet(), virtualNodes);
+        Set<String> pending = new HashSet<>(current.ring().nodes());
+        Set<String> early = earlyCompletions.get(membership.epoch());
+        if (early != null) {
+            pending.removeAll(early);
+        }
+        earlyCompletions.keySet().removeIf(epoch -> epoch <= membership.epoch());
+        pending = Set.copyOf(pending);
+        Map<String, URI> addresses = new HashMap<>(current.addresses());
+        addresses.putAll(membership.nodes());
+        view = new View(membership, ring, current.ring(), pending, Map.copyOf(addresses));
+        log.info("Node {} moved to membership {} with nodes {}", nodeId, membership.epoch(),
+                membership.nodes().keySet());
+        if (pending.contains(nodeId)) {
+            long epoch = membership.epoch();
+            handoffs.execute(() -> handOff(epoch));
+        } else if (pending.isEmpty()) {
+            view = new View(membership, ring, null, Set.of(), membership.nodes());
+        }
+        return true;
+    }
+
+    /**
+     * A node of the previous ring finished its handoff; queries for its former
+     * symbols go to their new owners. A notice can overtake the membership it
+     * belongs to, which is sent to each node in turn, so one for a later epoch
+     * is kept until that membership is applied.
+     */
+    public synchronized void completeHandoff(String node, long epoch) {
+        View current = view;
+        if (epoch > current.membership().epoch()) {
+            earlyCompletions.computeIfAbsent(epoch, k -> new HashSet<>()).add(node);
+            return;
+        }
+        if (current.membership().epoch() != epoch || !current.pending().contains(node)) {
+            return;
+        }
+        Set<String> pending = new HashSet<>(current.pending());
+        pending.remove(node);
+        view = pending.isEmpty()
+                ? new View(current.membership(), current.ring(), null, Set.of(), current.membership().nodes())
+                : new View(current.membership(), current.ring(), current.previous(), Set.copyOf(pending),
+                        current.addresses());
+    }
+
+    // Stores symbols handed over by their previous owner, on the shards that now own them
+    public void receiveHandoff(byte[] body) {
+        List<SymbolHandoff> received = HandoffCodec.decode(body);
+        SymbolTable symbolTable = aggregatorManager.getSymbolTable();
+        Map<Integer, List<SymbolHandoff>> byShard = new HashMap<>();
+        for (SymbolHandoff handoff : received) {
+            byShard.computeIfAbsent(aggregatorManager.shardFor(handoff.symbol()), k -> new ArrayList<>())
+                    .add(handoff);
+        }
+        List<CompletableFuture<Void>> stored = new ArrayList<>();
+        byShard.forEach((shard, batch) -> stored.add(eventProcessor.execute(shard, () -> {
+            for (SymbolHandoff handoff : batch) {
+                int symbolId = symbolTable.intern(handoff.symbol());
+                for (Map.Entry<String, List<Candle>> series : handoff.history().entrySet()) {
+                    candleRepository.saveAll(symbolId, candleRepository.intervalId(series.getKey()),
+                            series.getValue());
+                    historyCache.invalidate(handoff.symbol(), series.getKey());
+                    indicatorService.invalidate(handoff.symbol(), series.getKey());
+                }
+                aggregatorManager.absorb(symbolId, handoff.open());
+            }
+        })));
+        CompletableFuture.allOf(stored.toArray(new CompletableFuture[0])).join();
+        log.info("Node {} took over {} symbols", nodeId, received.size());
+    }
+
+    // GET on another node, marked as forwarded so it is answered there
+    public HttpResponse<byte[]> get(String node, String pathAndQuery) throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(nodeUri(node).resolve(pathAndQuery))
+                .timeout(requestTimeout)
+                .header(FORWARDED_HEADER, nodeId)
+                .GET()
+                .build();
+        try {
+            return httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted forwarding to " + node, e);
+        }
+    }
+
+    /**
+     * The same GET sent to every node but this one at once; the bodies come
+     * back by node. Fails with UncheckedIOException if any node does not
+     * answer 200.
+     */
+    public Map<String, byte[]> gather(Map<String, String> pathAndQueryByNode) {
+        Map<String, CompletableFuture<HttpResponse<byte[]>>> responses = new LinkedHashMap<>();
+        pathAndQueryByNode.forEach((node, pathAndQuery) -> responses.put(node, httpClient.sendAsync(
+                HttpRequest.newBuilder(nodeUri(node).resolve(pathAndQuery))
+                        .timeout(requestTimeout)
+                        .header(FORWARDED_HEADER, nodeId)
+                        .GET()
+                        .build(),
+                HttpResponse.BodyHandlers.ofByteArray())));
+        Map<String, byte[]> bodies = new LinkedHashMap<>();
+        for (Map.Entry<String, CompletableFuture<HttpResponse<byte[]>>> entry : responses.entrySet()) {
+            HttpResponse<byte[]> response;
+            try {
+                response = entry.getValue().join();
+            } catch (RuntimeException e) {
+                throw new UncheckedIOException(new IOException("Node " + entry.getKey() + " did not answer", e));
+            }
+            if (response.statusCode() != 200) {
+                throw new UncheckedIOException(new IOException("Node " + entry.getKey() + " answered "
+                        + response.statusCode()));
+            }
+            bodies.put(entry.getKey(), response.body());
+        }
+        return bodies;
+    }
+
+    // Newest closed candle of every symbol across the cluster; a symbol being handed off keeps the newer one
+    public Map<String, Candle> getLatestCandles(String interval, Map<String, Candle> local) {
+        Map<String, String> requests = new LinkedHashMap<>();
+        for (String node : view.membership().nodes().keySet()) {
+            if (!node.equals(nodeId)) {
+                requests.put(node, "/api/candles/latest?interval=" + interval);
+            }
+        }
+        Map<String, Candle> newest = new TreeMap<>(local);
+        for (byte[] body : gather(requests).values()) {
+            jsonMapper.readValue(body, LATEST).forEach((symbol, candle) -> newest.merge(symbol, candle,
+                    (a, b) -> b.time() > a.time() ? b : a));
+        }
+        return newest;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (handoffs != null) {
+            handoffs.shutdownNow();
+        }
+    }
+
+    // Runs on the handoff thread after a membership change
+    private void handOff(long epoch) {
+        View current = view;
+        SymbolTable symbolTable = aggregatorManager.getSymbolTable();
+        List<List<String>> byShard = new ArrayList<>();
+        for (int shard = 0; shard < aggregatorManager.getShardCount(); shard++) {
+            byShard.add(new ArrayList<>());
+        }
+        for (int symbolId = 0; symbolId < symbolTable.size(); symbolId++) {
+            String symbol = symbolTable.name(symbolId);
+            String owner = current.ring().owner(symbol);
+            if (owner != null && !owner.equals(nodeId)) {
+                byShard.get(aggregatorManager.shardFor(symbolId)).add(symbol);
+            }
+        }
+
+        int moved = 0;
+        List<SymbolHandoff> sentAway = new ArrayList<>();
+        for (int shard = 0; shard < byShard.size(); shard++) {
+            List<String> symbols = byShard.get(shard);
+            if (symbols.isEmpty()) {
+                continue;
+            }
+            // The shard's queue may still hold ticks routed here before the change; they are aggregated first
+            Map<String, Map<String, Candle>> open = new HashMap<>();
+            eventProcessor.executeAfterQueued(shard, () -> {
+                for (String symbol : symbols) {
+                    open.put(symbol, aggregatorManager.detach(symbolTable.find(symbol)));
+                }
+            }).join();
+
+            // Detached symbols get no more candles here, so their history is read off the shard
+            Map<String, List<SymbolHandoff>> byOwner = new LinkedHashMap<>();
+            for (String symbol : symbols) {
+                Map<String, List<Candle>> history = new LinkedHashMap<>();
+                for (String interval : candleRepository.getIntervals(symbol)) {
+                    history.put(interval, candleRepository.findCandles(symbol, interval, null, null, null));
+                }
+                if (history.isEmpty() && open.get(symbol).isEmpty()) {
+                    continue;
+                }
+                byOwner.computeIfAbsent(current.ring().owner(symbol), k -> new ArrayList<>())
+                        .add(new SymbolHandoff(symbol, history, open.get(symbol)));
+            }
+            for (Map.Entry<String, List<SymbolHandoff>> entry : byOwner.entrySet()) {
+                List<SymbolHandoff> batch = entry.getValue();
+                try {
+                    send(nodeUri(entry.getKey()), "POST", "/api/cluster/handoff", "application/octet-stream",
+                            HandoffCodec.encode(batch), handoffTimeout);
+                    sentAway.addAll(batch);
+                    moved += batch.size();
+                } catch (IOException | RuntimeException e) {
+                    // Keep aggregating what was detached rather than lose it; the symbols stay split until resolved
+                    log.error("Node {} could not hand {} symbols to {}, keeping them", nodeId, batch.size(),
+                            entry.getKey(), e);
+                    eventProcessor.execute(shard, () -> {
+                        for (SymbolHandoff handoff : batch) {
+                            aggregatorManager.absorb(symbolTable.find(handoff.symbol()), handoff.open());
+                        }
+                    }).join();
+                }
+            }
+        }
+
+        completeHandoff(nodeId, epoch);
+        boolean acknowledged = true;
+        for (String node : current.membership().nodes().keySet()) {
+            if (!node.equals(nodeId)) {
+                try {
+                    send(nodeUri(node), "POST", "/api/cluster/handoff/complete?node=" + nodeId + "&epoch=" + epoch,
+                            "application/json", new byte[0], requestTimeout);
+                } catch (IOException e) {
+                    acknowledged = false;
+                    log.warn("Could not tell node {} that handoff {} is complete: {}", node, epoch, e.toString());
+                }
+            }
+        }
+        if (!acknowledged) {
+            // A node that missed the notice still routes queries for these symbols here, so they stay
+            log.warn("Node {} keeps its copies of {} handed-off symbols until every node knows", nodeId, moved);
+            log.info("Node {} handed {} symbols off for membership {}", nodeId, moved, epoch);
+            return;
+        }
+
+        // Every node now queries the new owners, which acknowledged the symbols, so the copies here can go
+        Map<Integer, List<SymbolHandoff>> removals = new HashMap<>();
+        for (SymbolHandoff handoff : sentAway) {
+            removals.computeIfAbsent(aggregatorManager.shardFor(handoff.symbol()), k -> new ArrayList<>())
+                    .add(handoff);
+        }
+        removals.forEach((shard, batch) -> eventProcessor.execute(shard, () -> {
+            for (SymbolHandoff handoff : batch) {
+                candleRepository.remove(handoff.symbol());
+                historyCache.remove(handoff.symbol());
+                for (String interval : handoff.history().keySet()) {
+                    indicatorService.invalidate(handoff.symbol(), interval);
+                }
+            }
+        }).join());
+        log.info("Node {} handed {} symbols off for membership {}", nodeId, moved, epoch);
+    }
+
+    private CompletableFuture<Integer> forwardTicks(String owner, List<BidAskEvent> events) {
+        HttpRequest request = HttpRequest.newBuilder(nodeUri(owner).resolve("/api/ticks"))
+                .timeout(requestTimeout)
+                .header(FORWARDED_HEADER, nodeId)
+                .header("Content-Type", "application/octet-stream")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(TickBatchCodec.encode(events).array()))
+                .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(response -> response.statusCode() == 202 || response.statusCode() == 429
+                        ? jsonMapper.readValue(response.body(), IngestAck.class).accepted()
+                        : 0)
+                .exceptionally(e -> {
+                    log.warn("Could not forward {} ticks to node {}: {}", events.size(), owner, e.toString());
+                    return 0;
+                });
+    }
+
+    private void send(URI node, String method, String pathAndQuery, String contentType, byte[] body,
+                      Duration timeout) throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(node.resolve(pathAndQuery))
+                .timeout(timeout)
+                .header(FORWARDED_HEADER, nodeId)
+                .header("Content-Type", contentType)
+                .method(method, HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        HttpResponse<Void> response;
+        try {
+            response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted sending to " + node, e);
+        }
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException(method + " " + pathAndQuery + " on " + node + " answered "
+                    + response.statusCode());
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.multibnakgroup.candle.aggregation.cluster;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A node's view of the cluster; pendingHandoffs are the nodes still moving
+ * symbols off after the last membership change, which keep answering queries
+ * for them until they are done.
+ */
+public record ClusterStatus(
+        String nodeId,
+        long epoch,
+        Map<String, URI> nodes,
+        Set<String> pendingHandoffs
+) {}
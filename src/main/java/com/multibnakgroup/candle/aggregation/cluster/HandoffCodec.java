@@ -0,0 +1,114 @@
+package com.multibnakgroup.candle.aggregation.cluster;
+
+import com.multibnakgroup.candle.aggregation.model.Candle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary form of the symbols a node hands to their new owner, big-endian:
+ * <pre>
+ * int    magic "HOF1"
+ * int    symbol count, then per symbol:
+ *        UTF    symbol
+ *        int    series count, then per series: UTF interval, int candle count, candles
+ *        int    open window count, then per window: UTF interval, candle
+ * </pre>
+ * where a candle is long time, double open, high, low, close, long volume.
+ */
+final class HandoffCodec {
+
+    static final int MAGIC = 0x484F4631;
+
+    /** Everything a node knows about one symbol: its stored candles and the windows still open. */
+    record SymbolHandoff(String symbol, Map<String, List<Candle>> history, Map<String, Candle> open) {}
+
+    private HandoffCodec() {
+    }
+
+    static byte[] encode(List<SymbolHandoff> handoffs) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(handoffs.size());
+            for (SymbolHandoff handoff : handoffs) {
+                out.writeUTF(handoff.symbol());
+                out.writeInt(handoff.history().size());
+                for (Map.Entry<String, List<Candle>> series : handoff.history().entrySet()) {
+                    out.writeUTF(series.getKey());
+                    out.writeInt(series.getValue().size());
+                    for (Candle candle : series.getValue()) {
+                        write(out, candle);
+                    }
+                }
+                out.writeInt(handoff.open().size());
+                for (Map.Entry<String, Candle> window : handoff.open().entrySet()) {
+                    out.writeUTF(window.getKey());
+                    write(out, window.getValue());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Malformed input is rejected with IllegalArgumentException
+    static List<SymbolHandoff> decode(byte[] body) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(body))) {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a handoff");
+            }
+            int symbols = in.readInt();
+            List<SymbolHandoff> handoffs = new ArrayList<>();
+            for (int i = 0; i < symbols; i++) {
+                String symbol = in.readUTF();
+                Map<String, List<Candle>> history = new LinkedHashMap<>();
+                int series = in.readInt();
+                for (int j = 0; j < series; j++) {
+                    String interval = in.readUTF();
+                    int count = in.readInt();
+                    if (count < 0 || count > body.length / 48) {
+                        throw new IllegalArgumentException("Bad candle count " + count);
+                    }
+                    List<Candle> candles = new ArrayList<>(count);
+                    for (int k = 0; k < count; k++) {
+                        candles.add(read(in));
+                    }
+                    history.put(interval, candles);
+                }
+                Map<String, Candle> open = new LinkedHashMap<>();
+                int windows = in.readInt();
+                for (int j = 0; j < windows; j++) {
+                    open.put(in.readUTF(), read(in));
+                }
+                handoffs.add(new SymbolHandoff(symbol, history, open));
+            }
+            return handoffs;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Truncated handoff", e);
+        }
+    }
+
+    private static void write(DataOutputStream out, Candle candle) throws IOException {
+        out.writeLong(candle.time());
+        out.writeDouble(candle.open());
+        out.writeDouble(candle.high());
+        out.writeDouble(candle.low());
+        out.writeDouble(candle.close());
+        out.writeLong(candle.volume());
+    }
+
+    private static Candle read(DataInputStream in) throws IOException {
+        return new Candle(in.readLong(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(),
+                in.readLong());
+    }
+}
@@ -0,0 +1,79 @@
+package com.multibnakgroup.candle.aggregation.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Consistent hashing of symbols onto nodes. Each node sits at a number of
+ * pseudo-random points of a 64-bit ring and owns the symbols hashing up to
+ * each of its points, so adding or removing a node only moves the symbols of
+ * the arcs it gains or gives up. Immutable; a membership change builds a new
+ * ring.
+ */
+public final class HashRing {
+
+    private final long[] points; // Sorted
+    private final String[] owners; // Node at each point
+    private final Set<String> nodes;
+
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        this.nodes = Set.copyOf(new TreeSet<>(nodes));
+        int count = this.nodes.size() * Math.max(1, virtualNodes);
+        long[] hashes = new long[count];
+        String[] names = new String[count];
+        int i = 0;
+        for (String node : new TreeSet<>(nodes)) {
+            for (int v = 0; v < Math.max(1, virtualNodes); v++) {
+                hashes[i] = hash(node + "#" + v);
+                names[i++] = node;
+            }
+        }
+        // Sort the points, carrying their owners along
+        Integer[] order = new Integer[count];
+        for (int j = 0; j < count; j++) {
+            order[j] = j;
+        }
+        Arrays.sort(order, (a, b) -> hashes[a] != hashes[b] ? Long.compare(hashes[a], hashes[b])
+                : names[a].compareTo(names[b]));
+        this.points = new long[count];
+        this.owners = new String[count];
+        for (int j = 0; j < count; j++) {
+            points[j] = hashes[order[j]];
+            owners[j] = names[order[j]];
+        }
+    }
+
+    public Set<String> nodes() {
+        return nodes;
+    }
+
+    // The node at the first point at or after the symbol's hash, wrapping around; null on an empty ring
+    public String owner(String symbol) {
+        if (points.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(points, hash(symbol));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    // FNV-1a over the UTF-8 bytes, finished with a 64-bit mixer so similar names land far apart
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,45 @@
+package com.multibnakgroup.candle.aggregation.controller;
+
+import com.multibnakgroup.candle.aggregation.service.BackfillJob;
+import com.multibnakgroup.candle.aggregation.service.BackfillService;
+import com.multibnakgroup.candle.aggregation.service.TickFileReader;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Collection;
+import java.util.Locale;
+
+@RestController
+@RequestMapping("/api/backfill")
+public class BackfillController {
+
+    private final BackfillService backfillService;
+
+    public BackfillController(BackfillService backfillService) {
+        this.backfillService = backfillService;
+    }
+
+    // Queues the file, named relative to the backfill directory; poll the returned job for progress
+    @PostMapping
+    public ResponseEntity<BackfillJob> startBackfill(@RequestParam String file,
+                                                     @RequestParam(defaultValue = "csv") String format) {
+        try {
+            TickFileReader.Format parsed = TickFileReader.Format.valueOf(format.toUpperCase(Locale.ROOT));
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(backfillService.start(file, parsed));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @GetMapping
+    public ResponseEntity<Collection<BackfillJob>> getJobs() {
+        return ResponseEntity.ok(backfillService.getJobs());
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<BackfillJob> getJob(@PathVariable String id) {
+        BackfillJob job = backfillService.getJob(id);
+        return job == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(job);
+    }
+}
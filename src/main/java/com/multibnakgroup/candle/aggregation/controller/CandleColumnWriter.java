@@ -0,0 +1,93 @@
+package com.multibnakgroup.candle.aggregation.controller;
+
+import com.multibnakgroup.candle.aggregation.repository.CandleVisitor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Writes candles as little-endian columnar record batches, laid out the way
+ * Arrow lays out fixed-width columns so clients can view each column as a
+ * primitive array without parsing:
+ *
+ * <pre>
+ *   int magic "CCOL", int version
+ *   repeated: int count, int reserved,
+ *             long time[count], double open[count], double high[count],
+ *             double low[count], double close[count], long volume[count]
+ *   int 0, int 0 (end of stream)
+ * </pre>
+ *
+ * A batch holds at most {@link #BATCH_SIZE} candles, so memory stays bounded
+ * however large the requested range is.
+ */
+public class CandleColumnWriter implements CandleVisitor {
+
+    public static final int MAGIC = 0x4C4F4343; // "CCOL" when read little-endian
+    public static final int VERSION = 1;
+    public static final int BATCH_SIZE = 1024;
+
+    private static final int COLUMNS = 6;
+
+    private final OutputStream out;
+    private final ByteBuffer batch =
+            ByteBuffer.allocate(2 * Integer.BYTES + COLUMNS * BATCH_SIZE * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private int count;
+
+    public CandleColumnWriter(OutputStream out) {
+        this.out = out;
+        ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION);
+        write(header.array(), 0, header.position());
+    }
+
+    @Override
+    public void visit(long time, double open, double high, double low, double close, long volume) {
+        int base = 2 * Integer.BYTES + count * Long.BYTES;
+        int column = BATCH_SIZE * Long.BYTES;
+        batch.putLong(base, time);
+        batch.putDouble(base + column, open);
+        batch.putDouble(base + 2 * column, high);
+        batch.putDouble(base + 3 * column, low);
+        batch.putDouble(base + 4 * column, close);
+        batch.putLong(base + 5 * column, volume);
+        if (++count == BATCH_SIZE) {
+            flushBatch();
+        }
+    }
+
+    // Writes the pending batch and the end marker; the stream itself stays open
+    public void finish() {
+        if (count > 0) {
+            flushBatch();
+        }
+        write(new byte[2 * Integer.BYTES], 0, 2 * Integer.BYTES);
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flushBatch() {
+        byte[] bytes = batch.array();
+        batch.putInt(0, count).putInt(Integer.BYTES, 0);
+        write(bytes, 0, 2 * Integer.BYTES);
+        // Columns were written at full-batch stride; a short batch is compacted on the way out
+        for (int c = 0; c < COLUMNS; c++) {
+            write(bytes, 2 * Integer.BYTES + c * BATCH_SIZE * Long.BYTES, count * Long.BYTES);
+        }
+        count = 0;
+    }
+
+    private void write(byte[] bytes, int offset, int length) {
+        try {
+            out.write(bytes, offset, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
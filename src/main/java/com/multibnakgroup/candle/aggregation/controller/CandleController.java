@@ -1,31 +1,256 @@
 package com.multibnakgroup.candle.aggregation.controller;
 
-import com.multibnakgroup.candle.aggregation.repository.CandleRepository;
+import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregatorManager;
+import com.multibnakgroup.candle.aggregation.cluster.ClusterService;
 import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.repository.CandleRepository;
+import com.multibnakgroup.candle.aggregation.service.CandleStreamProperties;
+import com.multibnakgroup.candle.aggregation.service.CandleStreamService;
+import com.multibnakgroup.candle.aggregation.service.HistoryCache;
+import com.multibnakgroup.candle.aggregation.service.HistoryQueryService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.util.UriComponentsBuilder;
 
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
 
 @RestController
 @RequestMapping("/api/candles")
 public class CandleController {
 
+    private static final String FORMAT_JSON = "json";
+    private static final String FORMAT_COLUMNS = "columns";
+
     private final CandleRepository candleRepository;
+    private final CandleAggregatorManager aggregatorManager;
+    private final CandleStreamService candleStreamService;
+    private final HistoryQueryService historyQueryService;
+    private final HistoryCache historyCache;
+    private final ClusterService clusterService;
+    private final long streamTimeout;
 
-    public CandleController(CandleRepository candleRepository) {
+    public CandleController(CandleRepository candleRepository, CandleAggregatorManager aggregatorManager,
+                            CandleStreamService candleStreamService, HistoryQueryService historyQueryService,
+                            HistoryCache historyCache, ClusterService clusterService,
+                            CandleStreamProperties streamProperties) {
         this.candleRepository = candleRepository;
+        this.aggregatorManager = aggregatorManager;
+        this.candleStreamService = candleStreamService;
+        this.historyQueryService = historyQueryService;
+        this.historyCache = historyCache;
+        this.clusterService = clusterService;
+        this.streamTimeout = streamProperties.timeout().toMillis();
     }
 
+    // Single-symbol queries below are routed to the symbol's node by ClusterRoutingFilter before they get here
+
+    // Streams straight from the series to the response, so large ranges are never materialized;
+    // small, popular queries are served from the cache until their series gets a new candle
     @GetMapping("/history")
-    public ResponseEntity<List<Candle>> getCandles(
+    public ResponseEntity<StreamingResponseBody> getCandles(
+            @RequestParam String symbol,
+            @RequestParam String interval,
+            @RequestParam(required = false) Long from,
+            @RequestParam(required = false) Long to,
+            @RequestParam(required = false, defaultValue = "100") Integer limit,
+            @RequestParam(required = false, defaultValue = FORMAT_JSON) String format) {
+
+        if (!aggregatorManager.isSupportedInterval(symbol, interval)) {
+            return ResponseEntity.badRequest().build();
+        }
+        MediaType contentType;
+        Consumer<OutputStream> render;
+        if (FORMAT_JSON.equals(format)) {
+            contentType = MediaType.APPLICATION_JSON;
+            render = out -> {
+                CandleJsonWriter writer = new CandleJsonWriter(out);
+                candleRepository.scanCandles(symbol, interval, from, to, limit, writer);
+                writer.finish();
+            };
+        } else if (FORMAT_COLUMNS.equals(format)) {
+            contentType = MediaType.APPLICATION_OCTET_STREAM;
+            render = out -> {
+                CandleColumnWriter writer = new CandleColumnWriter(out);
+                candleRepository.scanCandles(symbol, interval, from, to, limit, writer);
+                writer.finish();
+            };
+        } else {
+            return ResponseEntity.badRequest().build();
+        }
+
+        if (historyCache.isCacheable(limit)) {
+            HistoryCache.Key key = new HistoryCache.Key(symbol, interval, from, to, limit, format);
+            return ResponseEntity.ok()
+                    .contentType(contentType)
+                    .body(out -> out.write(historyCache.get(key, render)));
+        }
+        return ResponseEntity.ok()
+                .contentType(contentType)
+                .body(render::accept);
+    }
+
+    // Every symbol x interval pair in one response, in request order, the next few series read ahead while one is written.
+    // In a cluster, other nodes' symbols are fetched from them first and their series spliced in after ours
+    @GetMapping("/history/batch")
+    public ResponseEntity<StreamingResponseBody> getCandleBatch(
+            @RequestParam List<String> symbols,
+            @RequestParam List<String> intervals,
+            @RequestParam(required = false) Long from,
+            @RequestParam(required = false) Long to,
+            @RequestParam(required = false, defaultValue = "100") Integer limit,
+            @RequestHeader(value = ClusterService.FORWARDED_HEADER, required = false) String forwardedBy) {
+
+        if ((long) symbols.size() * intervals.size() > historyQueryService.getMaxBatchSeries()
+                || !symbols.stream().allMatch(symbol -> intervals.stream()
+                        .allMatch(interval -> aggregatorManager.isSupportedInterval(symbol, interval)))) {
+            return ResponseEntity.badRequest().build();
+        }
+        List<String> local = symbols;
+        List<byte[]> remote = List.of();
+        if (clusterService.isEnabled() && forwardedBy == null) {
+            Map<String, List<String>> byOwner = clusterService.partitionByQueryOwner(symbols);
+            local = byOwner.getOrDefault(clusterService.getNodeId(), List.of());
+            Map<String, String> requests = new LinkedHashMap<>();
+            byOwner.forEach((node, owned) -> {
+                if (!node.equals(clusterService.getNodeId())) {
+                    requests.put(node, UriComponentsBuilder.fromPath("/api/candles/history/batch")
+                            .queryParam("symbols", String.join(",", owned))
+                            .queryParam("intervals", String.join(",", intervals))
+                            .queryParamIfPresent("from", Optional.ofNullable(from))
+                            .queryParamIfPresent("to", Optional.ofNullable(to))
+                            .queryParam("limit", limit)
+                            .encode()
+                            .toUriString());
+                }
+            });
+            try {
+                remote = List.copyOf(clusterService.gather(requests).values());
+            } catch (UncheckedIOException e) {
+                return ResponseEntity.status(HttpStatus.BAD_GATEWAY).build();
+            }
+        }
+        List<HistoryQueryService.SeriesKey> series = historyQueryService.expand(local, intervals);
+        List<byte[]> gathered = remote;
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(out -> {
+                    out.write('[');
+                    historyQueryService.writeInOrder(series, (index, key, target) -> {
+                        if (index > 0) {
+                            target.write(',');
+                        }
+                        CandleJsonWriter writer = CandleJsonWriter.forSeries(target, key.symbol(), key.interval());
+                        candleRepository.scanCandles(key.symbol(), key.interval(), from, to, limit, writer);
+                        writer.finish();
+                    }, out);
+                    boolean first = series.isEmpty();
+                    for (byte[] array : gathered) {
+                        // Another node's array of series, written without its brackets
+                        int start = indexOf(array, '[') + 1;
+                        int end = lastIndexOf(array, ']');
+                        if (start > 0 && end > start && !isBlank(array, start, end)) {
+                            if (!first) {
+                                out.write(',');
+                            }
+                            first = false;
+                            out.write(array, start, end - start);
+                        }
+                    }
+                    out.write(']');
+                });
+    }
+
+    // Candles with their bid/ask, spread, VWAP and tick imbalance, streamed from the series' columns; only when details are aggregated
+    @GetMapping("/history/details")
+    public ResponseEntity<StreamingResponseBody> getDetailedCandles(
             @RequestParam String symbol,
             @RequestParam String interval,
             @RequestParam(required = false) Long from,
             @RequestParam(required = false) Long to,
             @RequestParam(required = false, defaultValue = "100") Integer limit) {
 
-        List<Candle> candles = candleRepository.findCandles(symbol, interval, from, to, limit);
-        return ResponseEntity.ok(candles);
+        if (!aggregatorManager.isDetailsEnabled() || !aggregatorManager.isSupportedInterval(symbol, interval)) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(out -> {
+                    CandleJsonWriter writer = new CandleJsonWriter(out);
+                    candleRepository.scanDetailedCandles(symbol, interval, from, to, limit, writer);
+                    writer.finish();
+                });
+    }
+
+    // Newest closed candle of every symbol, served from the repository's index; gathered from every node in a cluster
+    @GetMapping("/latest")
+    public ResponseEntity<Map<String, Candle>> getLatestCandles(
+            @RequestParam String interval,
+            @RequestHeader(value = ClusterService.FORWARDED_HEADER, required = false) String forwardedBy) {
+        if (!aggregatorManager.isSupportedInterval(interval)) {
+            return ResponseEntity.badRequest().build();
+        }
+        Map<String, Candle> local = candleRepository.getLatestCandles(interval);
+        if (!clusterService.isEnabled() || forwardedBy != null) {
+            return ResponseEntity.ok(local);
+        }
+        try {
+            return ResponseEntity.ok(clusterService.getLatestCandles(interval, local));
+        } catch (UncheckedIOException e) {
+            return ResponseEntity.status(HttpStatus.BAD_GATEWAY).build();
+        }
+    }
+
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamCandles(
+            @RequestParam String symbol,
+            @RequestParam String interval) {
+
+        if (!candleStreamService.isSupportedInterval(symbol, interval)) {
+            return ResponseEntity.badRequest().build();
+        }
+        SseEmitter emitter = new SseEmitter(streamTimeout);
+        CandleStreamService.Subscription subscription =
+                candleStreamService.subscribe(symbol, interval, new SseFrameSink(emitter));
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(e -> subscription.cancel());
+        return ResponseEntity.ok(emitter);
+    }
+
+    private static int indexOf(byte[] bytes, char c) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] bytes, char c) {
+        for (int i = bytes.length - 1; i >= 0; i--) {
+            if (bytes[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isBlank(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!Character.isWhitespace(bytes[i])) {
+                return false;
+            }
+        }
+        return true;
     }
 }
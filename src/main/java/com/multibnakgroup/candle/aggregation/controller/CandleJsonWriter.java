@@ -0,0 +1,162 @@
+package com.multibnakgroup.candle.aggregation.controller;
+
+import com.multibnakgroup.candle.aggregation.repository.CandleDetailsVisitor;
+import com.multibnakgroup.candle.aggregation.repository.CandleVisitor;
+import com.multibnakgroup.candle.aggregation.service.JsonStrings;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes candles as the JSON array Jackson would produce for a
+ * {@code List<Candle>}, one visit at a time. Numbers are formatted into a
+ * reused builder and copied into a fixed byte buffer that is flushed to the
+ * response as it fills, so a large history costs no per-candle garbage and
+ * never sits in memory as a whole.
+ *
+ * <p>{@link #forSeries} wraps the array in an object naming its series, as
+ * one element of a multi-series response. Visited with details, it writes
+ * each candle as Jackson would a {@code DetailedCandle}.
+ */
+public class CandleJsonWriter implements CandleVisitor, CandleDetailsVisitor {
+
+    private static final int BUFFER_BYTES = 16 * 1024;
+    private static final int MAX_CANDLE_BYTES = 1024;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_BYTES];
+    private final StringBuilder number = new StringBuilder(32);
+    private final String closing;
+    private int position;
+    private boolean first = true;
+
+    public CandleJsonWriter(OutputStream out) {
+        this(out, "[", "]");
+    }
+
+    private CandleJsonWriter(OutputStream out, String opening, String closing) {
+        this.out = out;
+        this.closing = closing;
+        byte[] head = opening.getBytes(StandardCharsets.UTF_8);
+        if (head.length > BUFFER_BYTES - MAX_CANDLE_BYTES) {
+            write(head, head.length);
+        } else {
+            System.arraycopy(head, 0, buffer, 0, head.length);
+            position = head.length;
+        }
+    }
+
+    // Writes {"symbol":..,"interval":..,"candles":[..]}
+    public static CandleJsonWriter forSeries(OutputStream out, String symbol, String interval) {
+        StringBuilder opening = new StringBuilder("{\"symbol\":");
+        JsonStrings.append(opening, symbol);
+        opening.append(",\"interval\":");
+        JsonStrings.append(opening, interval);
+        opening.append(",\"candles\":[");
+        return new CandleJsonWriter(out, opening.toString(), "]}");
+    }
+
+    @Override
+    public void visit(long time, double open, double high, double low, double close, long volume) {
+        writeCandle(time, open, high, low, close, volume);
+        buffer[position++] = '}';
+    }
+
+    // Field order and derived values of DetailedCandle
+    @Override
+    public void visit(long time, double open, double high, double low, double close, long volume,
+                      double bidOpen, double bidHigh, double bidLow, double bidClose,
+                      double askOpen, double askHigh, double askLow, double askClose,
+                      double turnover, double spreadSum, double spreadMax, long upticks, long downticks) {
+        writeCandle(time, open, high, low, close, volume);
+        ascii(",\"vwap\":");
+        writeDouble(turnover / volume);
+        ascii(",\"averageSpread\":");
+        writeDouble(spreadSum / volume);
+        ascii(",\"maxSpread\":");
+        writeDouble(spreadMax);
+        ascii(",\"bidOpen\":");
+        writeDouble(bidOpen);
+        ascii(",\"bidHigh\":");
+        writeDouble(bidHigh);
+        ascii(",\"bidLow\":");
+        writeDouble(bidLow);
+        ascii(",\"bidClose\":");
+        writeDouble(bidClose);
+        ascii(",\"askOpen\":");
+        writeDouble(askOpen);
+        ascii(",\"askHigh\":");
+        writeDouble(askHigh);
+        ascii(",\"askLow\":");
+        writeDouble(askLow);
+        ascii(",\"askClose\":");
+        writeDouble(askClose);
+        ascii(",\"tickImbalance\":");
+        number.setLength(0);
+        ascii(number.append(upticks - downticks));
+        buffer[position++] = '}';
+    }
+
+    // The candle's fields, leaving its object open for more
+    private void writeCandle(long time, double open, double high, double low, double close, long volume) {
+        if (position > BUFFER_BYTES - MAX_CANDLE_BYTES) {
+            flushBuffer();
+        }
+        if (!first) {
+            buffer[position++] = ',';
+        }
+        first = false;
+        ascii("{\"time\":");
+        number.setLength(0);
+        ascii(number.append(time));
+        ascii(",\"open\":");
+        writeDouble(open);
+        ascii(",\"high\":");
+        writeDouble(high);
+        ascii(",\"low\":");
+        writeDouble(low);
+        ascii(",\"close\":");
+        writeDouble(close);
+        ascii(",\"volume\":");
+        number.setLength(0);
+        ascii(number.append(volume));
+    }
+
+    // Closes the array and flushes; the stream itself stays open
+    public void finish() {
+        ascii(closing);
+        flushBuffer();
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeDouble(double value) {
+        number.setLength(0);
+        // Same shortest-repr digits as Double.toString, without allocating a String
+        ascii(number.append(value));
+    }
+
+    private void ascii(CharSequence text) {
+        for (int i = 0, n = text.length(); i < n; i++) {
+            buffer[position++] = (byte) text.charAt(i);
+        }
+    }
+
+    private void flushBuffer() {
+        write(buffer, position);
+        position = 0;
+    }
+
+    private void write(byte[] bytes, int length) {
+        try {
+            out.write(bytes, 0, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.multibnakgroup.candle.aggregation.controller;
+
+import com.multibnakgroup.candle.aggregation.cluster.ClusterMembership;
+import com.multibnakgroup.candle.aggregation.cluster.ClusterService;
+import com.multibnakgroup.candle.aggregation.cluster.ClusterStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.net.URI;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/cluster")
+public class ClusterController {
+
+    private final ClusterService clusterService;
+
+    public ClusterController(ClusterService clusterService) {
+        this.clusterService = clusterService;
+    }
+
+    @GetMapping
+    public ResponseEntity<ClusterStatus> getStatus() {
+        return ResponseEntity.ok(clusterService.getStatus());
+    }
+
+    // Adds or removes nodes; every node of the old and new membership rebalances in the background
+    @PutMapping("/nodes")
+    public ResponseEntity<ClusterMembership> setNodes(@RequestBody Map<String, URI> nodes) {
+        if (!clusterService.isEnabled() || nodes.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(clusterService.updateNodes(nodes));
+    }
+
+    // Node to node: a membership changed on another node
+    @PutMapping("/membership")
+    public ResponseEntity<ClusterStatus> applyMembership(@RequestBody ClusterMembership membership) {
+        if (!clusterService.isEnabled()) {
+            return ResponseEntity.badRequest().build();
+        }
+        clusterService.apply(membership);
+        return ResponseEntity.ok(clusterService.getStatus());
+    }
+
+    // Node to node: symbols this node now owns, with their history and open windows
+    @PostMapping(path = "/handoff", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<Void> receiveHandoff(@RequestBody byte[] body) {
+        if (!clusterService.isEnabled()) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            clusterService.receiveHandoff(body);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    // Node to node: a node finished handing symbols off, so their queries can move
+    @PostMapping("/handoff/complete")
+    public ResponseEntity<Void> completeHandoff(@RequestParam String node, @RequestParam long epoch) {
+        clusterService.completeHandoff(node, epoch);
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -0,0 +1,72 @@
+package com.multibnakgroup.candle.aggregation.controller;
+
+import com.multibnakgroup.candle.aggregation.cluster.ClusterService;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.util.Set;
+
+/**
+ * Sends single-symbol queries to the node answering for the symbol. Reads are
+ * proxied and their response relayed; streams are redirected, so the client
+ * holds its connection to the owner itself. Requests already forwarded by
+ * another node are always served here.
+ */
+@Component
+public class ClusterRoutingFilter extends OncePerRequestFilter {
+
+    private static final String STREAM = "/api/candles/stream";
+    private static final Set<String> ROUTED = Set.of("/api/candles/history", "/api/candles/history/details",
+            "/api/candles/indicators", STREAM);
+
+    private final ClusterService clusterService;
+
+    public ClusterRoutingFilter(ClusterService clusterService) {
+        this.clusterService = clusterService;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !clusterService.isEnabled()
+                || request.getHeader(ClusterService.FORWARDED_HEADER) != null
+                || !ROUTED.contains(request.getRequestURI());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String symbol = request.getParameter("symbol");
+        String owner = symbol == null ? null : clusterService.queryOwner(symbol);
+        if (owner == null || owner.equals(clusterService.getNodeId())) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        String target = request.getRequestURI()
+                + (request.getQueryString() == null ? "" : "?" + request.getQueryString());
+        if (STREAM.equals(request.getRequestURI())) {
+            response.setStatus(HttpStatus.TEMPORARY_REDIRECT.value());
+            response.setHeader(HttpHeaders.LOCATION, clusterService.nodeUri(owner).resolve(target).toString());
+            return;
+        }
+        HttpResponse<byte[]> forwarded;
+        try {
+            forwarded = clusterService.get(owner, target);
+        } catch (IOException e) {
+            response.sendError(HttpStatus.BAD_GATEWAY.value());
+            return;
+        }
+        response.setStatus(forwarded.statusCode());
+        forwarded.headers().firstValue(HttpHeaders.CONTENT_TYPE).ifPresent(response::setContentType);
+        response.setContentLength(forwarded.body().length);
+        response.getOutputStream().write(forwarded.body());
+    }
+}
@@ -0,0 +1,41 @@
+package com.multibnakgroup.candle.aggregation.controller;
+
+import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregatorManager;
+import com.multibnakgroup.candle.aggregation.indicator.IndicatorService;
+import com.multibnakgroup.candle.aggregation.model.IndicatorPoint;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/candles/indicators")
+public class IndicatorController {
+
+    private final IndicatorService indicatorService;
+    private final CandleAggregatorManager aggregatorManager;
+
+    public IndicatorController(IndicatorService indicatorService, CandleAggregatorManager aggregatorManager) {
+        this.indicatorService = indicatorService;
+        this.aggregatorManager = aggregatorManager;
+    }
+
+    // Values kept as candles closed, newest last; at most candle.indicators.history of them
+    @GetMapping
+    public ResponseEntity<List<IndicatorPoint>> getIndicators(
+            @RequestParam String symbol,
+            @RequestParam String interval,
+            @RequestParam(required = false, defaultValue = "100") int limit) {
+
+        if (!indicatorService.isEnabled() || !aggregatorManager.isSupportedInterval(symbol, interval)) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(indicatorService.getIndicators(symbol, interval, limit));
+    }
+
+    // Output names, the keys of every point's values
+    @GetMapping("/outputs")
+    public ResponseEntity<List<String>> getOutputs() {
+        return ResponseEntity.ok(indicatorService.getOutputs());
+    }
+}
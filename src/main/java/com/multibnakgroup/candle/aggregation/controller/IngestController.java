@@ -0,0 +1,47 @@
+package com.multibnakgroup.candle.aggregation.controller;
+
+import com.multibnakgroup.candle.aggregation.cluster.ClusterService;
+import com.multibnakgroup.candle.aggregation.service.EventProcessor;
+import com.multibnakgroup.candle.aggregation.service.IngestAck;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.nio.ByteBuffer;
+
+@RestController
+@RequestMapping("/api/ticks")
+public class IngestController {
+
+    private final EventProcessor eventProcessor;
+    private final ClusterService clusterService;
+
+    public IngestController(EventProcessor eventProcessor, ClusterService clusterService) {
+        this.eventProcessor = eventProcessor;
+        this.clusterService = clusterService;
+    }
+
+    // In a cluster, ticks of symbols other nodes own are forwarded to them; forwarded batches are all ours
+    @PostMapping(consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<IngestAck> ingestTicks(
+            @RequestBody byte[] body,
+            @RequestHeader(value = ClusterService.FORWARDED_HEADER, required = false) String forwardedBy) {
+        IngestAck ack;
+        try {
+            ack = clusterService.isEnabled() && forwardedBy == null
+                    ? clusterService.ingest(ByteBuffer.wrap(body))
+                    : eventProcessor.ingestBatch(ByteBuffer.wrap(body));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (ack.complete()) {
+            return ResponseEntity.accepted().body(ack);
+        }
+        // Shards are overloaded, here or on an owner; the client backs off and resends from ack.accepted()
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(ack);
+    }
+}
@@ -0,0 +1,40 @@
+package com.multibnakgroup.candle.aggregation.controller;
+
+import com.multibnakgroup.candle.aggregation.aggregator.AggregationProperties;
+import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregatorManager;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/intervals")
+public class IntervalController {
+
+    private final CandleAggregatorManager aggregatorManager;
+
+    public IntervalController(CandleAggregatorManager aggregatorManager) {
+        this.aggregatorManager = aggregatorManager;
+    }
+
+    @GetMapping
+    public ResponseEntity<Map<String, AggregationProperties.Group>> getIntervalGroups() {
+        return ResponseEntity.ok(aggregatorManager.getIntervalGroups());
+    }
+
+    // Symbols of the group switch to the new intervals as their next tick arrives
+    @PutMapping("/{group}")
+    public ResponseEntity<AggregationProperties.Group> setIntervals(@PathVariable String group,
+                                                                  @RequestBody List<String> intervals) {
+        if (!aggregatorManager.getIntervalGroups().containsKey(group)) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            aggregatorManager.setIntervals(group, intervals);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(aggregatorManager.getIntervalGroups().get(group));
+    }
+}
@@ -0,0 +1,32 @@
+package com.multibnakgroup.candle.aggregation.controller;
+
+import com.multibnakgroup.candle.aggregation.service.CandleStreamService;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+// Writes pre-serialized frames as they are; going through SseEmitter.event() would re-encode them per subscriber
+class SseFrameSink implements CandleStreamService.FrameSink {
+
+    private static final MediaType TEXT_UTF8 = new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8);
+
+    private final SseEmitter emitter;
+
+    SseFrameSink(SseEmitter emitter) {
+        this.emitter = emitter;
+    }
+
+    @Override
+    public void send(CandleStreamService.CandleFrame frame) throws IOException {
+        emitter.send(Set.of(new ResponseBodyEmitter.DataWithMediaType(frame.payload(), TEXT_UTF8)));
+    }
+
+    @Override
+    public void close() {
+        emitter.complete();
+    }
+}
@@ -0,0 +1,63 @@
+package com.multibnakgroup.candle.aggregation.indicator;
+
+import com.multibnakgroup.candle.aggregation.model.Candle;
+
+import java.util.List;
+
+// Wilder's ATR: true ranges averaged over the first n candles, then smoothed by 1 / n
+final class AverageTrueRange implements Indicator {
+
+    private final String name;
+    private final int period;
+    private int count;
+    private double previousClose = Double.NaN;
+    private double value;
+
+    AverageTrueRange(String name, int period) {
+        this.name = name;
+        this.period = period;
+    }
+
+    private AverageTrueRange(AverageTrueRange other) {
+        this(other.name, other.period);
+        this.count = other.count;
+        this.previousClose = other.previousClose;
+        this.value = other.value;
+    }
+
+    @Override
+    public List<String> outputs() {
+        return List.of(name);
+    }
+
+    @Override
+    public int warmup() {
+        return 10 * period;
+    }
+
+    @Override
+    public void update(Candle candle) {
+        double trueRange = candle.high() - candle.low();
+        if (!Double.isNaN(previousClose)) {
+            trueRange = Math.max(trueRange, Math.max(Math.abs(candle.high() - previousClose),
+                    Math.abs(candle.low() - previousClose)));
+        }
+        if (count < period) {
+            value += trueRange / period;
+            count++;
+        } else {
+            value = (value * (period - 1) + trueRange) / period;
+        }
+        previousClose = candle.close();
+    }
+
+    @Override
+    public void write(double[] values, int offset) {
+        values[offset] = count < period ? Double.NaN : value;
+    }
+
+    @Override
+    public Indicator copy() {
+        return new AverageTrueRange(this);
+    }
+}
@@ -0,0 +1,58 @@
+package com.multibnakgroup.candle.aggregation.indicator;
+
+import com.multibnakgroup.candle.aggregation.model.Candle;
+
+import java.util.List;
+
+// Mean close of the last n candles, with bands k population standard deviations either side
+final class BollingerBands implements Indicator {
+
+    private final String name;
+    private final double width;
+    private final RollingWindow closes;
+
+    BollingerBands(String name, int period, double width) {
+        this.name = name;
+        this.width = width;
+        this.closes = new RollingWindow(period);
+    }
+
+    private BollingerBands(BollingerBands other) {
+        this.name = other.name;
+        this.width = other.width;
+        this.closes = other.closes.copy();
+    }
+
+    @Override
+    public List<String> outputs() {
+        return List.of(name + ".middle", name + ".upper", name + ".lower");
+    }
+
+    @Override
+    public int warmup() {
+        return closes.size();
+    }
+
+    @Override
+    public void update(Candle candle) {
+        closes.add(candle.close());
+    }
+
+    @Override
+    public void write(double[] values, int offset) {
+        if (!closes.isFull()) {
+            values[offset] = values[offset + 1] = values[offset + 2] = Double.NaN;
+            return;
+        }
+        double middle = closes.mean();
+        double band = width * closes.standardDeviation();
+        values[offset] = middle;
+        values[offset + 1] = middle + band;
+        values[offset + 2] = middle - band;
+    }
+
+    @Override
+    public Indicator copy() {
+        return new BollingerBands(this);
+    }
+}
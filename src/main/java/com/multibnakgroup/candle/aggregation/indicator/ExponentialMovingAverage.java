@@ -0,0 +1,59 @@
+package com.multibnakgroup.candle.aggregation.indicator;
+
+import com.multibnakgroup.candle.aggregation.model.Candle;
+
+import java.util.List;
+
+// Close smoothed by 2 / (n + 1), seeded with the mean of the first n closes
+final class ExponentialMovingAverage implements Indicator {
+
+    private final String name;
+    private final int period;
+    private final double alpha;
+    private int count;
+    private double value;
+
+    ExponentialMovingAverage(String name, int period) {
+        this.name = name;
+        this.period = period;
+        this.alpha = 2.0 / (period + 1);
+    }
+
+    private ExponentialMovingAverage(ExponentialMovingAverage other) {
+        this(other.name, other.period);
+        this.count = other.count;
+        this.value = other.value;
+    }
+
+    @Override
+    public List<String> outputs() {
+        return List.of(name);
+    }
+
+    @Override
+    public int warmup() {
+        return 10 * period;
+    }
+
+    @Override
+    public void update(Candle candle) {
+        if (count < period) {
+            value += candle.close(); // Sum of the seed closes until the nth
+            if (++count == period) {
+                value /= period;
+            }
+        } else {
+            value += alpha * (candle.close() - value);
+        }
+    }
+
+    @Override
+    public void write(double[] values, int offset) {
+        values[offset] = count < period ? Double.NaN : value;
+    }
+
+    @Override
+    public Indicator copy() {
+        return new ExponentialMovingAverage(this);
+    }
+}
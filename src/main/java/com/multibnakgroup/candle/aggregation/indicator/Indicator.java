@@ -0,0 +1,61 @@
+package com.multibnakgroup.candle.aggregation.indicator;
+
+import com.multibnakgroup.candle.aggregation.model.Candle;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A technical indicator over one series of closed candles, fed in time order
+ * and updated in O(1) per candle from running sums and ring buffers. Each
+ * instance belongs to one series and is only touched by its writer.
+ */
+public interface Indicator {
+
+    Pattern SPEC = Pattern.compile("([a-z]+)\\((\\d+)(?:,(\\d+(?:\\.\\d+)?))?\\)");
+
+    /**
+     * Creates an indicator from its spec: {@code sma(n)}, {@code ema(n)},
+     * {@code rsi(n)}, {@code atr(n)} or {@code bollinger(n,k)}, k being the
+     * band width in standard deviations.
+     */
+    static Indicator parse(String spec) {
+        Matcher matcher = SPEC.matcher(spec.replace(" ", ""));
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Unsupported indicator: " + spec);
+        }
+        int period = Integer.parseInt(matcher.group(2));
+        if (period < 1) {
+            throw new IllegalArgumentException("Indicator period must be positive: " + spec);
+        }
+        String name = matcher.group(0);
+        String width = matcher.group(3);
+        Indicator indicator = switch (matcher.group(1)) {
+            case "sma" -> width == null ? new SimpleMovingAverage(name, period) : null;
+            case "ema" -> width == null ? new ExponentialMovingAverage(name, period) : null;
+            case "rsi" -> width == null ? new RelativeStrengthIndex(name, period) : null;
+            case "atr" -> width == null ? new AverageTrueRange(name, period) : null;
+            case "bollinger" -> width != null ? new BollingerBands(name, period, Double.parseDouble(width)) : null;
+            default -> null;
+        };
+        if (indicator == null) {
+            throw new IllegalArgumentException("Unsupported indicator: " + spec);
+        }
+        return indicator;
+    }
+
+    // Names of the values written by write, in order
+    List<String> outputs();
+
+    // Candles after which the values no longer depend noticeably on where the series started
+    int warmup();
+
+    void update(Candle candle);
+
+    // Writes the current values from offset on, NaN while the indicator is still warming up
+    void write(double[] values, int offset);
+
+    // Independent copy of the current state
+    Indicator copy();
+}
@@ -0,0 +1,20 @@
+package com.multibnakgroup.candle.aggregation.indicator;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.util.List;
+
+@ConfigurationProperties("candle.indicators")
+public record IndicatorProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue({"sma(20)", "ema(20)", "rsi(14)", "bollinger(20,2)", "atr(14)"})
+        List<String> definitions, // Computed for every series, see Indicator.parse
+        @DefaultValue("100") int history  // Latest values kept per series for queries
+) {
+
+    public static IndicatorProperties defaults() {
+        return new IndicatorProperties(true, List.of("sma(20)", "ema(20)", "rsi(14)", "bollinger(20,2)", "atr(14)"),
+                100);
+    }
+}
@@ -0,0 +1,239 @@
+package com.multibnakgroup.candle.aggregation.indicator;
+
+import com.multibnakgroup.candle.aggregation.aggregator.AggregationProperties;
+import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregatorManager;
+import com.multibnakgroup.candle.aggregation.aggregator.CandleListener;
+import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.model.CandleInterval;
+import com.multibnakgroup.candle.aggregation.model.IndicatorPoint;
+import com.multibnakgroup.candle.aggregation.repository.CandleRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the configured indicators of every series up to date as its candles
+ * are saved, and the latest values for queries, so clients look them up
+ * instead of pulling the candles to compute them.
+ *
+ * <p>Each series holds two sets of indicator state: a settled one fed every
+ * candle that late ticks can no longer amend, and a live one that is the
+ * settled state plus the few recent candles that still can be. A new candle
+ * costs one update of each; an amended or newly filled recent window rebuilds
+ * the live state from the settled one by replaying just the recent candles.
+ * A series first seen, or reset after a backfill, is warmed up from the
+ * candles already stored before it.
+ */
+@Service
+public class IndicatorService implements CandleListener {
+
+    private final CandleRepository candleRepository;
+    private final boolean enabled;
+    private final List<String> definitions;
+    private final List<String> outputs;
+    private final int warmup;
+    private final int history;
+    private final long allowedLateness;
+
+    // symbol -> interval -> indicators; a series is only written by the shard owning the symbol
+    private final Map<String, Map<String, SeriesIndicators>> series = new ConcurrentHashMap<>();
+
+    @Autowired
+    public IndicatorService(CandleAggregatorManager aggregatorManager, CandleRepository candleRepository,
+                            IndicatorProperties properties, AggregationProperties aggregationProperties) {
+        this(candleRepository, properties, aggregationProperties.allowedLateness());
+        if (enabled) {
+            aggregatorManager.addListener(this);
+        }
+    }
+
+    public IndicatorService(CandleRepository candleRepository, IndicatorProperties properties,
+                            Duration allowedLateness) {
+        this.candleRepository = candleRepository;
+        this.enabled = properties.enabled();
+        this.definitions = List.copyOf(properties.definitions());
+        this.history = Math.max(1, properties.history());
+        this.allowedLateness = allowedLateness.toMillis();
+        List<String> names = new ArrayList<>();
+        int longest = 0;
+        for (Indicator indicator : createIndicators()) {
+            names.addAll(indicator.outputs());
+            longest = Math.max(longest, indicator.warmup());
+        }
+        this.outputs = List.copyOf(names);
+        this.warmup = longest;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Names of the values every point carries, in order
+    public List<String> getOutputs() {
+        return outputs;
+    }
+
+    // Called on the shard thread right after the candle was saved
+    @Override
+    public void onCandle(String symbol, String interval, Candle candle) {
+        Map<String, SeriesIndicators> intervals = series.computeIfAbsent(symbol, s -> new ConcurrentHashMap<>());
+        SeriesIndicators indicators = intervals.get(interval);
+        if (indicators == null) {
+            indicators = new SeriesIndicators(createIndicators(), amendDepth(interval), history, outputs.size());
+            for (Candle stored : candleRepository.findCandles(symbol, interval, null, candle.time() - 1, warmup)) {
+                indicators.add(stored);
+            }
+            intervals.put(interval, indicators);
+        }
+        indicators.add(candle);
+    }
+
+    // Drops a series' indicators so its next candle warms them up again from the repository; call on its shard
+    public void invalidate(String symbol, String interval) {
+        Map<String, SeriesIndicators> intervals = series.get(symbol);
+        if (intervals != null) {
+            intervals.remove(interval);
+        }
+    }
+
+    // The newest limit points, oldest first
+    public List<IndicatorPoint> getIndicators(String symbol, String interval, int limit) {
+        Map<String, SeriesIndicators> intervals = series.get(symbol);
+        SeriesIndicators indicators = intervals == null ? null : intervals.get(interval);
+        return indicators == null ? Collections.emptyList() : indicators.points(outputs, limit);
+    }
+
+    private Indicator[] createIndicators() {
+        return definitions.stream().map(Indicator::parse).toArray(Indicator[]::new);
+    }
+
+    // Windows a late tick can still reach: those ending within the allowed lateness, plus the one just closed
+    private int amendDepth(String interval) {
+        long shortest = CandleInterval.parse(interval, ZoneOffset.UTC).minMillis();
+        return (int) Math.min(64, allowedLateness / shortest + 2);
+    }
+
+    private static final class SeriesIndicators {
+        private final Indicator[] settled;
+        private Indicator[] live;
+        private final Candle[] recent; // Candles a late tick may still amend, oldest first
+        private int recentCount;
+
+        // Ring of the latest points: candle times and each candle's values, outputs wide
+        private final long[] times;
+        private final double[] values;
+        private final int width;
+        private final int[] offsets; // Where each indicator's outputs start within a point
+        private int next;
+        private int size;
+
+        private SeriesIndicators(Indicator[] indicators, int depth, int history, int width) {
+            this.settled = indicators;
+            this.live = copy(indicators);
+            this.recent = new Candle[depth];
+            this.times = new long[history];
+            this.values = new double[history * width];
+            this.width = width;
+            this.offsets = new int[indicators.length];
+            for (int i = 1; i < indicators.length; i++) {
+                offsets[i] = offsets[i - 1] + indicators[i - 1].outputs().size();
+            }
+        }
+
+        private void add(Candle candle) {
+            if (recentCount == 0 || candle.time() > recent[recentCount - 1].time()) {
+                if (recentCount == recent.length) {
+                    settleOldest();
+                }
+                recent[recentCount++] = candle;
+                for (Indicator indicator : live) {
+                    indicator.update(candle);
+                }
+                synchronized (this) {
+                    append(candle.time());
+                }
+                return;
+            }
+            if (candle.time() < recent[0].time()) {
+                return; // Older than any window a late tick can reach, so already final
+            }
+
+            // A recent candle was amended, or an empty window got its first tick
+            int stale = recentCount;
+            int i = 0;
+            while (recent[i].time() < candle.time()) {
+                i++;
+            }
+            if (recent[i].time() != candle.time()) {
+                if (recentCount == recent.length) {
+                    settleOldest();
+                    stale--;
+                    i--;
+                }
+                System.arraycopy(recent, i, recent, i + 1, recentCount - i);
+                recentCount++;
+            }
+            recent[i] = candle;
+            live = copy(settled);
+            synchronized (this) {
+                int dropped = Math.min(stale, size);
+                size -= dropped;
+                next = Math.floorMod(next - dropped, times.length);
+                for (int j = 0; j < recentCount; j++) {
+                    for (Indicator indicator : live) {
+                        indicator.update(recent[j]);
+                    }
+                    append(recent[j].time());
+                }
+            }
+        }
+
+        private void settleOldest() {
+            for (Indicator indicator : settled) {
+                indicator.update(recent[0]);
+            }
+            System.arraycopy(recent, 1, recent, 0, --recentCount);
+            recent[recentCount] = null;
+        }
+
+        private void append(long time) {
+            times[next] = time;
+            for (int i = 0; i < live.length; i++) {
+                live[i].write(values, next * width + offsets[i]);
+            }
+            next = next + 1 == times.length ? 0 : next + 1;
+            size = Math.min(size + 1, times.length);
+        }
+
+        private synchronized List<IndicatorPoint> points(List<String> outputs, int limit) {
+            int count = Math.min(Math.max(limit, 0), size);
+            List<IndicatorPoint> points = new ArrayList<>(count);
+            for (int k = count; k > 0; k--) {
+                int slot = Math.floorMod(next - k, times.length);
+                Map<String, Double> point = new LinkedHashMap<>();
+                for (int j = 0; j < width; j++) {
+                    double value = values[slot * width + j];
+                    point.put(outputs.get(j), Double.isNaN(value) ? null : value);
+                }
+                points.add(new IndicatorPoint(times[slot], point));
+            }
+            return points;
+        }
+
+        private static Indicator[] copy(Indicator[] indicators) {
+            Indicator[] copies = new Indicator[indicators.length];
+            for (int i = 0; i < indicators.length; i++) {
+                copies[i] = indicators[i].copy();
+            }
+            return copies;
+        }
+    }
+}
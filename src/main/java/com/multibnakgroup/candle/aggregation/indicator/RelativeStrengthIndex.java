@@ -0,0 +1,74 @@
+package com.multibnakgroup.candle.aggregation.indicator;
+
+import com.multibnakgroup.candle.aggregation.model.Candle;
+
+import java.util.List;
+
+// Wilder's RSI: gains and losses of the close averaged over n changes, then smoothed by 1 / n
+final class RelativeStrengthIndex implements Indicator {
+
+    private final String name;
+    private final int period;
+    private int changes;
+    private double previousClose = Double.NaN;
+    private double averageGain;
+    private double averageLoss;
+
+    RelativeStrengthIndex(String name, int period) {
+        this.name = name;
+        this.period = period;
+    }
+
+    private RelativeStrengthIndex(RelativeStrengthIndex other) {
+        this(other.name, other.period);
+        this.changes = other.changes;
+        this.previousClose = other.previousClose;
+        this.averageGain = other.averageGain;
+        this.averageLoss = other.averageLoss;
+    }
+
+    @Override
+    public List<String> outputs() {
+        return List.of(name);
+    }
+
+    @Override
+    public int warmup() {
+        return 10 * period;
+    }
+
+    @Override
+    public void update(Candle candle) {
+        double close = candle.close();
+        if (!Double.isNaN(previousClose)) {
+            double change = close - previousClose;
+            double gain = Math.max(change, 0.0);
+            double loss = Math.max(-change, 0.0);
+            if (changes < period) {
+                averageGain += gain / period;
+                averageLoss += loss / period;
+                changes++;
+            } else {
+                averageGain = (averageGain * (period - 1) + gain) / period;
+                averageLoss = (averageLoss * (period - 1) + loss) / period;
+            }
+        }
+        previousClose = close;
+    }
+
+    @Override
+    public void write(double[] values, int offset) {
+        if (changes < period) {
+            values[offset] = Double.NaN;
+        } else if (averageLoss == 0.0) {
+            values[offset] = averageGain == 0.0 ? 50.0 : 100.0;
+        } else {
+            values[offset] = 100.0 - 100.0 / (1.0 + averageGain / averageLoss);
+        }
+    }
+
+    @Override
+    public Indicator copy() {
+        return new RelativeStrengthIndex(this);
+    }
+}
@@ -0,0 +1,75 @@
+package com.multibnakgroup.candle.aggregation.indicator;
+
+/**
+ * The last n values with their running sum and sum of squares, for O(1)
+ * means and deviations over a sliding window.
+ */
+final class RollingWindow {
+
+    private final double[] values;
+    private int next;
+    private int count;
+    private double sum;
+    private double sumOfSquares;
+
+    RollingWindow(int size) {
+        this.values = new double[size];
+    }
+
+    private RollingWindow(RollingWindow other) {
+        this.values = other.values.clone();
+        this.next = other.next;
+        this.count = other.count;
+        this.sum = other.sum;
+        this.sumOfSquares = other.sumOfSquares;
+    }
+
+    void add(double value) {
+        if (count == values.length) {
+            double evicted = values[next];
+            sum -= evicted;
+            sumOfSquares -= evicted * evicted;
+        } else {
+            count++;
+        }
+        values[next] = value;
+        sum += value;
+        sumOfSquares += value * value;
+        if (++next == values.length) {
+            next = 0;
+            resum();
+        }
+    }
+
+    int size() {
+        return values.length;
+    }
+
+    boolean isFull() {
+        return count == values.length;
+    }
+
+    double mean() {
+        return sum / count;
+    }
+
+    // Population deviation; clamped as the running sums can leave a tiny negative variance behind
+    double standardDeviation() {
+        double mean = mean();
+        return Math.sqrt(Math.max(0.0, sumOfSquares / count - mean * mean));
+    }
+
+    // Once per lap, so rounding left by the subtractions cannot build up; amortized O(1)
+    private void resum() {
+        sum = 0;
+        sumOfSquares = 0;
+        for (double value : values) {
+            sum += value;
+            sumOfSquares += value * value;
+        }
+    }
+
+    RollingWindow copy() {
+        return new RollingWindow(this);
+    }
+}
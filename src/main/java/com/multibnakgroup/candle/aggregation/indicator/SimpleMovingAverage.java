@@ -0,0 +1,47 @@
+package com.multibnakgroup.candle.aggregation.indicator;
+
+import com.multibnakgroup.candle.aggregation.model.Candle;
+
+import java.util.List;
+
+// Mean close of the last n candles
+final class SimpleMovingAverage implements Indicator {
+
+    private final String name;
+    private final RollingWindow closes;
+
+    SimpleMovingAverage(String name, int period) {
+        this.name = name;
+        this.closes = new RollingWindow(period);
+    }
+
+    private SimpleMovingAverage(SimpleMovingAverage other) {
+        this.name = other.name;
+        this.closes = other.closes.copy();
+    }
+
+    @Override
+    public List<String> outputs() {
+        return List.of(name);
+    }
+
+    @Override
+    public int warmup() {
+        return closes.size();
+    }
+
+    @Override
+    public void update(Candle candle) {
+        closes.add(candle.close());
+    }
+
+    @Override
+    public void write(double[] values, int offset) {
+        values[offset] = closes.isFull() ? closes.mean() : Double.NaN;
+    }
+
+    @Override
+    public Indicator copy() {
+        return new SimpleMovingAverage(this);
+    }
+}
@@ -0,0 +1,29 @@
+package com.multibnakgroup.candle.aggregation.model;
+
+/**
+ * Extended fields of a candle, kept when detail aggregation is on. Every
+ * field either follows the tick order like open and close, or is a max or a
+ * sum, so coarser candles are rolled up from finer ones like the OHLC.
+ *
+ * @param turnover  Sum of mid prices; divided by the candle's volume it is the
+ *                  VWAP, every tick weighing one until ticks carry a size
+ * @param spreadSum Sum of ask - bid over the candle's ticks
+ * @param upticks   Ticks whose mid rose over the symbol's previous tick
+ * @param downticks Ticks whose mid fell below the symbol's previous tick
+ */
+public record CandleDetails(
+        long time,
+        double bidOpen,
+        double bidHigh,
+        double bidLow,
+        double bidClose,
+        double askOpen,
+        double askHigh,
+        double askLow,
+        double askClose,
+        double turnover,
+        double spreadSum,
+        double spreadMax,
+        long upticks,
+        long downticks
+) {}
@@ -0,0 +1,188 @@
+package com.multibnakgroup.candle.aggregation.model;
+
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneOffsetTransitionRule;
+import java.time.zone.ZoneRules;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Window boundaries of a candle interval. {@code Ns}, {@code Nm} and
+ * {@code Nh} are fixed lengths aligned to the epoch; {@code 1d}, {@code 1w}
+ * and {@code 1M} follow the calendar of a time zone, so their windows start at
+ * local midnight, on Monday and on the first of the month, and can be an hour
+ * shorter or longer across daylight saving changes.
+ */
+public final class CandleInterval {
+
+    private static final Pattern FORMAT = Pattern.compile("(\\d+)([smhdwM])");
+    private static final long HOUR = Duration.ofHours(1).toMillis();
+    private static final long DAY = Duration.ofDays(1).toMillis();
+
+    private enum Kind { FIXED, DAY, WEEK, MONTH }
+
+    private final String name;
+    private final Kind kind;
+    private final long millis; // Exact for fixed intervals, nominal for calendar ones
+    private final ZoneId zone;
+
+    private CandleInterval(String name, Kind kind, long millis, ZoneId zone) {
+        this.name = name;
+        this.kind = kind;
+        this.millis = millis;
+        this.zone = zone;
+    }
+
+    public static CandleInterval fixed(String name, long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Interval length must be positive: " + name);
+        }
+        return new CandleInterval(name, Kind.FIXED, millis, ZoneOffset.UTC);
+    }
+
+    public static CandleInterval parse(String name, ZoneId zone) {
+        Matcher matcher = FORMAT.matcher(name);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Unsupported interval: " + name);
+        }
+        long amount = Long.parseLong(matcher.group(1));
+        String unit = matcher.group(2);
+        return switch (unit) {
+            case "s" -> fixed(name, Duration.ofSeconds(amount).toMillis());
+            case "m" -> fixed(name, Duration.ofMinutes(amount).toMillis());
+            case "h" -> fixed(name, Duration.ofHours(amount).toMillis());
+            default -> {
+                if (amount != 1) {
+                    throw new IllegalArgumentException("Calendar intervals are 1d, 1w or 1M, not " + name);
+                }
+                yield switch (unit) {
+                    case "d" -> new CandleInterval(name, Kind.DAY, DAY, zone);
+                    case "w" -> new CandleInterval(name, Kind.WEEK, 7 * DAY, zone);
+                    default -> new CandleInterval(name, Kind.MONTH, 30 * DAY, zone);
+                };
+            }
+        };
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public boolean isCalendar() {
+        return kind != Kind.FIXED;
+    }
+
+    // Start of the window containing time
+    public long start(long time) {
+        if (kind == Kind.FIXED) {
+            return time - Math.floorMod(time, millis);
+        }
+        LocalDate date = Instant.ofEpochMilli(time).atZone(zone).toLocalDate();
+        LocalDate first = switch (kind) {
+            case WEEK -> date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case MONTH -> date.withDayOfMonth(1);
+            default -> date;
+        };
+        return first.atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+
+    // Start of the window after the one starting at start
+    public long next(long start) {
+        if (kind == Kind.FIXED) {
+            return start + millis;
+        }
+        LocalDate date = Instant.ofEpochMilli(start).atZone(zone).toLocalDate();
+        LocalDate next = switch (kind) {
+            case WEEK -> date.plusWeeks(1);
+            case MONTH -> date.plusMonths(1);
+            default -> date.plusDays(1);
+        };
+        return next.atStartOfDay(zone).toInstant().toEpochMilli();
+    }
+
+    // Typical window length, used to order intervals
+    public long nominalMillis() {
+        return millis;
+    }
+
+    // Shortest a window can be, allowing for short months and daylight saving
+    public long minMillis() {
+        return switch (kind) {
+            case FIXED -> millis;
+            case MONTH -> 28 * DAY - HOUR;
+            default -> millis - HOUR;
+        };
+    }
+
+    // Longest a window can be
+    public long maxMillis() {
+        return switch (kind) {
+            case FIXED -> millis;
+            case MONTH -> 31 * DAY + HOUR;
+            default -> millis + HOUR;
+        };
+    }
+
+    /**
+     * Whether every boundary of this interval is also a boundary of finer, so
+     * this interval's candles can be rolled up from finer's closed ones.
+     */
+    public boolean alignsWith(CandleInterval finer) {
+        if (finer == this || finer.maxMillis() > minMillis()) {
+            return false;
+        }
+        if (kind == Kind.FIXED) {
+            return finer.kind == Kind.FIXED && millis % finer.millis == 0;
+        }
+        if (finer.kind == Kind.FIXED) {
+            // Local midnights fall on the fixed grid only if every offset of the zone does
+            return DAY % finer.millis == 0 && offsetsAreMultiplesOf(finer.millis);
+        }
+        // Weeks and months are made of whole days; months are not made of whole weeks
+        return finer.kind == Kind.DAY && zone.equals(finer.zone);
+    }
+
+    private boolean offsetsAreMultiplesOf(long length) {
+        ZoneRules rules = zone.getRules();
+        if (rules.isFixedOffset()) {
+            return rules.getOffset(Instant.EPOCH).getTotalSeconds() * 1000L % length == 0;
+        }
+        // Offsets in force since the epoch, plus those of the recurring daylight saving rules
+        for (ZoneOffsetTransition transition : rules.getTransitions()) {
+            if (transition.getInstant().isAfter(Instant.EPOCH)
+                    && transition.getOffsetAfter().getTotalSeconds() * 1000L % length != 0) {
+                return false;
+            }
+        }
+        for (ZoneOffsetTransitionRule rule : rules.getTransitionRules()) {
+            if (rule.getOffsetAfter().getTotalSeconds() * 1000L % length != 0) {
+                return false;
+            }
+        }
+        return rules.getOffset(Instant.EPOCH).getTotalSeconds() * 1000L % length == 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CandleInterval other && name.equals(other.name) && kind == other.kind
+                && millis == other.millis && zone.equals(other.zone);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, kind, millis, zone);
+    }
+
+    @Override
+    public String toString() {
+        return isCalendar() ? name + " (" + zone + ")" : name;
+    }
+}
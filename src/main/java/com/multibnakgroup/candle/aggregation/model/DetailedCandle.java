@@ -0,0 +1,37 @@
+package com.multibnakgroup.candle.aggregation.model;
+
+/**
+ * A candle joined with its details, with the averages worked out, as served
+ * to clients that ask for the extended fields.
+ *
+ * @param tickImbalance Upticks minus downticks
+ */
+public record DetailedCandle(
+        long time,
+        double open,
+        double high,
+        double low,
+        double close,
+        long volume,
+        double vwap,
+        double averageSpread,
+        double maxSpread,
+        double bidOpen,
+        double bidHigh,
+        double bidLow,
+        double bidClose,
+        double askOpen,
+        double askHigh,
+        double askLow,
+        double askClose,
+        long tickImbalance
+) {
+
+    public static DetailedCandle of(Candle candle, CandleDetails details) {
+        return new DetailedCandle(candle.time(), candle.open(), candle.high(), candle.low(), candle.close(),
+                candle.volume(), details.turnover() / candle.volume(), details.spreadSum() / candle.volume(),
+                details.spreadMax(), details.bidOpen(), details.bidHigh(), details.bidLow(), details.bidClose(),
+                details.askOpen(), details.askHigh(), details.askLow(), details.askClose(),
+                details.upticks() - details.downticks());
+    }
+}
@@ -0,0 +1,12 @@
+package com.multibnakgroup.candle.aggregation.model;
+
+import java.util.Map;
+
+/**
+ * Indicator values as of the close of the candle at time, by output name;
+ * null while an indicator has not seen enough candles yet.
+ */
+public record IndicatorPoint(
+        long time,
+        Map<String, Double> values
+) {}
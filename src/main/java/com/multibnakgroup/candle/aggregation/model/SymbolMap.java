@@ -0,0 +1,53 @@
+package com.multibnakgroup.candle.aggregation.model;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Values by {@link SymbolTable} ID, in fixed-size pages. Growing only adds
+ * pages and never moves a slot, so each symbol's single writer stores into
+ * its slot without a lock while any thread reads.
+ */
+public final class SymbolMap<T> {
+
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+
+    @SuppressWarnings("unchecked")
+    private volatile AtomicReferenceArray<T>[] pages = new AtomicReferenceArray[0];
+
+    public T get(int id) {
+        AtomicReferenceArray<T>[] current = pages;
+        int page = id >>> PAGE_BITS;
+        return page < current.length ? current[page].get(id & PAGE_MASK) : null;
+    }
+
+    public void put(int id, T value) {
+        AtomicReferenceArray<T>[] current = pages;
+        int page = id >>> PAGE_BITS;
+        (page < current.length ? current[page] : grow(page)).set(id & PAGE_MASK, value);
+    }
+
+    // One past the highest ID that may hold a value
+    public int capacity() {
+        return pages.length << PAGE_BITS;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized void clear() {
+        pages = new AtomicReferenceArray[0];
+    }
+
+    private synchronized AtomicReferenceArray<T> grow(int page) {
+        AtomicReferenceArray<T>[] current = pages;
+        if (page >= current.length) {
+            AtomicReferenceArray<T>[] grown = Arrays.copyOf(current, Math.max(page + 1, current.length * 2));
+            for (int i = current.length; i < grown.length; i++) {
+                grown[i] = new AtomicReferenceArray<>(1 << PAGE_BITS);
+            }
+            pages = grown;
+            current = grown;
+        }
+        return current[page];
+    }
+}
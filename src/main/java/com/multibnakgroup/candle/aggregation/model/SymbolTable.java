@@ -0,0 +1,54 @@
+package com.multibnakgroup.candle.aggregation.model;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of dense int IDs for names, handed out in order of first use
+ * and never reused. Ticks are interned once as they enter the service, after
+ * which the pipeline indexes arrays by ID instead of hashing strings. IDs
+ * only live as long as the process; anything persisted keeps the names.
+ */
+public final class SymbolTable {
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[64];
+    private volatile int size;
+
+    public int intern(String name) {
+        Integer id = ids.get(name);
+        return id != null ? id : add(name);
+    }
+
+    // The ID of a name seen before, or -1
+    public int find(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private synchronized int add(String name) {
+        Integer existing = ids.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        int id = size;
+        String[] current = names;
+        if (id == current.length) {
+            current = Arrays.copyOf(current, id * 2);
+        }
+        current[id] = name;
+        names = current;
+        size = id + 1;
+        // The name is readable by ID before anyone can look the ID up
+        ids.put(name, id);
+        return id;
+    }
+}
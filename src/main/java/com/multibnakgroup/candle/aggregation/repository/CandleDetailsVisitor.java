@@ -0,0 +1,15 @@
+package com.multibnakgroup.candle.aggregation.repository;
+
+/**
+ * Receives the fields of one stored candle together with its details, as
+ * {@link CandleVisitor} does the candle alone, so detailed ranges stream
+ * without a record per element either.
+ */
+@FunctionalInterface
+public interface CandleDetailsVisitor {
+
+    void visit(long time, double open, double high, double low, double close, long volume,
+               double bidOpen, double bidHigh, double bidLow, double bidClose,
+               double askOpen, double askHigh, double askLow, double askClose,
+               double turnover, double spreadSum, double spreadMax, long upticks, long downticks);
+}
@@ -1,59 +1,391 @@
 package com.multibnakgroup.candle.aggregation.repository;
 
 import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.model.CandleDetails;
+import com.multibnakgroup.candle.aggregation.model.DetailedCandle;
+import com.multibnakgroup.candle.aggregation.model.SymbolMap;
+import com.multibnakgroup.candle.aggregation.model.SymbolTable;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * Candle series by symbol ID and interval ID. Both dictionaries are owned
+ * here so the aggregators, which save through IDs, and the name-based read
+ * API agree on them; each symbol's row is an array indexed by interval.
+ * Candle details, when aggregated, are stored by the candle's series in
+ * columns of their own, so queries that do not ask for them never touch them.
+ */
 @Repository
-public class CandleRepository {
+public class CandleRepository implements MeterBinder {
 
-    private final Map<String, Map<String, NavigableMap<Long, Candle>>> storage =
-            new ConcurrentHashMap<>();
+    // Upper bounds of the result sizes findCandles latency is broken down by
+    private static final int[] RESULT_SIZE_BUCKETS = {100, 1_000, 10_000};
+    private static final String[] RESULT_SIZE_TAGS = {"100", "1000", "10000", "more"};
+
+    private final SymbolTable symbols = new SymbolTable();
+    private final SymbolTable intervals = new SymbolTable();
+    private final SymbolMap<SeriesRow> storage = new SymbolMap<>();
+    private final CandleSeriesFactory seriesFactory;
+
+    // Null until bound to a registry
+    private volatile MeterRegistry meterRegistry;
+    private volatile Timer[] findLatency;
+
+    public CandleRepository() {
+        this((symbol, interval) -> new DirectCandleSeries());
+    }
+
+    @Autowired
+    public CandleRepository(CandleSeriesFactory seriesFactory) {
+        this.seriesFactory = seriesFactory;
+        // Persistent engines hand back what earlier runs wrote, mapped rather than loaded
+        seriesFactory.existingSeries().forEach((symbol, series) -> series.forEach((interval, s) -> {
+            int symbolId = symbols.intern(symbol);
+            int intervalId = intervals.intern(interval);
+            SeriesRow row = row(symbolId, intervalId);
+            row.series.set(intervalId, s);
+            s.find(null, null, 1).forEach(candle -> updateLatest(row, intervalId, candle));
+        }));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Timer[] timers = new Timer[RESULT_SIZE_TAGS.length];
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = Timer.builder("candle.repository.find")
+                    .tag("results", RESULT_SIZE_TAGS[i])
+                    .description("History query latency by number of candles returned, up to the tag value")
+                    .publishPercentiles(0.5, 0.99)
+                    .register(registry);
+        }
+        findLatency = timers;
+        meterRegistry = registry;
+        forEachSeries((symbolId, intervalId, series) ->
+                registerSize(symbols.name(symbolId), intervals.name(intervalId), series));
+    }
+
+    // Shared with the aggregators, which intern each symbol once at ingest
+    public SymbolTable getSymbolTable() {
+        return symbols;
+    }
+
+    // Interned once per interval by the aggregators, so saves index arrays only
+    public int intervalId(String interval) {
+        return intervals.intern(interval);
+    }
 
     public void save(String symbol, String interval, Candle candle) {
-        storage.computeIfAbsent(symbol, k -> new ConcurrentHashMap<>())
-                .computeIfAbsent(interval, k -> new TreeMap<>())
-                .put(candle.time(), candle);
+        save(symbols.intern(symbol), intervals.intern(interval), candle);
+    }
+
+    // Must be called from the symbol's single writer
+    public void save(int symbolId, int intervalId, Candle candle) {
+        save(symbolId, intervalId, candle, null);
+    }
+
+    // Saves the candle with its details in the same slot of its series; same single-writer rule
+    public void save(int symbolId, int intervalId, Candle candle, CandleDetails details) {
+        SeriesRow row = writableRow(symbolId, intervalId);
+        row.series.get(intervalId).save(candle, details);
+        updateLatest(row, intervalId, candle);
+    }
+
+    public void save(String symbol, String interval, Candle candle, CandleDetails details) {
+        save(symbols.intern(symbol), intervals.intern(interval), candle, details);
+    }
+
+    // Bulk form of save for candles in ascending time order, such as a backfill's; same single-writer rule
+    public void saveAll(int symbolId, int intervalId, List<Candle> candles) {
+        saveAll(symbolId, intervalId, candles, null);
+    }
+
+    // Same with each candle's details at the same position, nulls where there are none
+    public void saveAll(int symbolId, int intervalId, List<Candle> candles, List<CandleDetails> details) {
+        if (candles.isEmpty()) {
+            return;
+        }
+        SeriesRow row = writableRow(symbolId, intervalId);
+        row.series.get(intervalId).saveAll(candles, details);
+        updateLatest(row, intervalId, candles.get(candles.size() - 1));
+    }
+
+    public CandleDetails findDetails(String symbol, String interval, long time) {
+        CandleDetails[] found = new CandleDetails[1];
+        scanDetailedCandles(symbol, interval, time, time, 1, (t, open, high, low, close, volume,
+                bidOpen, bidHigh, bidLow, bidClose, askOpen, askHigh, askLow, askClose,
+                turnover, spreadSum, spreadMax, upticks, downticks) ->
+                found[0] = new CandleDetails(t, bidOpen, bidHigh, bidLow, bidClose, askOpen, askHigh, askLow,
+                        askClose, turnover, spreadSum, spreadMax, upticks, downticks));
+        return found[0];
+    }
+
+    /**
+     * The same selection as findCandles, each candle joined with its details.
+     * Candles stored without details, such as those from before details were
+     * turned on, are left out.
+     */
+    public List<DetailedCandle> findDetailedCandles(String symbol, String interval, Long from, Long to,
+                                                    Integer limit) {
+        List<DetailedCandle> joined = new ArrayList<>();
+        scanDetailedCandles(symbol, interval, from, to, limit, (time, open, high, low, close, volume,
+                bidOpen, bidHigh, bidLow, bidClose, askOpen, askHigh, askLow, askClose,
+                turnover, spreadSum, spreadMax, upticks, downticks) ->
+                joined.add(DetailedCandle.of(new Candle(time, open, high, low, close, volume),
+                        new CandleDetails(time, bidOpen, bidHigh, bidLow, bidClose, askOpen, askHigh, askLow,
+                                askClose, turnover, spreadSum, spreadMax, upticks, downticks))));
+        return joined;
+    }
+
+    // Streams the same selection as findDetailedCandles to the visitor and returns how many candles it saw
+    public int scanDetailedCandles(String symbol, String interval, Long from, Long to, Integer limit,
+                                   CandleDetailsVisitor visitor) {
+        long start = System.nanoTime();
+        CandleSeries series = series(symbol, interval);
+        if (series == null) {
+            return 0;
+        }
+
+        int count = series.scanDetails(from, to, limit, visitor);
+        recordFind(start, count);
+        return count;
     }
 
     public List<Candle> findCandles(String symbol, String interval, Long from, Long to, Integer limit) {
-        Map<String, NavigableMap<Long, Candle>> symbolData = storage.get(symbol);
-        if (symbolData == null) {
+        long start = System.nanoTime();
+        CandleSeries series = series(symbol, interval);
+        if (series == null) {
             return Collections.emptyList();
         }
 
-        NavigableMap<Long, Candle> intervalData = symbolData.get(interval);
-        if (intervalData == null) {
-            return Collections.emptyList();
+        List<Candle> candles = series.find(from, to, limit);
+        recordFind(start, candles.size());
+        return candles;
+    }
+
+    // Streams the same selection as findCandles to the visitor and returns how many candles it saw
+    public int scanCandles(String symbol, String interval, Long from, Long to, Integer limit, CandleVisitor visitor) {
+        long start = System.nanoTime();
+        CandleSeries series = series(symbol, interval);
+        if (series == null) {
+            return 0;
+        }
+
+        int count = series.scan(from, to, limit, visitor);
+        recordFind(start, count);
+        return count;
+    }
+
+    // Applies retention to one series; returns the bytes its engine freed
+    public long truncateBefore(String symbol, String interval, long time) {
+        int symbolId = symbols.find(symbol);
+        int intervalId = intervals.find(interval);
+        return symbolId < 0 || intervalId < 0 ? 0 : truncateBefore(symbolId, intervalId, time);
+    }
+
+    // Same by IDs, for retention walking every stored symbol; must be called from the symbol's single writer
+    public long truncateBefore(int symbolId, int intervalId, long time) {
+        SeriesRow row = storage.get(symbolId);
+        if (row == null || intervalId >= row.width()) {
+            return 0;
         }
+        CandleSeries series = row.series.get(intervalId);
+        return series == null ? 0 : series.truncateBefore(time);
+    }
 
-        // Get candles in time range
-        NavigableMap<Long, Candle> rangeMap = intervalData;
-        if (from != null && to != null) {
-            rangeMap = intervalData.subMap(from, true, to, true);
-        } else if (from != null) {
-            rangeMap = intervalData.tailMap(from, true);
-        } else if (to != null) {
-            rangeMap = intervalData.headMap(to, true);
+    // Newest stored candle of every symbol for the interval, from the index rather than the series
+    public Map<String, Candle> getLatestCandles(String interval) {
+        int intervalId = intervals.find(interval);
+        if (intervalId < 0) {
+            return Collections.emptyMap();
+        }
+        Map<String, Candle> newest = new TreeMap<>();
+        for (int symbolId = 0; symbolId < symbols.size(); symbolId++) {
+            SeriesRow row = storage.get(symbolId);
+            Candle candle = row == null || intervalId >= row.width() ? null : row.latest.get(intervalId);
+            if (candle != null) {
+                newest.put(symbols.name(symbolId), candle);
+            }
         }
+        return newest;
+    }
 
-        List<Candle> candles = new ArrayList<>(rangeMap.values());
+    // Newest stored candle of one series, from the index; null if it has none
+    public Candle getLatestCandle(int symbolId, int intervalId) {
+        SeriesRow row = storage.get(symbolId);
+        return row == null || intervalId >= row.width() ? null : row.latest.get(intervalId);
+    }
 
-        // Apply limit
-        if (limit != null && limit > 0 && candles.size() > limit) {
-            candles = candles.subList(Math.max(0, candles.size() - limit), candles.size());
+    // Intervals the symbol has a series for
+    public List<String> getIntervals(String symbol) {
+        int symbolId = symbols.find(symbol);
+        SeriesRow row = symbolId < 0 ? null : storage.get(symbolId);
+        List<String> stored = new ArrayList<>();
+        for (int intervalId = 0; row != null && intervalId < row.width(); intervalId++) {
+            if (row.series.get(intervalId) != null) {
+                stored.add(intervals.name(intervalId));
+            }
         }
+        return stored;
+    }
 
-        return candles;
+    /**
+     * Drops every series of one symbol, such as one handed to another node,
+     * along with its gauges, newest candles and whatever the engine persisted,
+     * so neither metrics nor a restart bring it back. Same single-writer rule
+     * as save.
+     */
+    public void remove(String symbol) {
+        int symbolId = symbols.find(symbol);
+        SeriesRow row = symbolId < 0 ? null : storage.get(symbolId);
+        if (row == null) {
+            return;
+        }
+        storage.put(symbolId, null);
+        MeterRegistry registry = meterRegistry;
+        for (int intervalId = 0; intervalId < row.width(); intervalId++) {
+            row.latest.set(intervalId, null);
+            CandleSeries series = row.series.get(intervalId);
+            if (series == null) {
+                continue;
+            }
+            if (registry != null) {
+                Gauge gauge = registry.find("candle.repository.candles")
+                        .tags("symbol", symbol, "interval", intervals.name(intervalId))
+                        .gauge();
+                if (gauge != null) {
+                    registry.remove(gauge);
+                }
+            }
+            series.delete();
+        }
     }
 
     public List<String> getAllSymbols() {
-        return new ArrayList<>(storage.keySet());
+        List<String> stored = new ArrayList<>();
+        for (int symbolId = 0; symbolId < symbols.size(); symbolId++) {
+            if (storage.get(symbolId) != null) {
+                stored.add(symbols.name(symbolId));
+            }
+        }
+        return stored;
     }
 
+    // Drops every series; symbol and interval IDs stay assigned
     public void clear() {
         storage.clear();
     }
+
+    // Each series has a single writer, so the read-then-set cannot lose a newer candle
+    private static void updateLatest(SeriesRow row, int intervalId, Candle candle) {
+        Candle newest = row.latest.get(intervalId);
+        if (newest == null || candle.time() >= newest.time()) {
+            row.latest.set(intervalId, candle);
+        }
+    }
+
+    // The symbol's row with the interval's series created
+    private SeriesRow writableRow(int symbolId, int intervalId) {
+        SeriesRow row = storage.get(symbolId);
+        if (row == null || intervalId >= row.width()) {
+            row = row(symbolId, intervalId);
+        }
+        if (row.series.get(intervalId) == null) {
+            String symbol = symbols.name(symbolId);
+            String interval = intervals.name(intervalId);
+            CandleSeries series = seriesFactory.create(symbol, interval);
+            row.series.set(intervalId, series);
+            registerSize(symbol, interval, series);
+        }
+        return row;
+    }
+
+    // The symbol's row, widened to cover every interval known so far
+    private SeriesRow row(int symbolId, int intervalId) {
+        SeriesRow row = storage.get(symbolId);
+        if (row == null || intervalId >= row.width()) {
+            row = new SeriesRow(row, Math.max(intervalId + 1, intervals.size()));
+            storage.put(symbolId, row);
+        }
+        return row;
+    }
+
+    private CandleSeries series(String symbol, String interval) {
+        int symbolId = symbols.find(symbol);
+        int intervalId = intervals.find(interval);
+        if (symbolId < 0 || intervalId < 0) {
+            return null;
+        }
+        SeriesRow row = storage.get(symbolId);
+        return row == null || intervalId >= row.width() ? null : row.series.get(intervalId);
+    }
+
+    private void forEachSeries(SeriesConsumer consumer) {
+        for (int symbolId = 0; symbolId < symbols.size(); symbolId++) {
+            SeriesRow row = storage.get(symbolId);
+            for (int intervalId = 0; row != null && intervalId < row.width(); intervalId++) {
+                CandleSeries series = row.series.get(intervalId);
+                if (series != null) {
+                    consumer.accept(symbolId, intervalId, series);
+                }
+            }
+        }
+    }
+
+    private void recordFind(long start, int results) {
+        Timer[] timers = findLatency;
+        if (timers != null) {
+            timers[resultSizeBucket(results)].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void registerSize(String symbol, String interval, CandleSeries series) {
+        MeterRegistry registry = meterRegistry;
+        if (registry != null) {
+            Gauge.builder("candle.repository.candles", series, CandleSeries::size)
+                    .tags("symbol", symbol, "interval", interval)
+                    .description("Candles stored in the series")
+                    .register(registry);
+        }
+    }
+
+    @FunctionalInterface
+    private interface SeriesConsumer {
+        void accept(int symbolId, int intervalId, CandleSeries series);
+    }
+
+    // One symbol's series and newest candles by interval ID; replaced by a wider copy when a new interval appears
+    private static final class SeriesRow {
+        private final AtomicReferenceArray<CandleSeries> series;
+        private final AtomicReferenceArray<Candle> latest;
+
+        private SeriesRow(SeriesRow narrower, int width) {
+            this.series = new AtomicReferenceArray<>(width);
+            this.latest = new AtomicReferenceArray<>(width);
+            for (int i = 0; narrower != null && i < narrower.width(); i++) {
+                series.set(i, narrower.series.get(i));
+                latest.set(i, narrower.latest.get(i));
+            }
+        }
+
+        private int width() {
+            return series.length();
+        }
+    }
+
+    private static int resultSizeBucket(int size) {
+        for (int i = 0; i < RESULT_SIZE_BUCKETS.length; i++) {
+            if (size <= RESULT_SIZE_BUCKETS[i]) {
+                return i;
+            }
+        }
+        return RESULT_SIZE_BUCKETS.length;
+    }
 }
@@ -0,0 +1,96 @@
+package com.multibnakgroup.candle.aggregation.repository;
+
+import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.model.CandleDetails;
+
+import java.util.List;
+
+/**
+ * Time-ordered candles of one (symbol, interval). Each series has a single
+ * writer, the ingest shard owning the symbol, and any number of readers.
+ *
+ * <p>Engines that store candle details keep them in the candle's slot, in
+ * columns of their own beside the OHLC ones, so they are written, truncated
+ * and deleted with the candle. A series never given details has none of
+ * those columns.
+ */
+public interface CandleSeries {
+
+    // Appends, or replaces the candle with the same time
+    void save(Candle candle);
+
+    /**
+     * Saves the candle as {@link #save(Candle)} does, with its details in the
+     * same slot. Null details store the candle without any, except that a
+     * replaced candle keeps the details it had.
+     */
+    default void save(Candle candle, CandleDetails details) {
+        if (details != null) {
+            throw new UnsupportedOperationException(getClass().getSimpleName() + " does not store candle details");
+        }
+        save(candle);
+    }
+
+    /**
+     * Saves candles in ascending time order, as {@link #save} would one by
+     * one. Engines that have to shift stored candles to fit older ones in
+     * override it to do so once for the whole list.
+     */
+    default void saveAll(List<Candle> candles) {
+        for (Candle candle : candles) {
+            save(candle);
+        }
+    }
+
+    // Same with each candle's details, at the same position in details, which may hold nulls or be null itself
+    default void saveAll(List<Candle> candles, List<CandleDetails> details) {
+        if (details == null) {
+            saveAll(candles);
+            return;
+        }
+        for (int i = 0; i < candles.size(); i++) {
+            save(candles.get(i), details.get(i));
+        }
+    }
+
+    // Inclusive time range, keeping the latest candles when limited
+    List<Candle> find(Long from, Long to, Integer limit);
+
+    /**
+     * Same selection as {@link #find}, handed to the visitor in ascending time
+     * order instead of collected. Returns the number of candles visited.
+     */
+    default int scan(Long from, Long to, Integer limit, CandleVisitor visitor) {
+        List<Candle> candles = find(from, to, limit);
+        for (Candle c : candles) {
+            visitor.visit(c.time(), c.open(), c.high(), c.low(), c.close(), c.volume());
+        }
+        return candles.size();
+    }
+
+    /**
+     * Same selection as {@link #scan}, each candle handed over with its
+     * details; candles stored without details are skipped. Returns the number
+     * of candles visited.
+     */
+    default int scanDetails(Long from, Long to, Integer limit, CandleDetailsVisitor visitor) {
+        return 0;
+    }
+
+    int size();
+
+    /**
+     * Drops candles older than time, in whatever units the engine frees
+     * storage in, and returns the bytes reclaimed. The newest candle is always
+     * kept. Called by the series' writer.
+     */
+    long truncateBefore(long time);
+
+    /**
+     * Releases the series and deletes whatever the engine persisted for it, so
+     * a restart does not bring it back. Called by the series' writer once the
+     * series is no longer reachable from the repository.
+     */
+    default void delete() {
+    }
+}
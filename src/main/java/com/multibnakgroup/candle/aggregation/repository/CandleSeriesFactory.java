@@ -0,0 +1,14 @@
+package com.multibnakgroup.candle.aggregation.repository;
+
+import java.util.Map;
+
+@FunctionalInterface
+public interface CandleSeriesFactory {
+
+    CandleSeries create(String symbol, String interval);
+
+    // Series left behind by a previous run, keyed by symbol then interval
+    default Map<String, Map<String, CandleSeries>> existingSeries() {
+        return Map.of();
+    }
+}
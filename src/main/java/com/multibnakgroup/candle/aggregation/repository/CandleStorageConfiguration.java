@@ -0,0 +1,23 @@
+package com.multibnakgroup.candle.aggregation.repository;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Locale;
+
+@Configuration
+public class CandleStorageConfiguration {
+
+    @Bean
+    public CandleSeriesFactory candleSeriesFactory(CandleStorageProperties properties) {
+        return switch (properties.engine().toLowerCase(Locale.ROOT)) {
+            case "heap" -> (symbol, interval) -> new DirectCandleSeries(false);
+            case "offheap" -> (symbol, interval) -> new DirectCandleSeries();
+            case "mapped" -> new MappedCandleSeriesFactory(
+                    properties.mapped().directory(),
+                    properties.mapped().segmentSpan(),
+                    properties.mapped().retention());
+            default -> throw new IllegalArgumentException("Unknown candle storage engine: " + properties.engine());
+        };
+    }
+}
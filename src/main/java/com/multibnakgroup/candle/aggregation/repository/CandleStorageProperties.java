@@ -0,0 +1,20 @@
+package com.multibnakgroup.candle.aggregation.repository;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+@ConfigurationProperties("candle.storage")
+public record CandleStorageProperties(
+        @DefaultValue("offheap") String engine,
+        @DefaultValue Mapped mapped
+) {
+
+    public record Mapped(
+            @DefaultValue("data/candles") Path directory,
+            @DefaultValue("1d") Duration segmentSpan,
+            @DefaultValue("0s") Duration retention // Zero keeps every segment
+    ) {}
+}
@@ -0,0 +1,11 @@
+package com.multibnakgroup.candle.aggregation.repository;
+
+/**
+ * Receives the fields of one stored candle, so a range can be streamed to a
+ * writer without materializing a {@code Candle} per element.
+ */
+@FunctionalInterface
+public interface CandleVisitor {
+
+    void visit(long time, double open, double high, double low, double close, long volume);
+}
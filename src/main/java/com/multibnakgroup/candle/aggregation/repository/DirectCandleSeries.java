@@ -0,0 +1,640 @@
+package com.multibnakgroup.candle.aggregation.repository;
+
+import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.model.CandleDetails;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Columnar series held in {@link ByteBuffer} segments, direct (outside the
+ * heap) by default. Each segment stores time/open/high/low/close/volume as six
+ * primitive columns, so a candle costs 48 bytes and range lookups binary
+ * search the time column. The first segment starts small and doubles until it
+ * reaches full size, so sparse series do not reserve a whole segment.
+ *
+ * <p>One writer, any number of wait-free readers. Appends are written past the
+ * published size and become visible when it is bumped. The rarer out-of-order
+ * insert copies the affected segments and publishes a new segment table, so
+ * readers holding the old one never see the tail shift. Replacing a candle in
+ * place, which late ticks do to the last few windows, is covered by a sequence
+ * lock that readers check per candle, retrying just that candle if it changed
+ * under them.
+ *
+ * <p>Indices are never renumbered: retention drops whole segments from the
+ * front by publishing a shorter segment table that starts further in, so
+ * readers holding the previous table keep reading what they started on.
+ *
+ * <p>Candle details, once a series is given any, live in a second buffer per
+ * segment with fourteen more columns at the same slots: the candle's time,
+ * or {@link #ABSENT} where it was stored without details, then the detail
+ * fields. Both buffers of a segment are copied, published and dropped
+ * together, and readers check one sequence for both.
+ */
+public class DirectCandleSeries implements CandleSeries {
+
+    private static final VarHandle SEQUENCE;
+
+    static {
+        try {
+            SEQUENCE = MethodHandles.lookup().findVarHandle(DirectCandleSeries.class, "sequence", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final int SEGMENT_SHIFT = 12;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int COLUMNS = 6;
+    private static final int DETAIL_COLUMNS = 14;
+
+    private static final int TIME = 0;
+    private static final int OPEN = 1;
+    private static final int HIGH = 2;
+    private static final int LOW = 3;
+    private static final int CLOSE = 4;
+    private static final int VOLUME = 5;
+
+    private static final int DETAIL_TIME = 0;
+    private static final int BID_OPEN = 1;
+    private static final int BID_HIGH = 2;
+    private static final int BID_LOW = 3;
+    private static final int BID_CLOSE = 4;
+    private static final int ASK_OPEN = 5;
+    private static final int ASK_HIGH = 6;
+    private static final int ASK_LOW = 7;
+    private static final int ASK_CLOSE = 8;
+    private static final int TURNOVER = 9;
+    private static final int SPREAD_SUM = 10;
+    private static final int SPREAD_MAX = 11;
+    private static final int UPTICKS = 12;
+    private static final int DOWNTICKS = 13;
+
+    // Detail time of a slot whose candle has no details
+    private static final long ABSENT = Long.MIN_VALUE;
+
+    private final boolean direct;
+
+    // Readers load size before segments, the writer publishes segments before size
+    private volatile Segments segments;
+    private volatile int size;
+
+    // Odd while the writer replaces a published candle in place
+    private volatile long sequence;
+
+    /**
+     * Segment table starting at segment number first; candles before first *
+     * SEGMENT_SIZE were dropped. Details is null until the series gets its
+     * first details, then holds one buffer per candle segment.
+     */
+    private record Segments(ByteBuffer[] buffers, ByteBuffer[] details, int first) {
+        int firstIndex() {
+            return first << SEGMENT_SHIFT;
+        }
+
+        ByteBuffer segment(int index) {
+            return buffers[(index >>> SEGMENT_SHIFT) - first];
+        }
+
+        ByteBuffer detailSegment(int index) {
+            return details[(index >>> SEGMENT_SHIFT) - first];
+        }
+    }
+
+    public DirectCandleSeries() {
+        this(true);
+    }
+
+    // Heap buffers give the same layout and concurrency without reserving native memory
+    public DirectCandleSeries(boolean direct) {
+        this.direct = direct;
+        this.segments = new Segments(new ByteBuffer[]{allocate(INITIAL_CAPACITY)}, null, 0);
+    }
+
+    @Override
+    public void save(Candle candle) {
+        save(candle, null);
+    }
+
+    @Override
+    public void save(Candle candle, CandleDetails details) {
+        if (details != null && segments.details == null) {
+            enableDetails();
+        }
+        int count = size;
+        if (count > 0) {
+            long lastTime = time(segments, count - 1);
+            if (candle.time() <= lastTime) {
+                int index = lowerBound(segments, count, candle.time());
+                if (time(segments, index) == candle.time()) {
+                    beginWrite();
+                    write(segments, index, candle);
+                    if (details != null) {
+                        writeDetails(segments, index, details);
+                    }
+                    endWrite();
+                } else {
+                    insert(index, count, candle, details);
+                }
+                return;
+            }
+        }
+        ensureCapacity(count + 1);
+        write(segments, count, candle);
+        writeDetails(segments, count, details);
+        size = count + 1;
+    }
+
+    @Override
+    public List<Candle> find(Long from, Long to, Integer limit) {
+        List<Candle> result = new ArrayList<>();
+        scan(from, to, limit, (time, open, high, low, close, volume) ->
+                result.add(new Candle(time, open, high, low, close, volume)));
+        return result;
+    }
+
+    // Reads the columns straight into the visitor; no candle is materialized
+    @Override
+    public int scan(Long from, Long to, Integer limit, CandleVisitor visitor) {
+        int count = size;
+        Segments snapshot = segments;
+
+        int end = to == null ? count : upperBound(snapshot, count, to);
+        int start = start(snapshot, count, from, end, limit);
+        for (int i = start; i < end; i++) {
+            ByteBuffer segment = snapshot.segment(i);
+            int slot = i & SEGMENT_MASK;
+            long time;
+            double open;
+            double high;
+            double low;
+            double close;
+            long volume;
+            long before;
+            do {
+                before = (long) SEQUENCE.getAcquire(this);
+                time = segment.getLong(offset(segment, TIME, slot));
+                open = segment.getDouble(offset(segment, OPEN, slot));
+                high = segment.getDouble(offset(segment, HIGH, slot));
+                low = segment.getDouble(offset(segment, LOW, slot));
+                close = segment.getDouble(offset(segment, CLOSE, slot));
+                volume = segment.getLong(offset(segment, VOLUME, slot));
+                VarHandle.loadLoadFence();
+            } while ((before & 1) != 0 || (long) SEQUENCE.getOpaque(this) != before);
+            visitor.visit(time, open, high, low, close, volume);
+        }
+        return Math.max(0, end - start);
+    }
+
+    // Same walk over both buffers of each slot, under one sequence check
+    @Override
+    public int scanDetails(Long from, Long to, Integer limit, CandleDetailsVisitor visitor) {
+        int count = size;
+        Segments snapshot = segments;
+        if (snapshot.details == null) {
+            return 0;
+        }
+
+        int end = to == null ? count : upperBound(snapshot, count, to);
+        int visited = 0;
+        for (int i = start(snapshot, count, from, end, limit); i < end; i++) {
+            ByteBuffer segment = snapshot.segment(i);
+            ByteBuffer detail = snapshot.detailSegment(i);
+            int slot = i & SEGMENT_MASK;
+            long time;
+            double open;
+            double high;
+            double low;
+            double close;
+            long volume;
+            long detailTime;
+            double bidOpen;
+            double bidHigh;
+            double bidLow;
+            double bidClose;
+            double askOpen;
+            double askHigh;
+            double askLow;
+            double askClose;
+            double turnover;
+            double spreadSum;
+            double spreadMax;
+            long upticks;
+            long downticks;
+            long before;
+            do {
+                before = (long) SEQUENCE.getAcquire(this);
+                time = segment.getLong(offset(segment, TIME, slot));
+                open = segment.getDouble(offset(segment, OPEN, slot));
+                high = segment.getDouble(offset(segment, HIGH, slot));
+                low = segment.getDouble(offset(segment, LOW, slot));
+                close = segment.getDouble(offset(segment, CLOSE, slot));
+                volume = segment.getLong(offset(segment, VOLUME, slot));
+                detailTime = detail.getLong(detailOffset(detail, DETAIL_TIME, slot));
+                bidOpen = detail.getDouble(detailOffset(detail, BID_OPEN, slot));
+                bidHigh = detail.getDouble(detailOffset(detail, BID_HIGH, slot));
+                bidLow = detail.getDouble(detailOffset(detail, BID_LOW, slot));
+                bidClose = detail.getDouble(detailOffset(detail, BID_CLOSE, slot));
+                askOpen = detail.getDouble(detailOffset(detail, ASK_OPEN, slot));
+                askHigh = detail.getDouble(detailOffset(detail, ASK_HIGH, slot));
+                askLow = detail.getDouble(detailOffset(detail, ASK_LOW, slot));
+                askClose = detail.getDouble(detailOffset(detail, ASK_CLOSE, slot));
+                turnover = detail.getDouble(detailOffset(detail, TURNOVER, slot));
+                spreadSum = detail.getDouble(detailOffset(detail, SPREAD_SUM, slot));
+                spreadMax = detail.getDouble(detailOffset(detail, SPREAD_MAX, slot));
+                upticks = detail.getLong(detailOffset(detail, UPTICKS, slot));
+                downticks = detail.getLong(detailOffset(detail, DOWNTICKS, slot));
+                VarHandle.loadLoadFence();
+            } while ((before & 1) != 0 || (long) SEQUENCE.getOpaque(this) != before);
+            if (detailTime == time) {
+                visitor.visit(time, open, high, low, close, volume, bidOpen, bidHigh, bidLow, bidClose,
+                        askOpen, askHigh, askLow, askClose, turnover, spreadSum, spreadMax, upticks, downticks);
+                visited++;
+            }
+        }
+        return visited;
+    }
+
+    @Override
+    public int size() {
+        int count = size;
+        return count - Math.min(segments.firstIndex(), count);
+    }
+
+    // Drops the leading segments whose newest candle is older than time, never the one being appended to
+    @Override
+    public long truncateBefore(long time) {
+        int count = size;
+        if (count == 0) {
+            return 0;
+        }
+        Segments current = segments;
+        int newest = (count - 1) >>> SEGMENT_SHIFT;
+        int dropped = 0;
+        while (current.first + dropped < newest
+                && time(current, ((current.first + dropped + 1) << SEGMENT_SHIFT) - 1) < time) {
+            dropped++;
+        }
+        if (dropped == 0) {
+            return 0;
+        }
+        long reclaimed = 0;
+        for (int i = 0; i < dropped; i++) {
+            reclaimed += current.buffers[i].capacity();
+            reclaimed += current.details == null ? 0 : current.details[i].capacity();
+        }
+        // The buffers are freed once no reader holds the old table any more
+        segments = new Segments(Arrays.copyOfRange(current.buffers, dropped, current.buffers.length),
+                current.details == null ? null
+                        : Arrays.copyOfRange(current.details, dropped, current.details.length),
+                current.first + dropped);
+        return reclaimed;
+    }
+
+    // Memory held by the segments, outside the heap unless the series was built on heap buffers
+    public long allocatedBytes() {
+        Segments current = segments;
+        long bytes = 0;
+        for (int s = 0; s < current.buffers.length; s++) {
+            bytes += current.buffers[s].capacity();
+            bytes += current.details == null ? 0 : current.details[s].capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Appends the candles newer than the stored ones as save does; candles
+     * falling among stored ones are merged with the tail they overlap, which
+     * is copied and published once for the whole list rather than per candle.
+     */
+    @Override
+    public void saveAll(List<Candle> candles) {
+        saveAll(candles, null);
+    }
+
+    @Override
+    public void saveAll(List<Candle> candles, List<CandleDetails> details) {
+        int count = size;
+        if (candles.isEmpty()) {
+            return;
+        }
+        if (count == 0 || candles.get(0).time() > time(segments, count - 1)) {
+            for (int i = 0; i < candles.size(); i++) {
+                save(candles.get(i), details == null ? null : details.get(i));
+            }
+            return;
+        }
+        if (details != null && segments.details == null && details.stream().anyMatch(d -> d != null)) {
+            enableDetails();
+        }
+
+        Segments current = segments;
+        int index = lowerBound(current, count, candles.get(0).time());
+        List<Candle> merged = new ArrayList<>(count - index + candles.size());
+        List<CandleDetails> mergedDetails = new ArrayList<>(count - index + candles.size());
+        int stored = index;
+        for (int i = 0; i < candles.size(); i++) {
+            Candle candle = candles.get(i);
+            while (stored < count && time(current, stored) < candle.time()) {
+                mergedDetails.add(readDetails(current, stored));
+                merged.add(read(current, stored++));
+            }
+            CandleDetails candleDetails = details == null ? null : details.get(i);
+            if (stored < count && time(current, stored) == candle.time()) {
+                // As in save, a replaced candle keeps its details unless new ones come with it
+                if (candleDetails == null) {
+                    candleDetails = readDetails(current, stored);
+                }
+                stored++;
+            }
+            merged.add(candle);
+            mergedDetails.add(candleDetails);
+        }
+        while (stored < count) {
+            mergedDetails.add(readDetails(current, stored));
+            merged.add(read(current, stored++));
+        }
+
+        ensureCapacity(index + merged.size());
+        Segments rewritten = copyFrom(index);
+        for (int i = 0; i < merged.size(); i++) {
+            write(rewritten, index + i, merged.get(i));
+            writeDetails(rewritten, index + i, mergedDetails.get(i));
+        }
+        segments = rewritten;
+        size = index + merged.size();
+    }
+
+    // Rare out-of-order save: copies the segments from index on with the tail shifted right, then publishes them
+    private void insert(int index, int count, Candle candle, CandleDetails details) {
+        ensureCapacity(count + 1);
+        Segments current = segments;
+        Segments shifted = copyFrom(index);
+        for (int i = count; i > index; i--) {
+            copySlot(current, i - 1, shifted, i);
+        }
+        write(shifted, index, candle);
+        writeDetails(shifted, index, details);
+        segments = shifted;
+        size = count + 1;
+    }
+
+    // Segment table sharing the segments before index's and holding private copies of the rest
+    private Segments copyFrom(int index) {
+        Segments current = segments;
+        ByteBuffer[] buffers = current.buffers.clone();
+        ByteBuffer[] details = current.details == null ? null : current.details.clone();
+        int from = (index >>> SEGMENT_SHIFT) - current.first;
+        for (int s = from; s < buffers.length; s++) {
+            ByteBuffer copy = allocate(segmentCapacity(buffers[s]));
+            copy.put(buffers[s].duplicate().clear());
+            buffers[s] = copy;
+            if (details != null) {
+                ByteBuffer detailCopy = allocateDetails(segmentCapacity(buffers[s]));
+                detailCopy.put(details[s].duplicate().clear());
+                details[s] = detailCopy;
+            }
+        }
+        return new Segments(buffers, details, current.first);
+    }
+
+    // The series' first details: every segment gets detail columns, absent for the candles stored so far
+    private void enableDetails() {
+        Segments current = segments;
+        ByteBuffer[] details = new ByteBuffer[current.buffers.length];
+        for (int s = 0; s < details.length; s++) {
+            details[s] = allocateDetails(segmentCapacity(current.buffers[s]));
+        }
+        segments = new Segments(current.buffers, details, current.first);
+    }
+
+    private void ensureCapacity(int required) {
+        while (required > capacity(segments)) {
+            grow();
+        }
+    }
+
+    private static int capacity(Segments segments) {
+        ByteBuffer[] buffers = segments.buffers;
+        return (segments.first + buffers.length - 1) * SEGMENT_SIZE + segmentCapacity(buffers[buffers.length - 1]);
+    }
+
+    private void grow() {
+        Segments current = segments;
+        ByteBuffer[] buffers = current.buffers;
+        if (buffers.length == 1 && segmentCapacity(buffers[0]) < SEGMENT_SIZE) {
+            // Grow the first segment by copying each column into a buffer twice the size
+            ByteBuffer old = buffers[0];
+            int oldCapacity = segmentCapacity(old);
+            int newCapacity = oldCapacity * 2;
+            ByteBuffer grown = allocate(newCapacity);
+            copyColumns(old, grown, COLUMNS, oldCapacity, newCapacity);
+            ByteBuffer[] details = null;
+            if (current.details != null) {
+                details = new ByteBuffer[]{allocateDetails(newCapacity)};
+                copyColumns(current.details[0], details[0], DETAIL_COLUMNS, oldCapacity, newCapacity);
+            }
+            segments = new Segments(new ByteBuffer[]{grown}, details, current.first);
+        } else {
+            ByteBuffer[] grown = Arrays.copyOf(buffers, buffers.length + 1);
+            grown[buffers.length] = allocate(SEGMENT_SIZE);
+            ByteBuffer[] details = null;
+            if (current.details != null) {
+                details = Arrays.copyOf(current.details, buffers.length + 1);
+                details[buffers.length] = allocateDetails(SEGMENT_SIZE);
+            }
+            segments = new Segments(grown, details, current.first);
+        }
+    }
+
+    private static void copyColumns(ByteBuffer from, ByteBuffer to, int columns, int oldCapacity, int newCapacity) {
+        for (int column = 0; column < columns; column++) {
+            for (int i = 0; i < oldCapacity; i++) {
+                to.putLong((column * newCapacity + i) * Long.BYTES, from.getLong((column * oldCapacity + i) * Long.BYTES));
+            }
+        }
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        int bytes = capacity * COLUMNS * Long.BYTES;
+        return direct ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes);
+    }
+
+    // Detail columns for capacity slots, every one marked absent
+    private ByteBuffer allocateDetails(int capacity) {
+        int bytes = capacity * DETAIL_COLUMNS * Long.BYTES;
+        ByteBuffer details = direct ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes);
+        for (int slot = 0; slot < capacity; slot++) {
+            details.putLong((DETAIL_TIME * capacity + slot) * Long.BYTES, ABSENT);
+        }
+        return details;
+    }
+
+    private void beginWrite() {
+        SEQUENCE.setOpaque(this, sequence + 1);
+        VarHandle.storeStoreFence();
+    }
+
+    private void endWrite() {
+        SEQUENCE.setRelease(this, sequence + 1);
+    }
+
+    // First index of a selection ending before end, backed off to the last limit candles
+    private static int start(Segments segments, int count, Long from, int end, Integer limit) {
+        int start = from == null ? Math.min(segments.firstIndex(), count) : lowerBound(segments, count, from);
+        if (limit != null && limit > 0 && end - start > limit) {
+            start = end - limit;
+        }
+        return start;
+    }
+
+    private static int lowerBound(Segments segments, int count, long time) {
+        int low = Math.min(segments.firstIndex(), count);
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (time(segments, mid) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // First index whose candle is newer than time, so that to == Long.MAX_VALUE needs no time + 1
+    private static int upperBound(Segments segments, int count, long time) {
+        int low = Math.min(segments.firstIndex(), count);
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (time(segments, mid) <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static long time(Segments segments, int index) {
+        ByteBuffer segment = segments.segment(index);
+        return segment.getLong(offset(segment, TIME, index & SEGMENT_MASK));
+    }
+
+    private static Candle read(Segments segments, int index) {
+        ByteBuffer segment = segments.segment(index);
+        int slot = index & SEGMENT_MASK;
+        return new Candle(
+                segment.getLong(offset(segment, TIME, slot)),
+                segment.getDouble(offset(segment, OPEN, slot)),
+                segment.getDouble(offset(segment, HIGH, slot)),
+                segment.getDouble(offset(segment, LOW, slot)),
+                segment.getDouble(offset(segment, CLOSE, slot)),
+                segment.getLong(offset(segment, VOLUME, slot))
+        );
+    }
+
+    private static void write(Segments segments, int index, Candle candle) {
+        ByteBuffer segment = segments.segment(index);
+        int slot = index & SEGMENT_MASK;
+        segment.putLong(offset(segment, TIME, slot), candle.time());
+        segment.putDouble(offset(segment, OPEN, slot), candle.open());
+        segment.putDouble(offset(segment, HIGH, slot), candle.high());
+        segment.putDouble(offset(segment, LOW, slot), candle.low());
+        segment.putDouble(offset(segment, CLOSE, slot), candle.close());
+        segment.putLong(offset(segment, VOLUME, slot), candle.volume());
+    }
+
+    // Null where the candle has no details
+    private static CandleDetails readDetails(Segments segments, int index) {
+        if (segments.details == null) {
+            return null;
+        }
+        ByteBuffer segment = segments.detailSegment(index);
+        int slot = index & SEGMENT_MASK;
+        long time = segment.getLong(detailOffset(segment, DETAIL_TIME, slot));
+        if (time != time(segments, index)) {
+            return null;
+        }
+        return new CandleDetails(time,
+                segment.getDouble(detailOffset(segment, BID_OPEN, slot)),
+                segment.getDouble(detailOffset(segment, BID_HIGH, slot)),
+                segment.getDouble(detailOffset(segment, BID_LOW, slot)),
+                segment.getDouble(detailOffset(segment, BID_CLOSE, slot)),
+                segment.getDouble(detailOffset(segment, ASK_OPEN, slot)),
+                segment.getDouble(detailOffset(segment, ASK_HIGH, slot)),
+                segment.getDouble(detailOffset(segment, ASK_LOW, slot)),
+                segment.getDouble(detailOffset(segment, ASK_CLOSE, slot)),
+                segment.getDouble(detailOffset(segment, TURNOVER, slot)),
+                segment.getDouble(detailOffset(segment, SPREAD_SUM, slot)),
+                segment.getDouble(detailOffset(segment, SPREAD_MAX, slot)),
+                segment.getLong(detailOffset(segment, UPTICKS, slot)),
+                segment.getLong(detailOffset(segment, DOWNTICKS, slot))
+        );
+    }
+
+    // Null details mark the slot absent; a series without detail columns ignores the call
+    private static void writeDetails(Segments segments, int index, CandleDetails details) {
+        if (segments.details == null) {
+            return;
+        }
+        ByteBuffer segment = segments.detailSegment(index);
+        int slot = index & SEGMENT_MASK;
+        if (details == null) {
+            segment.putLong(detailOffset(segment, DETAIL_TIME, slot), ABSENT);
+            return;
+        }
+        segment.putLong(detailOffset(segment, DETAIL_TIME, slot), details.time());
+        segment.putDouble(detailOffset(segment, BID_OPEN, slot), details.bidOpen());
+        segment.putDouble(detailOffset(segment, BID_HIGH, slot), details.bidHigh());
+        segment.putDouble(detailOffset(segment, BID_LOW, slot), details.bidLow());
+        segment.putDouble(detailOffset(segment, BID_CLOSE, slot), details.bidClose());
+        segment.putDouble(detailOffset(segment, ASK_OPEN, slot), details.askOpen());
+        segment.putDouble(detailOffset(segment, ASK_HIGH, slot), details.askHigh());
+        segment.putDouble(detailOffset(segment, ASK_LOW, slot), details.askLow());
+        segment.putDouble(detailOffset(segment, ASK_CLOSE, slot), details.askClose());
+        segment.putDouble(detailOffset(segment, TURNOVER, slot), details.turnover());
+        segment.putDouble(detailOffset(segment, SPREAD_SUM, slot), details.spreadSum());
+        segment.putDouble(detailOffset(segment, SPREAD_MAX, slot), details.spreadMax());
+        segment.putLong(detailOffset(segment, UPTICKS, slot), details.upticks());
+        segment.putLong(detailOffset(segment, DOWNTICKS, slot), details.downticks());
+    }
+
+    // Moves one slot, candle and detail columns alike, between segment tables of the same layout
+    private static void copySlot(Segments from, int fromIndex, Segments to, int toIndex) {
+        ByteBuffer source = from.segment(fromIndex);
+        ByteBuffer target = to.segment(toIndex);
+        int fromSlot = fromIndex & SEGMENT_MASK;
+        int toSlot = toIndex & SEGMENT_MASK;
+        for (int column = 0; column < COLUMNS; column++) {
+            target.putLong(offset(target, column, toSlot), source.getLong(offset(source, column, fromSlot)));
+        }
+        if (from.details != null) {
+            ByteBuffer sourceDetails = from.detailSegment(fromIndex);
+            ByteBuffer targetDetails = to.detailSegment(toIndex);
+            for (int column = 0; column < DETAIL_COLUMNS; column++) {
+                targetDetails.putLong(detailOffset(targetDetails, column, toSlot),
+                        sourceDetails.getLong(detailOffset(sourceDetails, column, fromSlot)));
+            }
+        }
+    }
+
+    private static int offset(ByteBuffer segment, int column, int slot) {
+        return (column * segmentCapacity(segment) + slot) * Long.BYTES;
+    }
+
+    private static int detailOffset(ByteBuffer details, int column, int slot) {
+        return (column * (details.capacity() / (DETAIL_COLUMNS * Long.BYTES)) + slot) * Long.BYTES;
+    }
+
+    private static int segmentCapacity(ByteBuffer segment) {
+        return segment.capacity() / (COLUMNS * Long.BYTES);
+    }
+}
@@ -0,0 +1,694 @@
+package com.multibnakgroup.candle.aggregation.repository;
+
+import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.model.CandleDetails;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Series persisted as memory-mapped segment files of fixed 48-byte records.
+ * Each segment covers one aligned time span, so a restart only has to map the
+ * files and read their record counts; nothing is deserialized up front.
+ *
+ * <p>One writer, any number of wait-free readers, on the same terms as
+ * {@link DirectCandleSeries}. Appends are written past a segment's published
+ * count and become visible when it is bumped. An out-of-order insert writes
+ * the segment's records, shifted, to a fresh file that replaces the old one
+ * and publishes a new segment table, so readers holding the old mapping never
+ * see the tail move. Replacing a candle in place is covered by a sequence lock
+ * that readers check per candle.
+ *
+ * <p>The span is recorded in the series' directory when its first segment is
+ * created and reused on every reopen, so changing the configured span only
+ * applies to new series and never overlaps segments already on disk.
+ *
+ * <p>Once a series is given candle details, each segment gets a sibling
+ * {@code .det} file of 112-byte records at the same indices: the candle's
+ * time, or {@link #ABSENT} where it was stored without details, then the
+ * detail fields. It is created, rewritten, truncated and deleted with its
+ * segment and mapped again on reopen. A record whose time does not match its
+ * candle's, as after a crash between the two files' rewrites, counts as
+ * absent, so details can go missing but never attach to the wrong candle.
+ */
+public class MappedCandleSeries implements CandleSeries {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(MappedCandleSeries.class);
+
+    private static final VarHandle SEQUENCE;
+
+    static {
+        try {
+            SEQUENCE = MethodHandles.lookup().findVarHandle(MappedCandleSeries.class, "sequence", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String REWRITE_SUFFIX = ".tmp";
+    private static final String DETAIL_SUFFIX = ".det";
+    private static final String SPAN_FILE = "segment-span";
+    private static final int MAGIC = 0x43414E44; // "CAND"
+    private static final int DETAIL_MAGIC = 0x43444554; // "CDET"
+    private static final int VERSION = 1;
+    private static final int COUNT_OFFSET = 8;
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_BYTES = 48;
+    private static final int DETAIL_RECORD_BYTES = 112;
+
+    // Detail time of a record whose candle has no details
+    private static final long ABSENT = Long.MIN_VALUE;
+
+    private final Path directory;
+    private final long segmentSpan;
+    private final int segmentCapacity;
+    private final long retentionMillis;
+
+    // Sorted by start time; replaced as a whole whenever a segment is added or dropped
+    private volatile Segment[] segments;
+
+    // Whether every segment has a detail file; writer side only
+    private boolean details;
+
+    // Odd while the writer replaces a published candle in place
+    private volatile long sequence;
+
+    public MappedCandleSeries(Path directory, long intervalMillis, long segmentSpan, long retentionMillis) {
+        this.directory = directory;
+        long stored = storedSpan(directory, intervalMillis);
+        if (stored > 0) {
+            this.segmentSpan = stored;
+        } else {
+            // A segment spans whole intervals and holds at least 1024 of them
+            long span = Math.max(segmentSpan, intervalMillis * 1024);
+            this.segmentSpan = (span + intervalMillis - 1) / intervalMillis * intervalMillis;
+        }
+        this.segmentCapacity = Math.toIntExact(this.segmentSpan / intervalMillis);
+        this.retentionMillis = retentionMillis;
+        this.segments = openSegments();
+        if (this.segments.length > 0 && stored == 0) {
+            storeSpan();
+        }
+    }
+
+    @Override
+    public void save(Candle candle) {
+        save(candle, null);
+    }
+
+    @Override
+    public void save(Candle candle, CandleDetails candleDetails) {
+        if (candleDetails != null && !details) {
+            enableDetails();
+        }
+        long start = candle.time() - Math.floorMod(candle.time(), segmentSpan);
+        Segment[] current = segments;
+        Segment last = current.length == 0 ? null : current[current.length - 1];
+
+        Segment target;
+        if (last != null && last.start == start) {
+            target = last;
+        } else if (last == null || last.start < start) {
+            if (last != null) {
+                last.buffer.force();
+            }
+            target = createSegment(start);
+            Segment[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = target;
+            segments = grown;
+            applyRetention(start);
+        } else {
+            target = segmentFor(start);
+        }
+        store(target, candle, candleDetails);
+    }
+
+    @Override
+    public List<Candle> find(Long from, Long to, Integer limit) {
+        List<Candle> result = new ArrayList<>();
+        scan(from, to, limit, (time, open, high, low, close, volume) ->
+                result.add(new Candle(time, open, high, low, close, volume)));
+        return result;
+    }
+
+    @Override
+    public int scan(Long from, Long to, Integer limit, CandleVisitor visitor) {
+        return select(from, to, limit, (segment, index) -> {
+            visit(segment, index, visitor);
+            return true;
+        });
+    }
+
+    @Override
+    public int scanDetails(Long from, Long to, Integer limit, CandleDetailsVisitor visitor) {
+        return select(from, to, limit, (segment, index) -> visitDetails(segment, index, visitor));
+    }
+
+    /**
+     * Walks the selection of scan, in time order, handing every candle's
+     * position to the visitor. Returns the number of positions it accepted.
+     */
+    private int select(Long from, Long to, Integer limit, RecordVisitor visitor) {
+        Segment[] snapshot = segments;
+        long fromTime = from == null ? Long.MIN_VALUE : from;
+        long toTime = to == null ? Long.MAX_VALUE : to;
+        int remaining = limit != null && limit > 0 ? limit : Integer.MAX_VALUE;
+        int selected = 0;
+
+        // Walk backwards to where a limited selection starts, so a limit only touches the newest segments
+        int first = snapshot.length;
+        int firstIndex = 0;
+        for (int s = snapshot.length - 1; s >= 0 && remaining > 0; s--) {
+            Segment segment = snapshot[s];
+            if (segment.start > toTime) {
+                continue;
+            }
+            if (segment.start + segmentSpan <= fromTime) {
+                break;
+            }
+            int count = segment.count;
+            int startIndex = segment.lowerBound(count, fromTime);
+            int endIndex = toTime == Long.MAX_VALUE ? count : segment.lowerBound(count, toTime + 1);
+            if (endIndex <= startIndex) {
+                continue;
+            }
+            first = s;
+            firstIndex = Math.max(startIndex, endIndex - remaining);
+            remaining -= endIndex - firstIndex;
+            selected += endIndex - firstIndex;
+        }
+
+        // Then visit forwards, in time order, ignoring candles appended in between
+        int visited = 0;
+        int accepted = 0;
+        for (int s = first; s < snapshot.length && visited < selected; s++) {
+            Segment segment = snapshot[s];
+            if (segment.start > toTime) {
+                break;
+            }
+            int count = segment.count;
+            int startIndex = s == first ? firstIndex : 0;
+            int endIndex = toTime == Long.MAX_VALUE ? count : segment.lowerBound(count, toTime + 1);
+            for (int i = startIndex; i < endIndex && visited < selected; i++, visited++) {
+                if (visitor.visit(segment, i)) {
+                    accepted++;
+                }
+            }
+        }
+        return accepted;
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        boolean visit(Segment segment, int index);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.count;
+        }
+        return size;
+    }
+
+    private void store(Segment segment, Candle candle, CandleDetails candleDetails) {
+        int n = segment.count;
+        int index = n == 0 || segment.time(n - 1) < candle.time() ? n : segment.lowerBound(n, candle.time());
+        if (index < n && segment.time(index) == candle.time()) {
+            beginWrite();
+            segment.write(index, candle);
+            if (candleDetails != null) {
+                segment.writeDetails(index, candleDetails);
+            }
+            endWrite();
+            return;
+        }
+        if (n == segment.capacity) {
+            throw new IllegalStateException("Candle segment " + segment.file + " is full");
+        }
+        if (index == n) {
+            // The common append touches one record past the published count
+            segment.write(n, candle);
+            segment.writeDetails(n, candleDetails);
+            segment.publish(n + 1);
+            return;
+        }
+        Segment shifted = insert(segment, n, index, candle, candleDetails);
+        Segment[] current = segments;
+        Segment[] replaced = current.clone();
+        for (int i = 0; i < replaced.length; i++) {
+            if (replaced[i] == segment) {
+                replaced[i] = shifted;
+            }
+        }
+        segments = replaced;
+    }
+
+    // Rare out-of-order save: the segment rewritten with the tail shifted right, renamed over the old file
+    private Segment insert(Segment segment, int n, int index, Candle candle, CandleDetails candleDetails) {
+        MappedByteBuffer buffer = shiftRecords(segment.file, segment.buffer, RECORD_BYTES, n, index);
+        buffer.putInt(COUNT_OFFSET, n + 1);
+        Segment shifted = new Segment(segment.file, segment.start, buffer);
+        if (segment.details != null) {
+            shifted.details = shiftRecords(segment.detailFile(), segment.details, DETAIL_RECORD_BYTES, n, index);
+        }
+        shifted.write(index, candle);
+        shifted.writeDetails(index, candleDetails);
+        buffer.force();
+        // Details first: a crash in between leaves them shifted against their candles, which reads as absent
+        if (shifted.details != null) {
+            shifted.details.force();
+            replace(shifted.detailFile());
+        }
+        // Readers still on the old segment keep its mapping after the file is replaced
+        replace(segment.file);
+        return shifted;
+    }
+
+    // A copy of the file's mapping, in its rewrite file, with the records from index on moved one to the right
+    private static MappedByteBuffer shiftRecords(Path file, MappedByteBuffer current, int recordBytes, int n, int index) {
+        Path rewrite = file.resolveSibling(file.getFileName() + REWRITE_SUFFIX);
+        try (FileChannel channel = FileChannel.open(rewrite, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, current.capacity());
+            int split = HEADER_BYTES + index * recordBytes;
+            buffer.put(0, current, 0, split);
+            buffer.put(split + recordBytes, current, split, (n - index) * recordBytes);
+            return buffer;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to rewrite candle segment " + file, e);
+        }
+    }
+
+    // Renames the file's written rewrite over it
+    private static void replace(Path file) {
+        try {
+            Files.move(file.resolveSibling(file.getFileName() + REWRITE_SUFFIX), file,
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to rewrite candle segment " + file, e);
+        }
+    }
+
+    // Reads one record into the visitor, retrying it if the writer replaced it meanwhile
+    private void visit(Segment segment, int index, CandleVisitor visitor) {
+        MappedByteBuffer buffer = segment.buffer;
+        int offset = HEADER_BYTES + index * RECORD_BYTES;
+        long time;
+        double open;
+        double high;
+        double low;
+        double close;
+        long volume;
+        long before;
+        do {
+            before = (long) SEQUENCE.getAcquire(this);
+            time = buffer.getLong(offset);
+            open = buffer.getDouble(offset + 8);
+            high = buffer.getDouble(offset + 16);
+            low = buffer.getDouble(offset + 24);
+            close = buffer.getDouble(offset + 32);
+            volume = buffer.getLong(offset + 40);
+            VarHandle.loadLoadFence();
+        } while ((before & 1) != 0 || (long) SEQUENCE.getOpaque(this) != before);
+        visitor.visit(time, open, high, low, close, volume);
+    }
+
+    // Reads one record and its details into the visitor under one sequence check; false if it has none
+    private boolean visitDetails(Segment segment, int index, CandleDetailsVisitor visitor) {
+        MappedByteBuffer buffer = segment.buffer;
+        MappedByteBuffer detailBuffer = segment.details;
+        if (detailBuffer == null) {
+            return false;
+        }
+        int offset = HEADER_BYTES + index * RECORD_BYTES;
+        int detailOffset = HEADER_BYTES + index * DETAIL_RECORD_BYTES;
+        long time;
+        double open;
+        double high;
+        double low;
+        double close;
+        long volume;
+        long detailTime;
+        double bidOpen;
+        double bidHigh;
+        double bidLow;
+        double bidClose;
+        double askOpen;
+        double askHigh;
+        double askLow;
+        double askClose;
+        double turnover;
+        double spreadSum;
+        double spreadMax;
+        long upticks;
+        long downticks;
+        long before;
+        do {
+            before = (long) SEQUENCE.getAcquire(this);
+            time = buffer.getLong(offset);
+            open = buffer.getDouble(offset + 8);
+            high = buffer.getDouble(offset + 16);
+            low = buffer.getDouble(offset + 24);
+            close = buffer.getDouble(offset + 32);
+            volume = buffer.getLong(offset + 40);
+            detailTime = detailBuffer.getLong(detailOffset);
+            bidOpen = detailBuffer.getDouble(detailOffset + 8);
+            bidHigh = detailBuffer.getDouble(detailOffset + 16);
+            bidLow = detailBuffer.getDouble(detailOffset + 24);
+            bidClose = detailBuffer.getDouble(detailOffset + 32);
+            askOpen = detailBuffer.getDouble(detailOffset + 40);
+            askHigh = detailBuffer.getDouble(detailOffset + 48);
+            askLow = detailBuffer.getDouble(detailOffset + 56);
+            askClose = detailBuffer.getDouble(detailOffset + 64);
+            turnover = detailBuffer.getDouble(detailOffset + 72);
+            spreadSum = detailBuffer.getDouble(detailOffset + 80);
+            spreadMax = detailBuffer.getDouble(detailOffset + 88);
+            upticks = detailBuffer.getLong(detailOffset + 96);
+            downticks = detailBuffer.getLong(detailOffset + 104);
+            VarHandle.loadLoadFence();
+        } while ((before & 1) != 0 || (long) SEQUENCE.getOpaque(this) != before);
+        if (detailTime != time) {
+            return false;
+        }
+        visitor.visit(time, open, high, low, close, volume, bidOpen, bidHigh, bidLow, bidClose,
+                askOpen, askHigh, askLow, askClose, turnover, spreadSum, spreadMax, upticks, downticks);
+        return true;
+    }
+
+    private void beginWrite() {
+        SEQUENCE.setOpaque(this, sequence + 1);
+        VarHandle.storeStoreFence();
+    }
+
+    private void endWrite() {
+        SEQUENCE.setRelease(this, sequence + 1);
+    }
+
+    private Segment segmentFor(long start) {
+        Segment[] current = segments;
+        for (int i = current.length - 1; i >= 0; i--) {
+            if (current[i].start == start) {
+                return current[i];
+            }
+            if (current[i].start < start) {
+                // Late candle for a span that has no segment yet
+                Segment created = createSegment(start);
+                Segment[] grown = new Segment[current.length + 1];
+                System.arraycopy(current, 0, grown, 0, i + 1);
+                grown[i + 1] = created;
+                System.arraycopy(current, i + 1, grown, i + 2, current.length - i - 1);
+                segments = grown;
+                return created;
+            }
+        }
+        Segment created = createSegment(start);
+        Segment[] grown = new Segment[current.length + 1];
+        grown[0] = created;
+        System.arraycopy(current, 0, grown, 1, current.length);
+        segments = grown;
+        return created;
+    }
+
+    // Deletes the segments that end before time, never the newest
+    @Override
+    public long truncateBefore(long time) {
+        Segment[] current = segments;
+        int expired = 0;
+        while (expired < current.length - 1 && current[expired].start + segmentSpan <= time) {
+            expired++;
+        }
+        if (expired == 0) {
+            return 0;
+        }
+        segments = Arrays.copyOfRange(current, expired, current.length);
+        long reclaimed = 0;
+        for (int i = 0; i < expired; i++) {
+            reclaimed += current[i].buffer.capacity();
+            reclaimed += current[i].details == null ? 0 : current[i].details.capacity();
+            try {
+                Files.deleteIfExists(current[i].file);
+                Files.deleteIfExists(current[i].detailFile());
+            } catch (IOException e) {
+                log.warn("Could not delete expired segment {}", current[i].file, e);
+            }
+        }
+        return reclaimed;
+    }
+
+    // Readers holding a snapshot keep their mappings, which outlive the unlinked files
+    @Override
+    public void delete() {
+        Segment[] current = segments;
+        segments = new Segment[0];
+        try {
+            for (Segment segment : current) {
+                Files.deleteIfExists(segment.file);
+                Files.deleteIfExists(segment.detailFile());
+            }
+            Files.deleteIfExists(directory.resolve(SPAN_FILE));
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            log.warn("Could not delete candle segments in {}", directory, e);
+        }
+    }
+
+    private void applyRetention(long newestStart) {
+        if (retentionMillis > 0) {
+            truncateBefore(newestStart - retentionMillis);
+        }
+    }
+
+    private Segment[] openSegments() {
+        List<Segment> opened = new ArrayList<>();
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    long start = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                    Segment segment = mapSegment(file, start, false);
+                    if (Files.exists(segment.detailFile())) {
+                        segment.details = mapDetails(segment, false);
+                        details = true;
+                    }
+                    opened.add(segment);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open candle segments in " + directory, e);
+            }
+        }
+        // A crash while details were first turned on can leave some segments without their file
+        for (Segment segment : opened) {
+            if (details && segment.details == null) {
+                segment.details = mapDetails(segment, true);
+            }
+        }
+        opened.sort((a, b) -> Long.compare(a.start, b.start));
+        Segment[] result = opened.toArray(new Segment[0]);
+        if (retentionMillis > 0 && result.length > 0) {
+            segments = result;
+            applyRetention(result[result.length - 1].start);
+            return segments;
+        }
+        return result;
+    }
+
+    private Segment createSegment(long start) {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create " + directory, e);
+        }
+        if (segments.length == 0) {
+            storeSpan();
+        }
+        Segment segment = mapSegment(directory.resolve(String.format("%020d%s", start, SEGMENT_SUFFIX)), start, true);
+        if (details) {
+            segment.details = mapDetails(segment, true);
+        }
+        return segment;
+    }
+
+    // The series' first details: every segment gets a detail file, absent for the candles stored so far
+    private void enableDetails() {
+        for (Segment segment : segments) {
+            segment.details = mapDetails(segment, true);
+        }
+        details = true;
+    }
+
+    /**
+     * The span the series' segments were written with: the recorded one, or for
+     * directories from before it was recorded, the span implied by the capacity
+     * of their segments. Zero if nothing was persisted yet.
+     */
+    private static long storedSpan(Path directory, long intervalMillis) {
+        Path spanFile = directory.resolve(SPAN_FILE);
+        try {
+            if (Files.exists(spanFile)) {
+                return Long.parseLong(Files.readString(spanFile).trim());
+            }
+            if (Files.isDirectory(directory)) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+                    for (Path file : files) {
+                        return (Files.size(file) - HEADER_BYTES) / RECORD_BYTES * intervalMillis;
+                    }
+                }
+            }
+            return 0;
+        } catch (IOException | NumberFormatException e) {
+            throw new IllegalStateException("Unreadable segment span in " + directory, e);
+        }
+    }
+
+    // Written once through a rename, so a crash leaves either no span or the whole of it
+    private void storeSpan() {
+        Path spanFile = directory.resolve(SPAN_FILE);
+        Path written = directory.resolve(SPAN_FILE + REWRITE_SUFFIX);
+        try {
+            Files.writeString(written, Long.toString(segmentSpan));
+            Files.move(written, spanFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to record the segment span in " + directory, e);
+        }
+    }
+
+    private Segment mapSegment(Path file, long start, boolean create) {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Existing segments keep the capacity they were written with
+            long bytes = create ? HEADER_BYTES + (long) segmentCapacity * RECORD_BYTES : channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            if (create) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(COUNT_OFFSET, 0);
+            } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IllegalStateException("Not a candle segment: " + file);
+            }
+            return new Segment(file, start, buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to map candle segment " + file, e);
+        }
+    }
+
+    private static MappedByteBuffer mapDetails(Segment segment, boolean create) {
+        Path file = segment.detailFile();
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long bytes = HEADER_BYTES + (long) segment.capacity * DETAIL_RECORD_BYTES;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            if (create) {
+                for (int index = 0; index < segment.capacity; index++) {
+                    buffer.putLong(HEADER_BYTES + index * DETAIL_RECORD_BYTES, ABSENT);
+                }
+                buffer.putInt(0, DETAIL_MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.force();
+            } else if (buffer.getInt(0) != DETAIL_MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IllegalStateException("Not a candle detail segment: " + file);
+            }
+            return buffer;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to map candle detail segment " + file, e);
+        }
+    }
+
+    private static final class Segment {
+        private final Path file;
+        private final long start;
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+        private volatile int count;
+
+        // Null until the series has details; set by the writer before it writes any
+        private volatile MappedByteBuffer details;
+
+        private Segment(Path file, long start, MappedByteBuffer buffer) {
+            this.file = file;
+            this.start = start;
+            this.buffer = buffer;
+            this.capacity = (buffer.capacity() - HEADER_BYTES) / RECORD_BYTES;
+            this.count = buffer.getInt(COUNT_OFFSET);
+        }
+
+        private void publish(int n) {
+            buffer.putInt(COUNT_OFFSET, n);
+            count = n;
+        }
+
+        private int lowerBound(int n, long time) {
+            int low = 0;
+            int high = n;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (time(mid) < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private long time(int index) {
+            return buffer.getLong(HEADER_BYTES + index * RECORD_BYTES);
+        }
+
+        private Path detailFile() {
+            String name = file.getFileName().toString();
+            return file.resolveSibling(name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + DETAIL_SUFFIX);
+        }
+
+        // Null details mark the record absent; a segment without a detail file ignores the call
+        private void writeDetails(int index, CandleDetails candleDetails) {
+            MappedByteBuffer detailBuffer = details;
+            if (detailBuffer == null) {
+                return;
+            }
+            int offset = HEADER_BYTES + index * DETAIL_RECORD_BYTES;
+            if (candleDetails == null) {
+                detailBuffer.putLong(offset, ABSENT);
+                return;
+            }
+            detailBuffer.putLong(offset, candleDetails.time());
+            detailBuffer.putDouble(offset + 8, candleDetails.bidOpen());
+            detailBuffer.putDouble(offset + 16, candleDetails.bidHigh());
+            detailBuffer.putDouble(offset + 24, candleDetails.bidLow());
+            detailBuffer.putDouble(offset + 32, candleDetails.bidClose());
+            detailBuffer.putDouble(offset + 40, candleDetails.askOpen());
+            detailBuffer.putDouble(offset + 48, candleDetails.askHigh());
+            detailBuffer.putDouble(offset + 56, candleDetails.askLow());
+            detailBuffer.putDouble(offset + 64, candleDetails.askClose());
+            detailBuffer.putDouble(offset + 72, candleDetails.turnover());
+            detailBuffer.putDouble(offset + 80, candleDetails.spreadSum());
+            detailBuffer.putDouble(offset + 88, candleDetails.spreadMax());
+            detailBuffer.putLong(offset + 96, candleDetails.upticks());
+            detailBuffer.putLong(offset + 104, candleDetails.downticks());
+        }
+
+        private void write(int index, Candle candle) {
+            int offset = HEADER_BYTES + index * RECORD_BYTES;
+            buffer.putLong(offset, candle.time());
+            buffer.putDouble(offset + 8, candle.open());
+            buffer.putDouble(offset + 16, candle.high());
+            buffer.putDouble(offset + 24, candle.low());
+            buffer.putDouble(offset + 32, candle.close());
+            buffer.putLong(offset + 40, candle.volume());
+        }
+    }
+}
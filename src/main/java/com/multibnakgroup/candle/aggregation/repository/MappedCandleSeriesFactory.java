@@ -0,0 +1,86 @@
+package com.multibnakgroup.candle.aggregation.repository;
+
+import com.multibnakgroup.candle.aggregation.model.CandleInterval;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lays out mapped series as {@code <directory>/<symbol>/<interval>/<segment start>.seg}.
+ */
+public class MappedCandleSeriesFactory implements CandleSeriesFactory {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(MappedCandleSeriesFactory.class);
+
+    private final Path directory;
+    private final long segmentSpan;
+    private final long retentionMillis;
+
+    public MappedCandleSeriesFactory(Path directory, Duration segmentSpan, Duration retention) {
+        this.directory = directory;
+        this.segmentSpan = segmentSpan.toMillis();
+        this.retentionMillis = retention.toMillis();
+    }
+
+    @Override
+    public CandleSeries create(String symbol, String interval) {
+        return new MappedCandleSeries(seriesDirectory(symbol, interval), intervalMillis(interval),
+                segmentSpan, retentionMillis);
+    }
+
+    @Override
+    public Map<String, Map<String, CandleSeries>> existingSeries() {
+        Map<String, Map<String, CandleSeries>> existing = new HashMap<>();
+        if (!Files.isDirectory(directory)) {
+            return existing;
+        }
+
+        long started = System.nanoTime();
+        int seriesCount = 0;
+        try (DirectoryStream<Path> symbolDirs = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path symbolDir : symbolDirs) {
+                String symbol = decode(symbolDir.getFileName().toString());
+                try (DirectoryStream<Path> intervalDirs = Files.newDirectoryStream(symbolDir, Files::isDirectory)) {
+                    for (Path intervalDir : intervalDirs) {
+                        String interval = decode(intervalDir.getFileName().toString());
+                        existing.computeIfAbsent(symbol, k -> new HashMap<>())
+                                .put(interval, create(symbol, interval));
+                        seriesCount++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to scan candle directory " + directory, e);
+        }
+        log.info("Mapped {} persisted candle series from {} in {} ms",
+                seriesCount, directory, (System.nanoTime() - started) / 1_000_000);
+        return existing;
+    }
+
+    private Path seriesDirectory(String symbol, String interval) {
+        return directory.resolve(encode(symbol)).resolve(encode(interval));
+    }
+
+    // Shortest window of the interval, so a segment always has room for every candle starting in it
+    static long intervalMillis(String interval) {
+        return CandleInterval.parse(interval, ZoneOffset.UTC).minMillis();
+    }
+
+    private static String encode(String name) {
+        return URLEncoder.encode(name, StandardCharsets.UTF_8);
+    }
+
+    private static String decode(String name) {
+        return URLDecoder.decode(name, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,88 @@
+package com.multibnakgroup.candle.aggregation.repository;
+
+import com.multibnakgroup.candle.aggregation.model.Candle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Straightforward sorted-map series. It is not safe to read while it is being
+ * written, so it only serves as a reference for the concurrent engines in
+ * tests and benchmarks.
+ */
+public class TreeMapCandleSeries implements CandleSeries {
+
+    // Candle record plus its boxed key and tree entry, roughly
+    private static final int ENTRY_BYTES = 128;
+
+    private final NavigableMap<Long, Candle> candles = new TreeMap<>();
+
+    @Override
+    public void save(Candle candle) {
+        candles.put(candle.time(), candle);
+    }
+
+    @Override
+    public List<Candle> find(Long from, Long to, Integer limit) {
+        List<Candle> result = new ArrayList<>();
+        range(from, to, limit).forEach(result::add);
+        return result;
+    }
+
+    @Override
+    public int scan(Long from, Long to, Integer limit, CandleVisitor visitor) {
+        int count = 0;
+        for (Candle c : range(from, to, limit)) {
+            visitor.visit(c.time(), c.open(), c.high(), c.low(), c.close(), c.volume());
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public int size() {
+        return candles.size();
+    }
+
+    @Override
+    public long truncateBefore(long time) {
+        if (candles.isEmpty()) {
+            return 0;
+        }
+        NavigableMap<Long, Candle> expired = candles.headMap(Math.min(time, candles.lastKey()), false);
+        long reclaimed = (long) expired.size() * ENTRY_BYTES;
+        expired.clear();
+        return reclaimed;
+    }
+
+    // View of the selected range; a limit walks back from its end instead of copying it
+    private Iterable<Candle> range(Long from, Long to, Integer limit) {
+        // Get candles in time range
+        NavigableMap<Long, Candle> rangeMap = candles;
+        if (from != null && to != null) {
+            rangeMap = candles.subMap(from, true, to, true);
+        } else if (from != null) {
+            rangeMap = candles.tailMap(from, true);
+        } else if (to != null) {
+            rangeMap = candles.headMap(to, true);
+        }
+
+        // Apply limit
+        if (limit != null && limit > 0) {
+            Long first = null;
+            int taken = 0;
+            for (Long time : rangeMap.descendingKeySet()) {
+                first = time;
+                if (++taken == limit) {
+                    break;
+                }
+            }
+            if (first != null) {
+                rangeMap = rangeMap.tailMap(first, true);
+            }
+        }
+        return rangeMap.values();
+    }
+}
@@ -0,0 +1,118 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of one backfill, updated by the job as it goes and readable from
+ * any thread.
+ */
+public class BackfillJob {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED
+    }
+
+    private final String id;
+    private final String file;
+    private final TickFileReader.Format format;
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong ticks = new AtomicLong();
+    private final AtomicLong skippedLines = new AtomicLong();
+    private final AtomicLong lateTicksDropped = new AtomicLong();
+    private final AtomicLong candlesLoaded = new AtomicLong();
+    private volatile long bytesTotal;
+    private volatile Status status = Status.QUEUED;
+    private volatile String error;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+
+    public BackfillJob(String id, String file, TickFileReader.Format format) {
+        this.id = id;
+        this.file = file;
+        this.format = format;
+    }
+
+    void started(long bytesTotal) {
+        this.bytesTotal = bytesTotal;
+        this.startedAt = Instant.now();
+        this.status = Status.RUNNING;
+    }
+
+    void chunkParsed(long bytes, long ticks, long skippedLines) {
+        this.bytesRead.addAndGet(bytes);
+        this.ticks.addAndGet(ticks);
+        this.skippedLines.addAndGet(skippedLines);
+    }
+
+    void candlesLoaded(long candles) {
+        candlesLoaded.addAndGet(candles);
+    }
+
+    void finished(long lateTicksDropped) {
+        this.lateTicksDropped.set(lateTicksDropped);
+        this.finishedAt = Instant.now();
+        this.status = Status.DONE;
+    }
+
+    void failed(Throwable cause) {
+        this.error = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+        this.finishedAt = Instant.now();
+        this.status = Status.FAILED;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public TickFileReader.Format getFormat() {
+        return format;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public long getBytesTotal() {
+        return bytesTotal;
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public long getTicks() {
+        return ticks.get();
+    }
+
+    public long getSkippedLines() {
+        return skippedLines.get();
+    }
+
+    public long getLateTicksDropped() {
+        return lateTicksDropped.get();
+    }
+
+    public long getCandlesLoaded() {
+        return candlesLoaded.get();
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+}
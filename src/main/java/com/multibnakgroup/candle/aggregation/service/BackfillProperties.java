@@ -0,0 +1,19 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+
+@ConfigurationProperties("candle.backfill")
+public record BackfillProperties(
+        @DefaultValue("data/backfill") Path directory, // Tick files a backfill may read; requests name files inside it
+        @DefaultValue("0") int parallelism,            // Fork-join threads parsing and aggregating; 0 = available processors
+        @DefaultValue("64MB") DataSize chunkSize       // File bytes mapped and staged at a time
+) {
+
+    public static BackfillProperties defaults() {
+        return new BackfillProperties(Path.of("data/backfill"), 0, DataSize.ofMegabytes(64));
+    }
+}
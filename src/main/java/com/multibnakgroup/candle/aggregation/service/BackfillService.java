@@ -0,0 +1,366 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import com.multibnakgroup.candle.aggregation.aggregator.AggregationProperties;
+import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregatorManager;
+import com.multibnakgroup.candle.aggregation.indicator.IndicatorService;
+import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.model.CandleDetails;
+import com.multibnakgroup.candle.aggregation.model.SymbolTable;
+import com.multibnakgroup.candle.aggregation.repository.CandleRepository;
+import com.multibnakgroup.candle.aggregation.repository.DirectCandleSeries;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds candles for past data from tick files while live ingest carries on.
+ * A file is read a memory-mapped chunk at a time: the chunk is parsed in
+ * parallel slices, then each symbol's ticks are put in time order and
+ * aggregated on a fork-join pool by a staging aggregator manager of the
+ * job's own, whose shards partition the symbols so each stays single-writer.
+ * The candles a chunk produced are bulk-loaded into the live repository by
+ * the ingest shard owning each symbol, between two of its tick batches, and
+ * the staging series are emptied for the next chunk.
+ *
+ * <p>Aggregators carry over from chunk to chunk, so windows spanning a chunk
+ * boundary come out whole, and each job uses the interval groups in force
+ * when it starts. Files are expected to be in rough time order per symbol:
+ * ticks older than what a symbol's earlier chunks reached, by more than the
+ * allowed lateness, are dropped and counted as they would be live. Loaded
+ * candles replace stored ones with the same time, and candles already past
+ * their interval's retention are not loaded at all.
+ */
+@Service
+public class BackfillService {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(BackfillService.class);
+
+    private final CandleRepository candleRepository;
+    private final CandleAggregatorManager aggregatorManager;
+    private final EventProcessor eventProcessor;
+    private final HistoryCache historyCache;
+    private final IndicatorService indicatorService;
+    private final RetentionService retentionService;
+    private final AggregationProperties aggregationProperties;
+    private final Path directory;
+    private final int chunkSize;
+    private final int parallelism;
+    private final ForkJoinPool pool;
+    private final ExecutorService runner; // One job at a time, each using the whole pool
+    private final Map<String, BackfillJob> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong jobIds = new AtomicLong();
+
+    public BackfillService(CandleRepository candleRepository, CandleAggregatorManager aggregatorManager,
+                           EventProcessor eventProcessor, HistoryCache historyCache,
+                           IndicatorService indicatorService, RetentionService retentionService, AggregationProperties aggregationProperties,
+                           BackfillProperties properties) {
+        this.candleRepository = candleRepository;
+        this.aggregatorManager = aggregatorManager;
+        this.eventProcessor = eventProcessor;
+        this.historyCache = historyCache;
+        this.indicatorService = indicatorService;
+        this.retentionService = retentionService;
+        this.aggregationProperties = aggregationProperties;
+        this.directory = properties.directory().toAbsolutePath().normalize();
+        this.chunkSize = (int) Math.min(Integer.MAX_VALUE, properties.chunkSize().toBytes());
+        this.parallelism = properties.parallelism() > 0
+                ? properties.parallelism() : Runtime.getRuntime().availableProcessors();
+        this.pool = new ForkJoinPool(parallelism);
+        this.runner = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "backfill");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a backfill of a file under the backfill directory and returns its
+     * job right away. Throws IllegalArgumentException if the file is outside
+     * the directory or does not exist.
+     */
+    public BackfillJob start(String file, TickFileReader.Format format) {
+        Path path = directory.resolve(file).normalize();
+        if (!path.startsWith(directory)) {
+            throw new IllegalArgumentException("Tick files must be inside " + directory);
+        }
+        if (!Files.isRegularFile(path)) {
+            throw new IllegalArgumentException("No such tick file: " + file);
+        }
+        BackfillJob job = register(file, format);
+        runner.execute(() -> run(job, path));
+        return job;
+    }
+
+    // Runs a backfill of any readable file on the calling thread and returns its job once done or failed
+    public BackfillJob backfill(Path file, TickFileReader.Format format) {
+        BackfillJob job = register(file.toString(), format);
+        run(job, file);
+        return job;
+    }
+
+    public BackfillJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    public Collection<BackfillJob> getJobs() {
+        return jobs.values();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runner.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    private BackfillJob register(String file, TickFileReader.Format format) {
+        BackfillJob job = new BackfillJob(Long.toString(jobIds.incrementAndGet()), file, format);
+        jobs.put(job.getId(), job);
+        return job;
+    }
+
+    private void run(BackfillJob job, Path file) {
+        long start = System.nanoTime();
+        try (TickFileReader reader = new TickFileReader(file, job.getFormat(), chunkSize)) {
+            job.started(reader.size());
+            Staging staging = new Staging();
+            boolean fileStart = true;
+            for (ByteBuffer chunk = reader.nextChunk(); chunk != null; chunk = reader.nextChunk()) {
+                List<TickColumns> slices = parse(reader, chunk, fileStart, staging.symbols);
+                fileStart = false;
+                long ticks = 0;
+                long skipped = 0;
+                for (TickColumns slice : slices) {
+                    ticks += slice.ticks();
+                    skipped += slice.skipped();
+                }
+                job.chunkParsed(chunk.limit(), ticks, skipped);
+                aggregate(staging, slices);
+                load(staging, job);
+            }
+
+            List<Callable<Void>> closers = new ArrayList<>();
+            for (int shard = 0; shard < parallelism; shard++) {
+                int owned = shard;
+                closers.add(() -> {
+                    staging.manager.closeAllWindows(owned);
+                    return null;
+                });
+            }
+            invokeAll(closers);
+            load(staging, job);
+            job.finished(staging.manager.getLateTicksDropped());
+            log.info("Backfill {} of {}: {} ticks into {} candles in {} ms", job.getId(), job.getFile(),
+                    job.getTicks(), job.getCandlesLoaded(), (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            log.error("Backfill {} of {} failed", job.getId(), job.getFile(), e);
+            boolean wrapped = e instanceof ExecutionException || e instanceof CompletionException;
+            job.failed(wrapped && e.getCause() != null ? e.getCause() : e);
+        }
+    }
+
+    private List<TickColumns> parse(TickFileReader reader, ByteBuffer chunk, boolean fileStart, SymbolTable symbols)
+            throws ExecutionException, InterruptedException {
+        int[] bounds = reader.split(chunk, parallelism);
+        List<Callable<TickColumns>> parsers = new ArrayList<>();
+        for (int i = 0; i < parallelism; i++) {
+            int from = bounds[i];
+            int to = bounds[i + 1];
+            boolean first = fileStart && i == 0;
+            parsers.add(() -> reader.parse(chunk, from, to, first, symbols));
+        }
+        return invokeAll(parsers);
+    }
+
+    // Each staging shard replays its symbols' ticks of the chunk, in time order
+    private void aggregate(Staging staging, List<TickColumns> slices)
+            throws ExecutionException, InterruptedException {
+        int[] shardOf = new int[staging.symbols.size()];
+        for (int symbolId = 0; symbolId < shardOf.length; symbolId++) {
+            shardOf[symbolId] = staging.manager.shardFor(symbolId);
+        }
+        List<Callable<Void>> replays = new ArrayList<>();
+        for (int shard = 0; shard < parallelism; shard++) {
+            int owned = shard;
+            replays.add(() -> {
+                for (int symbolId = 0; symbolId < shardOf.length; symbolId++) {
+                    if (shardOf[symbolId] == owned) {
+                        replay(staging.manager, symbolId, slices);
+                    }
+                }
+                return null;
+            });
+        }
+        invokeAll(replays);
+    }
+
+    private static void replay(CandleAggregatorManager manager, int symbolId, List<TickColumns> slices) {
+        int total = 0;
+        for (TickColumns slice : slices) {
+            total += slice.count(symbolId);
+        }
+        if (total == 0) {
+            return;
+        }
+        long[] timestamps = new long[total];
+        double[] bids = new double[total];
+        double[] asks = new double[total];
+        int offset = 0;
+        for (TickColumns slice : slices) {
+            int count = slice.count(symbolId);
+            if (count > 0) {
+                System.arraycopy(slice.timestamps(symbolId), 0, timestamps, offset, count);
+                System.arraycopy(slice.bids(symbolId), 0, bids, offset, count);
+                System.arraycopy(slice.asks(symbolId), 0, asks, offset, count);
+                offset += count;
+            }
+        }
+        int[] order = timeOrder(timestamps);
+        for (int i = 0; i < total; i++) {
+            int tick = order == null ? i : order[i];
+            manager.processTick(symbolId, bids[tick], asks[tick], timestamps[tick]);
+        }
+    }
+
+    // Hands the staged candles to the live shards owning their symbols and waits for all of them to be saved
+    private void load(Staging staging, BackfillJob job) {
+        List<String> staged = staging.repository.getAllSymbols();
+        if (staged.isEmpty()) {
+            return;
+        }
+        List<List<String>> byShard = new ArrayList<>();
+        for (int shard = 0; shard < aggregatorManager.getShardCount(); shard++) {
+            byShard.add(new ArrayList<>());
+        }
+        for (String symbol : staged) {
+            byShard.get(aggregatorManager.shardFor(symbol)).add(symbol);
+        }
+        List<CompletableFuture<Void>> loads = new ArrayList<>();
+        for (int shard = 0; shard < byShard.size(); shard++) {
+            List<String> symbols = byShard.get(shard);
+            if (!symbols.isEmpty()) {
+                loads.add(eventProcessor.execute(shard, () -> loadSymbols(staging, symbols, job)));
+            }
+        }
+        CompletableFuture.allOf(loads.toArray(new CompletableFuture[0])).join();
+        staging.repository.clear();
+    }
+
+    // Runs on the live shard's thread, the single writer of these symbols' series
+    private void loadSymbols(Staging staging, List<String> symbols, BackfillJob job) {
+        long now = System.currentTimeMillis();
+        for (String symbol : symbols) {
+            int symbolId = candleRepository.getSymbolTable().intern(symbol);
+            for (String interval : staging.intervals) {
+                long horizon = retentionService.horizon(interval, now);
+                List<Candle> candles = staging.repository.findCandles(symbol, interval,
+                        horizon == Long.MIN_VALUE ? null : horizon, null, null);
+                if (candles.isEmpty()) {
+                    continue;
+                }
+                List<CandleDetails> details = null;
+                if (aggregationProperties.details()) {
+                    details = new ArrayList<>(candles.size());
+                    for (Candle candle : candles) {
+                        details.add(staging.repository.findDetails(symbol, interval, candle.time()));
+                    }
+                }
+                candleRepository.saveAll(symbolId, candleRepository.intervalId(interval), candles, details);
+                historyCache.invalidate(symbol, interval);
+                indicatorService.invalidate(symbol, interval);
+                job.candlesLoaded(candles.size());
+            }
+        }
+    }
+
+    private <T> List<T> invokeAll(List<? extends Callable<T>> tasks) throws ExecutionException, InterruptedException {
+        List<T> results = new ArrayList<>(tasks.size());
+        for (Future<T> future : pool.invokeAll(tasks)) {
+            results.add(future.get());
+        }
+        return results;
+    }
+
+    // Indexes of the timestamps in ascending order, ties kept in file order; null if they already are
+    private static int[] timeOrder(long[] timestamps) {
+        int n = timestamps.length;
+        int i = 1;
+        while (i < n && timestamps[i] >= timestamps[i - 1]) {
+            i++;
+        }
+        if (i == n) {
+            return null;
+        }
+        int[] order = new int[n];
+        int[] merged = new int[n];
+        for (int k = 0; k < n; k++) {
+            order[k] = k;
+        }
+        for (int width = 1; width < n; width *= 2) {
+            for (int low = 0; low < n; low += 2 * width) {
+                int mid = Math.min(low + width, n);
+                int high = Math.min(low + 2 * width, n);
+                int left = low;
+                int right = mid;
+                int out = low;
+                while (left < mid && right < high) {
+                    merged[out++] = timestamps[order[right]] < timestamps[order[left]]
+                            ? order[right++] : order[left++];
+                }
+                while (left < mid) {
+                    merged[out++] = order[left++];
+                }
+                while (right < high) {
+                    merged[out++] = order[right++];
+                }
+            }
+            int[] swap = order;
+            order = merged;
+            merged = swap;
+        }
+        return order;
+    }
+
+    // A job's own aggregators and heap series, built on the live interval groups
+    private final class Staging {
+        private final CandleRepository repository =
+                new CandleRepository((symbol, interval) -> new DirectCandleSeries(false));
+        private final SymbolTable symbols = repository.getSymbolTable();
+        private final CandleAggregatorManager manager;
+        private final Set<String> intervals = new LinkedHashSet<>();
+
+        private Staging() {
+            Map<String, AggregationProperties.Group> groups =
+                    new LinkedHashMap<>(aggregatorManager.getIntervalGroups());
+            AggregationProperties.Group defaults = groups.remove(AggregationProperties.DEFAULT_GROUP);
+            intervals.addAll(defaults.intervals());
+            groups.values().forEach(group -> intervals.addAll(group.intervals()));
+            AggregationProperties properties = new AggregationProperties(aggregationProperties.cascade(),
+                    aggregationProperties.details(),
+                    aggregationProperties.allowedLateness(), aggregationProperties.idleTimeout(),
+                    defaults.timeZone(), defaults.intervals(), groups);
+            this.manager = new CandleAggregatorManager(repository, parallelism, properties, Clock.systemUTC());
+            manager.setLive(false);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+@ConfigurationProperties("candle.stream")
+public record CandleStreamProperties(
+        @DefaultValue("250ms") Duration publishInterval, // In-progress updates in between are conflated
+        @DefaultValue("64") int maxPendingFrames,        // Closed candles queued per subscriber before it is dropped
+        @DefaultValue("30m") Duration timeout,           // Connection lifetime; clients reconnect after it
+        @DefaultValue("0") int senderThreads,            // 0 = one per available processor
+        @DefaultValue("5s") Duration sendTimeout         // A subscriber whose write takes longer is disconnected
+) {
+
+    public static CandleStreamProperties defaults() {
+        return new CandleStreamProperties(Duration.ofMillis(250), 64, Duration.ofMinutes(30), 0, Duration.ofSeconds(5));
+    }
+}
@@ -0,0 +1,366 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregatorManager;
+import com.multibnakgroup.candle.aggregation.aggregator.CandleListener;
+import com.multibnakgroup.candle.aggregation.model.Candle;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pushes candles of a (symbol, interval) to its subscribers. Closed and
+ * amended candles arrive from the shard threads; in-progress candles are
+ * sampled once per publish interval. Every update is serialized once and the
+ * same frame is handed to all subscribers of the topic.
+ *
+ * <p>Each subscriber keeps only the newest in-progress frame, so a slow one
+ * skips intermediate updates instead of queueing them. Closed candles are
+ * never skipped; a subscriber that falls more than max-pending-frames of
+ * them behind is disconnected and can reload from the history endpoint.
+ *
+ * <p>Sinks write blocking, so a subscriber whose write has not finished
+ * within the send timeout is disconnected too, and the sender pool gets a
+ * thread in place of the one stuck in the write until it returns. A stalled
+ * client thus never holds up frames for the others.
+ */
+@Service
+public class CandleStreamService implements CandleListener {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(CandleStreamService.class);
+
+    public static final String UPDATE_EVENT = "update";
+    public static final String CLOSE_EVENT = "close";
+
+    /** Transport of one subscriber; sends are never concurrent for the same sink. */
+    public interface FrameSink {
+        void send(CandleFrame frame) throws IOException;
+
+        void close();
+    }
+
+    /** A serialized server-sent event, shared by every subscriber it is sent to. */
+    public record CandleFrame(String event, long time, String payload) {
+    }
+
+    private final CandleAggregatorManager aggregatorManager;
+    private final int maxPendingFrames;
+    private final long sendTimeoutNanos;
+    private final Map<String, Map<String, Topic>> topics = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService publisher;
+    private final ThreadPoolExecutor senders;
+    private final LongAdder slowSubscribersDropped = new LongAdder();
+
+    public CandleStreamService(CandleAggregatorManager aggregatorManager, CandleStreamProperties properties) {
+        this.aggregatorManager = aggregatorManager;
+        this.maxPendingFrames = properties.maxPendingFrames();
+        this.sendTimeoutNanos = properties.sendTimeout().toNanos();
+        int threads = properties.senderThreads() > 0
+                ? properties.senderThreads() : Runtime.getRuntime().availableProcessors();
+        this.senders = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), daemonThreads("candle-stream-sender"));
+        this.publisher = Executors.newSingleThreadScheduledExecutor(daemonThreads("candle-stream-publisher"));
+        long period = properties.publishInterval().toMillis();
+        publisher.scheduleAtFixedRate(this::publish, period, period, TimeUnit.MILLISECONDS);
+        aggregatorManager.addListener(this);
+    }
+
+    public boolean isSupportedInterval(String symbol, String interval) {
+        return aggregatorManager.isSupportedInterval(symbol, interval);
+    }
+
+    public Subscription subscribe(String symbol, String interval, FrameSink sink) {
+        Subscription[] added = new Subscription[1];
+        topics.computeIfAbsent(symbol, k -> new ConcurrentHashMap<>())
+                .compute(interval, (k, topic) -> {
+                    Topic target = topic != null ? topic : new Topic(symbol, interval);
+                    added[0] = new Subscription(target, sink);
+                    target.subscribers.add(added[0]);
+                    return target;
+                });
+        // Late joiners start from the last in-progress frame instead of waiting for the next change
+        CandleFrame latest = added[0].topic.latestUpdate;
+        if (latest != null) {
+            added[0].offerUpdate(latest);
+        }
+        return added[0];
+    }
+
+    public int getSubscriberCount() {
+        int count = 0;
+        for (Map<String, Topic> intervals : topics.values()) {
+            for (Topic topic : intervals.values()) {
+                count += topic.subscribers.size();
+            }
+        }
+        return count;
+    }
+
+    public long getSlowSubscribersDropped() {
+        return slowSubscribersDropped.sum();
+    }
+
+    // Called on shard threads; only queues the candle when someone is listening
+    @Override
+    public void onCandle(String symbol, String interval, Candle candle) {
+        Map<String, Topic> intervals = topics.get(symbol);
+        if (intervals == null) {
+            return;
+        }
+        Topic topic = intervals.get(interval);
+        if (topic != null) {
+            topic.closedCandles.offer(candle);
+        }
+    }
+
+    // One publishing pass over all topics; runs on the publisher thread every publish interval
+    public void publish() {
+        long now = System.nanoTime();
+        for (Map<String, Topic> intervals : topics.values()) {
+            for (Topic topic : intervals.values()) {
+                try {
+                    for (Subscription subscription : topic.subscribers) {
+                        subscription.checkStalled(now);
+                    }
+                    topic.publish();
+                } catch (RuntimeException e) {
+                    log.warn("Failed to publish {} {}", topic.symbol, topic.interval, e);
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        publisher.shutdownNow();
+        senders.shutdownNow();
+    }
+
+    // Grows the pool while senders are stuck in stalled writes, and shrinks it back as they return
+    private synchronized void resizeSenders(int delta) {
+        int threads = senders.getCorePoolSize() + delta;
+        if (delta > 0) {
+            senders.setMaximumPoolSize(threads);
+            senders.setCorePoolSize(threads);
+        } else {
+            senders.setCorePoolSize(threads);
+            senders.setMaximumPoolSize(threads);
+        }
+    }
+
+    private void remove(Subscription subscription) {
+        Topic topic = subscription.topic;
+        Map<String, Topic> intervals = topics.get(topic.symbol);
+        if (intervals != null) {
+            intervals.computeIfPresent(topic.interval, (k, current) -> {
+                current.subscribers.remove(subscription);
+                return current.subscribers.isEmpty() ? null : current;
+            });
+        }
+    }
+
+    private final class Topic {
+        private final String symbol;
+        private final String interval;
+        private final String updatePrefix;
+        private final String closePrefix;
+        private final Set<Subscription> subscribers = ConcurrentHashMap.newKeySet();
+        private final Queue<Candle> closedCandles = new ConcurrentLinkedQueue<>();
+
+        // Publisher thread only, apart from latestUpdate which subscribe() reads
+        private volatile CandleFrame latestUpdate;
+        private Candle lastPublished;
+        private long lastClosedTime = Long.MIN_VALUE;
+
+        private Topic(String symbol, String interval) {
+            this.symbol = symbol;
+            this.interval = interval;
+            StringBuilder fields = new StringBuilder("\ndata:{\"symbol\":");
+            JsonStrings.append(fields, symbol);
+            fields.append(",\"interval\":");
+            JsonStrings.append(fields, interval);
+            fields.append(',');
+            this.updatePrefix = "event:" + UPDATE_EVENT + fields;
+            this.closePrefix = "event:" + CLOSE_EVENT + fields;
+        }
+
+        private void publish() {
+            // Sampled before draining, so an update for a window that closes meanwhile is recognised as stale
+            Candle current = aggregatorManager.currentCandle(symbol, interval);
+            Candle closed;
+            while ((closed = closedCandles.poll()) != null) {
+                lastClosedTime = Math.max(lastClosedTime, closed.time());
+                CandleFrame frame = frame(closePrefix, CLOSE_EVENT, closed);
+                for (Subscription subscription : subscribers) {
+                    subscription.offerClosed(frame);
+                }
+            }
+            if (current == null || current.time() <= lastClosedTime || current.equals(lastPublished)) {
+                return;
+            }
+            lastPublished = current;
+            CandleFrame frame = frame(updatePrefix, UPDATE_EVENT, current);
+            latestUpdate = frame;
+            for (Subscription subscription : subscribers) {
+                subscription.offerUpdate(frame);
+            }
+        }
+    }
+
+    /** A subscriber's place in a topic; cancel it when the connection ends. */
+    public final class Subscription {
+        private final Topic topic;
+        private final FrameSink sink;
+        private final Queue<CandleFrame> closedFrames = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingClosed = new AtomicInteger();
+        private final AtomicReference<CandleFrame> pendingUpdate = new AtomicReference<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean stalled = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean active = true;
+        private volatile boolean evicted;
+        private volatile boolean sending;
+        private volatile long sendStarted;
+        private long lastClosedSent = Long.MIN_VALUE; // Sender side only
+
+        private Subscription(Topic topic, FrameSink sink) {
+            this.topic = topic;
+            this.sink = sink;
+        }
+
+        public void cancel() {
+            active = false;
+            remove(this);
+        }
+
+        private void offerClosed(CandleFrame frame) {
+            if (pendingClosed.incrementAndGet() > maxPendingFrames) {
+                evict("falls behind");
+                return;
+            }
+            closedFrames.offer(frame);
+            schedule();
+        }
+
+        private void offerUpdate(CandleFrame frame) {
+            pendingUpdate.set(frame); // Replaces an update the subscriber has not been sent yet
+            schedule();
+        }
+
+        // Publisher thread; a write still running past the timeout gets its subscriber evicted
+        private void checkStalled(long now) {
+            if (!sending || now - sendStarted <= sendTimeoutNanos || !stalled.compareAndSet(false, true)) {
+                return;
+            }
+            resizeSenders(1);
+            // Whichever of this and the returning send sees the other's flag gives the thread back
+            if (!sending && stalled.getAndSet(false)) {
+                resizeSenders(-1);
+                return;
+            }
+            evict("stalled sending");
+        }
+
+        private void evict(String reason) {
+            slowSubscribersDropped.increment();
+            log.debug("Dropping slow subscriber of {} {}: {}", topic.symbol, topic.interval, reason);
+            evicted = true;
+            cancel();
+            // A sink may lock out closing during a write; a send in progress closes it as it returns instead
+            if (!sending) {
+                close();
+            }
+        }
+
+        private void close() {
+            if (closed.compareAndSet(false, true)) {
+                sink.close();
+            }
+        }
+
+        private void schedule() {
+            if (active && scheduled.compareAndSet(false, true)) {
+                senders.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                CandleFrame frame;
+                while (active && (frame = closedFrames.poll()) != null) {
+                    pendingClosed.decrementAndGet();
+                    send(frame);
+                    lastClosedSent = Math.max(lastClosedSent, frame.time());
+                }
+                frame = pendingUpdate.getAndSet(null);
+                if (active && frame != null && frame.time() > lastClosedSent) {
+                    send(frame);
+                }
+            } catch (IOException | RuntimeException e) {
+                log.debug("Subscriber of {} {} went away: {}", topic.symbol, topic.interval, e.toString());
+                cancel();
+                return;
+            } finally {
+                scheduled.set(false);
+            }
+            // Frames offered while this drain was finishing would otherwise wait for the next one
+            if (!closedFrames.isEmpty() || pendingUpdate.get() != null) {
+                schedule();
+            }
+        }
+
+        private void send(CandleFrame frame) throws IOException {
+            sendStarted = System.nanoTime();
+            sending = true;
+            try {
+                if (active) {
+                    sink.send(frame);
+                }
+            } finally {
+                sending = false;
+                if (stalled.getAndSet(false)) {
+                    resizeSenders(-1);
+                }
+                if (evicted) {
+                    close();
+                }
+            }
+        }
+    }
+
+    private static CandleFrame frame(String prefix, String event, Candle candle) {
+        String payload = prefix
+                + "\"time\":" + candle.time()
+                + ",\"open\":" + candle.open()
+                + ",\"high\":" + candle.high()
+                + ",\"low\":" + candle.low()
+                + ",\"close\":" + candle.close()
+                + ",\"volume\":" + candle.volume()
+                + "}\n\n";
+        return new CandleFrame(event, candle.time(), payload);
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
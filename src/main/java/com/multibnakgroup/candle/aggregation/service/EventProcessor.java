@@ -2,73 +2,175 @@ package com.multibnakgroup.candle.aggregation.service;
 
 import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregatorManager;
 import com.multibnakgroup.candle.aggregation.model.BidAskEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.util.Map;
-import java.util.Random;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Predicate;
 
 @Service
 public class EventProcessor {
 
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(EventProcessor.class);
+
     private final CandleAggregatorManager aggregatorManager;
-    private final BlockingQueue<BidAskEvent> eventQueue = new LinkedBlockingQueue<>(10000);
-    private final Random random = new Random();
-
-    // Symbol base prices
-    private final Map<String, Double> basePrices = Map.of(
-            "BTC-USD", 95000.0,
-            "ETH-USD", 3500.0,
-            "SOL-USD", 200.0,
-            "AAPL", 180.0
-    );
-
-    public EventProcessor(CandleAggregatorManager aggregatorManager) {
+    private final IngestShard[] shards;
+    private volatile Predicate<String> simulated = symbol -> true;
+
+    // The simulated feed, only touched by the scheduler thread; null when the simulation is off
+    private final MarketFeed feed;
+    private final int[] feedSymbolIds; // Interned on first use, -1 until then
+    private long feedStartNanos;       // Set by the first run, so startup isn't sent as one overdue burst
+    private long feedStartMillis;
+
+    public EventProcessor(CandleAggregatorManager aggregatorManager,
+                          @Value("${candle.ingest.queue-capacity:16384}") int queueCapacity,
+                          @Value("${candle.ingest.thread-mode:platform}") String threadMode,
+                          JournalProperties journalProperties,
+                          OverloadProperties overloadProperties,
+                          SimulationProperties simulationProperties,
+                          RetentionService retentionService,
+                          MeterRegistry meterRegistry) {
         this.aggregatorManager = aggregatorManager;
-        startProcessing();
+        this.shards = new IngestShard[aggregatorManager.getShardCount()];
+
+        ThreadFactory threadFactory = threadFactory(threadMode);
+        RetentionService retention = retentionService != null && retentionService.isEnabled() ? retentionService : null;
+        IngestJournal[] journals = new IngestJournal[shards.length];
+        if (journalProperties.enabled()) {
+            // Replay runs before any shard thread starts, so it still has the aggregators to itself.
+            // It goes through the normal event-time path, from the oldest window each symbol has not stored
+            aggregatorManager.setLive(false);
+            journals = IngestJournal.recover(journalProperties.directory(), journalProperties, aggregatorManager);
+            aggregatorManager.setLive(true);
+        }
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new IngestShard(i, queueCapacity, journalProperties.batchSize(), aggregatorManager,
+                    journals[i], retention, overloadProperties, threadFactory, meterRegistry);
+            shards[i].start();
+        }
+        log.info("Started {} ingest shards ({} threads, queue capacity {}, journal {}, overload policy {})",
+                shards.length, threadMode, queueCapacity, journalProperties.enabled() ? "on" : "off",
+                overloadProperties.policy().name().toLowerCase());
+
+        this.feed = simulationProperties.enabled() ? new MarketFeed(simulationProperties) : null;
+        this.feedSymbolIds = new int[feed == null ? 0 : feed.getSymbols().size()];
+        Arrays.fill(feedSymbolIds, -1);
+        if (feed != null) {
+            log.info("Simulating {} symbols at {} ticks/s ({} profile, seed {})", feedSymbolIds.length,
+                    simulationProperties.rate(), simulationProperties.profile().name().toLowerCase(),
+                    simulationProperties.seed());
+        }
     }
 
-    private void startProcessing() {
-        Thread processorThread = new Thread(() -> {
-            while (!Thread.currentThread().isInterrupted()) {
-                try {
-                    BidAskEvent event = eventQueue.take();
-                    aggregatorManager.processEvent(event);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
-                }
+    // Sends the simulated ticks due by now. A run that starts late sends the overdue ticks with their
+    // scheduled times, and as received then, so the delay shows in the ingest latency rather than being skipped
+    @Scheduled(fixedRate = 100)
+    public void generateEvents() {
+        if (feed == null) {
+            return;
+        }
+        if (feedStartMillis == 0) {
+            feedStartNanos = System.nanoTime();
+            feedStartMillis = System.currentTimeMillis();
+        }
+        long elapsed = System.nanoTime() - feedStartNanos;
+        int dropped = 0;
+        while (feed.nextOffsetNanos() <= elapsed) {
+            feed.advance();
+            int index = feed.symbol();
+            String symbol = feed.getSymbols().get(index);
+            if (!simulated.test(symbol)) {
+                continue;
+            }
+            if (feedSymbolIds[index] < 0) {
+                feedSymbolIds[index] = aggregatorManager.getSymbolTable().intern(symbol);
             }
-        });
-        processorThread.setDaemon(true);
-        processorThread.start();
+            int symbolId = feedSymbolIds[index];
+            long offset = feed.offsetNanos();
+            // Never held up by BLOCK, as closeWindows runs on the same scheduler thread
+            if (!shards[aggregatorManager.shardFor(symbolId)].offerNow(symbolId, feed.bid(), feed.ask(),
+                    feedStartMillis + offset / 1_000_000, feedStartNanos + offset)) {
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            log.debug("Dropped {} simulated ticks, shards overloaded", dropped);
+        }
     }
 
-    @Scheduled(fixedRate = 100) // Generate events every 100ms
-    public void generateEvents() {
-        for (Map.Entry<String, Double> entry : basePrices.entrySet()) {
-            String symbol = entry.getKey();
-            double basePrice = entry.getValue();
-
-            // Add some random volatility
-            double variation = basePrice * 0.001 * (random.nextDouble() - 0.5);
-            double bid = basePrice + variation;
-            double ask = bid + (basePrice * 0.0001); // Small spread
-
-            BidAskEvent event = new BidAskEvent(
-                    symbol,
-                    bid,
-                    ask,
-                    System.currentTimeMillis()
-            );
-
-            eventQueue.offer(event);
+    public boolean ingestEvent(BidAskEvent event) {
+        return shards[aggregatorManager.shardFor(event.symbol())].offer(event);
+    }
+
+    public boolean ingestTick(String symbol, double bid, double ask, long timestamp) {
+        int symbolId = aggregatorManager.getSymbolTable().intern(symbol);
+        return shards[aggregatorManager.shardFor(symbolId)].offer(symbolId, bid, ask, timestamp, System.nanoTime());
+    }
+
+    // Decodes a binary batch straight into the shard queues; stops at the first tick an overloaded shard refuses.
+    // Its ticks share one receipt time, so BLOCK holds the request for block-timeout at most, not per tick
+    public IngestAck ingestBatch(ByteBuffer batch) {
+        long receivedNanos = System.nanoTime();
+        return TickBatchCodec.decode(batch, aggregatorManager.getSymbolTable(), (symbolId, bid, ask, timestamp) ->
+                shards[aggregatorManager.shardFor(symbolId)].offer(symbolId, bid, ask, timestamp, receivedNanos));
+    }
+
+    // Runs the task on the shard's thread, as the single writer of its symbols' aggregators and series
+    public CompletableFuture<Void> execute(int shard, Runnable task) {
+        return shards[shard].execute(task);
+    }
+
+    // Same as execute, once every tick already queued on the shard has been aggregated
+    public CompletableFuture<Void> executeAfterQueued(int shard, Runnable task) {
+        return shards[shard].executeAfterQueued(task);
+    }
+
+    public List<IngestShard> getShards() {
+        return List.of(shards);
+    }
+
+    // Limits the simulated feed to the symbols this node aggregates, such as those it owns in a cluster
+    public void setSimulatedSymbols(Predicate<String> simulated) {
+        this.simulated = simulated;
+    }
+
+    // Windows close on each symbol's watermark; this only flushes symbols that went quiet,
+    // and runs on each shard's own thread so aggregators stay single-writer
+    @Scheduled(fixedRate = 1000) // Check every second
+    public void closeWindows() {
+        for (IngestShard shard : shards) {
+            shard.requestClose();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (IngestShard shard : shards) {
+            shard.stop();
         }
     }
 
-    public void ingestEvent(BidAskEvent event) {
-        eventQueue.offer(event);
+    private static ThreadFactory threadFactory(String threadMode) {
+        if ("virtual".equalsIgnoreCase(threadMode)) {
+            // Resolved reflectively so the service still builds and runs on Java 17
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+                return (ThreadFactory) factory.invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                log.warn("Virtual threads are not available on this JVM, falling back to platform threads");
+            }
+        }
+        return Executors.defaultThreadFactory();
     }
 }
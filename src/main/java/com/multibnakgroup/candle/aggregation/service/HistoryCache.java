@@ -0,0 +1,205 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregatorManager;
+import com.multibnakgroup.candle.aggregation.aggregator.CandleListener;
+import com.multibnakgroup.candle.aggregation.model.Candle;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Serialized history responses, reused until their series changes. Every
+ * series carries a version that is bumped each time a candle is saved to it;
+ * an entry remembers the version it was rendered at and is a miss as soon as
+ * the two differ, so a response is never served past the save that changed it.
+ *
+ * <p>Entries are held in striped access-ordered maps, each evicting its least
+ * recently used entries once it goes over its share of the byte budget.
+ */
+@Service
+public class HistoryCache implements CandleListener, MeterBinder {
+
+    private static final int STRIPES = 16;
+    private static final int ENTRY_OVERHEAD_BYTES = 128; // Key, entry and map node, roughly
+
+    public record Key(String symbol, String interval, Long from, Long to, Integer limit, String format) {
+    }
+
+    private record Entry(byte[] body, long version, int weight) {
+    }
+
+    private final boolean enabled;
+    private final int maxCandles;
+    private final long stripeBudget;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    // symbol -> interval -> saves so far; only written by the shard owning the symbol
+    private final Map<String, Map<String, AtomicLong>> versions = new ConcurrentHashMap<>();
+
+    // Each new version counter starts in a range of its own, so a series removed and stored again never
+    // comes back to a version an old entry was rendered at
+    private final AtomicLong counters = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @Autowired
+    public HistoryCache(CandleAggregatorManager aggregatorManager, HistoryCacheProperties properties) {
+        this(properties);
+        aggregatorManager.addListener(this);
+    }
+
+    public HistoryCache(HistoryCacheProperties properties) {
+        this.enabled = properties.enabled();
+        this.maxCandles = properties.maxCandles();
+        this.stripeBudget = properties.maxSize().toBytes() / STRIPES;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("candle.cache.requests", hits, LongAdder::sum)
+                .tag("result", "hit").description("History queries answered from the cache").register(registry);
+        FunctionCounter.builder("candle.cache.requests", misses, LongAdder::sum)
+                .tag("result", "miss").description("Cacheable history queries that had to be rendered")
+                .register(registry);
+        FunctionCounter.builder("candle.cache.evictions", evictions, LongAdder::sum)
+                .description("Entries dropped to stay within the size budget").register(registry);
+        Gauge.builder("candle.cache.size", this, HistoryCache::getSizeBytes)
+                .baseUnit("bytes").description("Estimated memory held by cached responses").register(registry);
+        Gauge.builder("candle.cache.entries", this, HistoryCache::getEntryCount)
+                .description("Cached responses").register(registry);
+    }
+
+    // Unlimited and very large queries are left to stream
+    public boolean isCacheable(Integer limit) {
+        return enabled && limit != null && limit > 0 && limit <= maxCandles;
+    }
+
+    /**
+     * Returns the cached body for the key, or renders, caches and returns it.
+     * The version is read before rendering, so a save racing with the render
+     * leaves an entry that is already stale rather than one that hides it.
+     */
+    public byte[] get(Key key, Consumer<OutputStream> render) {
+        long version = version(key.symbol(), key.interval());
+        Stripe stripe = stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
+        Entry entry = stripe.get(key);
+        if (entry != null && entry.version == version) {
+            hits.increment();
+            return entry.body;
+        }
+        misses.increment();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        render.accept(out);
+        byte[] body = out.toByteArray();
+        int weight = body.length + ENTRY_OVERHEAD_BYTES + 2 * (key.symbol().length() + key.interval().length());
+        if (weight <= stripeBudget) {
+            stripe.put(key, new Entry(body, version, weight));
+        }
+        return body;
+    }
+
+    // Called on the shard thread right after the candle was saved
+    @Override
+    public void onCandle(String symbol, String interval, Candle candle) {
+        invalidate(symbol, interval);
+    }
+
+    // Makes every entry of the series a miss; only the series' writer may call it
+    public void invalidate(String symbol, String interval) {
+        Map<String, AtomicLong> byInterval = versions.get(symbol);
+        if (byInterval == null) {
+            byInterval = versions.computeIfAbsent(symbol, k -> new ConcurrentHashMap<>());
+        }
+        AtomicLong version = byInterval.get(interval);
+        if (version == null) {
+            version = byInterval.computeIfAbsent(interval, k -> new AtomicLong(counters.addAndGet(1L << 32)));
+        }
+        version.incrementAndGet();
+    }
+
+    // Forgets the versions of a symbol whose series were removed, making its entries misses; only its writer may call it
+    public void remove(String symbol) {
+        versions.remove(symbol);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getSizeBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            bytes += stripe.bytes();
+        }
+        return bytes;
+    }
+
+    public int getEntryCount() {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            count += stripe.size();
+        }
+        return count;
+    }
+
+    // Series nobody has saved to yet stay at version 0 without an entry in the map
+    private long version(String symbol, String interval) {
+        Map<String, AtomicLong> byInterval = versions.get(symbol);
+        AtomicLong version = byInterval == null ? null : byInterval.get(interval);
+        return version == null ? 0 : version.get();
+    }
+
+    private final class Stripe {
+        private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long bytes;
+
+        private synchronized Entry get(Key key) {
+            return entries.get(key);
+        }
+
+        private synchronized void put(Key key, Entry entry) {
+            Entry replaced = entries.put(key, entry);
+            if (replaced != null) {
+                bytes -= replaced.weight;
+            }
+            bytes += entry.weight;
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (bytes > stripeBudget && eldest.hasNext()) {
+                bytes -= eldest.next().weight;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+
+        private synchronized long bytes() {
+            return bytes;
+        }
+
+        private synchronized int size() {
+            return entries.size();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+@ConfigurationProperties("candle.cache")
+public record HistoryCacheProperties(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("64MB") DataSize maxSize, // Serialized responses kept across all entries
+        @DefaultValue("1000") int maxCandles    // Queries with a larger (or no) limit are always streamed
+) {
+
+    public static HistoryCacheProperties defaults() {
+        return new HistoryCacheProperties(true, DataSize.ofMegabytes(64), 1000);
+    }
+}
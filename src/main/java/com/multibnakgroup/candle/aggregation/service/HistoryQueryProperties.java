@@ -0,0 +1,16 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+@ConfigurationProperties("candle.query")
+public record HistoryQueryProperties(
+        @DefaultValue("0") int threads,           // Pool reading series of batch queries ahead; 0 = one per available processor
+        @DefaultValue("4") int prefetch,          // Series a batch query reads ahead of the one being written; 0 = none
+        @DefaultValue("1000") int maxBatchSeries  // Series a single batch query may ask for
+) {
+
+    public static HistoryQueryProperties defaults() {
+        return new HistoryQueryProperties(0, 4, 1000);
+    }
+}
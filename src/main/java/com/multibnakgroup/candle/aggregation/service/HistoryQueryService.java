@@ -0,0 +1,140 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plans multi-series history queries and writes their series in request
+ * order. While one series is streamed into the response, the next few are
+ * read ahead on a shared pool, so a batch of slow reads overlaps them without
+ * holding more than prefetch rendered series at once.
+ */
+@Service
+public class HistoryQueryService {
+
+    /** One series of a batch query. */
+    public record SeriesKey(String symbol, String interval) {
+    }
+
+    /** Writes the index-th series of a batch, into the response or into a read-ahead buffer. */
+    @FunctionalInterface
+    public interface SeriesWriter {
+        void write(int index, SeriesKey key, OutputStream out) throws IOException;
+    }
+
+    private final ExecutorService readers;
+    private final int prefetch;
+    private final int maxBatchSeries;
+
+    public HistoryQueryService(HistoryQueryProperties properties) {
+        int threads = properties.threads() > 0 ? properties.threads() : Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+        this.readers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "candle-query-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.prefetch = Math.max(properties.prefetch(), 0);
+        this.maxBatchSeries = properties.maxBatchSeries();
+    }
+
+    // Every symbol paired with every interval, duplicates removed, in request order
+    public List<SeriesKey> expand(List<String> symbols, List<String> intervals) {
+        Set<SeriesKey> series = new LinkedHashSet<>();
+        for (String symbol : symbols) {
+            for (String interval : intervals) {
+                series.add(new SeriesKey(symbol, interval));
+            }
+        }
+        return new ArrayList<>(series);
+    }
+
+    public int getMaxBatchSeries() {
+        return maxBatchSeries;
+    }
+
+    /**
+     * Writes every series to out in order. Up to prefetch series after the
+     * current one are rendered ahead on the pool; a series whose read has not
+     * started by its turn is written straight from storage instead, so a busy
+     * pool never leaves the request waiting on it. If a write fails, the reads
+     * ahead are cancelled and the failure is rethrown.
+     */
+    public void writeInOrder(List<SeriesKey> series, SeriesWriter writer, OutputStream out) throws IOException {
+        List<ReadAhead> ahead = new ArrayList<>(series.size());
+        try {
+            for (int i = 0; i < series.size(); i++) {
+                // Keeps the window full: series i+1 .. i+prefetch are queued while series i is written
+                for (int next = ahead.size(); next < series.size() && next <= i + prefetch; next++) {
+                    ahead.add(next == i ? null : new ReadAhead(next, series.get(next), writer));
+                }
+                ReadAhead read = ahead.get(i);
+                ahead.set(i, null);
+                if (read == null || read.claim()) {
+                    writer.write(i, series.get(i), out);
+                } else {
+                    read.result.get().writeTo(out);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading series");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IllegalStateException("Failed to read series", e.getCause());
+        } finally {
+            for (ReadAhead read : ahead) {
+                if (read != null) {
+                    read.claim();
+                }
+            }
+        }
+    }
+
+    // A series rendered on the pool, unless the request thread claims it first because its turn came
+    private final class ReadAhead {
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final Future<ByteArrayOutputStream> result;
+
+        private ReadAhead(int index, SeriesKey key, SeriesWriter writer) {
+            this.result = readers.submit(() -> {
+                if (!claim()) {
+                    return null;
+                }
+                ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+                writer.write(index, key, rendered);
+                return rendered;
+            });
+        }
+
+        // True for whichever of the pool and the request thread gets to the series first
+        private boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        readers.shutdownNow();
+    }
+}
@@ -0,0 +1,16 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+/**
+ * Outcome of a batch ingest. Ticks are accepted in order up to the first one
+ * an overloaded shard refused, so a client resends from index {@code accepted}.
+ */
+public record IngestAck(int received, int accepted) {
+
+    public int rejected() {
+        return received - accepted;
+    }
+
+    public boolean complete() {
+        return accepted == received;
+    }
+}
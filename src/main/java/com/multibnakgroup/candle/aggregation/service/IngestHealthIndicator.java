@@ -0,0 +1,43 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import org.springframework.boot.health.contributor.Health;
+import org.springframework.boot.health.contributor.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reports ingest down while any shard is: its consumer thread died, its
+ * journal is failing so ticks are aggregated without surviving a crash, or it
+ * failed a batch or flush pass within the last minute. Each shard's error
+ * count and most recent failure are listed either way.
+ */
+@Component
+public class IngestHealthIndicator implements HealthIndicator {
+
+    private final EventProcessor eventProcessor;
+
+    public IngestHealthIndicator(EventProcessor eventProcessor) {
+        this.eventProcessor = eventProcessor;
+    }
+
+    @Override
+    public Health health() {
+        boolean healthy = true;
+        Health.Builder builder = new Health.Builder();
+        for (IngestShard shard : eventProcessor.getShards()) {
+            Map<String, Object> details = new LinkedHashMap<>();
+            details.put("healthy", shard.isHealthy());
+            details.put("journal", shard.isJournalDegraded() ? "degraded" : "ok");
+            details.put("unjournaled", shard.getUnjournaled());
+            details.put("errors", shard.getErrors());
+            if (shard.getLastError() != null) {
+                details.put("lastError", shard.getLastError());
+            }
+            builder.withDetail("shard-" + shard.getIndex(), details);
+            healthy &= shard.isHealthy();
+        }
+        return (healthy ? builder.up() : builder.down()).build();
+    }
+}
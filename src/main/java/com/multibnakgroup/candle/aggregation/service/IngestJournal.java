@@ -0,0 +1,419 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregatorManager;
+import com.multibnakgroup.candle.aggregation.model.BidAskEvent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead log of one ingest shard. Events are appended in checksummed
+ * batches (one write per group commit) before they are aggregated, and whole
+ * segment files are dropped once no candle they contribute to can change. Only the owning shard thread may use an instance.
+ *
+ * <p>At startup {@link #recover(Path, JournalProperties, CandleAggregatorManager)}
+ * replays the journals of every shard directory on disk, whatever shard count
+ * wrote them, and journals the events still needed again under the shards
+ * that now own their symbols.
+ */
+public class IngestJournal implements AutoCloseable {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(IngestJournal.class);
+
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final String SHARD_PREFIX = "shard-";
+    private static final String STAGING_DIRECTORY = "recovering";
+    private static final String COMMIT_MARKER = "committed";
+    private static final int BATCH_HEADER_BYTES = 8; // payload length + CRC32C
+    private static final int BUFFER_BYTES = 1 << 20;
+    private static final int FIXED_RECORD_BYTES = Short.BYTES + 2 * Double.BYTES + Long.BYTES;
+    private static final int MAX_SYMBOL_BYTES = 0xFFFF; // Unsigned short length prefix
+
+    private final Path directory;
+    private final JournalProperties.FsyncPolicy fsync;
+    private final long fsyncIntervalNanos;
+    private final long segmentBytes;
+
+    private final ByteBuffer batch = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final CRC32C crc = new CRC32C();
+    private byte[][] symbolBytes = new byte[64][]; // UTF-8 names by symbol ID
+    private final Deque<ClosedSegment> closedSegments = new ArrayDeque<>();
+
+    private FileChannel active;
+    private Path activePath;
+    private long activeMaxTimestamp = Long.MIN_VALUE;
+    private long nextSegmentId;
+    private long lastForceNanos = System.nanoTime();
+    private boolean unforced;
+
+    public IngestJournal(Path directory, JournalProperties properties) {
+        this.directory = directory;
+        this.fsync = properties.fsync();
+        this.fsyncIntervalNanos = properties.fsyncInterval().toNanos();
+        this.segmentBytes = properties.segmentSize().toBytes();
+    }
+
+    /**
+     * Recovers the shard journals under root and returns one per shard of the
+     * manager, ready for appends. Each directory's events are replayed in
+     * append order, skipping those older than the manager's
+     * {@link CandleAggregatorManager#replayFrom} for their symbol, whose
+     * windows are already stored. The replayed events are written to fresh
+     * journals of the shards that now own their symbols, which replace the old
+     * directories only once complete, so a crash part-way through leaves the
+     * old journals to recover from again.
+     */
+    public static IngestJournal[] recover(Path root, JournalProperties properties,
+                                          CandleAggregatorManager aggregatorManager) {
+        int shards = aggregatorManager.getShardCount();
+        Path staging = root.resolve(STAGING_DIRECTORY);
+        try {
+            Files.createDirectories(root);
+            if (Files.exists(staging.resolve(COMMIT_MARKER))) {
+                install(root, staging);
+            } else {
+                deleteRecursively(staging);
+            }
+
+            IngestJournal[] rewritten = new IngestJournal[shards];
+            TickBatch[] pending = new TickBatch[shards];
+            for (int i = 0; i < shards; i++) {
+                rewritten[i] = new IngestJournal(staging.resolve(SHARD_PREFIX + i), properties);
+                rewritten[i].recover(event -> {});
+                pending[i] = new TickBatch(properties.batchSize(), aggregatorManager.getSymbolTable());
+            }
+            Map<String, Long> replayFrom = new HashMap<>();
+            long replayed = 0;
+            long skipped = 0;
+            for (Path directory : shardDirectories(root)) {
+                for (Path segment : segments(directory)) {
+                    for (BidAskEvent event : readSegment(segment)) {
+                        if (event.timestamp() < replayFrom.computeIfAbsent(event.symbol(),
+                                aggregatorManager::replayFrom)) {
+                            skipped++;
+                            continue;
+                        }
+                        aggregatorManager.processEvent(event);
+                        replayed++;
+                        TickBatch batch = pending[aggregatorManager.shardFor(event.symbol())];
+                        batch.add(event.symbol(), event.bid(), event.ask(), event.timestamp());
+                        if (batch.isFull()) {
+                            rewritten[aggregatorManager.shardFor(event.symbol())].append(batch);
+                            batch.clear();
+                        }
+                    }
+                }
+            }
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < shards; i++) {
+                if (pending[i].size() > 0) {
+                    rewritten[i].append(pending[i]);
+                }
+                rewritten[i].close();
+                names.add(SHARD_PREFIX + i);
+            }
+            // The commit point: from here on a restart finishes the swap instead of discarding the rewrite
+            Path marker = staging.resolve(COMMIT_MARKER);
+            Files.write(marker, names);
+            try (FileChannel channel = FileChannel.open(marker, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            install(root, staging);
+            if (replayed + skipped > 0) {
+                log.info("Replayed {} journaled events from {}, skipping {} of windows already stored",
+                        replayed, root, skipped);
+            }
+
+            IngestJournal[] journals = new IngestJournal[shards];
+            for (int i = 0; i < shards; i++) {
+                journals[i] = new IngestJournal(root.resolve(SHARD_PREFIX + i), properties);
+                journals[i].recover(event -> {});
+            }
+            return journals;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to recover ingest journals in " + root, e);
+        }
+    }
+
+    // Moves committed rewritten journals into place and drops every other shard directory; safe to repeat
+    private static void install(Path root, Path staging) throws IOException {
+        List<String> names = Files.readAllLines(staging.resolve(COMMIT_MARKER));
+        for (String name : names) {
+            Path rewritten = staging.resolve(name);
+            if (Files.exists(rewritten)) {
+                deleteRecursively(root.resolve(name));
+                Files.move(rewritten, root.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        for (Path directory : shardDirectories(root)) {
+            if (!names.contains(directory.getFileName().toString())) {
+                deleteRecursively(directory);
+            }
+        }
+        deleteRecursively(staging);
+    }
+
+    private static List<Path> shardDirectories(Path root) throws IOException {
+        List<Path> directories = new ArrayList<>();
+        try (DirectoryStream<Path> found = Files.newDirectoryStream(root, SHARD_PREFIX + "*")) {
+            for (Path directory : found) {
+                if (Files.isDirectory(directory)) {
+                    directories.add(directory);
+                }
+            }
+        }
+        directories.sort(null);
+        return directories;
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            files.forEach(segments::add);
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path each : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(each);
+            }
+        }
+    }
+
+    /**
+     * Replays every intact journaled event in append order, then starts a
+     * fresh segment for new appends. Returns the number of events replayed.
+     */
+    public long recover(Consumer<BidAskEvent> handler) {
+        try {
+            Files.createDirectories(directory);
+            long replayed = 0;
+            for (Path segment : segments(directory)) {
+                List<BidAskEvent> events = readSegment(segment);
+                long maxTimestamp = Long.MIN_VALUE;
+                for (BidAskEvent event : events) {
+                    handler.accept(event);
+                    maxTimestamp = Math.max(maxTimestamp, event.timestamp());
+                }
+                replayed += events.size();
+                closedSegments.add(new ClosedSegment(segment, maxTimestamp));
+                nextSegmentId = Math.max(nextSegmentId, segmentId(segment) + 1);
+            }
+            if (replayed > 0) {
+                log.info("Replayed {} journaled events from {}", replayed, directory);
+            }
+            openSegment();
+            return replayed;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to recover ingest journal " + directory, e);
+        }
+    }
+
+    /**
+     * Group commit: one checksummed write for the whole batch. A symbol too
+     * long to read back rejects it unwritten. A failed write may leave part of
+     * the batch behind, where recovery would stop reading, so the segment is
+     * set aside and later appends go to a fresh one.
+     */
+    public void append(TickBatch ticks) throws IOException {
+        for (int i = 0; i < ticks.size(); i++) {
+            if (symbolBytes(ticks, i).length > MAX_SYMBOL_BYTES) {
+                throw new IllegalArgumentException("Symbol too long to journal: " + ticks.symbol(i));
+            }
+        }
+        if (active == null) {
+            openSegment();
+        }
+        try {
+            batch.clear().position(BATCH_HEADER_BYTES);
+            for (int i = 0; i < ticks.size(); i++) {
+                byte[] symbol = symbolBytes(ticks, i);
+                int recordBytes = FIXED_RECORD_BYTES + symbol.length;
+                if (batch.remaining() < recordBytes) {
+                    writeBatch();
+                    batch.clear().position(BATCH_HEADER_BYTES);
+                }
+                batch.putShort((short) symbol.length)
+                        .put(symbol)
+                        .putDouble(ticks.bid(i))
+                        .putDouble(ticks.ask(i))
+                        .putLong(ticks.timestamp(i));
+                activeMaxTimestamp = Math.max(activeMaxTimestamp, ticks.timestamp(i));
+            }
+            writeBatch();
+
+            if (fsync == JournalProperties.FsyncPolicy.BATCH
+                    || (fsync == JournalProperties.FsyncPolicy.INTERVAL
+                    && System.nanoTime() - lastForceNanos >= fsyncIntervalNanos)) {
+                force();
+            }
+        } catch (IOException e) {
+            abandonSegment();
+            throw e;
+        }
+        if (active.size() >= segmentBytes) {
+            rollSegment();
+        }
+    }
+
+    /**
+     * Forces the batches appended since the last force once the fsync interval
+     * has passed. Appends only force when the next batch comes, so the shard
+     * calls this while idle to bound how long the tail stays unforced.
+     */
+    public void forceIfDue() throws IOException {
+        if (unforced && active != null && fsync == JournalProperties.FsyncPolicy.INTERVAL
+                && System.nanoTime() - lastForceNanos >= fsyncIntervalNanos) {
+            force();
+        }
+    }
+
+    // Deletes rolled segments holding only ticks older than retainFrom, which can no longer change a candle
+    public void truncate(long retainFrom) throws IOException {
+        if (unforced && active != null && fsync != JournalProperties.FsyncPolicy.NONE) {
+            force();
+        }
+        while (!closedSegments.isEmpty() && closedSegments.peekFirst().maxTimestamp() < retainFrom) {
+            Files.deleteIfExists(closedSegments.pollFirst().path());
+        }
+    }
+
+    // Recovery reads the set-aside segment up to the failed write and goes on with the next one
+    private void abandonSegment() {
+        try {
+            active.close();
+        } catch (IOException e) {
+            log.warn("Failed to close journal segment {}", activePath, e);
+        }
+        active = null;
+        unforced = false;
+        closedSegments.add(new ClosedSegment(activePath, activeMaxTimestamp));
+    }
+
+    // Whether batches were written since the last force, so a power loss could still take them
+    public boolean hasUnforced() {
+        return unforced;
+    }
+
+    public boolean hasRolledSegments() {
+        return !closedSegments.isEmpty();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (active != null) {
+            active.force(false);
+            active.close();
+            active = null;
+        }
+    }
+
+    private byte[] symbolBytes(TickBatch ticks, int index) {
+        int symbolId = ticks.symbolId(index);
+        if (symbolId >= symbolBytes.length) {
+            symbolBytes = Arrays.copyOf(symbolBytes, Math.max(symbolId + 1, symbolBytes.length * 2));
+        }
+        byte[] symbol = symbolBytes[symbolId];
+        if (symbol == null) {
+            symbol = ticks.symbol(index).getBytes(StandardCharsets.UTF_8);
+            symbolBytes[symbolId] = symbol;
+        }
+        return symbol;
+    }
+
+    private void writeBatch() throws IOException {
+        int end = batch.position();
+        if (end == BATCH_HEADER_BYTES) {
+            return;
+        }
+        crc.reset();
+        crc.update(batch.flip().position(BATCH_HEADER_BYTES));
+        batch.putInt(0, end - BATCH_HEADER_BYTES).putInt(4, (int) crc.getValue());
+        batch.position(0).limit(end);
+        while (batch.hasRemaining()) {
+            active.write(batch);
+        }
+        unforced = true;
+    }
+
+    private void force() throws IOException {
+        active.force(false);
+        lastForceNanos = System.nanoTime();
+        unforced = false;
+    }
+
+    private void rollSegment() throws IOException {
+        force();
+        active.close();
+        closedSegments.add(new ClosedSegment(activePath, activeMaxTimestamp));
+        openSegment();
+    }
+
+    private void openSegment() throws IOException {
+        activePath = directory.resolve(String.format("%020d%s", nextSegmentId++, SEGMENT_SUFFIX));
+        active = FileChannel.open(activePath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        activeMaxTimestamp = Long.MIN_VALUE;
+    }
+
+    // Stops at the first torn or corrupt batch, which can only be the tail of a crashed write
+    private static List<BidAskEvent> readSegment(Path segment) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(segment));
+        CRC32C crc = new CRC32C();
+        List<BidAskEvent> events = new ArrayList<>();
+        while (data.remaining() >= BATCH_HEADER_BYTES) {
+            int length = data.getInt();
+            int checksum = data.getInt();
+            if (length <= 0 || length > data.remaining()) {
+                log.warn("Ignoring truncated batch at the end of {}", segment);
+                break;
+            }
+            ByteBuffer payload = data.slice(data.position(), length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                log.warn("Ignoring corrupt batch at the end of {}", segment);
+                break;
+            }
+            while (payload.hasRemaining()) {
+                byte[] symbol = new byte[Short.toUnsignedInt(payload.getShort())];
+                payload.get(symbol);
+                events.add(new BidAskEvent(new String(symbol, StandardCharsets.UTF_8),
+                        payload.getDouble(), payload.getDouble(), payload.getLong()));
+            }
+            data.position(data.position() + length);
+        }
+        return events;
+    }
+
+    private static long segmentId(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private record ClosedSegment(Path path, long maxTimestamp) {}
+}
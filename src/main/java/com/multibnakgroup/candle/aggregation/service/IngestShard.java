@@ -0,0 +1,464 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregatorManager;
+import com.multibnakgroup.candle.aggregation.model.BidAskEvent;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-writer partition of the ingest pipeline. Only this shard's consumer
+ * thread touches the aggregators of the symbols hashed to it, including when
+ * their windows are closed.
+ *
+ * <p>Metrics cost the hot path next to nothing: the processed count is a
+ * plain field of the consumer thread, refused offers go to a striped
+ * counter, and latency is sampled once per drained batch.
+ *
+ * <p>Work that must run as the writer of the shard's symbols, such as a
+ * backfill loading candles, is handed to the consumer thread as a task and
+ * runs between two tick batches.
+ *
+ * <p>A failure while aggregating a batch or flushing the shard is logged and
+ * counted, and the consumer moves on to the next batch rather than dying with
+ * its queue left full; the shard reports itself unhealthy for a while after.
+ * A batch the journal cannot take is still aggregated, as dropping live ticks
+ * is worse, but the shard reports itself degraded until the journal takes one
+ * again, and counts the ticks a crash would lose.
+ */
+public class IngestShard {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(IngestShard.class);
+
+    private static final long IDLE_PARK_NANOS = 100_000L;
+    private static final long BLOCK_PARK_NANOS = 50_000L;
+    private static final long UNHEALTHY_AFTER_ERROR_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final int index;
+    private final CandleAggregatorManager aggregatorManager;
+    private final TickRingBuffer buffer;
+    private final IngestJournal journal; // Null when journaling is disabled
+    private final RetentionService retention; // Null when no retention policies are set
+    private final TickBatch batch;
+    private final OverloadProperties.Policy policy;
+    private final double highWatermark;
+    private final long maxLagNanos; // 0 when lag is not measured
+    private final long blockTimeoutNanos;
+    private final Map<String, Integer> priorities;
+    private final int topPriority;
+    private final TickConflater conflater; // Null unless the policy conflates
+    private final Thread consumer;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final List<DeferredTask> deferred = new ArrayList<>(); // Consumer thread only
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder conflated = new LongAdder();
+    private final Timer ingestLatency;
+    private final Timer closeDuration;
+
+    private volatile boolean running = true;
+    private volatile boolean closeRequested;
+    private volatile long processed; // Consumer thread only writes it
+    private volatile long lagNanos;  // Receipt to aggregation of the last drained batch's oldest tick; 0 when idle
+    private volatile long errors;    // Consumer thread only writes these three
+    private volatile long lastErrorNanos;
+    private volatile String lastError;
+    private volatile boolean journalDegraded; // Consumer thread only writes these two
+    private volatile long unjournaled;
+
+    public IngestShard(int index, int capacity, int batchSize, CandleAggregatorManager aggregatorManager,
+                       IngestJournal journal, RetentionService retention, OverloadProperties overload,
+                       ThreadFactory threadFactory, MeterRegistry meterRegistry) {
+        this.index = index;
+        this.aggregatorManager = aggregatorManager;
+        this.buffer = new TickRingBuffer(capacity);
+        this.journal = journal;
+        this.retention = retention;
+        this.batch = new TickBatch(batchSize, aggregatorManager.getSymbolTable());
+        this.policy = overload.policy();
+        this.highWatermark = overload.highWatermark();
+        this.maxLagNanos = overload.maxLag().toNanos();
+        this.blockTimeoutNanos = overload.blockTimeout().toNanos();
+        this.priorities = overload.priorities();
+        this.topPriority = priorities.values().stream().mapToInt(Integer::intValue).max().orElse(0);
+        this.conflater = policy == OverloadProperties.Policy.CONFLATE ? new TickConflater(batchSize) : null;
+        this.consumer = threadFactory.newThread(this::run);
+        this.consumer.setName("ingest-shard-" + index);
+        this.consumer.setDaemon(true);
+
+        Tags tags = Tags.of("shard", Integer.toString(index));
+        FunctionCounter.builder("candle.ingest.ticks", this, shard -> shard.processed)
+                .tags(tags).description("Ticks aggregated").register(meterRegistry);
+        FunctionCounter.builder("candle.ingest.rejected", rejected, LongAdder::sum)
+                .tags(tags).description("Ticks refused because the shard was overloaded or its queue full")
+                .register(meterRegistry);
+        Gauge.builder("candle.ingest.queue.depth", buffer, TickRingBuffer::size)
+                .tags(tags).description("Ticks waiting in the shard queue").register(meterRegistry);
+        Gauge.builder("candle.ingest.pressure", this, IngestShard::getPressure)
+                .tags(tags).description("Load against the overload thresholds; 1 or more is overloaded")
+                .register(meterRegistry);
+        FunctionCounter.builder("candle.ingest.shed", shed, LongAdder::sum)
+                .tags(tags).description("Ticks of lower-priority symbols dropped under overload").register(meterRegistry);
+        FunctionCounter.builder("candle.ingest.conflated", conflated, LongAdder::sum)
+                .tags(tags).description("Ticks skipped under overload as they set no open, high, low or close")
+                .register(meterRegistry);
+        FunctionCounter.builder("candle.ingest.unjournaled", this, shard -> shard.unjournaled)
+                .tags(tags).description("Ticks aggregated without being journaled, as the journal failed")
+                .register(meterRegistry);
+        FunctionCounter.builder("candle.ingest.errors", this, shard -> shard.errors)
+                .tags(tags).description("Batches or flush passes the shard failed and moved on from")
+                .register(meterRegistry);
+        this.ingestLatency = Timer.builder("candle.ingest.latency")
+                .tags(tags)
+                .description("Receipt to aggregation of the oldest tick of each drained batch")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.closeDuration = Timer.builder("candle.close.duration")
+                .tags(tags)
+                .description("Idle flush pass over the shard, including journal truncation and retention")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    public void start() {
+        consumer.start();
+    }
+
+    public boolean offer(BidAskEvent event) {
+        return offer(aggregatorManager.getSymbolTable().intern(event.symbol()), event.bid(), event.ask(),
+                event.timestamp(), System.nanoTime());
+    }
+
+    /**
+     * Queues a tick, applying the overload policy while the shard is
+     * overloaded. False means it was refused and the producer should back off;
+     * a shed tick counts as taken. BLOCK waits until block-timeout past
+     * receivedNanos, so ticks sharing a receipt time, such as one request's,
+     * share a single wait rather than each getting their own.
+     */
+    public boolean offer(int symbolId, double bid, double ask, long timestamp, long receivedNanos) {
+        return offer(symbolId, bid, ask, timestamp, receivedNanos, true);
+    }
+
+    // Same as offer, except that BLOCK refuses at once: for producers whose thread has other work to get back to
+    public boolean offerNow(int symbolId, double bid, double ask, long timestamp, long receivedNanos) {
+        return offer(symbolId, bid, ask, timestamp, receivedNanos, false);
+    }
+
+    private boolean offer(int symbolId, double bid, double ask, long timestamp, long receivedNanos, boolean mayBlock) {
+        if (policy != OverloadProperties.Policy.CONFLATE && getPressure() >= 1.0) {
+            switch (policy) {
+                case REJECT -> {
+                    rejected.increment();
+                    return false;
+                }
+                case SHED -> {
+                    if (isShed(symbolId)) {
+                        shed.increment();
+                        return true;
+                    }
+                }
+                case BLOCK -> {
+                    if (!mayBlock) {
+                        rejected.increment();
+                        return false;
+                    }
+                    awaitRelief(receivedNanos + blockTimeoutNanos);
+                }
+                default -> {
+                }
+            }
+        }
+        if (buffer.offer(symbolId, bid, ask, timestamp, receivedNanos)) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * How loaded the shard is against its overload thresholds: the larger of
+     * queue fill over the high watermark and consumer lag over the max lag,
+     * so 1 or more is overloaded and a full queue is 1 / high watermark.
+     */
+    public double getPressure() {
+        return pressure(buffer.size());
+    }
+
+    private double pressure(int depth) {
+        double fill = (double) depth / buffer.capacity() / highWatermark;
+        return maxLagNanos > 0 ? Math.max(fill, (double) lagNanos / maxLagNanos) : fill;
+    }
+
+    // Runs the task on the consumer thread; the future completes once it has
+    public CompletableFuture<Void> execute(Runnable task) {
+        return CompletableFuture.runAsync(task, command -> {
+            tasks.add(command);
+            LockSupport.unpark(consumer);
+        });
+    }
+
+    /**
+     * Runs the task on the consumer thread once every tick queued before the
+     * call has been aggregated. The count is taken between batches, so it
+     * covers ticks already queued without waiting for later ones.
+     */
+    public CompletableFuture<Void> executeAfterQueued(Runnable task) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        execute(() -> deferred.add(new DeferredTask(processed + buffer.size(), task, done)));
+        return done;
+    }
+
+    public void requestClose() {
+        closeRequested = true;
+        LockSupport.unpark(consumer);
+    }
+
+    public void stop() {
+        running = false;
+        LockSupport.unpark(consumer);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getQueueSize() {
+        return buffer.size();
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getShed() {
+        return shed.sum();
+    }
+
+    public long getConflated() {
+        return conflated.sum();
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    // The most recent failure the consumer moved on from, null if none
+    public String getLastError() {
+        return lastError;
+    }
+
+    // True from a batch the journal failed to take until it takes one again
+    public boolean isJournalDegraded() {
+        return journalDegraded;
+    }
+
+    public long getUnjournaled() {
+        return unjournaled;
+    }
+
+    // Whether the consumer thread is draining, journaling what it aggregates and has not failed within the last minute
+    public boolean isHealthy() {
+        return consumer.isAlive() && !journalDegraded
+                && (errors == 0 || System.nanoTime() - lastErrorNanos > UNHEALTHY_AFTER_ERROR_NANOS);
+    }
+
+    /**
+     * Priorities below the highest are shed lowest first, the band between the
+     * high watermark and a full queue split evenly among them; lag past the
+     * max lag adds pressure in the same units.
+     */
+    private boolean isShed(int symbolId) {
+        int priority = priorities.getOrDefault(aggregatorManager.getSymbolTable().name(symbolId), 0);
+        if (priority >= topPriority) {
+            return false;
+        }
+        // Priorities are never negative, so one below the top leaves the top at 1 or more
+        double band = (1.0 / highWatermark - 1.0) / topPriority;
+        return getPressure() >= 1.0 + priority * band;
+    }
+
+    // Waits out the overload for at most the deadline; the caller then tries the queue either way
+    private void awaitRelief(long deadlineNanos) {
+        while (getPressure() >= 1.0 && System.nanoTime() - deadlineNanos < 0) {
+            LockSupport.parkNanos(BLOCK_PARK_NANOS);
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                drain();
+            } catch (RuntimeException e) {
+                // Whatever is left of the batch is lost; later ones, and the symbols they carry, still get through
+                errors++;
+                lastErrorNanos = System.nanoTime();
+                lastError = e.toString();
+                log.error("Shard {} failed and moves on to its next batch", index, e);
+            }
+        }
+        closeJournal();
+    }
+
+    // One pass of the consumer: a requested flush, pending tasks, then a batch of ticks
+    private void drain() {
+        if (closeRequested) {
+            closeRequested = false;
+            closeWindows();
+        }
+        runTasks();
+
+        batch.clear();
+        int count = buffer.drainTo(batch);
+        if (count == 0) {
+            lagNanos = 0;
+            if (journal != null) {
+                forceJournal();
+            }
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+            return;
+        }
+        lagNanos = System.nanoTime() - batch.receivedNanos(0);
+
+        // The whole batch is journaled, or the shard marked degraded, before any of it is aggregated
+        if (journal != null) {
+            journal(count);
+        }
+        try {
+            aggregate(count);
+            ingestLatency.record(System.nanoTime() - batch.receivedNanos(0), TimeUnit.NANOSECONDS);
+        } finally {
+            // Last, so a reader that sees the count also sees the batch's latency sample. A failed batch
+            // counts too, or tasks deferred until it was aggregated would wait forever
+            processed += count;
+        }
+    }
+
+    // Retries once, on the fresh segment a failed write leaves the journal on
+    private void journal(int count) {
+        try {
+            try {
+                journal.append(batch);
+            } catch (IOException e) {
+                log.warn("Shard {} failed to journal {} events, retrying", index, count, e);
+                journal.append(batch);
+            }
+            if (journalDegraded) {
+                journalDegraded = false;
+                log.info("Shard {} journals again after {} unjournaled events", index, unjournaled);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            unjournaled += count;
+            if (!journalDegraded) {
+                journalDegraded = true;
+                log.error("Shard {} cannot journal and aggregates unjournaled events until it can", index, e);
+            }
+        }
+    }
+
+    // Bounds the unforced tail by the fsync interval when no batch comes to force it
+    private void forceJournal() {
+        try {
+            journal.forceIfDue();
+        } catch (IOException e) {
+            if (!journalDegraded) {
+                journalDegraded = true;
+                log.error("Shard {} failed to force its journal and is degraded until it journals again", index, e);
+            }
+        }
+    }
+
+    private void aggregate(int count) {
+        // Judged on the depth the batch was drained from
+        if (conflater != null && pressure(count + buffer.size()) >= 1.0) {
+            conflated.add(conflater.conflate(batch));
+            for (int i = 0; i < count; i++) {
+                if (conflater.keep(i)) {
+                    aggregatorManager.processTick(batch.symbolId(i), batch.bid(i), batch.ask(i),
+                            batch.timestamp(i));
+                }
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                aggregatorManager.processTick(batch.symbolId(i), batch.bid(i), batch.ask(i),
+                        batch.timestamp(i));
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+        for (Iterator<DeferredTask> it = deferred.iterator(); it.hasNext(); ) {
+            DeferredTask due = it.next();
+            if (processed >= due.after) {
+                it.remove();
+                due.run();
+            }
+        }
+    }
+
+    private void closeWindows() {
+        long start = System.nanoTime();
+        aggregatorManager.closeWindows(index);
+        if (journal != null) {
+            forceJournal();
+        }
+        // Computing the truncation point walks the shard's symbols, so only do it when there is something to drop
+        if (journal != null && journal.hasRolledSegments()) {
+            try {
+                journal.truncate(aggregatorManager.oldestMutableTime(index));
+            } catch (IOException e) {
+                log.error("Shard {} failed to truncate its journal", index, e);
+            }
+        }
+        if (retention != null) {
+            retention.compact(index, System.currentTimeMillis());
+        }
+        closeDuration.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.warn("Shard {} failed to close its journal", index, e);
+            }
+        }
+    }
+
+    private record DeferredTask(long after, Runnable task, CompletableFuture<Void> done) {
+        private void run() {
+            try {
+                task.run();
+                done.complete(null);
+            } catch (RuntimeException e) {
+                done.completeExceptionally(e);
+            }
+        }
+    }
+}
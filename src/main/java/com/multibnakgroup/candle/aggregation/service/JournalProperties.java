@@ -0,0 +1,25 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+@ConfigurationProperties("candle.journal")
+public record JournalProperties(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("data/journal") Path directory,
+        @DefaultValue("1024") int batchSize, // Max events drained and written per group commit
+        @DefaultValue("interval") FsyncPolicy fsync,
+        @DefaultValue("50ms") Duration fsyncInterval,
+        @DefaultValue("64MB") DataSize segmentSize
+) {
+
+    public enum FsyncPolicy {
+        NONE,     // Leave flushing to the OS; survives process crashes only
+        BATCH,    // Force after every group commit
+        INTERVAL  // Force at most once per fsync-interval
+    }
+}
@@ -0,0 +1,27 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+/**
+ * JSON string quoting for the code that writes JSON by hand, such as history
+ * responses and stream frames.
+ */
+public final class JsonStrings {
+
+    private JsonStrings() {
+    }
+
+    // Appends value as a quoted JSON string
+    public static void append(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
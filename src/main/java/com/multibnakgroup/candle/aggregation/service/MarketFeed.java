@@ -0,0 +1,172 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * A synthetic market: a seeded schedule of ticks, each due at an offset from
+ * the start of the feed. The schedule is open-loop, fixed up front by the rate
+ * profile rather than paced by how fast ticks are taken, so a driver that
+ * falls behind sends the overdue ticks late instead of fewer of them, and
+ * latency measured from a tick's offset includes that delay.
+ *
+ * <p>Arrivals are Poisson at the profile's rate, symbols are drawn with a Zipf
+ * skew, and each symbol's mid price takes a log-normal step per tick. Arrival
+ * times, symbol draws and prices come from separate streams split off the
+ * seed. Not thread-safe: one driver advances it.
+ */
+public final class MarketFeed {
+
+    private static final List<String> NAMED = List.of("BTC-USD", "ETH-USD", "SOL-USD", "AAPL");
+    private static final double[] NAMED_PRICES = {95000.0, 3500.0, 200.0, 180.0};
+    private static final double SPREAD = 0.0001; // Relative to the mid
+
+    private final SimulationProperties properties;
+    private final List<String> symbols;
+    private final double[] mids;
+    private final double[] activity; // Cumulative symbol weights; null when every symbol is equally busy
+    private final SplittableRandom arrivals;
+    private final SplittableRandom draws;
+    private final SplittableRandom prices;
+    private final SplittableRandom spikes;
+    private final long burstPeriodNanos;
+    private final long burstNanos;
+
+    private long burstStart; // SPIKES: the current or next burst
+    private long nextOffset;
+    private long offset;
+    private int symbol;
+    private double bid;
+    private double ask;
+
+    public MarketFeed(SimulationProperties properties) {
+        this.properties = properties;
+        SplittableRandom seed = new SplittableRandom(properties.seed());
+        this.arrivals = seed.split();
+        this.draws = seed.split();
+        this.prices = seed.split();
+        this.spikes = seed.split();
+        this.burstPeriodNanos = properties.burstPeriod().toNanos();
+        this.burstNanos = properties.burstDuration().toNanos();
+
+        int count = properties.symbols();
+        List<String> names = new ArrayList<>(count);
+        this.mids = new double[count];
+        for (int i = 0; i < count; i++) {
+            if (i < NAMED.size()) {
+                names.add(NAMED.get(i));
+                mids[i] = NAMED_PRICES[i];
+            } else {
+                names.add(String.format("SYM%05d", i));
+                mids[i] = Math.exp(prices.nextDouble(0, Math.log(1000.0))); // 1 to 1000, spread evenly by magnitude
+            }
+        }
+        this.symbols = Collections.unmodifiableList(names);
+        this.activity = properties.skew() > 0 ? activity(count, properties.skew()) : null;
+
+        if (properties.profile() == SimulationProperties.Profile.SPIKES) {
+            burstStart = (long) (spikes.nextExponential() * burstPeriodNanos);
+        }
+        nextOffset = arrival(0);
+    }
+
+    public List<String> getSymbols() {
+        return symbols;
+    }
+
+    // When the next tick is due, in nanoseconds from the start of the feed
+    public long nextOffsetNanos() {
+        return nextOffset;
+    }
+
+    // Makes the next tick current and schedules the one after it
+    public void advance() {
+        offset = nextOffset;
+        symbol = activity == null ? draws.nextInt(symbols.size()) : pick(draws.nextDouble());
+        double mid = mids[symbol] * Math.exp(properties.volatility() * prices.nextGaussian());
+        mids[symbol] = mid;
+        bid = mid * (1 - SPREAD / 2);
+        ask = mid * (1 + SPREAD / 2);
+        nextOffset = arrival(offset);
+    }
+
+    // The current tick: its index into getSymbols(), prices and due offset
+    public int symbol() {
+        return symbol;
+    }
+
+    public double bid() {
+        return bid;
+    }
+
+    public double ask() {
+        return ask;
+    }
+
+    public long offsetNanos() {
+        return offset;
+    }
+
+    // The rate in ticks per nanosecond at time, and until when it holds
+    private double rate(long time) {
+        boolean burst = switch (properties.profile()) {
+            case STEADY -> false;
+            case BURSTY -> time % burstPeriodNanos < burstNanos;
+            case SPIKES -> time >= burstStart;
+        };
+        return properties.rate() * (burst ? properties.burstFactor() : 1) / 1e9;
+    }
+
+    private long rateChange(long time) {
+        return switch (properties.profile()) {
+            case STEADY -> Long.MAX_VALUE;
+            case BURSTY -> {
+                long start = time - time % burstPeriodNanos;
+                yield time - start < burstNanos ? start + burstNanos : start + burstPeriodNanos;
+            }
+            case SPIKES -> time < burstStart ? burstStart : burstStart + burstNanos;
+        };
+    }
+
+    // The next Poisson arrival after time: an exponential amount of work, done at each stretch's own rate
+    private long arrival(long time) {
+        double work = arrivals.nextExponential();
+        while (true) {
+            if (properties.profile() == SimulationProperties.Profile.SPIKES && time >= burstStart + burstNanos) {
+                // Burst starts are a mean period apart, and never overlap
+                burstStart = Math.max(burstStart + burstNanos,
+                        burstStart + (long) (spikes.nextExponential() * burstPeriodNanos));
+                continue;
+            }
+            double rate = rate(time);
+            long change = rateChange(time);
+            double remaining = change == Long.MAX_VALUE ? Double.POSITIVE_INFINITY : (change - time) * rate;
+            if (work <= remaining) {
+                return time + Math.max(1L, (long) (work / rate));
+            }
+            work -= remaining;
+            time = change;
+        }
+    }
+
+    private int pick(double u) {
+        int i = Arrays.binarySearch(activity, u);
+        return Math.min(i >= 0 ? i + 1 : -i - 1, activity.length - 1);
+    }
+
+    private static double[] activity(int count, double skew) {
+        double[] cumulative = new double[count];
+        double total = 0;
+        for (int i = 0; i < count; i++) {
+            total += 1.0 / Math.pow(i + 1, skew);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < count; i++) {
+            cumulative[i] /= total;
+        }
+        return cumulative;
+    }
+}
@@ -0,0 +1,41 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.Map;
+
+@ConfigurationProperties("candle.ingest.overload")
+public record OverloadProperties(
+        @DefaultValue("reject") Policy policy,
+        @DefaultValue("0.8") double highWatermark, // Queue fill, as a fraction of capacity, at which a shard is overloaded
+        @DefaultValue("1s") Duration maxLag,       // Receipt-to-aggregation lag at which it is too; 0 = queue fill only
+        @DefaultValue("100ms") Duration blockTimeout, // BLOCK: longest a producer waits, from the batch's receipt
+        Map<String, Integer> priorities            // SHED: symbol -> priority of 0 or more, 0 when unlisted; the highest is never shed
+) {
+
+    public enum Policy {
+        REJECT,   // Refuse ticks, so a batch's ack stops there and the producer backs off and resends
+        BLOCK,    // Hold the producer until the shard recovers or the timeout passes, then refuse if still full
+        CONFLATE, // Queue everything, but only aggregate each symbol's first, last, highest and lowest tick per second
+        SHED      // Drop ticks of lower-priority symbols first, so higher ones keep flowing
+    }
+
+    public OverloadProperties {
+        if (!(highWatermark > 0 && highWatermark <= 1)) {
+            throw new IllegalArgumentException("high-watermark must be in (0, 1]: " + highWatermark);
+        }
+        priorities = priorities == null ? Map.of() : Map.copyOf(priorities);
+        // Unlisted symbols sit at 0, so anything lower would leave no positive priority to split the band by
+        priorities.forEach((symbol, priority) -> {
+            if (priority < 0) {
+                throw new IllegalArgumentException("priority of " + symbol + " must not be negative: " + priority);
+            }
+        });
+    }
+
+    public static OverloadProperties defaults() {
+        return new OverloadProperties(Policy.REJECT, 0.8, Duration.ofSeconds(1), Duration.ofMillis(100), Map.of());
+    }
+}
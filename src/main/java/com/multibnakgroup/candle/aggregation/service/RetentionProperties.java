@@ -0,0 +1,22 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.Map;
+
+@ConfigurationProperties("candle.retention")
+public record RetentionProperties(
+        Map<String, Duration> policies,          // Interval -> age its candles are kept to; unlisted intervals keep everything
+        @DefaultValue("1m") Duration checkInterval // How often each shard compacts its symbols' series
+) {
+
+    public RetentionProperties {
+        policies = policies == null ? Map.of() : Map.copyOf(policies);
+    }
+
+    public static RetentionProperties defaults() {
+        return new RetentionProperties(Map.of(), Duration.ofMinutes(1));
+    }
+}
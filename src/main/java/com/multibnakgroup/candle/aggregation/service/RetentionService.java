@@ -0,0 +1,152 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregatorManager;
+import com.multibnakgroup.candle.aggregation.indicator.IndicatorService;
+import com.multibnakgroup.candle.aggregation.model.SymbolTable;
+import com.multibnakgroup.candle.aggregation.repository.CandleRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Applies per-interval retention: candles of an interval older than its
+ * policy are dropped, leaving the coarser intervals the cascade already
+ * rolled them up into. Each shard compacts every stored series of the
+ * symbols it owns from its idle-flush pass, whether or not they ticked since
+ * start, so truncation has the same single writer as saves, and engines drop
+ * whole segments by swapping in a shorter table that readers pick up on their
+ * next query. Cached responses and indicators of a truncated series are
+ * dropped with it.
+ */
+@Service
+public class RetentionService implements MeterBinder {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(RetentionService.class);
+
+    private final CandleRepository candleRepository;
+    private final CandleAggregatorManager aggregatorManager;
+    private final HistoryCache historyCache;
+    private final IndicatorService indicatorService;
+    private final String[] intervals;
+    private final int[] intervalIds;
+    private final long[] retentionMillis;
+    private final long checkInterval;
+    private final long[] nextCheck; // Per shard, only touched by that shard's thread
+    private final OwnedSymbols[] owned; // Likewise
+
+    private final LongAdder reclaimedBytes = new LongAdder();
+    private final LongAdder runs = new LongAdder();
+
+    public RetentionService(CandleRepository candleRepository, CandleAggregatorManager aggregatorManager,
+                            HistoryCache historyCache, IndicatorService indicatorService,
+                            RetentionProperties properties) {
+        this.candleRepository = candleRepository;
+        this.aggregatorManager = aggregatorManager;
+        this.historyCache = historyCache;
+        this.indicatorService = indicatorService;
+        this.intervals = new String[properties.policies().size()];
+        this.intervalIds = new int[intervals.length];
+        this.retentionMillis = new long[intervals.length];
+        int i = 0;
+        for (Map.Entry<String, Duration> policy : properties.policies().entrySet()) {
+            if (!aggregatorManager.isSupportedInterval(policy.getKey())) {
+                throw new IllegalArgumentException("Retention policy for unsupported interval: " + policy.getKey());
+            }
+            intervals[i] = policy.getKey();
+            intervalIds[i] = candleRepository.intervalId(policy.getKey());
+            retentionMillis[i] = policy.getValue().toMillis();
+            i++;
+        }
+        this.checkInterval = properties.checkInterval().toMillis();
+        this.nextCheck = new long[aggregatorManager.getShardCount()];
+        this.owned = new OwnedSymbols[nextCheck.length];
+        for (int shard = 0; shard < owned.length; shard++) {
+            owned[shard] = new OwnedSymbols();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("candle.retention.reclaimed", reclaimedBytes, LongAdder::sum)
+                .baseUnit("bytes").description("Storage freed by dropping candles past their retention")
+                .register(registry);
+        FunctionCounter.builder("candle.retention.runs", runs, LongAdder::sum)
+                .description("Shard compaction passes").register(registry);
+    }
+
+    public boolean isEnabled() {
+        return intervals.length > 0;
+    }
+
+    /**
+     * Truncates the series of the shard's symbols once per check interval and
+     * returns the bytes reclaimed. Must be called from the shard's thread.
+     */
+    public long compact(int shard, long now) {
+        if (intervals.length == 0 || now < nextCheck[shard]) {
+            return 0;
+        }
+        nextCheck[shard] = now + checkInterval;
+
+        SymbolTable symbolTable = candleRepository.getSymbolTable();
+        OwnedSymbols symbols = owned[shard];
+        symbols.classify(shard, symbolTable.size());
+        long reclaimed = 0;
+        for (int s = 0; s < symbols.size; s++) {
+            int symbolId = symbols.ids[s];
+            for (int i = 0; i < intervals.length; i++) {
+                long freed = candleRepository.truncateBefore(symbolId, intervalIds[i], now - retentionMillis[i]);
+                if (freed > 0) {
+                    String symbol = symbolTable.name(symbolId);
+                    historyCache.invalidate(symbol, intervals[i]);
+                    indicatorService.invalidate(symbol, intervals[i]);
+                    reclaimed += freed;
+                }
+            }
+        }
+        runs.increment();
+        reclaimedBytes.add(reclaimed);
+        if (reclaimed > 0) {
+            log.debug("Shard {} reclaimed {} bytes of expired candles", shard, reclaimed);
+        }
+        return reclaimed;
+    }
+
+    // Oldest candle time of the interval retention keeps at now, Long.MIN_VALUE if it keeps everything
+    public long horizon(String interval, long now) {
+        for (int i = 0; i < intervals.length; i++) {
+            if (intervals[i].equals(interval)) {
+                return now - retentionMillis[i];
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    public long getReclaimedBytes() {
+        return reclaimedBytes.sum();
+    }
+
+    // IDs of the symbols a shard owns; each ID is hashed once, when a pass first sees it
+    private final class OwnedSymbols {
+        private int[] ids = new int[64];
+        private int size;
+        private int classified;
+
+        private void classify(int shard, int known) {
+            for (; classified < known; classified++) {
+                if (aggregatorManager.shardFor(classified) == shard) {
+                    if (size == ids.length) {
+                        ids = Arrays.copyOf(ids, size * 2);
+                    }
+                    ids[size++] = classified;
+                }
+            }
+        }
+    }
+}
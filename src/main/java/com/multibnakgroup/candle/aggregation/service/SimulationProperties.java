@@ -0,0 +1,43 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+@ConfigurationProperties("candle.simulation")
+public record SimulationProperties(
+        @DefaultValue("true") boolean enabled,      // Feed the service synthetic ticks; turn off when real ticks arrive
+        @DefaultValue("42") long seed,              // Same seed and settings, same ticks at the same offsets
+        @DefaultValue("4") int symbols,             // BTC-USD, ETH-USD, SOL-USD, AAPL, then SYM00004 onwards
+        @DefaultValue("40") double rate,            // Ticks per second across all symbols, outside bursts
+        @DefaultValue("steady") Profile profile,
+        @DefaultValue("10") double burstFactor,     // Rate multiplier while a burst lasts
+        @DefaultValue("10s") Duration burstPeriod,  // BURSTY: one burst per period; SPIKES: mean time between bursts
+        @DefaultValue("1s") Duration burstDuration,
+        @DefaultValue("0") double skew,             // Zipf exponent of symbol activity; 0 = every symbol equally busy
+        @DefaultValue("0.0002") double volatility   // Standard deviation of each tick's relative mid-price move
+) {
+
+    public enum Profile {
+        STEADY, // A constant rate
+        BURSTY, // A burst at the start of every period
+        SPIKES  // Bursts at seeded random times, a period apart on average
+    }
+
+    public SimulationProperties {
+        if (symbols < 1 || !(rate > 0) || !(burstFactor > 0) || skew < 0 || volatility < 0) {
+            throw new IllegalArgumentException("symbols, rate and burst-factor must be positive, "
+                    + "skew and volatility not negative");
+        }
+        if (profile != Profile.STEADY
+                && (burstPeriod.isZero() || burstPeriod.isNegative() || burstDuration.compareTo(burstPeriod) > 0)) {
+            throw new IllegalArgumentException("burst-period must be positive and no shorter than burst-duration");
+        }
+    }
+
+    public static SimulationProperties defaults() {
+        return new SimulationProperties(true, 42, 4, 40, Profile.STEADY, 10, Duration.ofSeconds(10),
+                Duration.ofSeconds(1), 0, 0.0002);
+    }
+}
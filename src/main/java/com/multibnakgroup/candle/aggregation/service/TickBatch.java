@@ -0,0 +1,86 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import com.multibnakgroup.candle.aggregation.model.SymbolTable;
+
+/**
+ * Reusable column batch of ticks, so draining, journaling and aggregating a
+ * batch does not need an event object per tick. Symbols are held as their
+ * IDs in the table the batch was created with.
+ */
+public class TickBatch {
+
+    private final SymbolTable symbolTable;
+    private final int[] symbolIds;
+    private final double[] bids;
+    private final double[] asks;
+    private final long[] timestamps;
+    private final long[] receivedNanos;
+    private int size;
+
+    public TickBatch(int capacity, SymbolTable symbolTable) {
+        this.symbolTable = symbolTable;
+        this.symbolIds = new int[capacity];
+        this.bids = new double[capacity];
+        this.asks = new double[capacity];
+        this.timestamps = new long[capacity];
+        this.receivedNanos = new long[capacity];
+    }
+
+    public boolean add(String symbol, double bid, double ask, long timestamp) {
+        return add(symbolTable.intern(symbol), bid, ask, timestamp, 0L);
+    }
+
+    // receivedNanos is the System.nanoTime() at which the tick entered the service
+    public boolean add(int symbolId, double bid, double ask, long timestamp, long receivedNanos) {
+        if (size == symbolIds.length) {
+            return false;
+        }
+        symbolIds[size] = symbolId;
+        bids[size] = bid;
+        asks[size] = ask;
+        timestamps[size] = timestamp;
+        this.receivedNanos[size] = receivedNanos;
+        size++;
+        return true;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return symbolIds.length;
+    }
+
+    public boolean isFull() {
+        return size == symbolIds.length;
+    }
+
+    public int symbolId(int index) {
+        return symbolIds[index];
+    }
+
+    public String symbol(int index) {
+        return symbolTable.name(symbolIds[index]);
+    }
+
+    public double bid(int index) {
+        return bids[index];
+    }
+
+    public double ask(int index) {
+        return asks[index];
+    }
+
+    public long timestamp(int index) {
+        return timestamps[index];
+    }
+
+    public long receivedNanos(int index) {
+        return receivedNanos[index];
+    }
+}
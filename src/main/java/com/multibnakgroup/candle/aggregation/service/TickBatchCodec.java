@@ -0,0 +1,150 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import com.multibnakgroup.candle.aggregation.model.BidAskEvent;
+import com.multibnakgroup.candle.aggregation.model.SymbolTable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary framing of a tick batch, big-endian:
+ * <pre>
+ * int    magic "TIK1"
+ * short  symbol count, then per symbol: short byte length, UTF-8 bytes
+ * int    tick count, then per tick: short symbol index, double bid, double ask, long timestamp
+ * </pre>
+ * Symbols travel once per batch, so every tick is a fixed 26-byte record that
+ * decodes straight into the ingest queues without an object of its own.
+ */
+public final class TickBatchCodec {
+
+    public static final int MAGIC = 0x54494B31;
+    public static final int TICK_BYTES = Short.BYTES + 2 * Double.BYTES + Long.BYTES;
+
+    /** Receives decoded ticks; returning false stops the batch at that tick. */
+    @FunctionalInterface
+    public interface TickSink {
+        boolean offer(String symbol, double bid, double ask, long timestamp);
+    }
+
+    /** Same as TickSink, with symbols already interned. */
+    @FunctionalInterface
+    public interface InternedTickSink {
+        boolean offer(int symbolId, double bid, double ask, long timestamp);
+    }
+
+    private TickBatchCodec() {
+    }
+
+    /**
+     * Validates the whole batch, then hands its ticks to the sink in order.
+     * A malformed batch is rejected with IllegalArgumentException before any
+     * tick is delivered.
+     */
+    public static IngestAck decode(ByteBuffer buffer, TickSink sink) {
+        ByteBuffer in = buffer.duplicate();
+        String[] symbols = readSymbols(in);
+        int count = readTickCount(in, symbols.length);
+        for (int i = 0; i < count; i++) {
+            String symbol = symbols[Short.toUnsignedInt(in.getShort())];
+            if (!sink.offer(symbol, in.getDouble(), in.getDouble(), in.getLong())) {
+                return new IngestAck(count, i);
+            }
+        }
+        return new IngestAck(count, count);
+    }
+
+    // Interns each symbol of the batch once, instead of once per tick
+    public static IngestAck decode(ByteBuffer buffer, SymbolTable symbolTable, InternedTickSink sink) {
+        ByteBuffer in = buffer.duplicate();
+        String[] symbols = readSymbols(in);
+        int count = readTickCount(in, symbols.length);
+        int[] symbolIds = new int[symbols.length];
+        for (int i = 0; i < symbols.length; i++) {
+            symbolIds[i] = symbolTable.intern(symbols[i]);
+        }
+        for (int i = 0; i < count; i++) {
+            int symbolId = symbolIds[Short.toUnsignedInt(in.getShort())];
+            if (!sink.offer(symbolId, in.getDouble(), in.getDouble(), in.getLong())) {
+                return new IngestAck(count, i);
+            }
+        }
+        return new IngestAck(count, count);
+    }
+
+    private static String[] readSymbols(ByteBuffer in) {
+        require(in, Integer.BYTES + Short.BYTES);
+        if (in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a tick batch");
+        }
+        String[] symbols = new String[Short.toUnsignedInt(in.getShort())];
+        for (int i = 0; i < symbols.length; i++) {
+            require(in, Short.BYTES);
+            int length = Short.toUnsignedInt(in.getShort());
+            require(in, length);
+            byte[] name = new byte[length];
+            in.get(name);
+            symbols[i] = new String(name, StandardCharsets.UTF_8);
+        }
+        return symbols;
+    }
+
+    // Checks every tick record before the first is delivered, leaving the buffer at the first tick
+    private static int readTickCount(ByteBuffer in, int symbolCount) {
+        require(in, Integer.BYTES);
+        int count = in.getInt();
+        if (count < 0 || (long) count * TICK_BYTES != in.remaining()) {
+            throw new IllegalArgumentException("Batch declares " + count + " ticks but carries "
+                    + in.remaining() + " bytes");
+        }
+        int ticks = in.position();
+        for (int i = 0; i < count; i++) {
+            if (Short.toUnsignedInt(in.getShort(ticks + i * TICK_BYTES)) >= symbolCount) {
+                throw new IllegalArgumentException("Tick " + i + " refers to an unknown symbol");
+            }
+        }
+        return count;
+    }
+
+    public static ByteBuffer encode(List<BidAskEvent> events) {
+        Map<String, Integer> indexes = new LinkedHashMap<>();
+        for (BidAskEvent event : events) {
+            indexes.putIfAbsent(event.symbol(), indexes.size());
+        }
+        if (indexes.size() > 0xFFFF) {
+            throw new IllegalArgumentException("Too many symbols for one batch: " + indexes.size());
+        }
+        byte[][] names = new byte[indexes.size()][];
+        int size = Integer.BYTES + Short.BYTES + Integer.BYTES + events.size() * TICK_BYTES;
+        for (Map.Entry<String, Integer> entry : indexes.entrySet()) {
+            names[entry.getValue()] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            if (names[entry.getValue()].length > 0xFFFF) {
+                throw new IllegalArgumentException("Symbol too long: " + entry.getKey());
+            }
+            size += Short.BYTES + names[entry.getValue()].length;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(MAGIC).putShort((short) names.length);
+        for (byte[] name : names) {
+            out.putShort((short) name.length).put(name);
+        }
+        out.putInt(events.size());
+        for (BidAskEvent event : events) {
+            out.putShort(indexes.get(event.symbol()).shortValue())
+                    .putDouble(event.bid())
+                    .putDouble(event.ask())
+                    .putLong(event.timestamp());
+        }
+        return out.flip();
+    }
+
+    private static void require(ByteBuffer in, int bytes) {
+        if (in.remaining() < bytes) {
+            throw new IllegalArgumentException("Truncated tick batch");
+        }
+    }
+}
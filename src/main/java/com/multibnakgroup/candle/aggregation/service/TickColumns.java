@@ -0,0 +1,72 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import java.util.Arrays;
+
+/**
+ * Ticks parsed from one slice of a tick file, in primitive columns per symbol
+ * ID, in file order. Written by the one thread parsing the slice.
+ */
+final class TickColumns {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[][] timestamps = new long[16][];
+    private double[][] bids = new double[16][];
+    private double[][] asks = new double[16][];
+    private int[] counts = new int[16];
+    private long ticks;
+    private long skipped;
+
+    void add(int symbolId, double bid, double ask, long timestamp) {
+        if (symbolId >= counts.length) {
+            int width = Math.max(symbolId + 1, counts.length * 2);
+            timestamps = Arrays.copyOf(timestamps, width);
+            bids = Arrays.copyOf(bids, width);
+            asks = Arrays.copyOf(asks, width);
+            counts = Arrays.copyOf(counts, width);
+        }
+        int count = counts[symbolId];
+        if (timestamps[symbolId] == null) {
+            timestamps[symbolId] = new long[INITIAL_CAPACITY];
+            bids[symbolId] = new double[INITIAL_CAPACITY];
+            asks[symbolId] = new double[INITIAL_CAPACITY];
+        } else if (count == timestamps[symbolId].length) {
+            timestamps[symbolId] = Arrays.copyOf(timestamps[symbolId], count * 2);
+            bids[symbolId] = Arrays.copyOf(bids[symbolId], count * 2);
+            asks[symbolId] = Arrays.copyOf(asks[symbolId], count * 2);
+        }
+        timestamps[symbolId][count] = timestamp;
+        bids[symbolId][count] = bid;
+        asks[symbolId][count] = ask;
+        counts[symbolId] = count + 1;
+        ticks++;
+    }
+
+    void skip() {
+        skipped++;
+    }
+
+    int count(int symbolId) {
+        return symbolId < counts.length ? counts[symbolId] : 0;
+    }
+
+    long[] timestamps(int symbolId) {
+        return timestamps[symbolId];
+    }
+
+    double[] bids(int symbolId) {
+        return bids[symbolId];
+    }
+
+    double[] asks(int symbolId) {
+        return asks[symbolId];
+    }
+
+    long ticks() {
+        return ticks;
+    }
+
+    long skipped() {
+        return skipped;
+    }
+}
@@ -0,0 +1,105 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import java.util.Arrays;
+
+/**
+ * Picks the ticks of a drained batch that decide its candles, so an
+ * overloaded shard can skip the rest: per symbol and second, the earliest,
+ * latest, highest and lowest one. Every interval's windows are whole seconds,
+ * so a second never straddles two windows and the kept ticks give the same
+ * open, high, low and close as the whole batch; volume only counts the kept
+ * ones. Used by the consumer thread only, and allocates nothing per batch.
+ */
+final class TickConflater {
+
+    private final boolean[] keep;
+    // Open-addressing table of (symbol, second) groups, cleared by bumping the generation
+    private final long[] keys;
+    private final int[] generations;
+    private final int[] first;
+    private final int[] last;
+    private final int[] highest;
+    private final int[] lowest;
+    private final int mask;
+    private int generation;
+
+    TickConflater(int batchSize) {
+        int slots = Integer.highestOneBit(Math.max(2, batchSize) * 2 - 1) << 1;
+        this.keep = new boolean[batchSize];
+        this.keys = new long[slots];
+        this.generations = new int[slots];
+        this.first = new int[slots];
+        this.last = new int[slots];
+        this.highest = new int[slots];
+        this.lowest = new int[slots];
+        this.mask = slots - 1;
+    }
+
+    // Marks the ticks to aggregate and returns how many were skipped
+    int conflate(TickBatch batch) {
+        if (++generation == 0) {
+            Arrays.fill(generations, 0);
+            generation = 1;
+        }
+        int size = batch.size();
+        for (int i = 0; i < size; i++) {
+            long timestamp = batch.timestamp(i);
+            long key = (long) batch.symbolId(i) << 32 | (Math.floorDiv(timestamp, 1000L) & 0xFFFFFFFFL);
+            int slot = slot(key);
+            if (generations[slot] != generation) {
+                generations[slot] = generation;
+                keys[slot] = key;
+                first[slot] = last[slot] = highest[slot] = lowest[slot] = i;
+                continue;
+            }
+            // Ties go the way the aggregator breaks them: the first processed opens, the last processed closes
+            if (timestamp < batch.timestamp(first[slot])) {
+                first[slot] = i;
+            }
+            if (timestamp >= batch.timestamp(last[slot])) {
+                last[slot] = i;
+            }
+            double mid = mid(batch, i);
+            if (mid > mid(batch, highest[slot])) {
+                highest[slot] = i;
+            }
+            if (mid < mid(batch, lowest[slot])) {
+                lowest[slot] = i;
+            }
+        }
+
+        Arrays.fill(keep, 0, size, false);
+        for (int slot = 0; slot <= mask; slot++) {
+            if (generations[slot] == generation) {
+                keep[first[slot]] = true;
+                keep[last[slot]] = true;
+                keep[highest[slot]] = true;
+                keep[lowest[slot]] = true;
+            }
+        }
+        int skipped = 0;
+        for (int i = 0; i < size; i++) {
+            if (!keep[i]) {
+                skipped++;
+            }
+        }
+        return skipped;
+    }
+
+    boolean keep(int index) {
+        return keep[index];
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (h ^ h >>> 32) & mask;
+        while (generations[slot] == generation && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static double mid(TickBatch batch, int index) {
+        return (batch.bid(index) + batch.ask(index)) / 2.0;
+    }
+}
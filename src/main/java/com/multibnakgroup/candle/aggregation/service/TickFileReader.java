@@ -0,0 +1,340 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import com.multibnakgroup.candle.aggregation.model.SymbolTable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a historical tick file a memory-mapped chunk at a time, each chunk
+ * ending on a record boundary. CSV files hold one
+ * {@code symbol,bid,ask,timestamp} line per tick, timestamps in epoch
+ * milliseconds, with an optional header line; binary files are a sequence of
+ * {@link TickBatchCodec} batches, each preceded by its byte length as an int.
+ *
+ * <p>Parsing works on the mapped bytes: a symbol only becomes a String the
+ * first time a slice meets it, and numbers are read digit by digit, falling
+ * back to the JDK parsers for the rare value the fast path cannot round
+ * exactly.
+ */
+public final class TickFileReader implements Closeable {
+
+    public enum Format {
+        CSV,
+        BINARY
+    }
+
+    // Every power of ten a double holds exactly, so a short decimal divides into a correctly rounded value
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    private final FileChannel channel;
+    private final Format format;
+    private final long size;
+    private final int chunkSize;
+    private long position;
+
+    public TickFileReader(Path file, Format format, int chunkSize) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.format = format;
+        this.size = channel.size();
+        this.chunkSize = chunkSize;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public long position() {
+        return position;
+    }
+
+    // Next chunk of whole records, or null at the end of the file
+    public ByteBuffer nextChunk() throws IOException {
+        if (position >= size) {
+            return null;
+        }
+        int length = (int) Math.min(chunkSize, size - position);
+        ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        int end = recordsEnd(mapped, length, position + length == size);
+        if (end == 0) {
+            throw new IOException("Record at offset " + position + " is longer than the chunk size");
+        }
+        position += end;
+        return mapped.slice(0, end);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Cuts a chunk into up to parts slices of similar size on record
+     * boundaries. Returns parts + 1 offsets; slice i runs from offset i to
+     * offset i + 1 and may be empty.
+     */
+    int[] split(ByteBuffer chunk, int parts) {
+        int length = chunk.limit();
+        int[] bounds = new int[parts + 1];
+        bounds[parts] = length;
+        int frame = 0;
+        for (int i = 1; i < parts; i++) {
+            int target = Math.max((int) ((long) length * i / parts), bounds[i - 1]);
+            if (format == Format.CSV) {
+                int newline = indexOf(chunk, (byte) '\n', target, length);
+                bounds[i] = newline < 0 ? length : newline + 1;
+            } else {
+                while (frame < target) {
+                    frame += Integer.BYTES + chunk.getInt(frame);
+                }
+                bounds[i] = frame;
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Parses the records in [from, to) of a chunk into columns, interning
+     * symbols into the table. Malformed CSV lines are counted and skipped; a
+     * first line of the file that does not parse is taken as its header.
+     */
+    TickColumns parse(ByteBuffer chunk, int from, int to, boolean fileStart, SymbolTable symbols) {
+        TickColumns columns = new TickColumns();
+        if (format == Format.BINARY) {
+            for (int frame = from; frame < to; ) {
+                int length = chunk.getInt(frame);
+                TickBatchCodec.decode(chunk.slice(frame + Integer.BYTES, length), symbols,
+                        (symbolId, bid, ask, timestamp) -> {
+                            columns.add(symbolId, bid, ask, timestamp);
+                            return true;
+                        });
+                frame += Integer.BYTES + length;
+            }
+            return columns;
+        }
+
+        SymbolCache cache = new SymbolCache(symbols);
+        boolean header = fileStart;
+        for (int line = from; line < to; ) {
+            int newline = indexOf(chunk, (byte) '\n', line, to);
+            int next = newline < 0 ? to : newline + 1;
+            int end = newline < 0 ? to : newline;
+            if (end > line && chunk.get(end - 1) == '\r') {
+                end--;
+            }
+            if (end > line && !parseLine(chunk, line, end, cache, columns) && !header) {
+                columns.skip();
+            }
+            header = false;
+            line = next;
+        }
+        return columns;
+    }
+
+    private int recordsEnd(ByteBuffer mapped, int length, boolean last) throws IOException {
+        if (format == Format.CSV) {
+            if (last) {
+                return length;
+            }
+            for (int i = length - 1; i >= 0; i--) {
+                if (mapped.get(i) == '\n') {
+                    return i + 1;
+                }
+            }
+            return 0;
+        }
+        int frame = 0;
+        while (frame + Integer.BYTES <= length) {
+            int frameLength = mapped.getInt(frame);
+            if (frameLength < 0) {
+                throw new IOException("Corrupt batch length at offset " + (position + frame));
+            }
+            if ((long) frame + Integer.BYTES + frameLength > length) {
+                break;
+            }
+            frame += Integer.BYTES + frameLength;
+        }
+        if (last && frame != length) {
+            throw new IOException("Truncated batch at offset " + (position + frame));
+        }
+        return frame;
+    }
+
+    private static boolean parseLine(ByteBuffer in, int start, int end, SymbolCache cache, TickColumns out) {
+        int symbolEnd = indexOf(in, (byte) ',', start, end);
+        int bidEnd = symbolEnd <= start ? -1 : indexOf(in, (byte) ',', symbolEnd + 1, end);
+        int askEnd = bidEnd < 0 ? -1 : indexOf(in, (byte) ',', bidEnd + 1, end);
+        if (askEnd < 0) {
+            return false;
+        }
+        double bid;
+        double ask;
+        long timestamp;
+        try {
+            bid = parseDouble(in, symbolEnd + 1, bidEnd);
+            ask = parseDouble(in, bidEnd + 1, askEnd);
+            timestamp = parseLong(in, askEnd + 1, end);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        out.add(cache.id(in, start, symbolEnd), bid, ask, timestamp);
+        return true;
+    }
+
+    static double parseDouble(ByteBuffer in, int from, int to) {
+        int i = from;
+        boolean negative = i < to && in.get(i) == '-';
+        if (negative || (i < to && in.get(i) == '+')) {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;      // Significant digits, leading zeros excluded
+        int fraction = -1;   // Digits after the point, -1 before one is seen
+        boolean any = false;
+        for (; i < to; i++) {
+            byte b = in.get(i);
+            if (b >= '0' && b <= '9') {
+                any = true;
+                if (mantissa != 0 || b != '0') {
+                    if (++digits > MAX_EXACT_DIGITS) {
+                        return Double.parseDouble(text(in, from, to));
+                    }
+                    mantissa = mantissa * 10 + (b - '0');
+                }
+                if (fraction >= 0) {
+                    fraction++;
+                }
+            } else if (b == '.' && fraction < 0) {
+                fraction = 0;
+            } else {
+                // Exponents, infinities and anything malformed go to the JDK parser
+                return Double.parseDouble(text(in, from, to));
+            }
+        }
+        if (!any || fraction >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(text(in, from, to));
+        }
+        double value = fraction > 0 ? mantissa / POWERS_OF_TEN[fraction] : mantissa;
+        return negative ? -value : value;
+    }
+
+    static long parseLong(ByteBuffer in, int from, int to) {
+        int i = from;
+        boolean negative = i < to && in.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+        if (i == to || to - i > 18) {
+            return Long.parseLong(text(in, from, to));
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            byte b = in.get(i);
+            if (b < '0' || b > '9') {
+                throw new NumberFormatException("Not a number: " + text(in, from, to));
+            }
+            value = value * 10 + (b - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private static int indexOf(ByteBuffer in, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (in.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String text(ByteBuffer in, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        in.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Symbol bytes to ID for one slice, so the shared table is only consulted for a symbol's first line
+    private static final class SymbolCache {
+        private final SymbolTable symbols;
+        private byte[][] keys = new byte[64][];
+        private int[] ids = new int[64];
+        private int size;
+
+        private SymbolCache(SymbolTable symbols) {
+            this.symbols = symbols;
+        }
+
+        private int id(ByteBuffer in, int from, int to) {
+            int hash = 1;
+            for (int i = from; i < to; i++) {
+                hash = 31 * hash + in.get(i);
+            }
+            int mask = keys.length - 1;
+            for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+                byte[] key = keys[slot];
+                if (key == null) {
+                    byte[] name = new byte[to - from];
+                    in.get(from, name);
+                    int id = symbols.intern(new String(name, StandardCharsets.UTF_8));
+                    keys[slot] = name;
+                    ids[slot] = id;
+                    if (++size * 2 > keys.length) {
+                        resize();
+                    }
+                    return id;
+                }
+                if (matches(key, in, from, to)) {
+                    return ids[slot];
+                }
+            }
+        }
+
+        private void resize() {
+            byte[][] oldKeys = keys;
+            int[] oldIds = ids;
+            keys = new byte[oldKeys.length * 2][];
+            ids = new int[keys.length];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == null) {
+                    continue;
+                }
+                int hash = 1;
+                for (byte b : oldKeys[i]) {
+                    hash = 31 * hash + b;
+                }
+                int slot = spread(hash) & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                ids[slot] = oldIds[i];
+            }
+        }
+
+        private static boolean matches(byte[] key, ByteBuffer in, int from, int to) {
+            if (key.length != to - from) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != in.get(from + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
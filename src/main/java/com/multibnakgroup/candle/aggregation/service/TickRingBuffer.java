@@ -0,0 +1,94 @@
+package com.multibnakgroup.candle.aggregation.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free tick queue for many producers and a single consumer,
+ * laid out as primitive columns so enqueuing a tick allocates nothing.
+ * Each slot carries a sequence number: producers claim a slot with one CAS on
+ * the tail, write its columns, then publish it by advancing the slot's
+ * sequence, so the consumer never contends with them.
+ */
+public class TickRingBuffer {
+
+    private final int capacity;
+    private final int mask;
+    private final int[] symbolIds;
+    private final double[] bids;
+    private final double[] asks;
+    private final long[] timestamps;
+    private final long[] receivedNanos;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    public TickRingBuffer(int requestedCapacity) {
+        if (requestedCapacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2: " + requestedCapacity);
+        }
+        this.capacity = Integer.highestOneBit(requestedCapacity - 1) << 1;
+        this.mask = capacity - 1;
+        this.symbolIds = new int[capacity];
+        this.bids = new double[capacity];
+        this.asks = new double[capacity];
+        this.timestamps = new long[capacity];
+        this.receivedNanos = new long[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    // receivedNanos is passed in so a batch of ticks can share one clock read
+    public boolean offer(int symbolId, double bid, double ask, long timestamp, long receivedNanos) {
+        long position;
+        int index;
+        while (true) {
+            position = tail.get();
+            index = (int) position & mask;
+            long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                return false; // Full
+            }
+        }
+        symbolIds[index] = symbolId;
+        bids[index] = bid;
+        asks[index] = ask;
+        timestamps[index] = timestamp;
+        this.receivedNanos[index] = receivedNanos;
+        sequences.lazySet(index, position + 1); // Publishes the plain column writes above
+        return true;
+    }
+
+    // Moves up to the batch's free space into it; must only be called from the consumer thread
+    public int drainTo(TickBatch batch) {
+        long position = head.get();
+        int drained = 0;
+        while (!batch.isFull()) {
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) {
+                break;
+            }
+            batch.add(symbolIds[index], bids[index], asks[index], timestamps[index], receivedNanos[index]);
+            sequences.lazySet(index, position + capacity);
+            position++;
+            drained++;
+        }
+        head.lazySet(position);
+        return drained;
+    }
+
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
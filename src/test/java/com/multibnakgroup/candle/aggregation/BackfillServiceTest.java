@@ -0,0 +1,179 @@
+package com.multibnakgroup.candle.aggregation;
+
+import com.multibnakgroup.candle.aggregation.aggregator.AggregationProperties;
+import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregatorManager;
+import com.multibnakgroup.candle.aggregation.indicator.IndicatorProperties;
+import com.multibnakgroup.candle.aggregation.indicator.IndicatorService;
+import com.multibnakgroup.candle.aggregation.model.BidAskEvent;
+import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.repository.CandleRepository;
+import com.multibnakgroup.candle.aggregation.service.BackfillJob;
+import com.multibnakgroup.candle.aggregation.service.BackfillProperties;
+import com.multibnakgroup.candle.aggregation.service.BackfillService;
+import com.multibnakgroup.candle.aggregation.service.EventProcessor;
+import com.multibnakgroup.candle.aggregation.service.HistoryCache;
+import com.multibnakgroup.candle.aggregation.service.HistoryCacheProperties;
+import com.multibnakgroup.candle.aggregation.service.JournalProperties;
+import com.multibnakgroup.candle.aggregation.service.OverloadProperties;
+import com.multibnakgroup.candle.aggregation.service.RetentionProperties;
+import com.multibnakgroup.candle.aggregation.service.RetentionService;
+import com.multibnakgroup.candle.aggregation.service.SimulationProperties;
+import com.multibnakgroup.candle.aggregation.service.TickBatchCodec;
+import com.multibnakgroup.candle.aggregation.service.TickFileReader;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BackfillServiceTest {
+
+    private static final long START = 1_600_000_000_000L; // 40s into a minute
+    private static final String[] SYMBOLS = {"BTC-USD", "ETH-USD", "SOL-USD", "AAPL"};
+
+    @TempDir
+    Path directory;
+
+    private CandleRepository repository;
+    private CandleAggregatorManager manager;
+    private EventProcessor eventProcessor;
+    private BackfillService backfill;
+
+    @BeforeEach
+    void setUp() {
+        repository = new CandleRepository();
+        manager = new CandleAggregatorManager(repository, 2, AggregationProperties.defaults(), Clock.systemUTC());
+        JournalProperties noJournal = new JournalProperties(false, directory.resolve("journal"), 1024,
+                JournalProperties.FsyncPolicy.NONE, Duration.ofMillis(50), DataSize.ofMegabytes(64));
+        HistoryCache cache = new HistoryCache(HistoryCacheProperties.defaults());
+        IndicatorService indicators = new IndicatorService(repository, IndicatorProperties.defaults(),
+                Duration.ofSeconds(2));
+        RetentionService retention = new RetentionService(repository, manager, cache, indicators,
+                RetentionProperties.defaults());
+        eventProcessor = new EventProcessor(manager, 1024, "platform", noJournal, OverloadProperties.defaults(),
+                SimulationProperties.defaults(), retention, new SimpleMeterRegistry());
+        // Small chunks, so windows and lines straddle chunk boundaries
+        backfill = new BackfillService(repository, manager, eventProcessor, cache, indicators, retention,
+                AggregationProperties.defaults(), new BackfillProperties(directory, 3, DataSize.ofKilobytes(16)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        backfill.shutdown();
+        eventProcessor.shutdown();
+    }
+
+    @Test
+    @DisplayName("Should backfill a CSV file into the same candles as aggregating its ticks live")
+    void testCsvMatchesLiveAggregation() throws IOException {
+        // Given - six hours of ticks, some swapped with their neighbour, plus a header and a malformed line
+        List<BidAskEvent> ticks = ticks(6 * 3600);
+        Path file = directory.resolve("ticks.csv");
+        StringBuilder csv = new StringBuilder("symbol,bid,ask,timestamp\n");
+        for (int i = 0; i < ticks.size(); i++) {
+            BidAskEvent tick = ticks.get(i);
+            csv.append(tick.symbol()).append(',').append(tick.bid()).append(',').append(tick.ask())
+                    .append(',').append(tick.timestamp()).append(i % 2 == 0 ? "\n" : "\r\n");
+            if (i == 1000) {
+                csv.append("BTC-USD,oops,1.0,").append(tick.timestamp()).append('\n');
+            }
+        }
+        Files.writeString(file, csv);
+
+        // When
+        BackfillJob job = backfill.backfill(file, TickFileReader.Format.CSV);
+
+        // Then
+        assertEquals(BackfillJob.Status.DONE, job.getStatus(), job.getError());
+        assertEquals(ticks.size(), job.getTicks());
+        assertEquals(1, job.getSkippedLines());
+        assertEquals(Files.size(file), job.getBytesRead());
+        assertExpectedCandles(ticks);
+    }
+
+    @Test
+    @DisplayName("Should backfill length-prefixed binary batches underneath candles already stored live")
+    void testBinaryMergesWithLiveCandles() throws Exception {
+        // Given - a live candle inside the backfilled range that the backfill replaces, and a newer one it keeps
+        List<BidAskEvent> ticks = ticks(3600);
+        Path file = directory.resolve("ticks.bin");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (int from = 0; from < ticks.size(); from += 500) {
+                ByteBuffer batch = TickBatchCodec.encode(ticks.subList(from, Math.min(from + 500, ticks.size())));
+                out.write(ByteBuffer.allocate(Integer.BYTES).putInt(batch.remaining()).array());
+                out.write(batch.array(), 0, batch.remaining());
+            }
+        }
+        Candle newer = new Candle(START + 7_200_000L, 1.0, 1.0, 1.0, 1.0, 1);
+        eventProcessor.execute(manager.shardFor("BTC-USD"), () -> {
+            repository.save("BTC-USD", "1m", new Candle(START + 80_000L, 1.0, 1.0, 1.0, 1.0, 1));
+            repository.save("BTC-USD", "1m", newer);
+        }).get();
+
+        // When
+        BackfillJob job = backfill.backfill(file, TickFileReader.Format.BINARY);
+
+        // Then
+        assertEquals(BackfillJob.Status.DONE, job.getStatus(), job.getError());
+        assertEquals(ticks.size(), job.getTicks());
+        List<Candle> minutes = repository.findCandles("BTC-USD", "1m", null, null, null);
+        assertEquals(newer, minutes.get(minutes.size() - 1));
+        assertEquals(minutes.subList(0, minutes.size() - 1),
+                expectedRepository(ticks).findCandles("BTC-USD", "1m", null, null, null));
+    }
+
+    private void assertExpectedCandles(List<BidAskEvent> ticks) {
+        CandleRepository expected = expectedRepository(ticks);
+        for (String symbol : SYMBOLS) {
+            for (String interval : AggregationProperties.defaults().intervals()) {
+                List<Candle> candles = expected.findCandles(symbol, interval, null, null, null);
+                assertFalse(candles.isEmpty(), symbol + " " + interval);
+                assertEquals(candles, repository.findCandles(symbol, interval, null, null, null),
+                        symbol + " " + interval);
+            }
+        }
+    }
+
+    // The ticks aggregated one by one in file order, every window closed at the end
+    private static CandleRepository expectedRepository(List<BidAskEvent> ticks) {
+        CandleRepository expected = new CandleRepository();
+        CandleAggregatorManager live = new CandleAggregatorManager(expected, 1, AggregationProperties.defaults(),
+                Clock.systemUTC());
+        ticks.forEach(live::processEvent);
+        live.closeAllWindows(0);
+        return expected;
+    }
+
+    private static List<BidAskEvent> ticks(int seconds) {
+        Random random = new Random(11);
+        List<BidAskEvent> ticks = new ArrayList<>();
+        for (int second = 0; second < seconds; second++) {
+            for (int i = 0; i < 2; i++) {
+                String symbol = SYMBOLS[random.nextInt(SYMBOLS.length)];
+                double bid = 100.0 + random.nextInt(10_000) / 100.0;
+                long timestamp = START + second * 1000L + i * 400 + random.nextInt(400);
+                ticks.add(new BidAskEvent(symbol, bid, bid + 0.25, timestamp));
+            }
+            if (second % 7 == 0 && ticks.size() > 1) {
+                Collections.swap(ticks, ticks.size() - 1, ticks.size() - 2);
+            }
+        }
+        return ticks;
+    }
+}
@@ -1,23 +1,49 @@
 package com.multibnakgroup.candle.aggregation;
 
+import com.multibnakgroup.candle.aggregation.aggregator.AggregationProperties;
 import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregatorManager;
 import com.multibnakgroup.candle.aggregation.model.BidAskEvent;
+import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.model.CandleDetails;
+import com.multibnakgroup.candle.aggregation.model.DetailedCandle;
+import com.multibnakgroup.candle.aggregation.model.SymbolTable;
 import com.multibnakgroup.candle.aggregation.repository.CandleRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class CandleAggregatorManagerTest {
 
+    private static final long START = 1_700_000_000_000L;
+
     private CandleAggregatorManager manager;
     private CandleRepository mockRepository;
 
     @BeforeEach
     void setUp() {
         mockRepository = mock(CandleRepository.class);
+        when(mockRepository.getSymbolTable()).thenReturn(new SymbolTable());
         manager = new CandleAggregatorManager(mockRepository);
     }
 
@@ -51,4 +77,310 @@ public class CandleAggregatorManagerTest {
             manager.processEvent(ethEvent);
         });
     }
+
+    @Test
+    @DisplayName("Should produce identical candles in cascade and per-tick modes")
+    void testCascadeMatchesPerTick() {
+        // Given
+        Clock clock = Clock.fixed(Instant.ofEpochMilli(START), ZoneOffset.UTC);
+        CandleRepository perTickRepository = new CandleRepository();
+        CandleRepository cascadeRepository = new CandleRepository();
+        CandleAggregatorManager perTick = new CandleAggregatorManager(perTickRepository, 1, properties(false), clock);
+        CandleAggregatorManager cascade = new CandleAggregatorManager(cascadeRepository, 1, properties(true), clock);
+        Random random = new Random(42);
+        String[] symbols = {"BTC-USD", "ETH-USD", "SOL-USD"};
+        int seconds = 2 * 24 * 3600;
+        List<BidAskEvent> delayed = new ArrayList<>();
+
+        // When - bursts of ticks separated by idle stretches, some arriving up to a second late
+        for (int second = 0; second < seconds; second++) {
+            List<BidAskEvent> arriving = new ArrayList<>(delayed);
+            delayed.clear();
+            int ticks = random.nextInt(10) < 3 ? random.nextInt(4) : 0;
+            for (int i = 0; i < ticks; i++) {
+                double bid = 100.0 + random.nextInt(1000) / 10.0;
+                long timestamp = START + second * 1000L + i * 250L + random.nextInt(250);
+                BidAskEvent event = new BidAskEvent(symbols[random.nextInt(symbols.length)], bid, bid + 0.5, timestamp);
+                (random.nextInt(10) == 0 ? delayed : arriving).add(event);
+            }
+            for (BidAskEvent event : arriving) {
+                perTick.processEvent(event);
+                cascade.processEvent(event);
+            }
+            long now = START + (second + 1) * 1000L;
+            perTick.closeWindows(0, now);
+            cascade.closeWindows(0, now);
+            if (second % 997 == 0) {
+                for (String interval : List.of("1s", "1m", "1h", "1d")) {
+                    assertEquals(perTick.currentCandle("BTC-USD", interval), cascade.currentCandle("BTC-USD", interval),
+                            "current " + interval + " at " + second);
+                }
+            }
+        }
+
+        // Then
+        for (String symbol : symbols) {
+            for (String interval : List.of("1s", "5s", "1m", "5m", "15m", "1h", "4h", "1d")) {
+                List<Candle> expected = perTickRepository.findCandles(symbol, interval, null, null, null);
+                assertFalse(expected.isEmpty(), symbol + " " + interval);
+                assertEquals(expected, cascadeRepository.findCandles(symbol, interval, null, null, null),
+                        symbol + " " + interval);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should roll details up the cascade to the same values as aggregating every tick")
+    void testDetailsCascadeMatchesPerTick() {
+        // Given
+        Clock clock = Clock.fixed(Instant.ofEpochMilli(START), ZoneOffset.UTC);
+        CandleRepository perTickRepository = new CandleRepository();
+        CandleRepository cascadeRepository = new CandleRepository();
+        CandleAggregatorManager perTick = new CandleAggregatorManager(perTickRepository, 1,
+                properties(false, true, Map.of()), clock);
+        CandleAggregatorManager cascade = new CandleAggregatorManager(cascadeRepository, 1,
+                properties(true, true, Map.of()), clock);
+        Random random = new Random(7);
+        BidAskEvent late = null;
+
+        // When - six hours of ticks with varying spreads, every tenth one arriving a second late
+        for (int second = 0; second < 6 * 3600; second++) {
+            double bid = 100.0 + random.nextInt(1000) / 10.0;
+            double spread = 0.1 + random.nextInt(10) / 10.0;
+            BidAskEvent event = new BidAskEvent("BTC-USD", bid, bid + spread, START + second * 1000L + random.nextInt(1000));
+            for (BidAskEvent arriving : second % 10 == 0 ? List.of(event) : late == null ? List.of(event)
+                    : List.of(event, late)) {
+                perTick.processEvent(arriving);
+                cascade.processEvent(arriving);
+            }
+            late = second % 10 == 0 ? event : null;
+        }
+        perTick.closeAllWindows(0);
+        cascade.closeAllWindows(0);
+
+        // Then - sums may differ in their last bits, as they are added up in a different order
+        for (String interval : List.of("1s", "5s", "1m", "5m", "15m", "1h", "4h", "1d")) {
+            List<DetailedCandle> expected = perTickRepository.findDetailedCandles("BTC-USD", interval, null, null, null);
+            List<DetailedCandle> actual = cascadeRepository.findDetailedCandles("BTC-USD", interval, null, null, null);
+            assertFalse(expected.isEmpty(), interval);
+            assertEquals(perTickRepository.findCandles("BTC-USD", interval, null, null, null).size(), expected.size());
+            assertEquals(expected.size(), actual.size(), interval);
+            for (int i = 0; i < expected.size(); i++) {
+                DetailedCandle want = expected.get(i);
+                DetailedCandle got = actual.get(i);
+                assertEquals(want.vwap(), got.vwap(), 1e-9, interval);
+                assertEquals(want.averageSpread(), got.averageSpread(), 1e-9, interval);
+                assertEquals(new DetailedCandle(want.time(), want.open(), want.high(), want.low(), want.close(),
+                        want.volume(), got.vwap(), got.averageSpread(), want.maxSpread(), want.bidOpen(),
+                        want.bidHigh(), want.bidLow(), want.bidClose(), want.askOpen(), want.askHigh(),
+                        want.askLow(), want.askClose(), want.tickImbalance()), got, interval);
+            }
+        }
+        Candle day = cascadeRepository.findCandles("BTC-USD", "1d", null, null, null).get(1);
+        CandleDetails dayDetails = cascadeRepository.findDetails("BTC-USD", "1d", day.time());
+        assertNotNull(dayDetails);
+        assertTrue(dayDetails.upticks() > 0 && dayDetails.downticks() > 0);
+        assertTrue(dayDetails.upticks() + dayDetails.downticks() <= day.volume());
+    }
+
+    @Test
+    @DisplayName("Should bucket by tick time, close on the watermark and amend within the allowed lateness")
+    void testEventTimeWindows() {
+        // Given
+        CandleRepository repository = new CandleRepository();
+        Clock clock = Clock.fixed(Instant.ofEpochMilli(START), ZoneOffset.UTC);
+        CandleAggregatorManager eventTime = new CandleAggregatorManager(repository, 1, properties(true), clock);
+
+        // When
+        eventTime.processEvent(new BidAskEvent("BTC-USD", 100.0, 101.0, START + 100));
+        eventTime.processEvent(new BidAskEvent("BTC-USD", 102.0, 103.0, START + 900));
+        eventTime.processEvent(new BidAskEvent("BTC-USD", 110.0, 111.0, START + 1_500)); // Watermark passes the first second
+        List<Candle> emitted = repository.findCandles("BTC-USD", "1s", null, null, null);
+        eventTime.processEvent(new BidAskEvent("BTC-USD", 90.0, 91.0, START + 50));      // Late, within 2s
+        eventTime.processEvent(new BidAskEvent("BTC-USD", 80.0, 81.0, START + 4_000));
+        eventTime.processEvent(new BidAskEvent("BTC-USD", 70.0, 71.0, START + 200));     // Too late
+
+        // Then
+        assertEquals(List.of(new Candle(START, 100.5, 102.5, 100.5, 102.5, 2)), emitted);
+        List<Candle> candles = repository.findCandles("BTC-USD", "1s", null, null, null);
+        assertEquals(new Candle(START, 90.5, 102.5, 90.5, 102.5, 3), candles.get(0));
+        assertEquals(new Candle(START + 1_000, 110.5, 110.5, 110.5, 110.5, 1), candles.get(1));
+        assertEquals(1, eventTime.getLateTicksDropped());
+    }
+
+    @Test
+    @DisplayName("Should roll calendar intervals up from finer ones in the group's time zone")
+    void testCalendarCascade() {
+        // Given
+        ZoneId newYork = ZoneId.of("America/New_York");
+        long start = LocalDate.of(2024, 2, 20).atStartOfDay(newYork).toInstant().toEpochMilli();
+        Clock clock = Clock.fixed(Instant.ofEpochMilli(start), ZoneOffset.UTC);
+        Map<String, AggregationProperties.Group> groups = Map.of("us", new AggregationProperties.Group(
+                List.of("AAPL"), List.of("1m", "1h", "1d", "1w", "1M"), newYork));
+        CandleRepository perTickRepository = new CandleRepository();
+        CandleRepository cascadeRepository = new CandleRepository();
+        CandleAggregatorManager perTick = new CandleAggregatorManager(perTickRepository, 1,
+                properties(false, groups), clock);
+        CandleAggregatorManager cascade = new CandleAggregatorManager(cascadeRepository, 1,
+                properties(true, groups), clock);
+        Random random = new Random(7);
+
+        // When - a tick every few minutes for six weeks, across the March daylight saving change
+        for (long time = start; time < start + 42 * 86_400_000L; time += 60_000L + random.nextInt(600_000)) {
+            BidAskEvent event = new BidAskEvent("AAPL", 150.0 + random.nextInt(100) / 10.0, 150.5, time);
+            perTick.processEvent(event);
+            cascade.processEvent(event);
+        }
+
+        // Then
+        for (String interval : List.of("1h", "1d", "1w", "1M")) {
+            List<Candle> expected = perTickRepository.findCandles("AAPL", interval, null, null, null);
+            assertFalse(expected.isEmpty(), interval);
+            assertEquals(expected, cascadeRepository.findCandles("AAPL", interval, null, null, null), interval);
+        }
+        for (Candle day : cascadeRepository.findCandles("AAPL", "1d", null, null, null)) {
+            assertEquals(0, Instant.ofEpochMilli(day.time()).atZone(newYork).toLocalTime().toSecondOfDay());
+        }
+        assertEquals(LocalDate.of(2024, 3, 1).atStartOfDay(newYork).toInstant().toEpochMilli(),
+                cascadeRepository.findCandles("AAPL", "1M", null, null, null).get(1).time());
+        assertTrue(cascade.isSupportedInterval("AAPL", "1M"));
+        assertFalse(cascade.isSupportedInterval("BTC-USD", "1M"));
+    }
+
+    @Test
+    @DisplayName("Should switch a group to new intervals at runtime without losing rolled-up ticks")
+    void testRuntimeIntervalChange() {
+        // Given
+        long minute = 1_699_999_980_000L;
+        CandleRepository repository = new CandleRepository();
+        Clock clock = Clock.fixed(Instant.ofEpochMilli(minute), ZoneOffset.UTC);
+        CandleAggregatorManager runtime = new CandleAggregatorManager(repository, 1, properties(true), clock);
+        for (long offset : new long[]{1_000, 2_000, 6_000, 7_500}) {
+            runtime.processEvent(new BidAskEvent("BTC-USD", 100.0, 101.0, minute + offset));
+        }
+
+        // When - 5s goes away while its window holds the 6s candle
+        runtime.setIntervals(AggregationProperties.DEFAULT_GROUP, List.of("1s", "10s", "1m"));
+        runtime.processEvent(new BidAskEvent("BTC-USD", 100.0, 101.0, minute + 12_000));
+        Candle current = runtime.currentCandle("BTC-USD", "1m");
+        runtime.processEvent(new BidAskEvent("BTC-USD", 100.0, 101.0, minute + 61_000));
+
+        // Then
+        assertEquals(5, current.volume());
+        assertEquals(5, repository.findCandles("BTC-USD", "1m", null, null, null).get(0).volume());
+        assertEquals(new Candle(minute + 10_000, 100.5, 100.5, 100.5, 100.5, 1),
+                repository.findCandles("BTC-USD", "10s", null, null, null).get(1));
+        assertFalse(runtime.isSupportedInterval("5s"));
+        assertTrue(runtime.isSupportedInterval("10s"));
+        assertNull(runtime.currentCandle("BTC-USD", "1h"));
+        assertEquals(List.of("1s", "10s", "1m"),
+                runtime.getIntervalGroups().get(AggregationProperties.DEFAULT_GROUP).intervals());
+    }
+
+    @Test
+    @DisplayName("Should time emit delay only for live closes, not for replayed ones")
+    void testEmitDelayOnlyLive() {
+        // Given - replayed ticks from an hour before the clock
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Clock clock = Clock.fixed(Instant.ofEpochMilli(START + 3_600_000), ZoneOffset.UTC);
+        CandleAggregatorManager manager = new CandleAggregatorManager(new CandleRepository(), 1,
+                properties(true), clock);
+        manager.bindTo(registry);
+
+        // When
+        manager.setLive(false);
+        for (int second = 0; second < 10; second++) {
+            manager.processEvent(new BidAskEvent("BTC-USD", 100.0, 101.0, START + second * 1000L));
+        }
+        long replayed = registry.get("candle.emit.delay").timer().count();
+        manager.setLive(true);
+        manager.processEvent(new BidAskEvent("BTC-USD", 100.0, 101.0, START + 10_000));
+
+        // Then
+        assertEquals(0, replayed);
+        assertTrue(registry.get("candle.emit.delay").timer().count() > 0);
+    }
+
+    @Test
+    @DisplayName("Should end with the same candles when a symbol's open windows move to a node that aggregated later ticks")
+    void testDetachAndAbsorb() {
+        for (boolean cascade : List.of(true, false)) {
+            for (int lag : List.of(0, 3, 12, 90)) {
+                // Given - one node aggregating all ticks, and two splitting them at a handoff
+                Clock clock = Clock.fixed(Instant.ofEpochMilli(START), ZoneOffset.UTC);
+                CandleRepository expectedRepository = new CandleRepository();
+                CandleRepository oldRepository = new CandleRepository();
+                CandleRepository newRepository = new CandleRepository();
+                CandleAggregatorManager expected = new CandleAggregatorManager(expectedRepository, 1,
+                        properties(cascade), clock);
+                CandleAggregatorManager oldOwner = new CandleAggregatorManager(oldRepository, 1,
+                        properties(cascade), clock);
+                CandleAggregatorManager newOwner = new CandleAggregatorManager(newRepository, 1,
+                        properties(cascade), clock);
+                Random random = new Random(lag);
+                List<BidAskEvent> events = new ArrayList<>();
+                for (int i = 0; i < 10_000; i++) {
+                    double bid = 100.0 + random.nextInt(1000) / 10.0;
+                    events.add(new BidAskEvent("BTC-USD", bid, bid + 0.5, START + i * 700L + random.nextInt(700)));
+                }
+                events.forEach(expected::processEvent);
+                expected.closeAllWindows(0);
+
+                // When - the new owner gets the ticks after the handoff point, lag of them before the handoff lands
+                int handoff = 6_000;
+                events.subList(0, handoff).forEach(oldOwner::processEvent);
+                events.subList(handoff, handoff + lag).forEach(newOwner::processEvent);
+                int symbolId = newOwner.getSymbolTable().intern("BTC-USD");
+                for (String interval : oldRepository.getIntervals("BTC-USD")) {
+                    newRepository.saveAll(symbolId, newRepository.intervalId(interval),
+                            oldRepository.findCandles("BTC-USD", interval, null, null, null));
+                }
+                newOwner.absorb(symbolId, oldOwner.detach(oldOwner.getSymbolTable().find("BTC-USD")));
+                events.subList(handoff + lag, events.size()).forEach(newOwner::processEvent);
+                newOwner.closeAllWindows(0);
+
+                // Then
+                assertNull(oldOwner.currentCandle("BTC-USD", "1s"));
+                for (String interval : List.of("1s", "5s", "1m", "5m", "15m", "1h", "4h", "1d")) {
+                    assertEquals(expectedRepository.findCandles("BTC-USD", interval, null, null, null),
+                            newRepository.findCandles("BTC-USD", interval, null, null, null),
+                            interval + " cascade " + cascade + " lag " + lag);
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should tell listeners of absorbed windows of intervals this node does not aggregate")
+    void testAbsorbUnaggregatedInterval() {
+        // Given - the previous owner also aggregated 2m, which this node does not
+        CandleRepository repository = new CandleRepository();
+        CandleAggregatorManager newOwner = new CandleAggregatorManager(repository, 1, properties(true),
+                Clock.fixed(Instant.ofEpochMilli(START), ZoneOffset.UTC));
+        List<String> heard = new ArrayList<>();
+        newOwner.addListener((symbol, interval, candle) -> heard.add(symbol + " " + interval + " " + candle.time()));
+        Candle open = new Candle(START, 100.0, 101.0, 99.0, 100.5, 3);
+
+        // When
+        newOwner.absorb(newOwner.getSymbolTable().intern("BTC-USD"), Map.of("2m", open));
+
+        // Then
+        assertEquals(List.of(open), repository.findCandles("BTC-USD", "2m", null, null, null));
+        assertEquals(List.of("BTC-USD 2m " + START), heard);
+    }
+
+    private static AggregationProperties properties(boolean cascade) {
+        return properties(cascade, Map.of());
+    }
+
+    private static AggregationProperties properties(boolean cascade, Map<String, AggregationProperties.Group> groups) {
+        return properties(cascade, false, groups);
+    }
+
+    private static AggregationProperties properties(boolean cascade, boolean details,
+                                                    Map<String, AggregationProperties.Group> groups) {
+        AggregationProperties defaults = AggregationProperties.defaults();
+        return new AggregationProperties(cascade, details, Duration.ofSeconds(2), Duration.ofSeconds(2),
+                defaults.timeZone(), defaults.intervals(), groups);
+    }
 }
@@ -3,10 +3,17 @@ package com.multibnakgroup.candle.aggregation;
 import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregator;
 import com.multibnakgroup.candle.aggregation.model.BidAskEvent;
 import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.model.CandleDetails;
+import com.multibnakgroup.candle.aggregation.model.CandleInterval;
+import com.multibnakgroup.candle.aggregation.model.DetailedCandle;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class CandleAggregatorTest {
@@ -100,38 +107,114 @@ public class CandleAggregatorTest {
     }
 
     @Test
-    @DisplayName("Should handle concurrent event processing")
-    void testConcurrentProcessing() throws InterruptedException {
+    @DisplayName("Should expose the in-progress candle through snapshot")
+    void testSnapshot() {
         // Given
-        int threadCount = 10;
-        int eventsPerThread = 100;
-        Thread[] threads = new Thread[threadCount];
+        aggregator.processEvent(new BidAskEvent(SYMBOL, 100.0, 101.0, System.currentTimeMillis()));
+        aggregator.processEvent(new BidAskEvent(SYMBOL, 104.0, 105.0, System.currentTimeMillis()));
 
         // When
-        for (int i = 0; i < threadCount; i++) {
-            final int threadId = i;
-            threads[i] = new Thread(() -> {
-                for (int j = 0; j < eventsPerThread; j++) {
-                    BidAskEvent event = new BidAskEvent(
-                            SYMBOL,
-                            100.0 + threadId,
-                            101.0 + threadId,
-                            System.currentTimeMillis()
-                    );
-                    aggregator.processEvent(event);
+        Candle snapshot = aggregator.snapshot();
+
+        // Then
+        assertNotNull(snapshot);
+        assertEquals(100.5, snapshot.open());
+        assertEquals(104.5, snapshot.high());
+        assertEquals(2L, snapshot.volume());
+        assertEquals(snapshot, aggregator.closeWindow());
+        assertNull(aggregator.snapshot());
+    }
+
+    @Test
+    @DisplayName("Should give concurrent readers consistent snapshots while a single writer updates")
+    void testConcurrentSnapshots() throws InterruptedException {
+        // Given
+        int eventCount = 200_000;
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread[] readers = new Thread[4];
+
+        // Readers check invariants that only hold for a fully published update
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(() -> {
+                while (!done.get()) {
+                    Candle snapshot = aggregator.snapshot();
+                    if (snapshot == null) {
+                        continue;
+                    }
+                    if (snapshot.open() != 100.5
+                            || snapshot.high() != 100.5 + snapshot.volume() - 1
+                            || snapshot.close() != snapshot.high()) {
+                        failure.compareAndSet(null, snapshot.toString());
+                    }
                 }
             });
-            threads[i].start();
+            readers[i].start();
         }
 
-        for (Thread thread : threads) {
-            thread.join();
+        // When
+        for (int i = 0; i < eventCount; i++) {
+            aggregator.processEvent(new BidAskEvent(SYMBOL, 100.0 + i, 101.0 + i, System.currentTimeMillis()));
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
         }
 
+        // Then
+        assertNull(failure.get());
         Candle candle = aggregator.closeWindow();
+        assertNotNull(candle);
+        assertEquals(eventCount, candle.volume());
+    }
+
+    @Test
+    @DisplayName("Should order open and close by tick time and amend retained windows")
+    void testEventTimeOrderingAndAmend() {
+        // Given
+        CandleAggregator lateAware = new CandleAggregator(SYMBOL, INTERVAL, INTERVAL_MILLIS, 0L, 2 * INTERVAL_MILLIS);
+        lateAware.process(30_000L, 101.0);
+        lateAware.process(10_000L, 99.0);  // Earlier tick arriving later becomes the open
+        lateAware.process(20_000L, 100.0); // Neither first nor last in time
+
+        // When
+        Candle closed = lateAware.closeWindow(INTERVAL_MILLIS);
+        Candle amended = lateAware.amend(59_000L, 98.0);
+        Candle tooOld = lateAware.amend(-3 * INTERVAL_MILLIS, 97.0);
 
         // Then
-        assertNotNull(candle);
-        assertEquals(threadCount * eventsPerThread, candle.volume());
+        assertEquals(new Candle(0L, 99.0, 101.0, 99.0, 101.0, 3L), closed);
+        assertEquals(new Candle(0L, 99.0, 101.0, 98.0, 98.0, 4L), amended);
+        assertNull(tooOld);
+        assertNull(aggregator.amend(System.currentTimeMillis(), 1.0)); // Nothing retained without lateness
+    }
+
+    @Test
+    @DisplayName("Should keep bid/ask OHLC, spread, turnover and tick direction when details are on")
+    void testDetails() {
+        // Given
+        CandleAggregator detailed = new CandleAggregator(SYMBOL, CandleInterval.parse(INTERVAL, ZoneOffset.UTC),
+                0L, 2 * INTERVAL_MILLIS, true);
+        detailed.process(30_000L, 100.0, 101.0, 0);  // Mid: 100.5
+        detailed.process(10_000L, 99.0, 100.0, -1);  // Mid: 99.5, earlier in time so the open
+        detailed.process(20_000L, 100.0, 102.0, 1);  // Mid: 101.0
+
+        // When
+        Candle closed = detailed.closeWindow(INTERVAL_MILLIS);
+        CandleDetails closedDetails = detailed.getClosedDetails();
+        Candle amended = detailed.amend(59_000L, 97.0, 98.0, -1); // Mid: 97.5
+        CandleDetails amendedDetails = detailed.getAmendedDetails();
+
+        // Then
+        assertEquals(new CandleDetails(0L, 99.0, 100.0, 99.0, 100.0, 100.0, 102.0, 100.0, 101.0,
+                301.0, 4.0, 2.0, 1, 1), closedDetails);
+        assertEquals(new CandleDetails(0L, 99.0, 100.0, 97.0, 97.0, 100.0, 102.0, 98.0, 98.0,
+                398.5, 5.0, 2.0, 1, 2), amendedDetails);
+        DetailedCandle view = DetailedCandle.of(amended, amendedDetails);
+        assertEquals(99.625, view.vwap());
+        assertEquals(1.25, view.averageSpread());
+        assertEquals(-1, view.tickImbalance());
+        assertEquals(closed.open(), view.open());
+        assertNull(aggregator.getClosedDetails()); // Nothing kept with details off
     }
 }
@@ -0,0 +1,131 @@
+package com.multibnakgroup.candle.aggregation;
+
+import com.multibnakgroup.candle.aggregation.controller.CandleColumnWriter;
+import com.multibnakgroup.candle.aggregation.controller.CandleJsonWriter;
+import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.model.CandleDetails;
+import com.multibnakgroup.candle.aggregation.repository.CandleRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CandleHistoryWriterTest {
+
+    private static final String SYMBOL = "BTC-USD";
+    private static final String INTERVAL = "1m";
+
+    private CandleRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        repository = new CandleRepository();
+        Random random = new Random(11);
+        for (int i = 0; i < 5_000; i++) {
+            double open = 95_000 + random.nextGaussian() * 500;
+            double close = open * (1 + random.nextGaussian() * 1e-4);
+            repository.save(SYMBOL, INTERVAL, new Candle(i * 60_000L, open, Math.max(open, close) + random.nextDouble(),
+                    Math.min(open, close) - random.nextDouble() * 1e-5, close, random.nextInt(1_000_000)));
+        }
+    }
+
+    @Test
+    @DisplayName("Should stream the same JSON Jackson writes for the candle list")
+    void testJsonMatchesJackson() {
+        // Given
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CandleJsonWriter writer = new CandleJsonWriter(out);
+
+        // When
+        repository.scanCandles(SYMBOL, INTERVAL, null, null, null, writer);
+        writer.finish();
+        ByteArrayOutputStream empty = new ByteArrayOutputStream();
+        new CandleJsonWriter(empty).finish();
+
+        // Then
+        String expected = JsonMapper.builder().build()
+                .writeValueAsString(repository.findCandles(SYMBOL, INTERVAL, null, null, null));
+        assertEquals(expected, out.toString(StandardCharsets.US_ASCII));
+        assertEquals("[]", empty.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    @DisplayName("Should stream the same JSON Jackson writes for the detailed candle list")
+    void testDetailedJsonMatchesJackson() {
+        // Given - details on every other candle, as after turning them on part-way
+        Random random = new Random(13);
+        for (Candle candle : repository.findCandles(SYMBOL, INTERVAL, null, null, null)) {
+            if (candle.time() / 60_000 % 2 == 0 && candle.volume() > 0) {
+                double bid = candle.open() - random.nextDouble();
+                repository.save(SYMBOL, INTERVAL, candle, new CandleDetails(candle.time(), bid, bid + 3, bid - 2,
+                        bid + 1, bid + 0.5, bid + 3.5, bid - 1.5, bid + 1.5, candle.close() * candle.volume(),
+                        random.nextDouble() * candle.volume(), random.nextDouble(), random.nextInt(50),
+                        random.nextInt(50)));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CandleJsonWriter writer = new CandleJsonWriter(out);
+
+        // When
+        int count = repository.scanDetailedCandles(SYMBOL, INTERVAL, null, null, 1_000, writer);
+        writer.finish();
+
+        // Then
+        String expected = JsonMapper.builder().build()
+                .writeValueAsString(repository.findDetailedCandles(SYMBOL, INTERVAL, null, null, 1_000));
+        assertEquals(expected, out.toString(StandardCharsets.US_ASCII));
+        assertTrue(count > 400 && count < 600);
+    }
+
+    @Test
+    @DisplayName("Should round-trip candles through little-endian column batches")
+    void testColumnsRoundTrip() {
+        // Given
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CandleColumnWriter writer = new CandleColumnWriter(out);
+
+        // When - more than two full batches, ending in a short one
+        int count = repository.scanCandles(SYMBOL, INTERVAL, null, null, 2 * CandleColumnWriter.BATCH_SIZE + 7, writer);
+        writer.finish();
+
+        // Then
+        ByteBuffer in = ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(CandleColumnWriter.MAGIC, in.getInt());
+        assertEquals(CandleColumnWriter.VERSION, in.getInt());
+        List<Candle> decoded = new ArrayList<>();
+        int batches = 0;
+        for (int n = in.getInt(); n > 0; n = in.getInt()) {
+            in.getInt(); // Reserved
+            long[] time = new long[n];
+            double[][] prices = new double[4][n];
+            long[] volume = new long[n];
+            in.asLongBuffer().get(time);
+            in.position(in.position() + n * Long.BYTES);
+            for (double[] column : prices) {
+                in.asDoubleBuffer().get(column);
+                in.position(in.position() + n * Double.BYTES);
+            }
+            in.asLongBuffer().get(volume);
+            in.position(in.position() + n * Long.BYTES);
+            for (int i = 0; i < n; i++) {
+                decoded.add(new Candle(time[i], prices[0][i], prices[1][i], prices[2][i], prices[3][i], volume[i]));
+            }
+            batches++;
+        }
+        in.getInt(); // Reserved half of the end marker
+        assertEquals(3, batches);
+        assertFalse(in.hasRemaining());
+        assertEquals(2 * CandleColumnWriter.BATCH_SIZE + 7, count);
+        assertEquals(repository.findCandles(SYMBOL, INTERVAL, null, null, count), decoded);
+    }
+}
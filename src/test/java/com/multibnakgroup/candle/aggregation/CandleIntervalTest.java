@@ -0,0 +1,65 @@
+package com.multibnakgroup.candle.aggregation;
+
+import com.multibnakgroup.candle.aggregation.model.CandleInterval;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CandleIntervalTest {
+
+    private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+
+    @Test
+    @DisplayName("Should follow the local calendar across daylight saving changes")
+    void testCalendarWindows() {
+        // Given
+        CandleInterval day = CandleInterval.parse("1d", NEW_YORK);
+        CandleInterval week = CandleInterval.parse("1w", NEW_YORK);
+        CandleInterval month = CandleInterval.parse("1M", NEW_YORK);
+        long springForward = at(LocalDateTime.of(2024, 3, 10, 12, 0), NEW_YORK);
+
+        // When
+        long dayStart = day.start(springForward);
+        long weekStart = week.start(springForward);
+        long monthStart = month.start(springForward);
+
+        // Then - the day clocks go forward is 23 hours long
+        assertEquals(at(LocalDateTime.of(2024, 3, 10, 0, 0), NEW_YORK), dayStart);
+        assertEquals(23 * 3_600_000L, day.next(dayStart) - dayStart);
+        assertEquals(at(LocalDateTime.of(2024, 3, 4, 0, 0), NEW_YORK), weekStart);
+        assertEquals(at(LocalDateTime.of(2024, 3, 1, 0, 0), NEW_YORK), monthStart);
+        assertEquals(at(LocalDateTime.of(2024, 4, 1, 0, 0), NEW_YORK), month.next(monthStart));
+        assertEquals(dayStart, day.start(day.next(dayStart) - 1));
+    }
+
+    @Test
+    @DisplayName("Should only roll up intervals whose boundaries line up")
+    void testAlignment() {
+        // Given
+        ZoneId kolkata = ZoneId.of("Asia/Kolkata");
+
+        // Then
+        assertTrue(CandleInterval.parse("1m", ZoneOffset.UTC).alignsWith(CandleInterval.parse("5s", ZoneOffset.UTC)));
+        assertFalse(CandleInterval.parse("1m", ZoneOffset.UTC).alignsWith(CandleInterval.parse("7s", ZoneOffset.UTC)));
+        assertTrue(CandleInterval.parse("1d", NEW_YORK).alignsWith(CandleInterval.parse("1h", NEW_YORK)));
+        assertFalse(CandleInterval.parse("1d", kolkata).alignsWith(CandleInterval.parse("1h", kolkata)));
+        assertTrue(CandleInterval.parse("1d", kolkata).alignsWith(CandleInterval.parse("30m", kolkata)));
+        assertTrue(CandleInterval.parse("1M", NEW_YORK).alignsWith(CandleInterval.parse("1d", NEW_YORK)));
+        assertFalse(CandleInterval.parse("1M", NEW_YORK).alignsWith(CandleInterval.parse("1w", NEW_YORK)));
+        assertFalse(CandleInterval.parse("1h", NEW_YORK).alignsWith(CandleInterval.parse("1d", NEW_YORK)));
+        assertThrows(IllegalArgumentException.class, () -> CandleInterval.parse("2d", NEW_YORK));
+        assertThrows(IllegalArgumentException.class, () -> CandleInterval.parse("1y", NEW_YORK));
+    }
+
+    private static long at(LocalDateTime time, ZoneId zone) {
+        return time.atZone(zone).toInstant().toEpochMilli();
+    }
+}
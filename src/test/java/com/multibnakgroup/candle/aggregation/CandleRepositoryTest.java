@@ -7,6 +7,7 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -119,4 +120,24 @@ public class CandleRepositoryTest {
         // Then
         assertTrue(candles.isEmpty());
     }
+
+    @Test
+    @DisplayName("Should index the newest candle of every symbol per interval")
+    void testLatestCandles() {
+        // Given
+        repository.save(SYMBOL, INTERVAL, new Candle(2000L, 100.0, 105.0, 95.0, 102.0, 10L));
+        repository.save(SYMBOL, INTERVAL, new Candle(1000L, 90.0, 95.0, 85.0, 92.0, 5L)); // Late amendment
+        repository.save("ETH-USD", INTERVAL, new Candle(3000L, 50.0, 51.0, 49.0, 50.5, 7L));
+        repository.save("ETH-USD", "5m", new Candle(0L, 50.0, 51.0, 49.0, 50.5, 7L));
+
+        // When
+        Map<String, Candle> latest = repository.getLatestCandles(INTERVAL);
+
+        // Then
+        assertEquals(Map.of(
+                SYMBOL, new Candle(2000L, 100.0, 105.0, 95.0, 102.0, 10L),
+                "ETH-USD", new Candle(3000L, 50.0, 51.0, 49.0, 50.5, 7L)), latest);
+        assertEquals(List.of(SYMBOL, "ETH-USD"), List.copyOf(latest.keySet()));
+        assertTrue(repository.getLatestCandles("1h").isEmpty());
+    }
 }
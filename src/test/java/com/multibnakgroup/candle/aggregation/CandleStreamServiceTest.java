@@ -0,0 +1,198 @@
+package com.multibnakgroup.candle.aggregation;
+
+import com.multibnakgroup.candle.aggregation.aggregator.AggregationProperties;
+import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregatorManager;
+import com.multibnakgroup.candle.aggregation.model.BidAskEvent;
+import com.multibnakgroup.candle.aggregation.repository.CandleRepository;
+import com.multibnakgroup.candle.aggregation.service.CandleStreamProperties;
+import com.multibnakgroup.candle.aggregation.service.CandleStreamService;
+import com.multibnakgroup.candle.aggregation.service.CandleStreamService.CandleFrame;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CandleStreamServiceTest {
+
+    private static final long START = 1_700_000_000_000L;
+
+    private CandleAggregatorManager manager;
+    private CandleStreamService streamService;
+
+    @BeforeEach
+    void setUp() {
+        Clock clock = Clock.fixed(Instant.ofEpochMilli(START), ZoneOffset.UTC);
+        manager = new CandleAggregatorManager(new CandleRepository(), 1, AggregationProperties.defaults(), clock);
+        // Publishing is driven by the tests
+        streamService = new CandleStreamService(manager,
+                new CandleStreamProperties(Duration.ofHours(1), 2, Duration.ofMinutes(1), 2, Duration.ofMinutes(1)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        streamService.shutdown();
+    }
+
+    @Test
+    @DisplayName("Should send the same serialized frame to every subscriber of a topic")
+    void testSharedFrames() throws Exception {
+        // Given
+        RecordingSink first = new RecordingSink();
+        RecordingSink second = new RecordingSink();
+        streamService.subscribe("BTC-USD", "1m", first);
+        streamService.subscribe("BTC-USD", "1m", second);
+
+        // When
+        manager.processEvent(new BidAskEvent("BTC-USD", 100.0, 101.0, START + 100));
+        streamService.publish();
+
+        // Then
+        CandleFrame frame = first.next();
+        assertSame(frame, second.next());
+        assertEquals(CandleStreamService.UPDATE_EVENT, frame.event());
+        assertEquals("event:update\ndata:{\"symbol\":\"BTC-USD\",\"interval\":\"1m\",\"time\":" + (START - START % 60_000)
+                + ",\"open\":100.5,\"high\":100.5,\"low\":100.5,\"close\":100.5,\"volume\":1}\n\n", frame.payload());
+    }
+
+    @Test
+    @DisplayName("Should deliver closed candles before updates of the next window and skip unchanged ones")
+    void testCloseThenUpdate() throws Exception {
+        // Given
+        RecordingSink sink = new RecordingSink();
+        streamService.subscribe("BTC-USD", "1s", sink);
+        manager.processEvent(new BidAskEvent("BTC-USD", 100.0, 101.0, START + 100));
+        streamService.publish();
+        assertEquals(CandleStreamService.UPDATE_EVENT, sink.next().event());
+        streamService.publish(); // Nothing changed
+
+        // When
+        manager.processEvent(new BidAskEvent("BTC-USD", 110.0, 111.0, START + 1_200));
+        streamService.publish();
+
+        // Then
+        CandleFrame closed = sink.next();
+        assertEquals(CandleStreamService.CLOSE_EVENT, closed.event());
+        assertEquals(START, closed.time());
+        CandleFrame update = sink.next();
+        assertEquals(CandleStreamService.UPDATE_EVENT, update.event());
+        assertEquals(START + 1_000, update.time());
+        assertNull(sink.frames.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    @DisplayName("Should disconnect a subscriber that falls too far behind on closed candles")
+    void testSlowSubscriberDropped() throws Exception {
+        // Given
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSink slow = new RecordingSink() {
+            @Override
+            public void send(CandleFrame frame) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        RecordingSink fast = new RecordingSink();
+        streamService.subscribe("BTC-USD", "1s", slow);
+        streamService.subscribe("BTC-USD", "1s", fast);
+
+        // When - five windows close while the slow subscriber is stuck on its first frame
+        int closedFrames = 0;
+        for (int second = 0; second <= 5; second++) {
+            manager.processEvent(new BidAskEvent("BTC-USD", 100.0, 101.0, START + second * 1_000L));
+            streamService.publish();
+            // Keep the fast subscriber caught up so only the slow one builds a backlog
+            for (CandleFrame frame = fast.next(); !frame.event().equals(CandleStreamService.UPDATE_EVENT);
+                 frame = fast.next()) {
+                closedFrames++;
+            }
+        }
+        release.countDown();
+
+        // Then
+        assertTrue(slow.closed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, streamService.getSlowSubscribersDropped());
+        assertEquals(1, streamService.getSubscriberCount());
+        assertEquals(5, closedFrames);
+    }
+
+    @Test
+    @DisplayName("Should disconnect a subscriber whose write stalls and keep serving the others meanwhile")
+    void testStalledSubscriberEvicted() throws Exception {
+        // Given - a single sender thread, which the stalled subscriber's first write holds
+        streamService.shutdown();
+        streamService = new CandleStreamService(manager,
+                new CandleStreamProperties(Duration.ofHours(1), 64, Duration.ofMinutes(1), 1, Duration.ofMillis(100)));
+        CountDownLatch stalled = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSink slow = new RecordingSink() {
+            @Override
+            public void send(CandleFrame frame) {
+                stalled.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        streamService.subscribe("BTC-USD", "1s", slow);
+        manager.processEvent(new BidAskEvent("BTC-USD", 100.0, 101.0, START));
+        streamService.publish();
+        assertTrue(stalled.await(5, TimeUnit.SECONDS));
+        RecordingSink fast = new RecordingSink();
+        streamService.subscribe("BTC-USD", "1s", fast);
+
+        // When - the next pass finds the write stalled past the timeout
+        Thread.sleep(200);
+        manager.processEvent(new BidAskEvent("BTC-USD", 110.0, 111.0, START + 1_000));
+        streamService.publish();
+
+        // Then
+        assertEquals(1, streamService.getSlowSubscribersDropped());
+        assertEquals(1, streamService.getSubscriberCount());
+        assertFalse(slow.closed.await(100, TimeUnit.MILLISECONDS));
+        // The late joiner's first update may be replaced by the next one, but the closed candle always arrives
+        boolean closedSent = false;
+        for (CandleFrame frame = fast.next(); frame.time() < START + 1_000; frame = fast.next()) {
+            closedSent |= frame.event().equals(CandleStreamService.CLOSE_EVENT);
+        }
+        assertTrue(closedSent);
+        release.countDown();
+        assertTrue(slow.closed.await(5, TimeUnit.SECONDS));
+    }
+
+    private static class RecordingSink implements CandleStreamService.FrameSink {
+        final BlockingQueue<CandleFrame> frames = new LinkedBlockingQueue<>();
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public void send(CandleFrame frame) {
+            frames.add(frame);
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+
+        CandleFrame next() throws InterruptedException {
+            CandleFrame frame = frames.poll(5, TimeUnit.SECONDS);
+            assertNotNull(frame, "Timed out waiting for a frame");
+            return frame;
+        }
+    }
+}
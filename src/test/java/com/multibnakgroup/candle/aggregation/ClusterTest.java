@@ -0,0 +1,255 @@
+package com.multibnakgroup.candle.aggregation;
+
+import com.multibnakgroup.candle.aggregation.aggregator.AggregationProperties;
+import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregatorManager;
+import com.multibnakgroup.candle.aggregation.cluster.ClusterMembership;
+import com.multibnakgroup.candle.aggregation.cluster.ClusterProperties;
+import com.multibnakgroup.candle.aggregation.cluster.ClusterService;
+import com.multibnakgroup.candle.aggregation.cluster.HashRing;
+import com.multibnakgroup.candle.aggregation.indicator.IndicatorProperties;
+import com.multibnakgroup.candle.aggregation.indicator.IndicatorService;
+import com.multibnakgroup.candle.aggregation.model.BidAskEvent;
+import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.repository.CandleRepository;
+import com.multibnakgroup.candle.aggregation.service.EventProcessor;
+import com.multibnakgroup.candle.aggregation.service.HistoryCache;
+import com.multibnakgroup.candle.aggregation.service.HistoryCacheProperties;
+import com.multibnakgroup.candle.aggregation.service.JournalProperties;
+import com.multibnakgroup.candle.aggregation.service.OverloadProperties;
+import com.multibnakgroup.candle.aggregation.service.SimulationProperties;
+import com.multibnakgroup.candle.aggregation.service.TickBatchCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.unit.DataSize;
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClusterTest {
+
+    private static final List<String> SYMBOLS = List.of("S00", "S01", "S02", "S03", "S04", "S05", "S06", "S07",
+            "S08", "S09", "S10", "S11", "S12", "S13", "S14", "S15", "S16", "S17", "S18", "S19");
+
+    private final HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final JsonMapper json = JsonMapper.builder().build();
+    private final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        nodes.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    @DisplayName("Should spread symbols evenly and only move those a new node takes over")
+    void testHashRing() {
+        // Given
+        HashRing three = new HashRing(List.of("a", "b", "c"), 128);
+        HashRing four = new HashRing(List.of("a", "b", "c", "d"), 128);
+
+        // When
+        Map<String, Integer> counts = new HashMap<>();
+        int moved = 0;
+        for (int i = 0; i < 30_000; i++) {
+            String symbol = "SYM" + i;
+            String before = three.owner(symbol);
+            String after = four.owner(symbol);
+            counts.merge(before, 1, Integer::sum);
+            if (!before.equals(after)) {
+                assertEquals("d", after, symbol);
+                moved++;
+            }
+        }
+
+        // Then - each node near a third, and about a quarter moving to the new one
+        counts.values().forEach(count -> assertTrue(count > 8_000 && count < 12_000, counts.toString()));
+        assertTrue(moved > 6_000 && moved < 9_000, "moved " + moved);
+    }
+
+    @Test
+    @DisplayName("Should aggregate through any node and keep candles intact when a node joins mid-stream")
+    void testRebalanceOnNodeJoin() throws Exception {
+        // Given - a two-node cluster, and a third node started with the same membership
+        int[] ports = {freePort(), freePort(), freePort()};
+        Map<String, URI> two = Map.of("a", uri(ports[0]), "b", uri(ports[1]));
+        startNode("a", ports[0], two);
+        startNode("b", ports[1], two);
+        startNode("c", ports[2], two);
+        CandleRepository reference = new CandleRepository();
+        CandleAggregatorManager expected = new CandleAggregatorManager(reference, 1, properties(), Clock.systemUTC());
+        Random random = new Random(11);
+
+        // When - ticks sent to a, then c joins and ticks go to b while symbols move
+        long last = sendTicks(ports[0], 30, random, expected);
+        send("PUT", ports[0], "/api/cluster/nodes", json.writeValueAsBytes(Map.of("a", uri(ports[0]),
+                "b", uri(ports[1]), "c", uri(ports[2]))), "application/json");
+        last = Math.max(last, sendTicks(ports[1], 30, random, expected));
+        for (int port : ports) {
+            awaitHandoffs(port);
+        }
+        Thread.sleep(Math.max(0, last + 9_000 - System.currentTimeMillis())); // 5s windows closed by the idle flush
+        expected.closeAllWindows(0);
+
+        // Then - c owns some symbols now, and every node answers for every symbol
+        JsonNode status = json.readTree(get(ports[2], "/api/cluster").body());
+        assertEquals(1, status.get("epoch").asLong());
+        assertEquals(3, status.get("nodes").size());
+        for (String interval : List.of("1s", "5s")) {
+            for (String symbol : SYMBOLS) {
+                List<Candle> want = reference.findCandles(symbol, interval, null, null, null);
+                for (int port : ports) {
+                    HttpResponse<byte[]> response = get(port, "/api/candles/history?symbol=" + symbol
+                            + "&interval=" + interval + "&limit=1000");
+                    assertEquals(200, response.statusCode());
+                    assertEquals(want, json.readValue(response.body(), new TypeReference<List<Candle>>() {}),
+                            symbol + " " + interval + " via " + port);
+                }
+            }
+        }
+        JsonNode batch = json.readTree(get(ports[2], "/api/candles/history/batch?symbols="
+                + String.join(",", SYMBOLS) + "&intervals=1s,5s&limit=1000").body());
+        assertEquals(SYMBOLS.size() * 2, batch.size());
+        int candles = 0;
+        for (JsonNode series : batch) {
+            candles += series.get("candles").size();
+        }
+        assertEquals(SYMBOLS.stream().mapToInt(s -> reference.findCandles(s, "1s", null, null, null).size()
+                + reference.findCandles(s, "5s", null, null, null).size()).sum(), candles);
+        Map<String, Candle> latest = json.readValue(get(ports[1], "/api/candles/latest?interval=5s").body(),
+                new TypeReference<Map<String, Candle>>() {});
+        for (String symbol : SYMBOLS) {
+            assertEquals(reference.getLatestCandles("5s").get(symbol), latest.get(symbol), symbol);
+        }
+    }
+
+    @Test
+    @DisplayName("Should keep a handoff notice that arrives before the membership it belongs to")
+    void testEarlyHandoffNotice() throws Exception {
+        // Given - node b of a, b; no peer is listening, so b's own handoff has nothing to send
+        int[] ports = {freePort(), freePort(), freePort()};
+        CandleRepository repository = new CandleRepository();
+        CandleAggregatorManager manager = new CandleAggregatorManager(repository, 1, properties(),
+                Clock.systemUTC());
+        JournalProperties noJournal = new JournalProperties(false, Path.of("unused"), 1024,
+                JournalProperties.FsyncPolicy.NONE, Duration.ofMillis(50), DataSize.ofMegabytes(64));
+        EventProcessor eventProcessor = new EventProcessor(manager, 1024, "platform", noJournal,
+                OverloadProperties.defaults(), SimulationProperties.defaults(), null, new SimpleMeterRegistry());
+        ClusterService cluster = new ClusterService(new ClusterProperties(true, "b",
+                Map.of("a", uri(ports[0]), "b", uri(ports[1])), 128, Duration.ofMillis(500), Duration.ofSeconds(1)),
+                manager, repository, eventProcessor, new HistoryCache(HistoryCacheProperties.defaults()),
+                new IndicatorService(repository, IndicatorProperties.defaults(), Duration.ofSeconds(2)));
+
+        try {
+            // When - a reports its handoff for epoch 1 before b has applied it
+            cluster.completeHandoff("a", 1);
+            cluster.apply(new ClusterMembership(1, Map.of("a", uri(ports[0]), "b", uri(ports[1]),
+                    "c", uri(ports[2]))));
+
+            // Then - a no longer pending, and b's own handoff clears the rest
+            assertFalse(cluster.getStatus().pendingHandoffs().contains("a"));
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (!cluster.getStatus().pendingHandoffs().isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(Set.of(), cluster.getStatus().pendingHandoffs());
+        } finally {
+            cluster.shutdown();
+            eventProcessor.shutdown();
+        }
+    }
+
+    // Rounds of one tick per symbol, 50ms apart, each round as one batch; returns the last timestamp
+    private long sendTicks(int port, int rounds, Random random, CandleAggregatorManager expected)
+            throws IOException, InterruptedException {
+        long last = 0;
+        for (int round = 0; round < rounds; round++) {
+            List<BidAskEvent> batch = new ArrayList<>();
+            last = System.currentTimeMillis();
+            for (String symbol : SYMBOLS) {
+                double bid = 100.0 + random.nextInt(1000) / 10.0;
+                batch.add(new BidAskEvent(symbol, bid, bid + 0.5, last));
+            }
+            HttpResponse<byte[]> response = send("POST", port, "/api/ticks",
+                    TickBatchCodec.encode(batch).array(), "application/octet-stream");
+            assertEquals(202, response.statusCode(), new String(response.body()));
+            batch.forEach(expected::processEvent);
+            Thread.sleep(50);
+        }
+        return last;
+    }
+
+    private void awaitHandoffs(int port) throws Exception {
+        for (int i = 0; i < 200; i++) {
+            if (json.readTree(get(port, "/api/cluster").body()).get("pendingHandoffs").isEmpty()) {
+                return;
+            }
+            Thread.sleep(50);
+        }
+        fail("Handoffs still pending on " + port);
+    }
+
+    private void startNode(String id, int port, Map<String, URI> members) {
+        List<String> args = new ArrayList<>(List.of(
+                "--server.port=" + port,
+                "--spring.main.banner-mode=off",
+                "--candle.ingest.shards=2",
+                "--candle.aggregation.intervals=1s,5s,1m",
+                "--candle.indicators.enabled=false",
+                "--candle.cluster.enabled=true",
+                "--candle.cluster.node-id=" + id));
+        members.forEach((node, uri) -> args.add("--candle.cluster.nodes." + node + "=" + uri));
+        nodes.add(new SpringApplicationBuilder(CandleAggregationServiceApplication.class)
+                .run(args.toArray(new String[0])));
+    }
+
+    private HttpResponse<byte[]> get(int port, String path) throws IOException, InterruptedException {
+        return http.send(HttpRequest.newBuilder(uri(port).resolve(path)).GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private HttpResponse<byte[]> send(String method, int port, String path, byte[] body, String contentType)
+            throws IOException, InterruptedException {
+        return http.send(HttpRequest.newBuilder(uri(port).resolve(path))
+                        .header("Content-Type", contentType)
+                        .method(method, HttpRequest.BodyPublishers.ofByteArray(body))
+                        .build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static AggregationProperties properties() {
+        AggregationProperties defaults = AggregationProperties.defaults();
+        return new AggregationProperties(true, false, Duration.ofSeconds(2), Duration.ofSeconds(2),
+                defaults.timeZone(), List.of("1s", "5s"), Map.of());
+    }
+
+    private static URI uri(int port) {
+        return URI.create("http://localhost:" + port);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.multibnakgroup.candle.aggregation;
+
+import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.repository.CandleRepository;
+import com.multibnakgroup.candle.aggregation.repository.CandleSeries;
+import com.multibnakgroup.candle.aggregation.repository.DirectCandleSeries;
+import com.multibnakgroup.candle.aggregation.repository.MappedCandleSeries;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrentCandleSeriesTest {
+
+    private static final int READERS = 4;
+    private static final long SECOND = 1000L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Should never show readers a torn, duplicated or missing candle while the writer appends, amends and inserts")
+    void testSingleWriterManyReaders() throws Exception {
+        for (CandleSeries series : List.of(new DirectCandleSeries(true), new DirectCandleSeries(false))) {
+            assertSingleWriterManyReaders(series, 200_000);
+        }
+    }
+
+    @Test
+    @DisplayName("Should give readers of mapped segments the same guarantees while the writer amends and inserts")
+    void testMappedSingleWriterManyReaders() throws Exception {
+        // Out-of-order inserts rewrite a whole segment file, so fewer saves cover as many of them
+        assertSingleWriterManyReaders(new MappedCandleSeries(directory, SECOND, 1024 * SECOND, 0), 20_000);
+    }
+
+    @Test
+    @DisplayName("Should serve consistent reads of every series while each has its own writer")
+    void testWriterPerSeries() throws Exception {
+        // Given
+        CandleRepository repository = new CandleRepository();
+        String[] symbols = {"BTC-USD", "ETH-USD", "SOL-USD", "AAPL"};
+        for (String symbol : symbols) {
+            repository.save(symbol, "1s", candle(0, 0));
+        }
+        List<CandleSeries> views = new ArrayList<>();
+        for (String symbol : symbols) {
+            views.add(repositoryView(repository, symbol));
+        }
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+        AtomicLong reads = new AtomicLong();
+        List<Thread> readers = startReaders(views, writing, failures, reads);
+
+        // When
+        CountDownLatch done = new CountDownLatch(symbols.length);
+        for (String symbol : symbols) {
+            Thread writer = new Thread(() -> {
+                Random random = new Random(symbol.hashCode());
+                for (int i = 1; i <= 100_000; i++) {
+                    repository.save(symbol, "1s", candle(i * SECOND, 0));
+                    if (random.nextInt(4) == 0) {
+                        repository.save(symbol, "1s", candle(i * SECOND, 1 + random.nextInt(1000)));
+                    }
+                }
+                done.countDown();
+            });
+            writer.start();
+        }
+        done.await();
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        // Then
+        assertTrue(failures.isEmpty(), () -> String.join("\n", failures));
+        for (String symbol : symbols) {
+            assertEquals(100_001, repository.findCandles(symbol, "1s", null, null, null).size());
+        }
+    }
+
+    private static void assertSingleWriterManyReaders(CandleSeries series, int saves) throws Exception {
+        // Given
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+        AtomicLong reads = new AtomicLong();
+        List<Thread> readers = startReaders(List.of(series), writing, failures, reads);
+
+        // When - the writer leaves every other second empty and fills some gaps in late
+        Random random = new Random(3);
+        long next = 0;
+        for (int i = 0; i < saves; i++) {
+            int roll = random.nextInt(10);
+            if (roll < 7 || next < 10 * SECOND) {
+                series.save(candle(next, 0));
+                next += 2 * SECOND;
+            } else if (roll < 9) {
+                long time = next - 2 * SECOND * (1 + random.nextInt(3));
+                series.save(candle(time, 1 + random.nextInt(1000))); // Amend in place
+            } else {
+                series.save(candle(next - SECOND * (1 + 2 * random.nextInt(3)), 0)); // Fill a gap
+            }
+        }
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        // Then
+        assertTrue(failures.isEmpty(), () -> String.join("\n", failures));
+        assertTrue(reads.get() > 0);
+        assertConsistent(series.find(null, null, null), failures);
+        assertTrue(failures.isEmpty(), () -> String.join("\n", failures));
+    }
+
+    // Readers alternate last-N, range and full scans and check what they got
+    private static List<Thread> startReaders(List<CandleSeries> series, AtomicBoolean writing,
+                                             ConcurrentLinkedQueue<String> failures, AtomicLong reads) {
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            int seed = r;
+            Thread reader = new Thread(() -> {
+                Random random = new Random(seed);
+                while (writing.get() && failures.size() < 10) {
+                    CandleSeries target = series.get(random.nextInt(series.size()));
+                    int limit = 1 + random.nextInt(200);
+                    int stored = target.size(); // Can only grow while the query runs
+                    List<Candle> latest = target.find(null, null, limit);
+                    if (latest.size() < Math.min(limit, stored) || latest.size() > limit) {
+                        failures.add("Last " + limit + " returned " + latest.size());
+                    }
+                    assertConsistent(latest, failures);
+                    if (!latest.isEmpty()) {
+                        long from = latest.get(0).time();
+                        List<Candle> range = target.find(from, from + 100 * SECOND, null);
+                        assertConsistent(range, failures);
+                        if (range.isEmpty() || range.get(0).time() != from) {
+                            failures.add("Range from " + from + " lost its first candle");
+                        }
+                    }
+                    reads.incrementAndGet();
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        return readers;
+    }
+
+    // Strictly increasing times, and every candle's fields come from a single save
+    private static void assertConsistent(List<Candle> candles, ConcurrentLinkedQueue<String> failures) {
+        for (int i = 0; i < candles.size(); i++) {
+            Candle c = candles.get(i);
+            double base = c.time() / (double) SECOND + c.volume();
+            if (c.open() != base || c.high() != base + 1 || c.low() != base - 1 || c.close() != base + 0.5) {
+                failures.add("Torn candle " + c);
+            }
+            if (i > 0 && candles.get(i - 1).time() >= c.time()) {
+                failures.add("Out of order or duplicate at " + c.time());
+            }
+        }
+    }
+
+    // Version goes into every field, so a read mixing two saves of the same time is detectable
+    private static Candle candle(long time, int version) {
+        double base = time / (double) SECOND + version;
+        return new Candle(time, base, base + 1, base - 1, base + 0.5, version);
+    }
+
+    private static CandleSeries repositoryView(CandleRepository repository, String symbol) {
+        return new CandleSeries() {
+            @Override
+            public void save(Candle candle) {
+                repository.save(symbol, "1s", candle);
+            }
+
+            @Override
+            public List<Candle> find(Long from, Long to, Integer limit) {
+                return repository.findCandles(symbol, "1s", from, to, limit);
+            }
+
+            @Override
+            public int size() {
+                return repository.findCandles(symbol, "1s", null, null, null).size();
+            }
+
+            @Override
+            public long truncateBefore(long time) {
+                return 0;
+            }
+        };
+    }
+}
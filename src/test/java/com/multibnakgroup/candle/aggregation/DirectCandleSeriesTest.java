@@ -0,0 +1,222 @@
+package com.multibnakgroup.candle.aggregation;
+
+import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.model.CandleDetails;
+import com.multibnakgroup.candle.aggregation.repository.DirectCandleSeries;
+import com.multibnakgroup.candle.aggregation.repository.TreeMapCandleSeries;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DirectCandleSeriesTest {
+
+    private DirectCandleSeries series;
+
+    @BeforeEach
+    void setUp() {
+        series = new DirectCandleSeries();
+    }
+
+    @Test
+    @DisplayName("Should keep candles across segment growth")
+    void testGrowth() {
+        // Given
+        int count = 10_000;
+        for (int i = 0; i < count; i++) {
+            series.save(candle(i * 1000L));
+        }
+
+        // When
+        List<Candle> all = series.find(null, null, null);
+
+        // Then
+        assertEquals(count, series.size());
+        assertEquals(count, all.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(candle(i * 1000L), all.get(i));
+        }
+    }
+
+    @Test
+    @DisplayName("Should binary search inclusive ranges and apply limit from the end")
+    void testRangeAndLimit() {
+        // Given
+        for (int i = 1; i <= 10; i++) {
+            series.save(candle(i * 1000L));
+        }
+
+        // When
+        List<Candle> range = series.find(2500L, 6000L, null);
+        List<Candle> limited = series.find(null, 8000L, 3);
+
+        // Then
+        assertEquals(List.of(candle(3000L), candle(4000L), candle(5000L), candle(6000L)), range);
+        assertEquals(List.of(candle(6000L), candle(7000L), candle(8000L)), limited);
+        assertTrue(series.find(20_000L, null, null).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Should treat the largest possible end time as open-ended")
+    void testUnboundedEnd() {
+        // Given
+        for (int i = 1; i <= 3; i++) {
+            series.save(candle(i * 1000L));
+        }
+
+        // When
+        List<Candle> range = series.find(2000L, Long.MAX_VALUE, null);
+
+        // Then
+        assertEquals(List.of(candle(2000L), candle(3000L)), range);
+    }
+
+    @Test
+    @DisplayName("Should replace same-time candles and insert out-of-order ones like the heap engine")
+    void testMatchesHeapEngine() {
+        // Given
+        TreeMapCandleSeries expected = new TreeMapCandleSeries();
+        Random random = new Random(7);
+
+        // When
+        for (int i = 0; i < 5_000; i++) {
+            Candle candle = new Candle(random.nextInt(6_000) * 1000L, random.nextDouble(), 2.0, 0.5, 1.0, i);
+            series.save(candle);
+            expected.save(candle);
+        }
+
+        // Then
+        assertEquals(expected.size(), series.size());
+        assertEquals(expected.find(null, null, null), series.find(null, null, null));
+        assertEquals(expected.find(1_000_000L, 2_000_000L, 50), series.find(1_000_000L, 2_000_000L, 50));
+    }
+
+    @Test
+    @DisplayName("Should bulk-merge older candles across segments like saving them one by one")
+    void testSaveAll() {
+        // Given - live candles every other second, then a backfill overlapping and preceding them
+        TreeMapCandleSeries expected = new TreeMapCandleSeries();
+        for (int i = 0; i < 6_000; i++) {
+            series.save(candle(20_000_000L + i * 2000L));
+            expected.save(candle(20_000_000L + i * 2000L));
+        }
+        List<Candle> backfill = new ArrayList<>();
+        for (int i = 0; i < 15_000; i++) {
+            backfill.add(new Candle(10_000_000L + i * 1000L, 1.0, 2.0, 0.5, 1.5, i));
+        }
+
+        // When
+        series.saveAll(backfill);
+        backfill.forEach(expected::save);
+        series.saveAll(List.of(candle(40_000_000L), candle(40_001_000L)));
+        expected.save(candle(40_000_000L));
+        expected.save(candle(40_001_000L));
+
+        // Then
+        assertEquals(expected.size(), series.size());
+        assertEquals(expected.find(null, null, null), series.find(null, null, null));
+    }
+
+    @Test
+    @DisplayName("Should drop whole expired segments but never the newest one")
+    void testTruncateBefore() {
+        // Given - five segments of 4096 candles, the last one partly filled
+        for (int i = 0; i < 20_000; i++) {
+            series.save(candle(i * 1000L));
+        }
+        List<Candle> before = series.find(null, null, null);
+
+        // When
+        long reclaimed = series.truncateBefore(10_000 * 1000L);
+        List<Candle> kept = series.find(null, null, null);
+        series.save(candle(20_000 * 1000L));
+        series.save(candle(100L)); // Late candle older than everything kept
+        List<Candle> late = series.find(null, 8192 * 1000L, null);
+        long everything = series.truncateBefore(Long.MAX_VALUE);
+
+        // Then
+        assertEquals(2 * 4096 * 48, reclaimed);
+        assertEquals(before.subList(8192, 20_000), kept);
+        assertEquals(List.of(candle(100L), candle(8192 * 1000L)), late);
+        assertEquals(2 * 4096 * 48, everything);
+        assertEquals(20_001 - 16_384 + 1, series.size());
+        assertEquals(candle(20_000 * 1000L), series.find(null, null, 1).get(0));
+        assertEquals(0, new DirectCandleSeries().truncateBefore(Long.MAX_VALUE));
+    }
+
+    @Test
+    @DisplayName("Should keep details in their candles' slots through inserts, merges and truncation")
+    void testDetails() {
+        // Given - candles every other second, with details from the 100th on
+        TreeMap<Long, CandleDetails> expected = new TreeMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            long time = 20_000_000L + i * 2000L;
+            series.save(candle(time), i < 100 ? null : details(time));
+            if (i >= 100) {
+                expected.put(time, details(time));
+            }
+        }
+
+        // When - a late candle between two stored ones, a replacement without details and a backfill over the start
+        series.save(candle(20_001_000L), details(20_001_000L));
+        expected.put(20_001_000L, details(20_001_000L));
+        series.save(new Candle(20_400_000L, 1.0, 2.0, 0.5, 1.5, 3L));
+        List<Candle> backfill = new ArrayList<>();
+        List<CandleDetails> backfillDetails = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            long time = 19_900_000L + i * 1000L;
+            backfill.add(candle(time));
+            backfillDetails.add(i % 2 == 0 ? details(time) : null);
+            if (i % 2 == 0) {
+                expected.put(time, details(time));
+            }
+        }
+        series.saveAll(backfill, backfillDetails);
+        List<CandleDetails> scanned = scanDetails(null, null, null);
+        List<Candle> replaced = new ArrayList<>();
+        series.scanDetails(20_400_000L, 20_400_000L, null, (time, open, high, low, close, volume,
+                bidOpen, bidHigh, bidLow, bidClose, askOpen, askHigh, askLow, askClose,
+                turnover, spreadSum, spreadMax, upticks, downticks) ->
+                replaced.add(new Candle(time, open, high, low, close, volume)));
+        long firstKept = series.find(null, null, null).get(8192).time();
+        long reclaimed = series.truncateBefore(firstKept);
+
+        // Then
+        assertEquals(List.copyOf(expected.values()), scanned);
+        assertEquals(List.of(new Candle(20_400_000L, 1.0, 2.0, 0.5, 1.5, 3L)), replaced);
+        assertEquals(2 * 4096 * (48 + 112), reclaimed);
+        assertEquals(List.copyOf(expected.tailMap(firstKept).values()),
+                scanDetails(null, null, null));
+        assertEquals(List.copyOf(expected.values()).subList(expected.size() - 5, expected.size()),
+                scanDetails(null, null, 5));
+        assertEquals(0, new DirectCandleSeries().scanDetails(null, null, null, (time, open, high, low, close,
+                volume, bidOpen, bidHigh, bidLow, bidClose, askOpen, askHigh, askLow, askClose,
+                turnover, spreadSum, spreadMax, upticks, downticks) -> fail("No details stored")));
+    }
+
+    private List<CandleDetails> scanDetails(Long from, Long to, Integer limit) {
+        List<CandleDetails> scanned = new ArrayList<>();
+        series.scanDetails(from, to, limit, (time, open, high, low, close, volume,
+                bidOpen, bidHigh, bidLow, bidClose, askOpen, askHigh, askLow, askClose,
+                turnover, spreadSum, spreadMax, upticks, downticks) ->
+                scanned.add(new CandleDetails(time, bidOpen, bidHigh, bidLow, bidClose, askOpen, askHigh, askLow,
+                        askClose, turnover, spreadSum, spreadMax, upticks, downticks)));
+        return scanned;
+    }
+
+    private static CandleDetails details(long time) {
+        double mid = time % 997;
+        return new CandleDetails(time, mid, mid + 2, mid - 1, mid + 1, mid + 0.5, mid + 2.5, mid - 0.5, mid + 1.5,
+                mid * 10, 5.0, 0.75, time % 7, time % 5);
+    }
+
+    private static Candle candle(long time) {
+        return new Candle(time, 100.0, 105.0, 95.0, 102.0, 10L);
+    }
+}
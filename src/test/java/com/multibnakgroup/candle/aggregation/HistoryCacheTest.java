@@ -0,0 +1,105 @@
+package com.multibnakgroup.candle.aggregation;
+
+import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.service.HistoryCache;
+import com.multibnakgroup.candle.aggregation.service.HistoryCacheProperties;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HistoryCacheTest {
+
+    private static final String SYMBOL = "BTC-USD";
+    private static final String INTERVAL = "1m";
+
+    @Test
+    @DisplayName("Should serve a response until a candle is saved to its series")
+    void testInvalidateOnSave() {
+        // Given
+        HistoryCache cache = new HistoryCache(HistoryCacheProperties.defaults());
+        HistoryCache.Key key = new HistoryCache.Key(SYMBOL, INTERVAL, null, null, 100, "json");
+        HistoryCache.Key other = new HistoryCache.Key("ETH-USD", INTERVAL, null, null, 100, "json");
+        AtomicInteger renders = new AtomicInteger();
+        Consumer<OutputStream> render = out -> write(out, "render-" + renders.incrementAndGet());
+
+        // When
+        byte[] first = cache.get(key, render);
+        byte[] hit = cache.get(key, render);
+        cache.get(other, render);
+        cache.onCandle(SYMBOL, INTERVAL, new Candle(60_000L, 1, 1, 1, 1, 1));
+        byte[] afterSave = cache.get(key, render);
+        byte[] otherAfterSave = cache.get(other, render);
+        cache.onCandle(SYMBOL, "5m", new Candle(0L, 1, 1, 1, 1, 1));
+
+        // Then
+        assertEquals("render-1", new String(first));
+        assertSame(first, hit);
+        assertEquals("render-3", new String(afterSave));
+        assertEquals("render-2", new String(otherAfterSave));
+        assertSame(afterSave, cache.get(key, render));
+        assertEquals(3, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertFalse(cache.isCacheable(null));
+        assertFalse(cache.isCacheable(1001));
+    }
+
+    @Test
+    @DisplayName("Should never serve a removed symbol's responses, even once it is stored again")
+    void testRemove() {
+        // Given
+        HistoryCache cache = new HistoryCache(HistoryCacheProperties.defaults());
+        HistoryCache.Key key = new HistoryCache.Key(SYMBOL, INTERVAL, null, null, 100, "json");
+        AtomicInteger renders = new AtomicInteger();
+        Consumer<OutputStream> render = out -> write(out, "render-" + renders.incrementAndGet());
+        cache.onCandle(SYMBOL, INTERVAL, new Candle(60_000L, 1, 1, 1, 1, 1));
+        cache.get(key, render);
+
+        // When - handed off, then handed back and saved to once, as often as before
+        cache.remove(SYMBOL);
+        byte[] removed = cache.get(key, render);
+        cache.onCandle(SYMBOL, INTERVAL, new Candle(60_000L, 2, 2, 2, 2, 2));
+        byte[] storedAgain = cache.get(key, render);
+
+        // Then
+        assertEquals("render-2", new String(removed));
+        assertEquals("render-3", new String(storedAgain));
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    @DisplayName("Should evict least recently used entries to stay within the size budget")
+    void testEviction() {
+        // Given - 16 stripes of 4KB each
+        HistoryCache cache = new HistoryCache(new HistoryCacheProperties(true, DataSize.ofKilobytes(64), 1000));
+        String body = "x".repeat(900);
+        HistoryCache.Key hot = new HistoryCache.Key(SYMBOL, INTERVAL, null, null, 100, "json");
+        cache.get(hot, out -> write(out, body));
+
+        // When
+        for (int i = 0; i < 1000; i++) {
+            cache.get(new HistoryCache.Key(SYMBOL, INTERVAL, (long) i, null, 100, "json"), out -> write(out, body));
+            cache.get(hot, out -> fail("Recently used entry was evicted"));
+        }
+
+        // Then
+        assertTrue(cache.getSizeBytes() <= DataSize.ofKilobytes(64).toBytes());
+        assertTrue(cache.getEntryCount() < 100);
+        assertEquals(1000, cache.getHits());
+    }
+
+    private static void write(OutputStream out, String text) {
+        try {
+            out.write(text.getBytes());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
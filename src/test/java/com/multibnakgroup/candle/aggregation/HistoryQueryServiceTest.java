@@ -0,0 +1,67 @@
+package com.multibnakgroup.candle.aggregation;
+
+import com.multibnakgroup.candle.aggregation.service.HistoryQueryProperties;
+import com.multibnakgroup.candle.aggregation.service.HistoryQueryService;
+import com.multibnakgroup.candle.aggregation.service.HistoryQueryService.SeriesKey;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HistoryQueryServiceTest {
+
+    @Test
+    @DisplayName("Should pair every symbol with every interval once, in request order")
+    void testExpand() {
+        // Given
+        HistoryQueryService service = new HistoryQueryService(HistoryQueryProperties.defaults());
+
+        // When
+        List<SeriesKey> series = service.expand(List.of("BTC-USD", "ETH-USD", "BTC-USD"), List.of("1m", "5m"));
+
+        // Then
+        assertEquals(List.of(new SeriesKey("BTC-USD", "1m"), new SeriesKey("BTC-USD", "5m"),
+                new SeriesKey("ETH-USD", "1m"), new SeriesKey("ETH-USD", "5m")), series);
+        assertEquals(1000, service.getMaxBatchSeries());
+    }
+
+    @Test
+    @DisplayName("Should write series in request order while reading a bounded number ahead")
+    void testWriteInOrder() throws IOException {
+        // Given - earlier series are slower to read, so the ones ahead finish first
+        HistoryQueryService service = new HistoryQueryService(new HistoryQueryProperties(4, 2, 1000));
+        List<SeriesKey> series = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            series.add(new SeriesKey("SYM-" + i, "1m"));
+        }
+        AtomicInteger reading = new AtomicInteger();
+        AtomicInteger maxReading = new AtomicInteger();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // When
+        service.writeInOrder(series, (index, key, target) -> {
+            maxReading.accumulateAndGet(reading.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(12 - index);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            target.write((key.symbol() + ";").getBytes(StandardCharsets.UTF_8));
+            reading.decrementAndGet();
+        }, out);
+
+        // Then
+        StringBuilder expected = new StringBuilder();
+        series.forEach(key -> expected.append(key.symbol()).append(';'));
+        assertEquals(expected.toString(), out.toString(StandardCharsets.UTF_8));
+        assertTrue(maxReading.get() <= 3, "At most the written series and two ahead: " + maxReading.get());
+        service.shutdown();
+    }
+}
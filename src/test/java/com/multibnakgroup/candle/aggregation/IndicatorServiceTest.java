@@ -0,0 +1,210 @@
+package com.multibnakgroup.candle.aggregation;
+
+import com.multibnakgroup.candle.aggregation.aggregator.AggregationProperties;
+import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregatorManager;
+import com.multibnakgroup.candle.aggregation.indicator.Indicator;
+import com.multibnakgroup.candle.aggregation.indicator.IndicatorProperties;
+import com.multibnakgroup.candle.aggregation.indicator.IndicatorService;
+import com.multibnakgroup.candle.aggregation.model.BidAskEvent;
+import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.model.IndicatorPoint;
+import com.multibnakgroup.candle.aggregation.repository.CandleRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IndicatorServiceTest {
+
+    private static final long START = 1_700_000_000_000L;
+    private static final String SYMBOL = "BTC-USD";
+
+    @Test
+    @DisplayName("Should match indicators recomputed from all stored candles, through late ticks and filled gaps")
+    void testMatchesRecomputation() {
+        // Given
+        CandleRepository repository = new CandleRepository();
+        CandleAggregatorManager manager = new CandleAggregatorManager(repository, 1, AggregationProperties.defaults(),
+                Clock.fixed(Instant.ofEpochMilli(START), ZoneOffset.UTC));
+        IndicatorService indicators = new IndicatorService(repository, IndicatorProperties.defaults(),
+                Duration.ofSeconds(2));
+        manager.addListener(indicators);
+        Random random = new Random(3);
+        List<BidAskEvent> delayed = new ArrayList<>();
+
+        // When - two hours of ticks with quiet seconds, some arriving a second late, possibly into an empty window
+        for (int second = 0; second < 2 * 3600; second++) {
+            List<BidAskEvent> late = new ArrayList<>(delayed);
+            delayed.clear();
+            int ticks = random.nextInt(10) < 3 ? 0 : 1 + random.nextInt(3);
+            for (int i = 0; i < ticks; i++) {
+                double bid = 100.0 + random.nextInt(1000) / 10.0;
+                BidAskEvent event = new BidAskEvent(SYMBOL, bid, bid + 0.5, START + second * 1000L + i * 300L);
+                if (random.nextInt(8) == 0) {
+                    delayed.add(event);
+                } else {
+                    manager.processEvent(event);
+                }
+            }
+            // Last second's stragglers, whose window has closed by now if this second had a tick
+            late.forEach(manager::processEvent);
+        }
+        delayed.forEach(manager::processEvent);
+        manager.closeAllWindows(0);
+
+        // Then
+        for (String interval : List.of("1s", "5s", "1m")) {
+            List<Candle> candles = repository.findCandles(SYMBOL, interval, null, null, null);
+            List<IndicatorPoint> points = indicators.getIndicators(SYMBOL, interval, 100);
+            assertEquals(Math.min(100, candles.size()), points.size(), interval);
+            for (int k = 0; k < points.size(); k++) {
+                int i = candles.size() - points.size() + k;
+                IndicatorPoint point = points.get(k);
+                assertEquals(candles.get(i).time(), point.time(), interval);
+                double[] bands = bollinger(candles, i, 20, 2.0);
+                assertValue(sma(candles, i, 20), point.values().get("sma(20)"), interval);
+                assertValue(ema(candles, i, 20), point.values().get("ema(20)"), interval);
+                assertValue(rsi(candles, i, 14), point.values().get("rsi(14)"), interval);
+                assertValue(bands[0], point.values().get("bollinger(20,2).middle"), interval);
+                assertValue(bands[1], point.values().get("bollinger(20,2).upper"), interval);
+                assertValue(bands[2], point.values().get("bollinger(20,2).lower"), interval);
+                assertValue(atr(candles, i, 14), point.values().get("atr(14)"), interval);
+            }
+        }
+        assertNull(indicators.getIndicators(SYMBOL, "1h", 100).get(0).values().get("sma(20)")); // Still warming up
+    }
+
+    @Test
+    @DisplayName("Should warm a series up from stored candles when it is first seen or invalidated")
+    void testWarmUpFromRepository() {
+        // Given - candles stored without the service listening, as after a backfill
+        CandleRepository repository = new CandleRepository();
+        IndicatorService indicators = new IndicatorService(repository, new IndicatorProperties(true,
+                List.of("sma(3)"), 10), Duration.ofSeconds(2));
+        for (int i = 0; i < 5; i++) {
+            repository.save(SYMBOL, "1m", candle(i, 10.0 + i));
+        }
+
+        // When
+        Candle next = candle(5, 20.0);
+        repository.save(SYMBOL, "1m", next);
+        indicators.onCandle(SYMBOL, "1m", next);
+        List<IndicatorPoint> warmed = indicators.getIndicators(SYMBOL, "1m", 10);
+        repository.save(SYMBOL, "1m", candle(6, 30.0));
+        indicators.invalidate(SYMBOL, "1m");
+        indicators.onCandle(SYMBOL, "1m", candle(6, 30.0));
+
+        // Then - warmed up from the three candles sma(3) needs, each getting its point
+        assertEquals(Arrays.asList(null, null, 13.0, 47.0 / 3),
+                warmed.stream().map(p -> p.values().get("sma(3)")).toList());
+        assertEquals(candle(2, 0).time(), warmed.get(0).time());
+        List<IndicatorPoint> rewarmed = indicators.getIndicators(SYMBOL, "1m", 10);
+        assertEquals(4, rewarmed.size());
+        assertEquals(64.0 / 3, rewarmed.get(3).values().get("sma(3)"), 1e-12);
+    }
+
+    @Test
+    @DisplayName("Should reject unknown indicator specs")
+    void testParse() {
+        assertEquals(List.of("bollinger(20,2.5).middle", "bollinger(20,2.5).upper", "bollinger(20,2.5).lower"),
+                Indicator.parse("bollinger(20, 2.5)").outputs());
+        assertThrows(IllegalArgumentException.class, () -> Indicator.parse("macd(12)"));
+        assertThrows(IllegalArgumentException.class, () -> Indicator.parse("sma(20,2)"));
+        assertThrows(IllegalArgumentException.class, () -> Indicator.parse("ema(0)"));
+    }
+
+    private static void assertValue(double expected, Double actual, String message) {
+        if (Double.isNaN(expected)) {
+            assertNull(actual, message);
+        } else {
+            assertNotNull(actual, message);
+            assertEquals(expected, actual, 1e-9 * Math.max(1.0, Math.abs(expected)), message);
+        }
+    }
+
+    private static Candle candle(int minute, double close) {
+        return new Candle(START + minute * 60_000L, close, close, close, close, 1);
+    }
+
+    // The indicators from scratch over candles 0..i
+
+    private static double sma(List<Candle> candles, int i, int n) {
+        if (i < n - 1) {
+            return Double.NaN;
+        }
+        double sum = 0;
+        for (int j = i - n + 1; j <= i; j++) {
+            sum += candles.get(j).close();
+        }
+        return sum / n;
+    }
+
+    private static double ema(List<Candle> candles, int i, int n) {
+        if (i < n - 1) {
+            return Double.NaN;
+        }
+        double value = sma(candles, n - 1, n);
+        for (int j = n; j <= i; j++) {
+            value += 2.0 / (n + 1) * (candles.get(j).close() - value);
+        }
+        return value;
+    }
+
+    private static double rsi(List<Candle> candles, int i, int n) {
+        if (i < n) {
+            return Double.NaN;
+        }
+        double gain = 0;
+        double loss = 0;
+        for (int j = 1; j <= i; j++) {
+            double change = candles.get(j).close() - candles.get(j - 1).close();
+            if (j <= n) {
+                gain += Math.max(change, 0) / n;
+                loss += Math.max(-change, 0) / n;
+            } else {
+                gain = (gain * (n - 1) + Math.max(change, 0)) / n;
+                loss = (loss * (n - 1) + Math.max(-change, 0)) / n;
+            }
+        }
+        return loss == 0 ? (gain == 0 ? 50.0 : 100.0) : 100.0 - 100.0 / (1.0 + gain / loss);
+    }
+
+    private static double[] bollinger(List<Candle> candles, int i, int n, double k) {
+        double mean = sma(candles, i, n);
+        if (Double.isNaN(mean)) {
+            return new double[]{Double.NaN, Double.NaN, Double.NaN};
+        }
+        double squares = 0;
+        for (int j = i - n + 1; j <= i; j++) {
+            squares += Math.pow(candles.get(j).close() - mean, 2);
+        }
+        double deviation = Math.sqrt(squares / n);
+        return new double[]{mean, mean + k * deviation, mean - k * deviation};
+    }
+
+    private static double atr(List<Candle> candles, int i, int n) {
+        if (i < n - 1) {
+            return Double.NaN;
+        }
+        double value = 0;
+        for (int j = 0; j <= i; j++) {
+            Candle c = candles.get(j);
+            double range = c.high() - c.low();
+            if (j > 0) {
+                double previous = candles.get(j - 1).close();
+                range = Math.max(range, Math.max(Math.abs(c.high() - previous), Math.abs(c.low() - previous)));
+            }
+            value = j < n ? value + range / n : (value * (n - 1) + range) / n;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,261 @@
+package com.multibnakgroup.candle.aggregation;
+
+import com.multibnakgroup.candle.aggregation.aggregator.AggregationProperties;
+import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregatorManager;
+import com.multibnakgroup.candle.aggregation.model.BidAskEvent;
+import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.model.SymbolTable;
+import com.multibnakgroup.candle.aggregation.repository.CandleRepository;
+import com.multibnakgroup.candle.aggregation.service.IngestJournal;
+import com.multibnakgroup.candle.aggregation.service.JournalProperties;
+import com.multibnakgroup.candle.aggregation.service.TickBatch;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IngestJournalTest {
+
+    // Journals cache symbol names by ID, so every batch shares one table as the shards do
+    private static final SymbolTable SYMBOLS = new SymbolTable();
+    private static final long START = 1_700_000_000_000L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Should force an idle tail once the fsync interval has passed, without another append")
+    void testForceIfDue() throws IOException, InterruptedException {
+        // Given - the first append is due at once, the second comes within the interval
+        IngestJournal journal = new IngestJournal(directory, new JournalProperties(true, directory, 1024,
+                JournalProperties.FsyncPolicy.INTERVAL, Duration.ofMillis(500), DataSize.ofMegabytes(64)));
+        journal.recover(event -> { });
+        Thread.sleep(500);
+        journal.append(batch(new BidAskEvent("BTC-USD", 100.0, 101.0, START)));
+        journal.append(batch(new BidAskEvent("BTC-USD", 100.0, 101.0, START + 1)));
+
+        // When
+        journal.forceIfDue();
+        boolean early = journal.hasUnforced();
+        Thread.sleep(500);
+        journal.forceIfDue();
+
+        // Then
+        assertTrue(early);
+        assertFalse(journal.hasUnforced());
+        journal.close();
+    }
+
+    @Test
+    @DisplayName("Should replay journaled events in order and ignore a torn tail")
+    void testRecover() throws IOException {
+        // Given
+        IngestJournal journal = journal(DataSize.ofMegabytes(64));
+        journal.recover(event -> fail("Nothing to replay yet"));
+        BidAskEvent[] events = {
+                new BidAskEvent("BTC-USD", 100.0, 101.0, START),
+                new BidAskEvent("ETH-USD", 200.0, 201.0, START + 10)
+        };
+        journal.append(batch(events));
+        journal.close();
+        try (Stream<Path> files = Files.list(directory)) {
+            Path segment = files.filter(f -> f.toString().endsWith(".wal")).findFirst().orElseThrow();
+            Files.write(segment, new byte[]{0, 0, 0, 40, 1, 2}, StandardOpenOption.APPEND);
+        }
+
+        // When
+        List<BidAskEvent> replayed = new ArrayList<>();
+        long count = journal(DataSize.ofMegabytes(64)).recover(replayed::add);
+
+        // Then
+        assertEquals(2, count);
+        assertEquals(List.of(events), replayed);
+    }
+
+    @Test
+    @DisplayName("Should round-trip symbols up to the length prefix's limit and reject longer ones unwritten")
+    void testLongSymbols() throws IOException {
+        // Given - past 32767 bytes a signed length would read back negative
+        IngestJournal journal = journal(DataSize.ofMegabytes(64));
+        journal.recover(event -> {});
+        BidAskEvent longest = new BidAskEvent("L".repeat(0xFFFF), 100.0, 101.0, START);
+        BidAskEvent tooLong = new BidAskEvent("T".repeat(0x10000), 100.0, 101.0, START);
+        BidAskEvent ordinary = new BidAskEvent("BTC-USD", 100.0, 101.0, START + 10);
+
+        // When
+        journal.append(batch(longest));
+        assertThrows(IllegalArgumentException.class, () -> journal.append(batch(ordinary, tooLong)));
+        journal.close();
+        List<BidAskEvent> replayed = new ArrayList<>();
+        journal(DataSize.ofMegabytes(64)).recover(replayed::add);
+
+        // Then
+        assertEquals(List.of(longest), replayed);
+    }
+
+    @Test
+    @DisplayName("Should delete rolled segments once their ticks can no longer change a candle")
+    void testTruncate() throws IOException {
+        // Given - tiny segments so every append rolls
+        IngestJournal journal = journal(DataSize.ofBytes(1));
+        journal.recover(event -> {});
+        for (int i = 0; i < 5; i++) {
+            journal.append(batch(new BidAskEvent("BTC-USD", 100.0, 101.0, START + i * 1000L)));
+        }
+
+        // When
+        journal.truncate(START + 3000);
+
+        // Then - segments holding the ticks at +3s and +4s remain, plus the active one
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(3, files.filter(f -> f.toString().endsWith(".wal")).count());
+        }
+    }
+
+    @Test
+    @DisplayName("Should rebuild open windows after a crash so candles match an uninterrupted run")
+    void testReplayMatchesUninterruptedRun() throws IOException {
+        // Given
+        Clock clock = Clock.fixed(Instant.ofEpochMilli(START), ZoneOffset.UTC);
+        CandleRepository expectedRepository = new CandleRepository();
+        CandleAggregatorManager uninterrupted = new CandleAggregatorManager(expectedRepository, 1,
+                AggregationProperties.defaults(), clock);
+        IngestJournal journal = journal(DataSize.ofMegabytes(64));
+        journal.recover(event -> {});
+        for (int tick = 0; tick < 950; tick++) {
+            BidAskEvent event = tick(tick);
+            journal.append(batch(event));
+            uninterrupted.processEvent(event);
+        }
+
+        // When - a fresh process recovers from the journal, then both see the same remaining ticks
+        CandleRepository recoveredRepository = new CandleRepository();
+        CandleAggregatorManager recovered = new CandleAggregatorManager(recoveredRepository, 1,
+                AggregationProperties.defaults(), clock);
+        journal(DataSize.ofMegabytes(64)).recover(recovered::processEvent);
+        for (int tick = 950; tick < 1300; tick++) {
+            uninterrupted.processEvent(tick(tick));
+            recovered.processEvent(tick(tick));
+        }
+
+        // Then
+        for (String symbol : List.of("BTC-USD", "ETH-USD")) {
+            for (String interval : List.of("1s", "5s", "1m")) {
+                List<Candle> expected = expectedRepository.findCandles(symbol, interval, null, null, null);
+                assertFalse(expected.isEmpty());
+                assertEquals(expected, recoveredRepository.findCandles(symbol, interval, null, null, null),
+                        symbol + " " + interval);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should replay every shard directory from the stored watermark and rejournal it by the new shard count")
+    void testRecoverShardCountChange() throws IOException {
+        // Given - three shards journaled the ticks, each symbol in one, and the stores hold every window closed by then
+        Clock clock = Clock.fixed(Instant.ofEpochMilli(START), ZoneOffset.UTC);
+        AggregationProperties properties = new AggregationProperties(true, false, Duration.ofSeconds(2),
+                Duration.ofSeconds(2), ZoneOffset.UTC, List.of("1s", "5s", "1m"), Map.of());
+        CandleRepository expectedRepository = new CandleRepository();
+        CandleAggregatorManager uninterrupted = new CandleAggregatorManager(expectedRepository, 1, properties, clock);
+        JournalProperties journalProperties = new JournalProperties(true, directory, 1024,
+                JournalProperties.FsyncPolicy.NONE, Duration.ofMillis(50), DataSize.ofMegabytes(64));
+        IngestJournal[] old = new IngestJournal[3];
+        for (int i = 0; i < old.length; i++) {
+            old[i] = new IngestJournal(directory.resolve("shard-" + i), journalProperties);
+            old[i].recover(event -> {});
+        }
+        for (int tick = 0; tick < 950; tick++) {
+            BidAskEvent event = tick(tick);
+            old[event.symbol().equals("BTC-USD") ? 0 : 2].append(batch(event));
+            uninterrupted.processEvent(event);
+        }
+        for (IngestJournal journal : old) {
+            journal.close();
+        }
+        CandleRepository recoveredRepository = new CandleRepository();
+        for (String symbol : List.of("BTC-USD", "ETH-USD")) {
+            for (String interval : List.of("1s", "5s", "1m")) {
+                for (Candle candle : expectedRepository.findCandles(symbol, interval, null, null, null)) {
+                    recoveredRepository.save(symbol, interval, candle);
+                }
+            }
+        }
+        // A stored candle no replayed tick may touch: its window closed before the watermark
+        Candle first = expectedRepository.findCandles("BTC-USD", "1m", null, null, null).get(0);
+        Candle marked = new Candle(first.time(), first.open(), first.high(), first.low(), first.close(), -1);
+        recoveredRepository.save("BTC-USD", "1m", marked);
+
+        // When
+        CandleAggregatorManager recovered = new CandleAggregatorManager(recoveredRepository, 2, properties, clock);
+        IngestJournal[] journals = IngestJournal.recover(directory, journalProperties, recovered);
+        for (IngestJournal journal : journals) {
+            journal.close();
+        }
+        for (int tick = 950; tick < 1300; tick++) {
+            uninterrupted.processEvent(tick(tick));
+            recovered.processEvent(tick(tick));
+        }
+
+        // Then
+        assertEquals(2, journals.length);
+        assertFalse(Files.exists(directory.resolve("shard-2")));
+        assertFalse(Files.exists(directory.resolve("recovering")));
+        List<BidAskEvent> rejournaled = new ArrayList<>();
+        for (int i = 0; i < journals.length; i++) {
+            int shard = i;
+            new IngestJournal(directory.resolve("shard-" + i), journalProperties).recover(event -> {
+                assertEquals(shard, recovered.shardFor(event.symbol()));
+                rejournaled.add(event);
+            });
+        }
+        long watermark = first.time() + 60_000;
+        assertEquals(950 - (watermark - START) / 100, rejournaled.size());
+        assertTrue(rejournaled.stream().allMatch(event -> event.timestamp() >= watermark));
+        assertEquals(marked, recoveredRepository.findCandles("BTC-USD", "1m", null, null, null).get(0));
+        for (String symbol : List.of("BTC-USD", "ETH-USD")) {
+            for (String interval : List.of("1s", "5s", "1m")) {
+                List<Candle> expected = expectedRepository.findCandles(symbol, interval, null, null, null);
+                List<Candle> actual = recoveredRepository.findCandles(symbol, interval, null, null, null);
+                if (symbol.equals("BTC-USD") && interval.equals("1m")) {
+                    expected = expected.subList(1, expected.size());
+                    actual = actual.subList(1, actual.size());
+                }
+                assertEquals(expected, actual, symbol + " " + interval);
+            }
+        }
+    }
+
+    private static BidAskEvent tick(int tick) {
+        return new BidAskEvent(tick % 2 == 0 ? "BTC-USD" : "ETH-USD",
+                100.0 + tick % 37, 101.0 + tick % 37, START + tick * 100L);
+    }
+
+    private static TickBatch batch(BidAskEvent... events) {
+        TickBatch batch = new TickBatch(events.length, SYMBOLS);
+        for (BidAskEvent event : events) {
+            batch.add(event.symbol(), event.bid(), event.ask(), event.timestamp());
+        }
+        return batch;
+    }
+
+    private IngestJournal journal(DataSize segmentSize) {
+        return new IngestJournal(directory, new JournalProperties(true, directory, 1024,
+                JournalProperties.FsyncPolicy.NONE, Duration.ofMillis(50), segmentSize));
+    }
+}
@@ -0,0 +1,326 @@
+package com.multibnakgroup.candle.aggregation;
+
+import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregatorManager;
+import com.multibnakgroup.candle.aggregation.model.BidAskEvent;
+import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.repository.CandleRepository;
+import com.multibnakgroup.candle.aggregation.service.IngestJournal;
+import com.multibnakgroup.candle.aggregation.service.IngestShard;
+import com.multibnakgroup.candle.aggregation.service.JournalProperties;
+import com.multibnakgroup.candle.aggregation.service.OverloadProperties;
+import com.multibnakgroup.candle.aggregation.service.TickBatch;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IngestShardTest {
+
+    private static final long START = 1_700_000_000_000L;
+
+    @Test
+    @DisplayName("Should count aggregated and refused ticks per shard")
+    void testIngestMetrics() throws InterruptedException {
+        // Given
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CandleAggregatorManager manager = new CandleAggregatorManager(new CandleRepository());
+        IngestShard shard = new IngestShard(0, 4, 16, manager, null, null, OverloadProperties.defaults(),
+                Executors.defaultThreadFactory(), registry);
+
+        // When - the queue passes the high watermark before the consumer starts
+        int accepted = 0;
+        for (int i = 0; i < 6; i++) {
+            if (shard.offer(new BidAskEvent("BTC-USD", 100.0, 101.0, START + i))) {
+                accepted++;
+            }
+        }
+        shard.start();
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (shard.getProcessed() < accepted && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        shard.stop();
+
+        // Then
+        assertEquals(4, accepted);
+        assertEquals(4.0, registry.get("candle.ingest.ticks").tag("shard", "0").functionCounter().count());
+        assertEquals(2.0, registry.get("candle.ingest.rejected").tag("shard", "0").functionCounter().count());
+        assertEquals(0.0, registry.get("candle.ingest.queue.depth").tag("shard", "0").gauge().value());
+        assertTrue(registry.get("candle.ingest.latency").tag("shard", "0").timer().count() >= 1);
+    }
+
+    @Test
+    @DisplayName("Should count a failed batch, report unhealthy and keep draining later ones")
+    void testFailureKeepsDraining() {
+        // Given - a listener that throws when a BAD candle closes
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CandleRepository repository = new CandleRepository();
+        CandleAggregatorManager manager = new CandleAggregatorManager(repository);
+        manager.addListener((symbol, interval, candle) -> {
+            if (symbol.equals("BAD")) {
+                throw new IllegalStateException("listener failed");
+            }
+        });
+        IngestShard shard = new IngestShard(0, 64, 4, manager, null, null, OverloadProperties.defaults(),
+                Executors.defaultThreadFactory(), registry);
+        shard.start();
+
+        // When - the second BAD tick closes its first window, then a later batch arrives
+        shard.offer(new BidAskEvent("BAD", 100.0, 101.0, START));
+        shard.offer(new BidAskEvent("BAD", 100.0, 101.0, START + 5_000));
+        shard.executeAfterQueued(() -> { }).join();
+        shard.offer(new BidAskEvent("BTC-USD", 100.0, 101.0, START));
+        shard.offer(new BidAskEvent("BTC-USD", 102.0, 103.0, START + 5_000));
+        shard.executeAfterQueued(() -> { }).join();
+        shard.stop();
+
+        // Then
+        assertEquals(1, shard.getErrors());
+        assertEquals(1.0, registry.get("candle.ingest.errors").tag("shard", "0").functionCounter().count());
+        assertTrue(shard.getLastError().contains("listener failed"));
+        assertFalse(shard.isHealthy());
+        assertEquals(1, repository.findCandles("BTC-USD", "1s", null, null, null).size());
+    }
+
+    @Test
+    @DisplayName("Should report the shard degraded while its journal fails, and count what it aggregates meanwhile")
+    void testJournalFailure(@TempDir Path directory) {
+        // Given - a journal whose disk fails until told otherwise
+        AtomicBoolean failing = new AtomicBoolean(true);
+        IngestJournal journal = new IngestJournal(directory, new JournalProperties(true, directory, 1024,
+                JournalProperties.FsyncPolicy.NONE, Duration.ofMillis(50), DataSize.ofMegabytes(1))) {
+            @Override
+            public void append(TickBatch ticks) throws IOException {
+                if (failing.get()) {
+                    throw new IOException("disk failed");
+                }
+                super.append(ticks);
+            }
+        };
+        journal.recover(event -> { });
+        CandleRepository repository = new CandleRepository();
+        IngestShard shard = new IngestShard(0, 64, 16, new CandleAggregatorManager(repository), journal, null,
+                OverloadProperties.defaults(), Executors.defaultThreadFactory(), new SimpleMeterRegistry());
+        shard.start();
+
+        // When
+        shard.offer(new BidAskEvent("BTC-USD", 100.0, 101.0, START));
+        shard.executeAfterQueued(() -> { }).join();
+        boolean degraded = shard.isJournalDegraded();
+        boolean healthyWhileDegraded = shard.isHealthy();
+        failing.set(false);
+        shard.offer(new BidAskEvent("BTC-USD", 100.0, 101.0, START + 5_000));
+        shard.executeAfterQueued(() -> { }).join();
+        shard.stop();
+
+        // Then - the first tick still made its candle, and was counted as one a crash would lose
+        assertTrue(degraded);
+        assertFalse(healthyWhileDegraded);
+        assertFalse(shard.isJournalDegraded());
+        assertEquals(1, shard.getUnjournaled());
+        assertEquals(1, repository.findCandles("BTC-USD", "1s", null, null, null).size());
+    }
+
+    @Test
+    @DisplayName("Should run a deferred task only after the ticks queued before it were aggregated")
+    void testExecuteAfterQueued() {
+        // Given - ticks queued before the consumer starts, more than one drained batch holds
+        CandleAggregatorManager manager = new CandleAggregatorManager(new CandleRepository());
+        IngestShard shard = new IngestShard(0, 64, 4, manager, null, null, OverloadProperties.defaults(),
+                Executors.defaultThreadFactory(), new SimpleMeterRegistry());
+        for (int i = 0; i < 40; i++) {
+            shard.offer(new BidAskEvent("BTC-USD", 100.0, 101.0, START + i));
+        }
+
+        // When
+        long[] seen = new long[1];
+        CompletableFuture<Void> done = shard.executeAfterQueued(() -> seen[0] = shard.getProcessed());
+        shard.start();
+        done.join();
+        shard.stop();
+
+        // Then
+        assertEquals(40, seen[0]);
+    }
+
+    @Test
+    @DisplayName("Should shed lower-priority symbols under overload and keep queueing the highest")
+    void testShedByPriority() {
+        // Given - half full is overloaded, and the one lower priority is shed from there on
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CandleAggregatorManager manager = new CandleAggregatorManager(new CandleRepository());
+        IngestShard shard = new IngestShard(0, 8, 16, manager, null, null, overload(OverloadProperties.Policy.SHED,
+                Duration.ofMillis(100), Map.of("HIGH", 1)), Executors.defaultThreadFactory(), registry);
+
+        // When
+        int queued = 0;
+        for (int i = 0; i < 8; i++) {
+            assertTrue(shard.offer(new BidAskEvent("LOW", 100.0, 101.0, START + i)));
+        }
+        for (int i = 0; i < 5; i++) {
+            if (shard.offer(new BidAskEvent("HIGH", 100.0, 101.0, START + i))) {
+                queued++;
+            }
+        }
+
+        // Then - four LOW ticks queued and four shed, HIGH queued until the queue was full
+        assertEquals(4, queued);
+        assertEquals(4, shard.getShed());
+        assertEquals(1, shard.getRejected());
+        assertEquals(2.0, shard.getPressure()); // A full queue
+        assertEquals(4.0, registry.get("candle.ingest.shed").tag("shard", "0").functionCounter().count());
+    }
+
+    @Test
+    @DisplayName("Should refuse negative shed priorities, which would leave no band to shed by")
+    void testNegativePriority() {
+        // Given
+        Map<String, Integer> priorities = Map.of("LOW", -1);
+
+        // When / Then
+        assertThrows(IllegalArgumentException.class,
+                () -> overload(OverloadProperties.Policy.SHED, Duration.ofMillis(100), priorities));
+    }
+
+    @Test
+    @DisplayName("Should hold an overloaded producer up to the timeout and refuse it only once the queue is full")
+    void testBlockWithTimeout() {
+        // Given
+        CandleAggregatorManager manager = new CandleAggregatorManager(new CandleRepository());
+        IngestShard shard = new IngestShard(0, 4, 16, manager, null, null, overload(OverloadProperties.Policy.BLOCK,
+                Duration.ofMillis(50), Map.of()), Executors.defaultThreadFactory(), new SimpleMeterRegistry());
+        shard.offer(new BidAskEvent("BTC-USD", 100.0, 101.0, START));
+        shard.offer(new BidAskEvent("BTC-USD", 100.0, 101.0, START + 1));
+
+        // When - overloaded with nothing draining the queue
+        long started = System.nanoTime();
+        boolean late = shard.offer(new BidAskEvent("BTC-USD", 100.0, 101.0, START + 2));
+        long waited = System.nanoTime() - started;
+        shard.offer(new BidAskEvent("BTC-USD", 100.0, 101.0, START + 3));
+        boolean full = shard.offer(new BidAskEvent("BTC-USD", 100.0, 101.0, START + 4));
+
+        // Then
+        assertTrue(late);
+        assertTrue(waited >= Duration.ofMillis(50).toNanos(), "waited " + waited);
+        assertFalse(full);
+        assertEquals(1, shard.getRejected());
+    }
+
+    @Test
+    @DisplayName("Should hold ticks received together for one timeout in all, and never hold a non-blocking producer")
+    void testBlockPerRequest() {
+        // Given
+        CandleAggregatorManager manager = new CandleAggregatorManager(new CandleRepository());
+        int symbolId = manager.getSymbolTable().intern("BTC-USD");
+        IngestShard shard = new IngestShard(0, 64, 16, manager, null, null, overload(OverloadProperties.Policy.BLOCK,
+                Duration.ofMillis(50), Map.of()), Executors.defaultThreadFactory(), new SimpleMeterRegistry());
+        for (int i = 0; i < 32; i++) {
+            shard.offer(symbolId, 100.0, 101.0, START + i, System.nanoTime());
+        }
+
+        // When - overloaded with nothing draining the queue
+        long started = System.nanoTime();
+        boolean now = shard.offerNow(symbolId, 100.0, 101.0, START + 32, started);
+        long refused = System.nanoTime() - started;
+        long received = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            assertTrue(shard.offer(symbolId, 100.0, 101.0, START + 33 + i, received));
+        }
+        long waited = System.nanoTime() - received;
+
+        // Then
+        assertFalse(now);
+        assertTrue(refused < Duration.ofMillis(50).toNanos(), "refused after " + refused);
+        assertTrue(waited >= Duration.ofMillis(50).toNanos(), "waited " + waited);
+        assertTrue(waited < Duration.ofMillis(500).toNanos(), "waited " + waited);
+    }
+
+    @Test
+    @DisplayName("Should conflate an overloaded shard's ticks into the same open, high, low and close")
+    void testConflateKeepsOhlc() throws InterruptedException {
+        // Given - a queue past its high watermark before the consumer starts, and every tick aggregated on the side
+        CandleRepository repository = new CandleRepository();
+        CandleAggregatorManager manager = new CandleAggregatorManager(repository);
+        CandleRepository reference = new CandleRepository();
+        CandleAggregatorManager expected = new CandleAggregatorManager(reference);
+        IngestShard shard = new IngestShard(0, 1024, 1024, manager, null, null,
+                overload(OverloadProperties.Policy.CONFLATE, Duration.ofMillis(100), Map.of()),
+                Executors.defaultThreadFactory(), new SimpleMeterRegistry());
+        Random random = new Random(5);
+        for (int i = 0; i < 1000; i++) {
+            double bid = 100.0 + random.nextInt(100) / 10.0;
+            // Out of order within a few seconds, with repeated timestamps and prices
+            BidAskEvent event = new BidAskEvent(i % 2 == 0 ? "BTC-USD" : "ETH-USD", bid, bid + 0.5,
+                    START + i * 10L + random.nextInt(3) * 100L);
+            assertTrue(shard.offer(event));
+            expected.processEvent(event);
+        }
+
+        // When
+        shard.start();
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (shard.getProcessed() < 1000 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        shard.stop();
+        manager.closeAllWindows(0);
+        expected.closeAllWindows(0);
+
+        // Then - most ticks skipped, the candles differing only in volume
+        assertTrue(shard.getConflated() > 500, "conflated " + shard.getConflated());
+        for (String symbol : List.of("BTC-USD", "ETH-USD")) {
+            for (String interval : List.of("1s", "5s", "1m")) {
+                List<Candle> want = reference.findCandles(symbol, interval, null, null, null);
+                List<Candle> got = repository.findCandles(symbol, interval, null, null, null);
+                assertEquals(want.size(), got.size(), symbol + " " + interval);
+                for (int i = 0; i < want.size(); i++) {
+                    Candle w = want.get(i);
+                    Candle g = got.get(i);
+                    assertEquals(new Candle(w.time(), w.open(), w.high(), w.low(), w.close(), g.volume()), g);
+                    assertTrue(g.volume() <= w.volume());
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should report series sizes and query latency by result size once bound")
+    void testRepositoryMetrics() {
+        // Given
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CandleRepository repository = new CandleRepository();
+        repository.save("BTC-USD", "1s", new Candle(START, 1, 1, 1, 1, 1));
+
+        // When
+        repository.bindTo(registry);
+        repository.save("BTC-USD", "1m", new Candle(START, 1, 1, 1, 1, 1));
+        repository.save("BTC-USD", "1m", new Candle(START + 60_000, 1, 1, 1, 1, 1));
+        repository.findCandles("BTC-USD", "1m", null, null, 100);
+
+        // Then
+        assertEquals(1.0, registry.get("candle.repository.candles").tags("symbol", "BTC-USD", "interval", "1s")
+                .gauge().value());
+        assertEquals(2.0, registry.get("candle.repository.candles").tags("symbol", "BTC-USD", "interval", "1m")
+                .gauge().value());
+        assertEquals(1, registry.get("candle.repository.find").tag("results", "100").timer().count());
+    }
+
+    // Overloaded at half full, lag not measured
+    private static OverloadProperties overload(OverloadProperties.Policy policy, Duration blockTimeout,
+                                               Map<String, Integer> priorities) {
+        return new OverloadProperties(policy, 0.5, Duration.ZERO, blockTimeout, priorities);
+    }
+}
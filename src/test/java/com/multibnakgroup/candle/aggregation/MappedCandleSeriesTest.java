@@ -0,0 +1,216 @@
+package com.multibnakgroup.candle.aggregation;
+
+import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.model.CandleDetails;
+import com.multibnakgroup.candle.aggregation.model.DetailedCandle;
+import com.multibnakgroup.candle.aggregation.repository.CandleRepository;
+import com.multibnakgroup.candle.aggregation.repository.MappedCandleSeriesFactory;
+import com.multibnakgroup.candle.aggregation.repository.TreeMapCandleSeries;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedCandleSeriesTest {
+
+    private static final String SYMBOL = "BTC-USD";
+    private static final String INTERVAL = "1m";
+    private static final long MINUTE = 60_000L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Should map persisted candles back after a restart")
+    void testWarmRestart() {
+        // Given - three days of 1m candles spread over several segments
+        CandleRepository repository = repository(Duration.ZERO);
+        int count = 3 * 1440;
+        for (int i = 0; i < count; i++) {
+            repository.save(SYMBOL, INTERVAL, candle(i * MINUTE));
+        }
+
+        // When
+        CandleRepository restarted = repository(Duration.ZERO);
+        List<Candle> all = restarted.findCandles(SYMBOL, INTERVAL, null, null, null);
+
+        // Then
+        assertEquals(count, all.size());
+        assertEquals(candle(0), all.get(0));
+        assertEquals(candle((count - 1) * MINUTE), all.get(count - 1));
+        assertEquals(List.of(SYMBOL), restarted.getAllSymbols());
+    }
+
+    @Test
+    @DisplayName("Should answer ranges and limits across segment boundaries")
+    void testRangeAcrossSegments() {
+        // Given
+        CandleRepository repository = repository(Duration.ZERO);
+        for (int i = 0; i < 3 * 1440; i++) {
+            repository.save(SYMBOL, INTERVAL, candle(i * MINUTE));
+        }
+
+        // When
+        List<Candle> range = repository.findCandles(SYMBOL, INTERVAL, 1439 * MINUTE, 1441 * MINUTE, null);
+        List<Candle> limited = repository.findCandles(SYMBOL, INTERVAL, null, 2000 * MINUTE, 2);
+
+        // Then
+        assertEquals(List.of(candle(1439 * MINUTE), candle(1440 * MINUTE), candle(1441 * MINUTE)), range);
+        assertEquals(List.of(candle(1999 * MINUTE), candle(2000 * MINUTE)), limited);
+    }
+
+    @Test
+    @DisplayName("Should scan the same candles as the heap engine for limits spanning segments")
+    void testScanMatchesHeapEngine() {
+        // Given - a gap leaves one segment empty between the others
+        CandleRepository repository = repository(Duration.ZERO);
+        TreeMapCandleSeries expected = new TreeMapCandleSeries();
+        for (int i = 0; i < 4 * 1440; i++) {
+            if (i / 1440 != 2) {
+                repository.save(SYMBOL, INTERVAL, candle(i * MINUTE));
+                expected.save(candle(i * MINUTE));
+            }
+        }
+
+        // When
+        List<Candle> scanned = new ArrayList<>();
+        int count = repository.scanCandles(SYMBOL, INTERVAL, 100 * MINUTE, 3500 * MINUTE, 2000,
+                (time, open, high, low, close, volume) -> scanned.add(new Candle(time, open, high, low, close, volume)));
+
+        // Then
+        assertEquals(2000, count);
+        assertEquals(expected.find(100 * MINUTE, 3500 * MINUTE, 2000), scanned);
+        assertEquals(expected.find(null, null, 5000), repository.findCandles(SYMBOL, INTERVAL, null, null, 5000));
+        assertEquals(0, repository.scanCandles(SYMBOL, "5m", null, null, null, (t, o, h, l, c, v) -> fail()));
+    }
+
+    @Test
+    @DisplayName("Should drop segments older than the retention period")
+    void testRetention() throws IOException {
+        // Given
+        CandleRepository repository = repository(Duration.ofDays(1));
+
+        // When - 1m segments span 1440 candles, so this writes four segments
+        for (int i = 0; i < 4 * 1440; i++) {
+            repository.save(SYMBOL, INTERVAL, candle(i * MINUTE));
+        }
+
+        // Then
+        List<Candle> all = repository.findCandles(SYMBOL, INTERVAL, null, null, null);
+        assertEquals(2 * 1440, all.size());
+        assertEquals(2 * 1440 * MINUTE, all.get(0).time());
+        try (Stream<Path> files = Files.list(directory.resolve(SYMBOL).resolve(INTERVAL))) {
+            assertEquals(2, files.filter(file -> file.toString().endsWith(".seg")).count());
+        }
+    }
+
+    @Test
+    @DisplayName("Should keep the segment span series were written with when the configured one changes")
+    void testSpanChange() throws IOException {
+        // Given - two days in daily segments
+        CandleRepository repository = repository(Duration.ZERO);
+        for (int i = 0; i < 2 * 1440; i++) {
+            repository.save(SYMBOL, INTERVAL, candle(i * MINUTE));
+        }
+
+        // When - reopened with spans a day and a half long, and written on into a third day
+        CandleRepository reopened = new CandleRepository(new MappedCandleSeriesFactory(directory,
+                Duration.ofHours(36), Duration.ZERO));
+        for (int i = 2 * 1440; i < 3 * 1440; i++) {
+            reopened.save(SYMBOL, INTERVAL, candle(i * MINUTE));
+        }
+        reopened.save(SYMBOL, INTERVAL, new Candle(1500 * MINUTE, 100.0, 105.0, 95.0, 110.0, 1501));
+
+        // Then - still day-aligned segments, in order
+        List<Candle> all = reopened.findCandles(SYMBOL, INTERVAL, null, null, null);
+        assertEquals(3 * 1440, all.size());
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals(i * MINUTE, all.get(i).time());
+        }
+        assertEquals(110.0, all.get(1500).close());
+        assertEquals(List.of(candle(2159 * MINUTE), candle(2160 * MINUTE)),
+                reopened.findCandles(SYMBOL, INTERVAL, 2159 * MINUTE, 2160 * MINUTE, null));
+        try (Stream<Path> files = Files.list(directory.resolve(SYMBOL).resolve(INTERVAL))) {
+            assertEquals(3, files.filter(file -> file.toString().endsWith(".seg")).count());
+        }
+    }
+
+    @Test
+    @DisplayName("Should delete a removed symbol's files, gauges and newest candles")
+    void testRemove() {
+        // Given
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CandleRepository repository = repository(Duration.ZERO);
+        repository.bindTo(registry);
+        for (int i = 0; i < 2 * 1440; i++) {
+            repository.save(SYMBOL, INTERVAL, candle(i * MINUTE));
+            repository.save("ETH-USD", INTERVAL, candle(i * MINUTE));
+        }
+
+        // When
+        repository.remove(SYMBOL);
+
+        // Then - nothing of it is left to serve, measure or map back after a restart
+        assertEquals(List.of("ETH-USD"), repository.getAllSymbols());
+        assertEquals(List.of("ETH-USD"), List.copyOf(repository.getLatestCandles(INTERVAL).keySet()));
+        assertNull(registry.find("candle.repository.candles").tag("symbol", SYMBOL).gauge());
+        assertNotNull(registry.find("candle.repository.candles").tag("symbol", "ETH-USD").gauge());
+        assertFalse(Files.exists(directory.resolve(SYMBOL).resolve(INTERVAL)));
+        CandleRepository restarted = repository(Duration.ZERO);
+        assertEquals(List.of("ETH-USD"), restarted.getAllSymbols());
+        assertTrue(restarted.findCandles(SYMBOL, INTERVAL, null, null, null).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Should persist details beside their candles and drop them with expired segments")
+    void testDetails() throws IOException {
+        // Given - two days of candles every other minute, with details from the tenth on
+        CandleRepository repository = repository(Duration.ZERO);
+        for (int i = 0; i < 1440; i++) {
+            repository.save(SYMBOL, INTERVAL, candle(i * 2 * MINUTE), i < 10 ? null : details(i * 2 * MINUTE));
+        }
+        // A late candle shifts the rest of its segment, details and all
+        repository.save(SYMBOL, INTERVAL, candle(101 * MINUTE), details(101 * MINUTE));
+        List<DetailedCandle> written = repository.findDetailedCandles(SYMBOL, INTERVAL, null, null, null);
+
+        // When
+        CandleRepository restarted = repository(Duration.ZERO);
+        List<DetailedCandle> reopened = restarted.findDetailedCandles(SYMBOL, INTERVAL, null, null, null);
+        restarted.truncateBefore(SYMBOL, INTERVAL, 1440 * MINUTE);
+
+        // Then
+        assertEquals(1440 - 10 + 1, written.size());
+        assertEquals(DetailedCandle.of(candle(101 * MINUTE), details(101 * MINUTE)), written.get(41));
+        assertEquals(written, reopened);
+        assertEquals(written.subList(written.size() - 720, written.size()),
+                restarted.findDetailedCandles(SYMBOL, INTERVAL, null, null, null));
+        try (Stream<Path> files = Files.list(directory.resolve(SYMBOL).resolve(INTERVAL))) {
+            assertEquals(List.of("00000000000086400000.det", "00000000000086400000.seg"),
+                    files.map(file -> file.getFileName().toString())
+                            .filter(name -> !name.equals("segment-span")).sorted().toList());
+        }
+    }
+
+    private CandleRepository repository(Duration retention) {
+        return new CandleRepository(new MappedCandleSeriesFactory(directory, Duration.ofDays(1), retention));
+    }
+
+    private static CandleDetails details(long time) {
+        return new CandleDetails(time, 99.0, 104.0, 94.0, 101.0, 101.0, 106.0, 96.0, 103.0,
+                102.0 * (time / MINUTE + 1), 2.0 * (time / MINUTE + 1), 3.0, time / MINUTE % 3, 1);
+    }
+
+    private static Candle candle(long time) {
+        return new Candle(time, 100.0, 105.0, 95.0, 102.0, time / MINUTE + 1);
+    }
+}
@@ -0,0 +1,97 @@
+package com.multibnakgroup.candle.aggregation;
+
+import com.multibnakgroup.candle.aggregation.service.MarketFeed;
+import com.multibnakgroup.candle.aggregation.service.SimulationProperties;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MarketFeedTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    @DisplayName("Should replay the same ticks at the same offsets for the same seed")
+    void testDeterministic() {
+        // Given
+        SimulationProperties properties = properties(7, 50, 1000, SimulationProperties.Profile.SPIKES, 0.8);
+
+        // When
+        List<String> first = ticks(new MarketFeed(properties), 5_000);
+        List<String> again = ticks(new MarketFeed(properties), 5_000);
+        List<String> other = ticks(new MarketFeed(properties(8, 50, 1000, SimulationProperties.Profile.SPIKES,
+                0.8)), 5_000);
+
+        // Then
+        assertEquals(first, again);
+        assertNotEquals(first, other);
+    }
+
+    @Test
+    @DisplayName("Should hold the target rate, ten times it during each burst")
+    void testRateProfiles() {
+        // Given
+        MarketFeed steady = new MarketFeed(properties(1, 10, 1000, SimulationProperties.Profile.STEADY, 0));
+        MarketFeed bursty = new MarketFeed(properties(1, 10, 100, SimulationProperties.Profile.BURSTY, 0));
+
+        // When - a minute of steady feed, and per second of each 10s period over 100s of the bursty one
+        int steadyTicks = 0;
+        while (steady.nextOffsetNanos() < 60 * SECOND) {
+            steady.advance();
+            steadyTicks++;
+        }
+        int[] perSecond = new int[10];
+        while (bursty.nextOffsetNanos() < 100 * SECOND) {
+            bursty.advance();
+            perSecond[(int) (bursty.offsetNanos() / SECOND % 10)]++;
+        }
+
+        // Then - within a few standard deviations of the Poisson counts
+        assertEquals(60_000, steadyTicks, 800);
+        assertEquals(10_000, perSecond[0], 400);
+        for (int second = 1; second < 10; second++) {
+            assertEquals(1_000, perSecond[second], 130, "second " + second);
+        }
+    }
+
+    @Test
+    @DisplayName("Should make the first symbols busiest by the skew and keep prices positive and ordered")
+    void testSkewAndPrices() {
+        // Given - Zipf with exponent 1 over 100 symbols gives the first one 1 / H(100) of the ticks
+        MarketFeed feed = new MarketFeed(properties(3, 100, 1000, SimulationProperties.Profile.STEADY, 1.0));
+
+        // When
+        int[] counts = new int[100];
+        for (int i = 0; i < 100_000; i++) {
+            feed.advance();
+            counts[feed.symbol()]++;
+            assertTrue(feed.bid() > 0 && feed.bid() < feed.ask());
+        }
+
+        // Then
+        assertEquals(List.of("BTC-USD", "ETH-USD", "SOL-USD", "AAPL", "SYM00004"), feed.getSymbols().subList(0, 5));
+        assertEquals(100_000 / 5.187, counts[0], 600);
+        assertEquals(counts[0] / 10.0, counts[9], 250);
+        assertTrue(counts[99] > 0);
+    }
+
+    private static List<String> ticks(MarketFeed feed, int count) {
+        List<String> ticks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            feed.advance();
+            ticks.add(feed.offsetNanos() + " " + feed.symbol() + " " + feed.bid() + " " + feed.ask());
+        }
+        return ticks;
+    }
+
+    private static SimulationProperties properties(long seed, int symbols, double rate,
+                                                   SimulationProperties.Profile profile, double skew) {
+        return new SimulationProperties(true, seed, symbols, rate, profile, 10, Duration.ofSeconds(10),
+                Duration.ofSeconds(1), skew, 0.0002);
+    }
+}
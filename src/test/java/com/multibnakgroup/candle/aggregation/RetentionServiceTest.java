@@ -0,0 +1,90 @@
+package com.multibnakgroup.candle.aggregation;
+
+import com.multibnakgroup.candle.aggregation.aggregator.AggregationProperties;
+import com.multibnakgroup.candle.aggregation.aggregator.CandleAggregatorManager;
+import com.multibnakgroup.candle.aggregation.indicator.IndicatorProperties;
+import com.multibnakgroup.candle.aggregation.indicator.IndicatorService;
+import com.multibnakgroup.candle.aggregation.model.Candle;
+import com.multibnakgroup.candle.aggregation.repository.CandleRepository;
+import com.multibnakgroup.candle.aggregation.service.HistoryCache;
+import com.multibnakgroup.candle.aggregation.service.HistoryCacheProperties;
+import com.multibnakgroup.candle.aggregation.service.RetentionProperties;
+import com.multibnakgroup.candle.aggregation.service.RetentionService;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RetentionServiceTest {
+
+    private static final long NOW = 1_699_999_980_000L; // Minute aligned
+    private static final long SECOND = 1000L;
+
+    @Test
+    @DisplayName("Should drop expired candles per interval policy and keep unlisted intervals")
+    void testPerIntervalPolicies() {
+        // Given - 24 hours of 1s and 1m candles for symbols spread over two shards, stored but never aggregated here
+        CandleRepository repository = new CandleRepository();
+        CandleAggregatorManager manager = new CandleAggregatorManager(repository, 2,
+                AggregationProperties.defaults(), Clock.systemUTC());
+        HistoryCache cache = new HistoryCache(HistoryCacheProperties.defaults());
+        IndicatorService indicators = new IndicatorService(repository, IndicatorProperties.defaults(),
+                Duration.ofSeconds(2));
+        RetentionService retention = new RetentionService(repository, manager, cache, indicators,
+                new RetentionProperties(Map.of("1s", Duration.ofHours(6)), Duration.ofMinutes(1)));
+        String[] symbols = {"BTC-USD", "ETH-USD", "SOL-USD", "AAPL"};
+        long start = NOW - Duration.ofHours(24).toMillis();
+        for (String symbol : symbols) {
+            for (long t = start; t < NOW; t += SECOND) {
+                repository.save(symbol, "1s", candle(t));
+                if (t % 60_000 == 0) {
+                    repository.save(symbol, "1m", candle(t));
+                }
+            }
+        }
+        indicators.onCandle("BTC-USD", "1s", candle(NOW - SECOND));
+        HistoryCache.Key key = new HistoryCache.Key("BTC-USD", "1s", null, null, 10, "json");
+        cache.get(key, out -> { });
+
+        // When
+        long reclaimed = 0;
+        for (int shard = 0; shard < manager.getShardCount(); shard++) {
+            reclaimed += retention.compact(shard, NOW);
+        }
+
+        // Then - everything older than 6h is gone, up to the segment holding the cutoff
+        long cutoff = NOW - Duration.ofHours(6).toMillis();
+        for (String symbol : symbols) {
+            Candle oldest = repository.findCandles(symbol, "1s", null, null, null).get(0);
+            assertTrue(oldest.time() <= cutoff && oldest.time() > cutoff - 4096 * SECOND, symbol);
+            assertEquals(start, repository.findCandles(symbol, "1m", null, null, null).get(0).time());
+        }
+        assertTrue(reclaimed > 0);
+        assertEquals(reclaimed, retention.getReclaimedBytes());
+        assertEquals(0, retention.compact(0, NOW + SECOND), "Ran again within the check interval");
+        assertEquals(1, cache.getMisses());
+        cache.get(key, out -> { });
+        assertEquals(2, cache.getMisses(), "Truncation invalidates cached responses");
+        assertTrue(indicators.getIndicators("BTC-USD", "1s", 10).isEmpty(), "And indicators");
+    }
+
+    @Test
+    @DisplayName("Should reject policies for intervals the aggregator does not produce")
+    void testUnsupportedInterval() {
+        CandleRepository repository = new CandleRepository();
+        CandleAggregatorManager manager = new CandleAggregatorManager(repository);
+
+        assertThrows(IllegalArgumentException.class, () -> new RetentionService(repository, manager,
+                new HistoryCache(HistoryCacheProperties.defaults()),
+                new IndicatorService(repository, IndicatorProperties.defaults(), Duration.ofSeconds(2)),
+                new RetentionProperties(Map.of("2s", Duration.ofHours(1)), Duration.ofMinutes(1))));
+    }
+
+    private static Candle candle(long time) {
+        return new Candle(time, 100.0, 105.0, 95.0, 102.0, 10L);
+    }
+}
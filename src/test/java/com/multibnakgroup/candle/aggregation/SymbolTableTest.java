@@ -0,0 +1,75 @@
+package com.multibnakgroup.candle.aggregation;
+
+import com.multibnakgroup.candle.aggregation.model.SymbolMap;
+import com.multibnakgroup.candle.aggregation.model.SymbolTable;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SymbolTableTest {
+
+    @Test
+    @DisplayName("Should hand out one dense ID per symbol to concurrent interners")
+    void testConcurrentIntern() throws InterruptedException {
+        // Given
+        SymbolTable table = new SymbolTable();
+        int symbolCount = 5_000;
+        int[][] seen = new int[4][symbolCount];
+        Thread[] threads = new Thread[seen.length];
+
+        // When - every thread interns every symbol, in a different order
+        for (int t = 0; t < threads.length; t++) {
+            int[] ids = seen[t];
+            int offset = t * 1_237;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < symbolCount; i++) {
+                    int symbol = (i + offset) % symbolCount;
+                    ids[symbol] = table.intern("SYM-" + symbol);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Then
+        assertEquals(symbolCount, table.size());
+        BitSet used = new BitSet();
+        for (int symbol = 0; symbol < symbolCount; symbol++) {
+            int id = seen[0][symbol];
+            for (int[] ids : seen) {
+                assertEquals(id, ids[symbol]);
+            }
+            assertEquals("SYM-" + symbol, table.name(id));
+            assertEquals(id, table.find("SYM-" + symbol));
+            used.set(id);
+        }
+        assertEquals(symbolCount, used.cardinality());
+        assertEquals(-1, table.find("unknown"));
+    }
+
+    @Test
+    @DisplayName("Should keep values across page growth")
+    void testSymbolMapGrowth() {
+        // Given
+        SymbolMap<String> map = new SymbolMap<>();
+
+        // When
+        for (int id = 0; id < 5_000; id += 7) {
+            map.put(id, "v" + id);
+        }
+
+        // Then
+        for (int id = 0; id < 5_000; id++) {
+            assertEquals(id % 7 == 0 ? "v" + id : null, map.get(id));
+        }
+        assertNull(map.get(1 << 20));
+        assertTrue(map.capacity() >= 5_000);
+    }
+}
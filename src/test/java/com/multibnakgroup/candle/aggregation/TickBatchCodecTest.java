@@ -0,0 +1,71 @@
+package com.multibnakgroup.candle.aggregation;
+
+import com.multibnakgroup.candle.aggregation.model.BidAskEvent;
+import com.multibnakgroup.candle.aggregation.service.IngestAck;
+import com.multibnakgroup.candle.aggregation.service.TickBatchCodec;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TickBatchCodecTest {
+
+    private static final List<BidAskEvent> EVENTS = List.of(
+            new BidAskEvent("BTC-USD", 95000.0, 95001.0, 1_700_000_000_000L),
+            new BidAskEvent("ETH-USD", 3500.0, 3500.5, 1_700_000_000_001L),
+            new BidAskEvent("BTC-USD", 95002.0, 95003.0, 1_700_000_000_002L)
+    );
+
+    @Test
+    @DisplayName("Should decode what was encoded, in order")
+    void testRoundTrip() {
+        // Given
+        ByteBuffer batch = TickBatchCodec.encode(EVENTS);
+        List<BidAskEvent> decoded = new ArrayList<>();
+
+        // When
+        IngestAck ack = TickBatchCodec.decode(batch, (symbol, bid, ask, timestamp) ->
+                decoded.add(new BidAskEvent(symbol, bid, ask, timestamp)));
+
+        // Then
+        assertEquals(EVENTS, decoded);
+        assertTrue(ack.complete());
+        assertEquals(4 + 2 + 2 * (2 + 7) + 4 + 3 * TickBatchCodec.TICK_BYTES, batch.remaining());
+    }
+
+    @Test
+    @DisplayName("Should stop at the first refused tick and report the accepted prefix")
+    void testBackpressure() {
+        // Given
+        ByteBuffer batch = TickBatchCodec.encode(EVENTS);
+        int[] offered = new int[1];
+
+        // When
+        IngestAck ack = TickBatchCodec.decode(batch, (symbol, bid, ask, timestamp) -> ++offered[0] < 2);
+
+        // Then
+        assertEquals(new IngestAck(3, 1), ack);
+        assertEquals(2, ack.rejected());
+        assertEquals(2, offered[0]);
+    }
+
+    @Test
+    @DisplayName("Should reject a malformed batch before delivering any tick")
+    void testMalformed() {
+        // Given
+        ByteBuffer truncated = TickBatchCodec.encode(EVENTS);
+        truncated.limit(truncated.limit() - 1);
+        ByteBuffer badIndex = TickBatchCodec.encode(EVENTS);
+        badIndex.putShort(badIndex.limit() - TickBatchCodec.TICK_BYTES, (short) 7);
+        TickBatchCodec.TickSink sink = (symbol, bid, ask, timestamp) -> fail("Delivered a tick");
+
+        // When / Then
+        assertThrows(IllegalArgumentException.class, () -> TickBatchCodec.decode(truncated, sink));
+        assertThrows(IllegalArgumentException.class, () -> TickBatchCodec.decode(badIndex, sink));
+        assertThrows(IllegalArgumentException.class, () -> TickBatchCodec.decode(ByteBuffer.allocate(16), sink));
+    }
+}
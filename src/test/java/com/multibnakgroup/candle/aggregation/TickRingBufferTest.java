@@ -0,0 +1,85 @@
+package com.multibnakgroup.candle.aggregation;
+
+import com.multibnakgroup.candle.aggregation.model.SymbolTable;
+import com.multibnakgroup.candle.aggregation.service.TickBatch;
+import com.multibnakgroup.candle.aggregation.service.TickRingBuffer;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TickRingBufferTest {
+
+    @Test
+    @DisplayName("Should reject offers when full and drain no more than the batch holds")
+    void testFullAndDrain() {
+        // Given
+        TickRingBuffer buffer = new TickRingBuffer(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(0, i, i + 1, i, i));
+        }
+        TickBatch batch = new TickBatch(3, new SymbolTable());
+
+        // When
+        boolean overflow = buffer.offer(0, 4, 5, 4, 4);
+        int drained = buffer.drainTo(batch);
+
+        // Then
+        assertFalse(overflow);
+        assertEquals(3, drained);
+        assertEquals(1, buffer.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, batch.timestamp(i));
+            assertEquals(i + 1, batch.ask(i));
+            assertEquals(i, batch.receivedNanos(i));
+        }
+        assertTrue(buffer.offer(0, 4, 5, 4, 4));
+    }
+
+    @Test
+    @DisplayName("Should deliver every tick from concurrent producers exactly once and in order per producer")
+    void testConcurrentProducers() throws InterruptedException {
+        // Given
+        int producerCount = 8;
+        int ticksPerProducer = 20_000;
+        TickRingBuffer buffer = new TickRingBuffer(1024);
+        Thread[] producers = new Thread[producerCount];
+
+        // When
+        for (int p = 0; p < producerCount; p++) {
+            int symbolId = p;
+            producers[p] = new Thread(() -> {
+                for (int i = 0; i < ticksPerProducer; i++) {
+                    while (!buffer.offer(symbolId, i, i, i, i)) {
+                        Thread.onSpinWait();
+                    }
+                }
+            });
+            producers[p].start();
+        }
+
+        long[] next = new long[producerCount];
+        TickBatch batch = new TickBatch(256, new SymbolTable());
+        int received = 0;
+        while (received < producerCount * ticksPerProducer) {
+            batch.clear();
+            buffer.drainTo(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                int producer = batch.symbolId(i);
+                assertEquals(next[producer]++, batch.timestamp(i));
+                assertEquals(batch.timestamp(i), batch.bid(i));
+            }
+            received += batch.size();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        // Then
+        batch.clear();
+        assertEquals(0, buffer.drainTo(batch));
+        for (long count : next) {
+            assertEquals(ticksPerProducer, count);
+        }
+    }
+}
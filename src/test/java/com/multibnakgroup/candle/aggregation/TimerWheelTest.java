@@ -0,0 +1,96 @@
+package com.multibnakgroup.candle.aggregation;
+
+import com.multibnakgroup.candle.aggregation.aggregator.TimerWheel;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimerWheelTest {
+
+    private static final class Task extends TimerWheel.Timer {
+        private final String name;
+
+        private Task(String name) {
+            this.name = name;
+        }
+    }
+
+    @Test
+    @DisplayName("Should expire timers on the first tick at or after their deadline")
+    void testExpireDueOnly() {
+        // Given
+        TimerWheel<Task> wheel = new TimerWheel<>(8, 1000L, 0L);
+        Task soon = new Task("soon");
+        Task later = new Task("later");
+        wheel.schedule(soon, 1_500L);
+        wheel.schedule(later, 3_000L);
+        List<String> expired = new ArrayList<>();
+
+        // When
+        int beforeTick = wheel.expire(1_999L, task -> expired.add(task.name));
+        int first = wheel.expire(2_000L, task -> expired.add(task.name));
+        int second = wheel.expire(3_000L, task -> expired.add(task.name));
+
+        // Then
+        assertEquals(0, beforeTick);
+        assertEquals(1, first);
+        assertEquals(1, second);
+        assertEquals(List.of("soon", "later"), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    @DisplayName("Should hold deadlines beyond one revolution for the extra rounds")
+    void testRounds() {
+        // Given
+        TimerWheel<Task> wheel = new TimerWheel<>(4, 1000L, 0L);
+        Task far = new Task("far");
+        wheel.schedule(far, 10_000L);
+
+        // When / Then
+        assertEquals(0, wheel.expire(9_000L, task -> fail("Expired early")));
+        assertEquals(1, wheel.expire(10_000L, task -> {}));
+        assertFalse(far.isScheduled());
+    }
+
+    @Test
+    @DisplayName("Should move rescheduled timers and drop cancelled ones")
+    void testRescheduleAndCancel() {
+        // Given
+        TimerWheel<Task> wheel = new TimerWheel<>(8, 1000L, 0L);
+        Task moved = new Task("moved");
+        Task cancelled = new Task("cancelled");
+        wheel.schedule(moved, 1_000L);
+        wheel.schedule(cancelled, 1_000L);
+
+        // When
+        wheel.schedule(moved, 5_000L);
+        wheel.cancel(cancelled);
+        List<String> expired = new ArrayList<>();
+        wheel.expire(4_000L, task -> expired.add(task.name));
+        int remaining = wheel.size();
+        wheel.expire(5_000L, task -> expired.add(task.name));
+
+        // Then
+        assertEquals(1, remaining);
+        assertEquals(List.of("moved"), expired);
+    }
+
+    @Test
+    @DisplayName("Should expire past deadlines on the next pass")
+    void testPastDeadline() {
+        // Given
+        TimerWheel<Task> wheel = new TimerWheel<>(8, 1000L, 10_000L);
+        Task overdue = new Task("overdue");
+
+        // When
+        wheel.schedule(overdue, 2_000L);
+
+        // Then
+        assertEquals(1, wheel.expire(10_000L, task -> {}));
+    }
+}